@@ -0,0 +1,70 @@
+package benchmarks;
+
+import changeFeedPipeline.EventDeduplicator;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of checking an event ID against the deduplicator, for a stream of IDs in which a given fraction repeats a
+ * recent one, as after a restart from an older cursor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DedupBenchmark {
+    private static final int IDS = 1 << 20;
+
+    @Param({"0", "0.1"})
+    public double duplicateRate;
+
+    private String[] ids;
+    private int next;
+    private EventDeduplicator deduplicator;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        this.ids = new String[IDS];
+        for (int i = 0; i < IDS; i++) {
+            this.ids[i] = i > 0 && random.nextDouble() < this.duplicateRate
+                    ? this.ids[Math.max(0, i - 1 - random.nextInt(1000))]
+                    : new UUID(random.nextLong(), random.nextLong()).toString();
+        }
+        reset();
+    }
+
+    /**
+     * Starts over with an empty deduplicator, so every pass over the IDs sees the same mix of new and repeated ones
+     */
+    private void reset() throws IOException {
+        this.deduplicator = new EventDeduplicator(TimeUnit.HOURS.toMillis(1), 24, IDS, 0.0001, 100_000, null,
+                Long.MAX_VALUE);
+        this.next = 0;
+    }
+
+    @Benchmark
+    public boolean isDuplicate() throws IOException {
+        if (this.next == IDS) {
+            reset();
+        }
+        return this.deduplicator.isDuplicate(this.ids[this.next++]);
+    }
+}
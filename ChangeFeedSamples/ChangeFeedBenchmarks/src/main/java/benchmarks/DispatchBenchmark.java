@@ -0,0 +1,84 @@
+package benchmarks;
+
+import changeFeedPipeline.ChangeFeedDispatcher;
+import changeFeedPipeline.EventFilters;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Events per second the dispatcher routes to its subscribers. Subscriber queues are bounded, so once they fill up the
+ * throughput is that of the slowest subscriber thread
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final int PAGE_SIZE = 1000;
+
+    @Param({"1", "4"})
+    public int subscribers;
+
+    @Param({"1000", "100000"})
+    public int queueCapacity;
+
+    private List<BlobChangefeedEvent> page;
+    private ChangeFeedDispatcher dispatcher;
+    private final LongAdder handled = new LongAdder();
+
+    @Setup
+    public void setUp() {
+        this.page = Arrays.asList(SyntheticEvents.generate(PAGE_SIZE, 0.1, 42));
+        // Pages are handed in directly, so no change feed client is needed
+        this.dispatcher = new ChangeFeedDispatcher(null, null);
+        for (int i = 0; i < this.subscribers; i++) {
+            // Alternating between a narrow and a catch-all filter, like the trackedBlobs and blobIndex subscribers
+            this.dispatcher.subscribe("subscriber" + i,
+                    i % 2 == 0
+                            ? EventFilters.subjectContains(SyntheticEvents.TRACKED_BLOB)
+                                    .and(EventFilters.subjectContains(SyntheticEvents.TRACKED_CONTAINER))
+                            : event -> true,
+                    event -> this.handled.increment(), this.queueCapacity);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void dispatchPage() throws InterruptedException {
+        this.dispatcher.dispatchPage(this.page, "cursor");
+    }
+
+    /**
+     * Letting the subscribers catch up, so no backlog carries over into the next iteration
+     */
+    @TearDown(Level.Iteration)
+    public void drain() throws InterruptedException {
+        this.dispatcher.awaitCheckpoint();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.dispatcher.close();
+    }
+}
@@ -0,0 +1,99 @@
+package benchmarks;
+
+import changeFeedPipeline.EventFilters;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-event cost of the consumers' filter chains, at different fractions of matching events
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+    private static final int EVENTS = 10_000;
+
+    @Param({"0.001", "0.1", "0.5"})
+    public double selectivity;
+
+    private BlobChangefeedEvent[] events;
+    private Predicate<BlobChangefeedEvent> checkContainerName;
+    private Predicate<BlobChangefeedEvent> checkBlobName;
+    private Predicate<BlobChangefeedEvent> checkEventType;
+    private Predicate<BlobChangefeedEvent> composed;
+
+    @Setup
+    public void setUp() {
+        this.events = SyntheticEvents.generate(EVENTS, this.selectivity, 42);
+        this.checkContainerName = EventFilters.subjectContains(SyntheticEvents.TRACKED_CONTAINER);
+        this.checkBlobName = EventFilters.subjectContains(SyntheticEvents.TRACKED_BLOB);
+        this.checkEventType = EventFilters.eventType("BlobCreated");
+        this.composed = this.checkBlobName.and(this.checkContainerName);
+    }
+
+    /**
+     * The chain as ChangeFeedHelper.matches runs it, composing the predicates again for every event
+     */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void composedPerEvent(Blackhole blackhole) {
+        int matches = 0;
+        for (BlobChangefeedEvent event : this.events) {
+            if (this.checkBlobName.and(this.checkContainerName).test(event)) {
+                matches++;
+            }
+        }
+        blackhole.consume(matches);
+    }
+
+    /**
+     * The same chain composed once up front
+     */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void composedOnce(Blackhole blackhole) {
+        int matches = 0;
+        for (BlobChangefeedEvent event : this.events) {
+            if (this.composed.test(event)) {
+                matches++;
+            }
+        }
+        blackhole.consume(matches);
+    }
+
+    /**
+     * The chain with an event type check in front, which rejects deletes and property updates without scanning the
+     * subject
+     */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void eventTypeFirst(Blackhole blackhole) {
+        Predicate<BlobChangefeedEvent> filter = this.checkEventType.and(this.composed);
+        int matches = 0;
+        for (BlobChangefeedEvent event : this.events) {
+            if (filter.test(event)) {
+                matches++;
+            }
+        }
+        blackhole.consume(matches);
+    }
+}
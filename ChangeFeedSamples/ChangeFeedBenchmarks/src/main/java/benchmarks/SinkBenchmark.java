@@ -0,0 +1,107 @@
+package benchmarks;
+
+import changeFeedPipeline.SegmentEventLog;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * Per-event cost of the outputs: formatting the log line ChangeFeedHelper writes for every matching event, and
+ * appending to the binary segment log. Like ChangeFeedHelper does for every page, the segment log is flushed every
+ * PAGE_SIZE events, and the appends wait for the oldest flush once MAX_PENDING_PAGES are not acknowledged yet, so the
+ * cost of forcing to disk is part of the measured time. Iterations are kept short and the segment files are deleted
+ * after each one, so the benchmark does not fill the disk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SinkBenchmark {
+    private static final int EVENTS = 1 << 14;
+    private static final int PAGE_SIZE = 1000;
+    // ChangeFeedHelper's default for maxPendingPages
+    private static final int MAX_PENDING_PAGES = 4;
+
+    private BlobChangefeedEvent[] events;
+    private int next;
+    private Path directory;
+    private SegmentEventLog segmentLog;
+    private final Deque<CompletableFuture<Void>> pendingFlushes = new ArrayDeque<>();
+    private int unflushed;
+
+    @Setup
+    public void setUp() {
+        this.events = SyntheticEvents.generate(EVENTS, 1.0, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void openSegmentLog() throws IOException {
+        this.directory = Files.createTempDirectory("segment-benchmark");
+        this.segmentLog = new SegmentEventLog(this.directory, 64 * 1024 * 1024, 200);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteSegmentLog() throws IOException {
+        while (!this.pendingFlushes.isEmpty()) {
+            this.pendingFlushes.removeFirst().join();
+        }
+        this.unflushed = 0;
+        this.segmentLog.close();
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * The message ChangeFeedHelper.output logs, without the cost of the appender writing it
+     */
+    @Benchmark
+    public String formatLogLine() {
+        BlobChangefeedEvent event = nextEvent();
+        return MessageFormatter.arrayFormat("Time: {}, Subject: {}, ID: {}, Type: {}", new Object[] {
+            event.getEventTime(), event.getSubject(), event.getId(), event.getEventType()}).getMessage();
+    }
+
+    @Benchmark
+    public void appendToSegmentLog() {
+        this.segmentLog.handle(nextEvent());
+        if (++this.unflushed == PAGE_SIZE) {
+            this.unflushed = 0;
+            this.pendingFlushes.addLast(this.segmentLog.flushAsync());
+            while (!this.pendingFlushes.isEmpty() && (this.pendingFlushes.peekFirst().isDone()
+                    || this.pendingFlushes.size() > MAX_PENDING_PAGES)) {
+                this.pendingFlushes.removeFirst().join();
+            }
+        }
+    }
+
+    private BlobChangefeedEvent nextEvent() {
+        BlobChangefeedEvent event = this.events[this.next];
+        this.next = (this.next + 1) & (EVENTS - 1);
+        return event;
+    }
+}
@@ -0,0 +1,74 @@
+package benchmarks;
+
+import changeFeedPipeline.LocalChangefeedEvent;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEventType;
+import com.azure.storage.blob.models.BlobType;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates change feed events shaped like those of a busy account. A chosen fraction of them matches the sample
+ * consumers' default filter. Of the rest, some are in the tracked container but for other blobs, so the filter
+ * chain cannot always stop at its first predicate
+ */
+final class SyntheticEvents {
+    static final String TRACKED_CONTAINER = "containers/test-changefeed-container";
+    static final String TRACKED_BLOB = "exampleBlob.txt";
+
+    private static final String TOPIC =
+            "/subscriptions/00000000-0000-0000-0000-000000000000/resourceGroups/rg/providers/"
+                    + "Microsoft.Storage/storageAccounts/benchmarkaccount";
+    private static final String[] FOLDERS = {"logs/2020/06/01/", "images/", "", "backups/db/full/", "tmp/"};
+    private static final String[] EXTENSIONS = {".json", ".log", ".jpg", ".bak", ".txt"};
+    private static final BlobChangefeedEventType CREATED = BlobChangefeedEventType.fromString("BlobCreated");
+    private static final BlobChangefeedEventType DELETED = BlobChangefeedEventType.fromString("BlobDeleted");
+    private static final BlobChangefeedEventType PROPERTIES_UPDATED =
+            BlobChangefeedEventType.fromString("BlobPropertiesUpdated");
+
+    private SyntheticEvents() {
+    }
+
+    /**
+     * Generates events in which the given fraction matches the tracked container and blob. Event types are 60%
+     * creates, 25% deletes and 15% property updates, and event times advance by a millisecond per event
+     */
+    static BlobChangefeedEvent[] generate(int count, double selectivity, long seed) {
+        Random random = new Random(seed);
+        OffsetDateTime start = OffsetDateTime.of(2020, 6, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        BlobChangefeedEvent[] events = new BlobChangefeedEvent[count];
+        for (int i = 0; i < count; i++) {
+            String container;
+            String blob;
+            double roll = random.nextDouble();
+            if (roll < selectivity) {
+                container = TRACKED_CONTAINER;
+                blob = i + TRACKED_BLOB;
+            } else if (roll < selectivity + (1 - selectivity) * 0.2) {
+                // Same container, different blob
+                container = TRACKED_CONTAINER;
+                blob = FOLDERS[random.nextInt(FOLDERS.length)] + i + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            } else {
+                container = "containers/container-" + random.nextInt(50);
+                blob = FOLDERS[random.nextInt(FOLDERS.length)] + i + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            }
+
+            int typeRoll = random.nextInt(100);
+            BlobChangefeedEventType eventType = typeRoll < 60 ? CREATED : typeRoll < 85 ? DELETED : PROPERTIES_UPDATED;
+            String subject = "/blobServices/default/" + container + "/blobs/" + blob;
+            events[i] = new LocalChangefeedEvent(TOPIC, subject, eventType, start.plusNanos(i * 1_000_000L),
+                    new UUID(random.nextLong(), random.nextLong()).toString(), 1L, "1",
+                    eventType == DELETED ? "DeleteBlob" : "PutBlob", null,
+                    new UUID(random.nextLong(), random.nextLong()).toString(),
+                    "0x8D" + Long.toHexString(random.nextLong()), "application/octet-stream",
+                    (long) random.nextInt(1 << 20), BlobType.BLOCK_BLOB,
+                    "https://benchmarkaccount.blob.core.windows.net/" + container.substring("containers/".length())
+                            + "/" + blob,
+                    String.format("%032x", i));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,26 @@
+import changeFeedPipeline.CursorStore;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobContainerClient;
+
+/**
+ * Stores named cursors as blobs in the cursor storage container, one blob per key under a common prefix
+ */
+class BlobCursorStore implements CursorStore {
+    public BlobContainerClient containerClient;
+    public String prefix;
+
+    public BlobCursorStore(BlobContainerClient containerClient, String prefix) {
+        this.containerClient = containerClient;
+        this.prefix = prefix;
+    }
+
+    public String load(String key) {
+        BlobClient blobClient = this.containerClient.getBlobClient(this.prefix + "/" + key);
+        return ChangeFeedTimer.getCursor(this.containerClient, blobClient);
+    }
+
+    public void store(String key, String cursor) {
+        BlobClient blobClient = this.containerClient.getBlobClient(this.prefix + "/" + key);
+        ChangeFeedTimer.storeCursor(this.containerClient, blobClient, cursor);
+    }
+}
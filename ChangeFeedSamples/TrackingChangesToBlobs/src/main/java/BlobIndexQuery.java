@@ -0,0 +1,51 @@
+import changeFeedPipeline.BlobState;
+import changeFeedPipeline.BlobStateIndex;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers inventory questions from the local blob index kept up to date by the dispatcher, without listing the
+ * storage account. Pass "container/blob" to look up one blob, or "container/prefix*" to total all blobs under a prefix
+ */
+public class BlobIndexQuery {
+    private static Logger logger = LoggerFactory.getLogger(BlobIndexQuery.class);
+
+    public static void main(String[] args) throws IOException {
+        Path currentPath = Paths.get(System.getProperty("user.dir"));
+        Path pathToDir = Paths.get(currentPath.toString(), "changeFeedSamples",
+                "trackingChangesToBlobs", "src", "main", "java", "exampleEventCreator");
+        String configPath = Paths.get(pathToDir.toString(), "app.config").toString();
+
+        // Extracting variables from config file
+        InputStream input = new FileInputStream(configPath);
+        Properties prop = new Properties();
+        prop.load(input);
+        String indexDirectory = prop.getProperty("indexDirectory");
+        String query = args.length > 0 ? args[0] : "*";
+
+        // Opening read-only so queries can run while the dispatcher keeps writing
+        BlobStateIndex index = new BlobStateIndex(Paths.get(pathToDir.toString(), indexDirectory), Integer.MAX_VALUE,
+                Integer.MAX_VALUE, 0, true);
+
+        if (query.endsWith("*")) {
+            String prefix = query.substring(0, query.length() - 1);
+            long[] totals = new long[2];
+            index.scan(prefix, (key, state) -> {
+                totals[0]++;
+                totals[1] += state.getContentLength();
+            });
+            logger.info("{} blobs, {} bytes under '{}'", totals[0], totals[1], prefix);
+        } else {
+            BlobState state = index.get(query);
+            logger.info("{}: {}", query, state == null ? "does not exist" : state);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import changeFeedPipeline.ChangeFeedDispatcher;
+import changeFeedPipeline.ChangeFeedSubscriber;
+import changeFeedPipeline.EventFilters;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.changefeed.BlobChangefeedClient;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.util.TimerTask;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timer task that reads the change feed once per run and fans each event out to several subscribers. The stored cursor
+ * only moves as far as the slowest subscriber has gotten
+ */
+class ChangeFeedDispatcherTask extends TimerTask {
+    public BlobContainerClient containerClient;
+    public BlobClient blobClient;
+    public ChangeFeedDispatcher dispatcher;
+    public String cursor;
+    private static Logger logger = LoggerFactory.getLogger(ChangeFeedDispatcherTask.class);
+
+    // Filtering
+    String trackedContainer = "containers/test-changefeed-container";
+    String trackedBlob = "exampleBlob.txt";
+    Predicate<BlobChangefeedEvent> checkContainerName = EventFilters.subjectContains(trackedContainer);
+    Predicate<BlobChangefeedEvent> checkBlobName = EventFilters.subjectContains(trackedBlob);
+    Predicate<BlobChangefeedEvent> checkDeleted = EventFilters.eventType("BlobDeleted");
+
+    public ChangeFeedDispatcherTask(BlobContainerClient containerClient, BlobClient blobClient,
+                                    BlobChangefeedClient changefeedClient, String cursor, int queueCapacity,
+                                    long offerTimeoutMillis) {
+        this.containerClient = containerClient;
+        this.blobClient = blobClient;
+        this.cursor = cursor;
+        this.dispatcher = new ChangeFeedDispatcher(changefeedClient, cursor);
+
+        // TODO: Register one subscriber per consumer, each with its own filter and handler
+        this.dispatcher.subscribe("trackedBlobs", checkBlobName.and(checkContainerName),
+                event -> logger.info("[trackedBlobs] Time: {}, Subject: {}, ID: {}, Type: {}",
+                        event.getEventTime(), event.getSubject(), event.getId(), event.getEventType()),
+                queueCapacity, offerTimeoutMillis);
+        this.dispatcher.subscribe("deletions", checkDeleted,
+                event -> logger.info("[deletions] Time: {}, Subject: {}, ID: {}",
+                        event.getEventTime(), event.getSubject(), event.getId()),
+                queueCapacity, offerTimeoutMillis);
+    }
+
+    /**
+     * Every time the timer executes, read new events once, route them to all subscribers and store the cursor of the
+     * slowest subscriber
+     */
+    public void run() {
+        try {
+            String checkpoint = this.dispatcher.runOnce();
+            for (ChangeFeedSubscriber subscriber : this.dispatcher.getSubscribers()) {
+                logger.info("Subscriber {} is at page {}{}", subscriber.getName(), subscriber.getWatermarkPage(),
+                        subscriber.isFailed() ? " (failed)" : "");
+            }
+            if (checkpoint != null && !checkpoint.equals(this.cursor)) {
+                this.cursor = checkpoint;
+                ChangeFeedTimer.storeCursor(this.containerClient, this.blobClient, this.cursor);
+                logger.info("Stored cursor");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.dispatcher.close();
+            this.cancel();
+        }
+    }
+}
@@ -1,7 +1,18 @@
+import changeFeedPipeline.BlobStateIndex;
+import changeFeedPipeline.BlobStateIndexer;
+import changeFeedPipeline.ChangeFeedAggregator;
+import changeFeedPipeline.ChangeFeedBackfill;
+import changeFeedPipeline.ChangeFeedEventHandler;
+import changeFeedPipeline.ChangeFeedMetrics;
+import changeFeedPipeline.ChangeFeedSegmentReader;
+import changeFeedPipeline.EventDeduplicator;
+import changeFeedPipeline.EventFilters;
+import changeFeedPipeline.SegmentEventLog;
 import com.azure.storage.blob.BlobClient;
 import com.azure.storage.blob.BlobContainerClient;
 import com.azure.storage.blob.BlobServiceClient;
 import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.changefeed.BlobChangefeedAsyncClient;
 import com.azure.storage.blob.changefeed.BlobChangefeedClient;
 import com.azure.storage.blob.changefeed.BlobChangefeedClientBuilder;
 import com.azure.storage.blob.changefeed.BlobChangefeedPagedIterable;
@@ -15,13 +26,23 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.time.OffsetDateTime;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
+import javax.management.JMException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,31 +64,146 @@ public class ChangeFeedTimer {
         prop.load(input);
         String sharedKeyCred = prop.getProperty("sharedKeyCred");
         String storageAccount = prop.getProperty("storageAccount");
+        String connectionString = prop.getProperty("connectionString", "");
         String cursorStorageContainer = prop.getProperty("cursorStorageContainer");
         String blobCursorName = prop.getProperty("blobCursorName");
         String intervalString = prop.getProperty("interval");
         int interval = Integer.parseInt(intervalString);
+        String mode = prop.getProperty("mode", "single");
+        int subscriberQueueCapacity = Integer.parseInt(prop.getProperty("subscriberQueueCapacity", "10000"));
+        long subscriberOfferTimeoutMillis =
+                Long.parseLong(prop.getProperty("subscriberOfferTimeoutSeconds", "60")) * 1000;
+        int prefetchPages = Integer.parseInt(prop.getProperty("prefetchPages", "2"));
+        int rails = Integer.parseInt(prop.getProperty("rails", "4"));
+        int railBuffer = Integer.parseInt(prop.getProperty("railBuffer", "256"));
+        int checkpointEveryPages = Integer.parseInt(prop.getProperty("checkpointEveryPages", "10"));
+        boolean dedupEnabled = Boolean.parseBoolean(prop.getProperty("dedupEnabled", "false"));
+        String backfillStart = prop.getProperty("backfillStart", "");
+        String backfillEnd = prop.getProperty("backfillEnd", "");
+        int backfillParallelism = Integer.parseInt(prop.getProperty("backfillParallelism", "8"));
+        int metricsPort = Integer.parseInt(prop.getProperty("metricsPort", "0"));
+        String sink = prop.getProperty("sink", "log");
+        String indexDirectory = prop.getProperty("indexDirectory", "");
+        int indexMemtableEntries = Integer.parseInt(prop.getProperty("indexMemtableEntries", "100000"));
+        long indexTombstoneRetentionMillis =
+                Long.parseLong(prop.getProperty("indexTombstoneRetentionHours", "168")) * 60 * 60 * 1000;
+        String offlineDirectory = prop.getProperty("offlineDirectory", "");
 
         String storageAccountUrl = "https://" + storageAccount + ".blob.core.windows.net";
 
-        // Getting clients for accessing container and blob for storing cursor
-        BlobServiceClient blobServiceClient = new BlobServiceClientBuilder()
-                .endpoint(storageAccountUrl)
-                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred))
-                .buildClient();
+        // Getting clients for accessing container and blob for storing cursor. A connection string, such as one for
+        // LocalBlobService, is used instead of the account name and key when it is set
+        BlobServiceClientBuilder blobServiceClientBuilder = new BlobServiceClientBuilder();
+        if (connectionString.isEmpty()) {
+            blobServiceClientBuilder.endpoint(storageAccountUrl)
+                    .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred));
+        } else {
+            blobServiceClientBuilder.connectionString(connectionString);
+        }
+        BlobServiceClient blobServiceClient = blobServiceClientBuilder.buildClient();
 
         BlobContainerClient blobContainerClient = blobServiceClient.getBlobContainerClient(cursorStorageContainer);
         BlobClient blobClient = blobContainerClient.getBlobClient(blobCursorName);
 
+        if (mode.equals("multi")) {
+            // Consuming every listed account from this process, with cursors stored next to this account's cursor
+            new MultiAccountChangeFeed(prop, blobContainerClient, blobCursorName).start(interval);
+            return;
+        }
+
         // Creating changefeed client
         BlobChangefeedClient changefeedClient = new BlobChangefeedClientBuilder(blobServiceClient).buildClient();
 
-        // Get previously used cursor
-        String cursor = getCursor(blobContainerClient, blobClient);
+        // Get previously used cursor. Only the default mode reads a local copy of the change feed when offlineDirectory
+        // is set, which needs neither cursor nor network
+        boolean offlineReplay = !offlineDirectory.isEmpty() && !mode.equals("dispatcher") && !mode.equals("reactive");
+        String cursor = offlineReplay ? null : getCursor(blobContainerClient, blobClient);
 
-        // Create a Timer
+        // Create a Timer. In dispatcher mode the feed is read once and shared by several subscribers
         Timer timer = new Timer();
-        TimerTask task = new ChangeFeedHelper(blobServiceClient, blobContainerClient, blobClient, changefeedClient, cursor);
+        TimerTask task;
+        if (mode.equals("dispatcher")) {
+            ChangeFeedDispatcherTask dispatcherTask = new ChangeFeedDispatcherTask(blobContainerClient, blobClient,
+                    changefeedClient, cursor, subscriberQueueCapacity, subscriberOfferTimeoutMillis);
+            if (!indexDirectory.isEmpty()) {
+                // Keeping a local inventory of every blob up to date from create and delete events
+                BlobStateIndex index = new BlobStateIndex(Paths.get(pathToDir.toString(), indexDirectory),
+                        indexMemtableEntries, 8, indexTombstoneRetentionMillis, false);
+                dispatcherTask.dispatcher.subscribe("blobIndex", event -> true, new BlobStateIndexer(index),
+                        subscriberQueueCapacity, subscriberOfferTimeoutMillis);
+            }
+            task = dispatcherTask;
+        } else if (mode.equals("reactive")) {
+            BlobChangefeedAsyncClient changefeedAsyncClient =
+                    new BlobChangefeedClientBuilder(blobServiceClient).buildAsyncClient();
+            task = new ReactiveChangeFeedTask(blobContainerClient, blobClient, changefeedAsyncClient, cursor,
+                    prefetchPages, rails, railBuffer, checkpointEveryPages);
+        } else {
+            ChangeFeedHelper helper = new ChangeFeedHelper(blobServiceClient, blobContainerClient, blobClient,
+                    changefeedClient, cursor);
+            helper.maxPendingPages = Integer.parseInt(prop.getProperty("maxPendingPages", "4"));
+            if (sink.equals("segment")) {
+                // Writing matching events to binary segment files instead of the log
+                helper.handler = new SegmentEventLog(
+                        Paths.get(pathToDir.toString(), prop.getProperty("sinkDirectory", "events")),
+                        Integer.parseInt(prop.getProperty("sinkSegmentMegabytes", "64")) * 1024 * 1024,
+                        Long.parseLong(prop.getProperty("sinkCommitMillis", "200")));
+            }
+            if (dedupEnabled) {
+                // Redelivered events after a restart are dropped before they reach the output
+                helper.deduplicator = new EventDeduplicator(
+                        Long.parseLong(prop.getProperty("dedupWindowMinutes", "60")) * 60 * 1000,
+                        Integer.parseInt(prop.getProperty("dedupGenerations", "24")),
+                        Integer.parseInt(prop.getProperty("dedupExpectedEventsPerWindow", "1000000")),
+                        Double.parseDouble(prop.getProperty("dedupFalsePositiveRate", "0.0001")),
+                        Integer.parseInt(prop.getProperty("dedupExactCapacity", "100000")),
+                        Paths.get(pathToDir.toString(), prop.getProperty("dedupStateFile", "dedupState.bin")),
+                        Long.parseLong(prop.getProperty("dedupSaveIntervalSeconds", "10")) * 1000);
+            }
+            if (Boolean.parseBoolean(prop.getProperty("aggregationEnabled", "false"))) {
+                // Counting events and bytes per container, prefix and event type, logged as each window closes
+                Logger aggregateLogger = LoggerFactory.getLogger(ChangeFeedAggregator.class);
+                helper.aggregator = new ChangeFeedAggregator(
+                        Long.parseLong(prop.getProperty("aggregationPaneSeconds", "60")) * 1000,
+                        Integer.parseInt(prop.getProperty("aggregationSlidingPanes", "60")),
+                        Integer.parseInt(prop.getProperty("aggregationPrefixDepth", "1")),
+                        Long.parseLong(prop.getProperty("aggregationLatenessSeconds", "300")) * 1000,
+                        aggregate -> aggregateLogger.info("{}", aggregate));
+            }
+            // Exposing lag and throughput through JMX, and as text on a local port if one is configured
+            try {
+                helper.metrics.registerJmx(storageAccount);
+            } catch (JMException e) {
+                throw new IllegalStateException("Could not register change feed metrics", e);
+            }
+            if (metricsPort > 0) {
+                helper.metrics.startHttpEndpoint(metricsPort);
+            }
+            if (offlineReplay) {
+                // Reprocessing a local copy of the $blobchangefeed container once instead of tailing the service
+                String offlineStart = prop.getProperty("offlineStart", "");
+                String offlineEnd = prop.getProperty("offlineEnd", "");
+                helper.replay(new ChangeFeedSegmentReader(Paths.get(offlineDirectory)),
+                        offlineStart.isEmpty() ? null : OffsetDateTime.parse(offlineStart),
+                        offlineEnd.isEmpty() ? null : OffsetDateTime.parse(offlineEnd));
+                helper.metrics.stopHttpEndpoint();
+                return;
+            }
+            if (cursor == null && !backfillStart.isEmpty()) {
+                // First run with a backfill range: catch up on history in parallel, then tail from where it ended
+                OffsetDateTime end = backfillEnd.isEmpty() ? OffsetDateTime.now() : OffsetDateTime.parse(backfillEnd);
+                ChangeFeedBackfill backfill = new ChangeFeedBackfill(changefeedClient, helper::newBackfillHandler,
+                        new BlobCursorStore(blobContainerClient, blobCursorName), backfillParallelism);
+                try {
+                    backfill.run(OffsetDateTime.parse(backfillStart), end);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                helper.startTime = ChangeFeedBackfill.handOffTime(end);
+            }
+            task = helper;
+        }
 
         // Running on schedule
         timer.scheduleAtFixedRate(task, 0, interval);
@@ -85,6 +221,21 @@ public class ChangeFeedTimer {
         }
         return null;
     }
+
+    /**
+     * Stores cursor into blob in a container
+     */
+    static void storeCursor(BlobContainerClient blobContainerClient, BlobClient blobClient, String cursor) {
+        // Creates container if there is no container
+        if (!blobContainerClient.exists()){
+            blobContainerClient.create();
+        }
+
+        // Storing cursor in blob
+        BlockBlobClient blockBlobClient = blobClient.getBlockBlobClient();
+        ByteArrayInputStream dataStream = new ByteArrayInputStream(cursor.getBytes());
+        blockBlobClient.upload(dataStream, cursor.length(), true);
+    }
 }
 
 class ChangeFeedHelper extends TimerTask {
@@ -93,15 +244,25 @@ class ChangeFeedHelper extends TimerTask {
     public BlobContainerClient containerClient;
     public BlobClient blobClient;
     public BlobChangefeedClient changefeedClient;
+    public EventDeduplicator deduplicator;
+    public OffsetDateTime startTime;
+    public ChangeFeedMetrics metrics = new ChangeFeedMetrics();
+    public ChangeFeedEventHandler handler = this::output;
+    public ChangeFeedAggregator aggregator;
+    public int maxPendingPages = 4;
     private static Logger logger = LoggerFactory.getLogger(ChangeFeedHelper.class);
+    // IDs of events handed to the handler but not yet acknowledged. They only reach the deduplicator once their page
+    // is acknowledged, so a page that fails to persist is not dropped as a duplicate when it is read again
+    private final Set<String> unacknowledgedIds = new HashSet<>();
+    private List<String> pageIds = new ArrayList<>();
 
     // Filtering
     String trackedContainer = "containers/test-changefeed-container";
     String trackedBlob = "exampleBlob.txt";
     String eventType = "BlobCreated";
-    Predicate<BlobChangefeedEvent> checkContainerName = (event) -> event.getSubject().contains(trackedContainer);
-    Predicate<BlobChangefeedEvent> checkBlobName = (event) -> event.getSubject().contains(trackedBlob);
-    Predicate<BlobChangefeedEvent> checkEventType = (event) -> event.getEventType().toString().equals(eventType);
+    Predicate<BlobChangefeedEvent> checkContainerName = EventFilters.subjectContains(trackedContainer);
+    Predicate<BlobChangefeedEvent> checkBlobName = EventFilters.subjectContains(trackedBlob);
+    Predicate<BlobChangefeedEvent> checkEventType = EventFilters.eventType(eventType);
 
     public ChangeFeedHelper(BlobServiceClient blobServiceClient, BlobContainerClient containerClient,
                             BlobClient blobClient, BlobChangefeedClient changefeedClient) {
@@ -125,8 +286,11 @@ class ChangeFeedHelper extends TimerTask {
         BlobChangefeedPagedIterable iterable = null;
 
         // Starting from cursor position if there exists one. If there is no cursor, outputs of events start from
-        // beginning of time
-        if (this.cursor == null) {
+        // the end of the backfill if one ran, or else from beginning of time
+        if (this.cursor == null && this.startTime != null) {
+            iterable = this.changefeedClient.getEvents(this.startTime, null);
+        }
+        else if (this.cursor == null) {
             iterable = this.changefeedClient.getEvents();
         }
         else {
@@ -137,38 +301,233 @@ class ChangeFeedHelper extends TimerTask {
 
         logger.info("Printing all events satisfying filters");
 
-        // Checking by page every event and seeing if it satisfies filters. At the end, store the cursor in a blob
-        pages.forEach(page -> {
-                    page.getElements().stream()
-                            .filter(event ->
-                                    // TODO: Change predicate chain to desired chain to filter events
-                                    checkBlobName.and(checkContainerName).test(event))
-                            .forEach(event ->
-                                    // TODO: Change output as needed to see necessary information from event
-                                    logger.info("Time: {}, Subject: {}, ID: {}, Type: {}",
-                                            event.getEventTime(), event.getSubject(), event.getId(), event.getEventType()));
-                    this.cursor = page.getContinuationToken();
-                }
-        );
+        // Checking by page every event and seeing if it satisfies filters. The cursor only moves past a page once the
+        // handler acknowledged its events as persisted, while the following pages are already being read
+        Deque<PendingPage> pending = new ArrayDeque<>();
+        try {
+            pages.forEach(page -> {
+                        this.metrics.recordPage();
+                        page.getElements().stream()
+                                .peek(this.metrics::recordEvent)
+                                // Skipping events that were already handled before a restart, ahead of the
+                                // aggregates so that they count a redelivered event once
+                                .filter(event -> !isDuplicate(event))
+                                .peek(this::aggregate)
+                                .filter(this::matches)
+                                .peek(event -> this.metrics.recordMatch())
+                                .forEach(this.handler::handle);
+                        pending.addLast(new PendingPage(page.getContinuationToken(), this.handler.flushAsync(),
+                                this.pageIds));
+                        this.pageIds = new ArrayList<>();
+                        advanceCursor(pending, this.maxPendingPages);
+                        if (this.deduplicator != null && this.deduplicator.isCheckpointDue()) {
+                            // The saved IDs must only cover acknowledged pages. Otherwise events of a page lost in a
+                            // crash would be dropped as duplicates when they are read again
+                            advanceCursor(pending, 0);
+                            checkpointDeduplicator(false);
+                        }
+                    }
+            );
+            advanceCursor(pending, 0);
+            advanceAggregates();
+        } catch (RuntimeException e) {
+            // Keeping the progress that was acknowledged, the unacknowledged pages are read again on the next run.
+            // Their IDs were never recorded, so they are not dropped as duplicates then. Returning instead of
+            // rethrowing keeps the timer thread, and so the next run, alive
+            logger.error("Handler failed to persist events, storing last acknowledged cursor", e);
+            this.unacknowledgedIds.clear();
+            this.pageIds = new ArrayList<>();
+            if (this.cursor != null) {
+                this.storeCursor();
+            }
+            return;
+        }
+        try {
+            checkpointDeduplicator(true);
+        } catch (UncheckedIOException e) {
+            // Not storing the cursor this time either. The run keeps its cursor in memory, so the next run reads on
+            // from there and saves both again, and the timer thread stays alive
+            logger.error("Saving seen event IDs failed, keeping stored cursor until the next run", e);
+            return;
+        }
+        if (this.cursor == null) {
+            // Nothing was read since the backfill handed off, so there is no cursor to store yet
+            logger.info("No pages since last check, keeping stored cursor");
+            return;
+        }
 
         logger.info("Printed all events satisfying filter since last check, storing cursor into storage account");
         // Stores cursor in storage account, in case if it needs to be used again later
+        long checkpointStart = System.currentTimeMillis();
         this.storeCursor();
+        this.metrics.recordCheckpoint(System.currentTimeMillis() - checkpointStart);
         logger.info("Stored cursor");
     }
 
+    /**
+     * Moves the cursor past every page whose acknowledgement completed, in page order. Waits for the oldest pages while
+     * more than the given number are still outstanding
+     */
+    private void advanceCursor(Deque<PendingPage> pending, int maxPending) {
+        while (!pending.isEmpty() && (pending.peekFirst().acknowledgement.isDone() || pending.size() > maxPending)) {
+            PendingPage page = pending.removeFirst();
+            page.acknowledgement.join();
+            this.cursor = page.cursor;
+            if (this.deduplicator != null) {
+                this.deduplicator.record(page.eventIds);
+                this.unacknowledgedIds.removeAll(page.eventIds);
+            }
+        }
+    }
+
+    /**
+     * Checks whether an event was already handled, in an earlier run or on a page of this run that is not acknowledged
+     * yet. Always false without a deduplicator
+     */
+    private boolean isDuplicate(BlobChangefeedEvent event) {
+        if (this.deduplicator == null) {
+            return false;
+        }
+        String id = event.getId();
+        if (this.unacknowledgedIds.contains(id) || this.deduplicator.isSeen(id)) {
+            return true;
+        }
+        this.unacknowledgedIds.add(id);
+        this.pageIds.add(id);
+        return false;
+    }
+
+    /**
+     * Returns a handler for one backfill slice that takes every event through the same metrics, deduplication,
+     * aggregation and filter as {@link #run()}. Slices run in parallel with a handler each, so the aggregator is
+     * shared under a lock, and the IDs of a slice only reach the deduplicator once the page they are on is flushed
+     */
+    ChangeFeedEventHandler newBackfillHandler() {
+        Set<String> sliceIds = new HashSet<>();
+        return new ChangeFeedEventHandler() {
+            public void handle(BlobChangefeedEvent event) {
+                metrics.recordEvent(event);
+                if (deduplicator != null) {
+                    String id = event.getId();
+                    if (sliceIds.contains(id) || deduplicator.isSeen(id)) {
+                        return;
+                    }
+                    sliceIds.add(id);
+                }
+                synchronized (ChangeFeedHelper.this) {
+                    aggregate(event);
+                }
+                if (matches(event)) {
+                    metrics.recordMatch();
+                    handler.handle(event);
+                }
+            }
+
+            public void flush() {
+                // The backfill flushes once per page
+                metrics.recordPage();
+                handler.flush();
+                if (deduplicator != null) {
+                    deduplicator.record(sliceIds);
+                    sliceIds.clear();
+                    checkpointDeduplicator(false);
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs every event of a local copy of the change feed through the same filter and output as the live feed
+     */
+    void replay(ChangeFeedSegmentReader reader, OffsetDateTime start, OffsetDateTime end) throws IOException {
+        logger.info("Printing all events satisfying filters from local change feed files");
+        long events = reader.read(start, end, event -> {
+            this.metrics.recordEvent(event);
+            aggregate(event);
+            if (matches(event)) {
+                this.metrics.recordMatch();
+                this.handler.handle(event);
+            }
+        });
+        this.handler.flush();
+        advanceAggregates();
+        logger.info("Read {} events from local change feed files", events);
+    }
+
+    /**
+     * Checks whether an event satisfies the filters
+     */
+    boolean matches(BlobChangefeedEvent event) {
+        // TODO: Change predicate chain to desired chain to filter events
+        return checkBlobName.and(checkContainerName).test(event);
+    }
+
+    /**
+     * Counts every event, matching or not, into the windowed aggregates if aggregation is enabled
+     */
+    private void aggregate(BlobChangefeedEvent event) {
+        if (this.aggregator != null) {
+            this.aggregator.handle(event);
+        }
+    }
+
+    /**
+     * Emits the windows that closed by wall clock time, including the last ones of a feed that went idle
+     */
+    private void advanceAggregates() {
+        if (this.aggregator != null) {
+            this.aggregator.advanceToWallClock(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Outputs an event that satisfied the filters
+     */
+    void output(BlobChangefeedEvent event) {
+        // TODO: Change output as needed to see necessary information from event
+        logger.info("Time: {}, Subject: {}, ID: {}, Type: {}",
+                event.getEventTime(), event.getSubject(), event.getId(), event.getEventType());
+    }
+
+    /**
+     * Saves the seen event IDs so duplicates are still recognized after a restart. Unless forced, only saves once the
+     * configured interval has passed
+     */
+    private void checkpointDeduplicator(boolean force) {
+        if (this.deduplicator == null) {
+            return;
+        }
+        try {
+            if (force) {
+                this.deduplicator.save();
+            } else {
+                this.deduplicator.checkpoint();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Stores cursor into blob in a container
      */
     private void storeCursor() {
-        // Creates container if there is no container
-        if (!this.containerClient.exists()){
-            this.containerClient.create();
-        }
+        ChangeFeedTimer.storeCursor(this.containerClient, this.blobClient, this.cursor);
+    }
 
-        // Storing cursor in blob
-        BlockBlobClient blockBlobClient = this.blobClient.getBlockBlobClient();
-        ByteArrayInputStream dataStream = new ByteArrayInputStream(this.cursor.getBytes());
-        blockBlobClient.upload(dataStream, this.cursor.length(), true);
+    /**
+     * Continuation token of a page whose events were handed to the handler, with the handler's acknowledgement that
+     * they are persisted and the IDs to record as seen once they are
+     */
+    private static class PendingPage {
+        private final String cursor;
+        private final CompletableFuture<Void> acknowledgement;
+        private final List<String> eventIds;
+
+        private PendingPage(String cursor, CompletableFuture<Void> acknowledgement, List<String> eventIds) {
+            this.cursor = cursor;
+            this.acknowledgement = acknowledgement;
+            this.eventIds = eventIds;
+        }
     }
 }
\ No newline at end of file
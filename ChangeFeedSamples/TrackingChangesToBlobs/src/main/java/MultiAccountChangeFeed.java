@@ -0,0 +1,73 @@
+import changeFeedPipeline.ChangeFeedFanIn;
+import changeFeedPipeline.EventFilters;
+import com.azure.core.http.HttpClient;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobServiceClient;
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.changefeed.BlobChangefeedClientBuilder;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+import com.azure.storage.common.StorageSharedKeyCredential;
+
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consumes the change feeds of every account listed in the config from one process. All accounts share one HTTP
+ * client and one scheduler, and their filtered events are merged into a single output. Each account's cursor is
+ * stored in the cursor storage container under its account name
+ */
+class MultiAccountChangeFeed {
+    public ChangeFeedFanIn fanIn;
+    private static Logger logger = LoggerFactory.getLogger(MultiAccountChangeFeed.class);
+
+    // Filtering
+    String trackedContainer = "containers/test-changefeed-container";
+    String trackedBlob = "exampleBlob.txt";
+    Predicate<BlobChangefeedEvent> checkContainerName = EventFilters.subjectContains(trackedContainer);
+    Predicate<BlobChangefeedEvent> checkBlobName = EventFilters.subjectContains(trackedBlob);
+
+    /**
+     * Reads the comma separated account names from the "accounts" property. Each account needs an
+     * "&lt;account&gt;.sharedKeyCred" or "&lt;account&gt;.connectionString" property and may set
+     * "&lt;account&gt;.maxPendingEvents"
+     */
+    public MultiAccountChangeFeed(Properties prop, BlobContainerClient cursorContainerClient, String cursorPrefix) {
+        int threads = Integer.parseInt(prop.getProperty("fanInThreads", "4"));
+        int defaultMaxPendingEvents = Integer.parseInt(prop.getProperty("maxPendingEvents", "10000"));
+
+        this.fanIn = new ChangeFeedFanIn(Executors.newScheduledThreadPool(threads),
+                // TODO: Change predicate chain to desired chain to filter events
+                checkBlobName.and(checkContainerName),
+                // TODO: Change output as needed to see necessary information from event
+                (account, event) -> logger.info("Account: {}, Time: {}, Subject: {}, ID: {}, Type: {}", account,
+                        event.getEventTime(), event.getSubject(), event.getId(), event.getEventType()),
+                new BlobCursorStore(cursorContainerClient, cursorPrefix));
+
+        // One connection pool serves every account instead of one per client
+        HttpClient httpClient = HttpClient.createDefault();
+        for (String account : prop.getProperty("accounts").split(",")) {
+            account = account.trim();
+            BlobServiceClientBuilder serviceClientBuilder = new BlobServiceClientBuilder().httpClient(httpClient);
+            String connectionString = prop.getProperty(account + ".connectionString", "");
+            if (connectionString.isEmpty()) {
+                serviceClientBuilder.endpoint("https://" + account + ".blob.core.windows.net")
+                        .credential(new StorageSharedKeyCredential(account,
+                                prop.getProperty(account + ".sharedKeyCred")));
+            } else {
+                serviceClientBuilder.connectionString(connectionString);
+            }
+            BlobServiceClient serviceClient = serviceClientBuilder.buildClient();
+            this.fanIn.addAccount(account, new BlobChangefeedClientBuilder(serviceClient).buildClient(),
+                    Integer.parseInt(prop.getProperty(account + ".maxPendingEvents",
+                            String.valueOf(defaultMaxPendingEvents))));
+        }
+    }
+
+    public void start(long intervalMillis) {
+        this.fanIn.start(intervalMillis);
+    }
+}
@@ -0,0 +1,73 @@
+import changeFeedPipeline.EventFilters;
+import changeFeedPipeline.ReactiveChangeFeedPipeline;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.changefeed.BlobChangefeedAsyncClient;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.util.TimerTask;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Timer task that reads the change feed with {@link ReactiveChangeFeedPipeline}. Network I/O for upcoming pages
+ * overlaps with filtering and handling of the current page, and the cursor is only stored once a page is fully handled
+ */
+class ReactiveChangeFeedTask extends TimerTask {
+    // Last stored cursor, set by the checkpointer on its own thread
+    public volatile String cursor;
+    public BlobContainerClient containerClient;
+    public BlobClient blobClient;
+    public ReactiveChangeFeedPipeline pipeline;
+    private static Logger logger = LoggerFactory.getLogger(ReactiveChangeFeedTask.class);
+
+    // Filtering
+    String trackedContainer = "containers/test-changefeed-container";
+    String trackedBlob = "exampleBlob.txt";
+    Predicate<BlobChangefeedEvent> checkContainerName = EventFilters.subjectContains(trackedContainer);
+    Predicate<BlobChangefeedEvent> checkBlobName = EventFilters.subjectContains(trackedBlob);
+
+    public ReactiveChangeFeedTask(BlobContainerClient containerClient, BlobClient blobClient,
+                                  BlobChangefeedAsyncClient changefeedClient, String cursor, int prefetchPages,
+                                  int rails, int railBuffer, int checkpointEveryPages) {
+        this.containerClient = containerClient;
+        this.blobClient = blobClient;
+        this.cursor = cursor;
+        this.pipeline = new ReactiveChangeFeedPipeline(changefeedClient,
+                // TODO: Change predicate chain to desired chain to filter events
+                checkBlobName.and(checkContainerName),
+                // TODO: Change output as needed. Return a Mono that completes once the event is fully handled
+                event -> Mono.fromRunnable(() -> logger.info("Time: {}, Subject: {}, ID: {}, Type: {}",
+                        event.getEventTime(), event.getSubject(), event.getId(), event.getEventType())),
+                // Cursor uploads are blocking, so they run off the rail threads
+                checkpoint -> Mono.<Void>fromRunnable(() -> {
+                    ChangeFeedTimer.storeCursor(this.containerClient, this.blobClient, checkpoint);
+                    this.cursor = checkpoint;
+                }).subscribeOn(Schedulers.boundedElastic()),
+                prefetchPages, rails, railBuffer, checkpointEveryPages);
+    }
+
+    /**
+     * Every time the timer executes, process all new events through the pipeline and wait for it to finish
+     */
+    public void run() {
+        logger.info("Printing all events satisfying filters");
+        String checkpoint;
+        try {
+            checkpoint = this.pipeline.run(this.cursor).block();
+        } catch (RuntimeException e) {
+            // Returning instead of rethrowing keeps the timer thread, and so the next run, alive. The next run starts
+            // from the last cursor that was stored, so the pages after it are read again
+            logger.error("Change feed pipeline failed, keeping the last stored cursor", e);
+            return;
+        }
+        if (checkpoint != null) {
+            this.cursor = checkpoint;
+        }
+        logger.info("Printed all events satisfying filter since last check, cursor stored");
+    }
+}
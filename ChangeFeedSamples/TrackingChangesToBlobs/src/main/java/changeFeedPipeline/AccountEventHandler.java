@@ -0,0 +1,20 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+/**
+ * Receives change feed events from several storage accounts, tagged with the account they came from
+ */
+public interface AccountEventHandler {
+    /**
+     * Handles a single event. Events of one account arrive in that account's change feed order
+     */
+    void handle(String account, BlobChangefeedEvent event);
+
+    /**
+     * Called before an account's cursor is allowed to move past the events handled so far. Handlers that buffer events
+     * must persist them here
+     */
+    default void flush() {
+    }
+}
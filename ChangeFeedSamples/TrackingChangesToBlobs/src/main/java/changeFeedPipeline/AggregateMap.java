@@ -0,0 +1,122 @@
+package changeFeedPipeline;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from non-negative long keys to an event count and a byte sum, kept in parallel primitive arrays
+ * so that updates do not allocate
+ */
+final class AggregateMap {
+    private static final long EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    interface Visitor {
+        void visit(long key, long count, long bytes);
+    }
+
+    private long[] keys;
+    private long[] counts;
+    private long[] bytes;
+    private int size = 0;
+
+    AggregateMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    void add(long key, long count, long bytes) {
+        int slot = slotOf(this.keys, key);
+        if (this.keys[slot] == EMPTY) {
+            if ((this.size + 1) * 4 > this.keys.length * 3) {
+                resize(this.keys.length * 2);
+                slot = slotOf(this.keys, key);
+            }
+            this.keys[slot] = key;
+            this.size++;
+        }
+        this.counts[slot] += count;
+        this.bytes[slot] += bytes;
+    }
+
+    void addAll(AggregateMap other) {
+        other.forEach(this::add);
+    }
+
+    void subtractAll(AggregateMap other) {
+        other.forEach((key, count, bytes) -> add(key, -count, -bytes));
+    }
+
+    /**
+     * Visits every key with a non-zero count
+     */
+    void forEach(Visitor visitor) {
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            if (this.keys[slot] != EMPTY && this.counts[slot] != 0) {
+                visitor.visit(this.keys[slot], this.counts[slot], this.bytes[slot]);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    void clear() {
+        Arrays.fill(this.keys, EMPTY);
+        Arrays.fill(this.counts, 0);
+        Arrays.fill(this.bytes, 0);
+        this.size = 0;
+    }
+
+    /**
+     * Drops keys whose count went back to zero, so a long running sliding window does not keep every key it ever saw
+     */
+    void removeZeros() {
+        int live = 0;
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            if (this.keys[slot] != EMPTY && this.counts[slot] != 0) {
+                live++;
+            }
+        }
+        if (live < this.size) {
+            int capacity = INITIAL_CAPACITY;
+            while (live * 4 > capacity * 3) {
+                capacity *= 2;
+            }
+            resize(capacity);
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = this.keys;
+        long[] oldCounts = this.counts;
+        long[] oldBytes = this.bytes;
+        allocate(capacity);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != EMPTY && oldCounts[slot] != 0) {
+                int target = slotOf(this.keys, oldKeys[slot]);
+                this.keys[target] = oldKeys[slot];
+                this.counts[target] = oldCounts[slot];
+                this.bytes[target] = oldBytes[slot];
+                this.size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.counts = new long[capacity];
+        this.bytes = new long[capacity];
+        this.size = 0;
+    }
+
+    private static int slotOf(long[] keys, long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int mask = keys.length - 1;
+        int slot = (int) (hash >>> 32) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
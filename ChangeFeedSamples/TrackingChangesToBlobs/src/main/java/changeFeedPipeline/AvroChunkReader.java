@@ -0,0 +1,368 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEventType;
+import com.azure.storage.blob.models.BlobType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes change feed events from Avro chunk files on local disk, as found under "$blobchangefeed/log" in the storage
+ * account. Files are memory-mapped and decoded in place. Fields the event model does not use are skipped without being
+ * decoded, and strings that repeat from one event to the next, such as the topic, are reused instead of allocated again.
+ * <p>
+ * The reader keeps its buffers between files, so reusing one instance for many files avoids reallocating them. Not
+ * thread safe
+ */
+public class AvroChunkReader {
+    private static final byte[] MAGIC = {'O', 'b', 'j', 1};
+    private static final int SYNC_SIZE = 16;
+
+    // Positions of the values an event is built from
+    private static final int TOPIC = 0;
+    private static final int SUBJECT = 1;
+    private static final int EVENT_TYPE = 2;
+    private static final int EVENT_TIME = 3;
+    private static final int ID = 4;
+    private static final int METADATA_VERSION = 5;
+    private static final int API = 6;
+    private static final int CLIENT_REQUEST_ID = 7;
+    private static final int REQUEST_ID = 8;
+    private static final int ETAG = 9;
+    private static final int CONTENT_TYPE = 10;
+    private static final int BLOB_TYPE = 11;
+    private static final int URL = 12;
+    private static final int SEQUENCER = 13;
+    private static final int STRING_COUNT = 14;
+    private static final int DATA_VERSION = 0;
+    private static final int CONTENT_LENGTH = 1;
+    private static final int LONG_COUNT = 2;
+    private static final int DATA = -2;
+    private static final int SKIP = -1;
+
+    private static final Map<String, Integer> EVENT_FIELDS = new HashMap<>();
+    private static final Map<String, Integer> DATA_FIELDS = new HashMap<>();
+
+    static {
+        EVENT_FIELDS.put("topic", TOPIC);
+        EVENT_FIELDS.put("subject", SUBJECT);
+        EVENT_FIELDS.put("eventType", EVENT_TYPE);
+        EVENT_FIELDS.put("eventTime", EVENT_TIME);
+        EVENT_FIELDS.put("id", ID);
+        EVENT_FIELDS.put("metadataVersion", METADATA_VERSION);
+        EVENT_FIELDS.put("data", DATA);
+        DATA_FIELDS.put("api", API);
+        DATA_FIELDS.put("clientRequestId", CLIENT_REQUEST_ID);
+        DATA_FIELDS.put("requestId", REQUEST_ID);
+        DATA_FIELDS.put("etag", ETAG);
+        DATA_FIELDS.put("contentType", CONTENT_TYPE);
+        DATA_FIELDS.put("blobType", BLOB_TYPE);
+        DATA_FIELDS.put("url", URL);
+        DATA_FIELDS.put("sequencer", SEQUENCER);
+    }
+
+    private final String[] strings = new String[STRING_COUNT];
+    private final Long[] longs = new Long[LONG_COUNT];
+    // Last decoded bytes and string for every position, so a repeated value is recognized before it is decoded
+    private final byte[][] lastBytes = new byte[STRING_COUNT][];
+    private final int[] lastLengths = new int[STRING_COUNT];
+    private final String[] lastStrings = new String[STRING_COUNT];
+    private final Map<String, BlobChangefeedEventType> eventTypes = new HashMap<>();
+    private final Map<String, BlobType> blobTypes = new HashMap<>();
+    private final Inflater inflater = new Inflater(true);
+    private byte[] compressed = new byte[64 * 1024];
+    private byte[] inflated = new byte[64 * 1024];
+
+    public AvroChunkReader() {
+        for (int i = 0; i < STRING_COUNT; i++) {
+            this.lastBytes[i] = new byte[64];
+        }
+    }
+
+    /**
+     * Passes every event in the chunk file to the consumer in file order and returns how many there were
+     */
+    public long read(Path chunkFile, Consumer<BlobChangefeedEvent> consumer) throws IOException {
+        MappedByteBuffer file;
+        try (FileChannel channel = FileChannel.open(chunkFile, StandardOpenOption.READ)) {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (file.remaining() == 0) {
+            // Chunks that are still being written can be empty
+            return 0;
+        }
+
+        byte[] magic = new byte[MAGIC.length];
+        file.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException(chunkFile + " is not an Avro object container file");
+        }
+        Map<String, byte[]> metadata = readMetadata(file);
+        byte[] sync = new byte[SYNC_SIZE];
+        file.get(sync);
+
+        byte[] schemaJson = metadata.get("avro.schema");
+        if (schemaJson == null) {
+            throw new IOException(chunkFile + " has no schema");
+        }
+        AvroSchema schema = AvroSchema.parse(new String(schemaJson, StandardCharsets.UTF_8));
+        if (schema.type != AvroSchema.Type.RECORD) {
+            throw new IOException(chunkFile + " does not contain change feed records");
+        }
+        byte[] codecBytes = metadata.get("avro.codec");
+        String codec = codecBytes == null ? "null" : new String(codecBytes, StandardCharsets.UTF_8);
+        if (!codec.equals("null") && !codec.equals("deflate")) {
+            throw new IOException(chunkFile + " uses unsupported codec " + codec);
+        }
+        int[] eventPlan = plan(schema, EVENT_FIELDS);
+        AvroSchema dataSchema = null;
+        int[] dataPlan = null;
+        for (int i = 0; i < eventPlan.length; i++) {
+            if (eventPlan[i] == DATA) {
+                dataSchema = unwrap(schema.fieldSchemas[i]);
+                dataPlan = dataSchema.type == AvroSchema.Type.RECORD ? plan(dataSchema, DATA_FIELDS) : null;
+            }
+        }
+
+        long events = 0;
+        byte[] blockSync = new byte[SYNC_SIZE];
+        while (file.hasRemaining()) {
+            long count = AvroSchema.readLong(file);
+            int size = (int) AvroSchema.readLong(file);
+            ByteBuffer block;
+            if (codec.equals("null")) {
+                block = file.slice();
+                block.limit(size);
+            } else {
+                block = inflate(file, size);
+            }
+            file.position(file.position() + size);
+
+            for (long i = 0; i < count; i++) {
+                Arrays.fill(this.strings, null);
+                Arrays.fill(this.longs, null);
+                readRecord(block, schema, eventPlan, dataSchema, dataPlan);
+                consumer.accept(toEvent());
+                events++;
+            }
+
+            file.get(blockSync);
+            if (!Arrays.equals(blockSync, sync)) {
+                throw new IOException(chunkFile + " is corrupt, sync marker mismatch after block of " + count
+                        + " records");
+            }
+        }
+        return events;
+    }
+
+    private void readRecord(ByteBuffer block, AvroSchema schema, int[] plan, AvroSchema dataSchema, int[] dataPlan) {
+        for (int i = 0; i < plan.length; i++) {
+            int target = plan[i];
+            AvroSchema field = schema.fieldSchemas[i];
+            if (target == DATA && dataPlan != null) {
+                AvroSchema data = resolve(field, block);
+                if (data != null) {
+                    readRecord(block, dataSchema, dataPlan, null, null);
+                }
+            } else if (target >= 0) {
+                readValue(block, field, target);
+            } else {
+                field.skip(block);
+            }
+        }
+    }
+
+    /**
+     * Reads a value into the string or long at the target position. Strings, enums and numbers are accepted for
+     * either, so small schema changes between versions do not break decoding
+     */
+    private void readValue(ByteBuffer block, AvroSchema schema, int target) {
+        AvroSchema value = resolve(schema, block);
+        if (value == null) {
+            return;
+        }
+        boolean wantsLong = target >= STRING_COUNT;
+        switch (value.type) {
+            case STRING:
+            case BYTES:
+                String string = readString(block, wantsLong ? -1 : target);
+                if (wantsLong) {
+                    this.longs[target - STRING_COUNT] = Long.parseLong(string);
+                } else {
+                    this.strings[target] = string;
+                }
+                return;
+            case ENUM:
+                String symbol = value.symbols[(int) AvroSchema.readLong(block)];
+                if (!wantsLong) {
+                    this.strings[target] = symbol;
+                }
+                return;
+            case INT:
+            case LONG:
+                long number = AvroSchema.readLong(block);
+                if (wantsLong) {
+                    this.longs[target - STRING_COUNT] = number;
+                } else {
+                    this.strings[target] = String.valueOf(number);
+                }
+                return;
+            default:
+                value.skip(block);
+        }
+    }
+
+    /**
+     * Decodes a string, reusing the one decoded last time at the same position if the bytes are the same
+     */
+    private String readString(ByteBuffer block, int position) {
+        int length = (int) AvroSchema.readLong(block);
+        if (position < 0) {
+            byte[] bytes = new byte[length];
+            block.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        if (length == this.lastLengths[position] && this.lastStrings[position] != null) {
+            byte[] last = this.lastBytes[position];
+            int start = block.position();
+            int i = 0;
+            while (i < length && block.get(start + i) == last[i]) {
+                i++;
+            }
+            if (i == length) {
+                block.position(start + length);
+                return this.lastStrings[position];
+            }
+        }
+
+        byte[] bytes = this.lastBytes[position];
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+            this.lastBytes[position] = bytes;
+        }
+        block.get(bytes, 0, length);
+        String string = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        this.lastLengths[position] = length;
+        this.lastStrings[position] = string;
+        return string;
+    }
+
+    /**
+     * Reads the branch index of a union and returns the branch, or null if the value is null. Returns other schemas
+     * unchanged
+     */
+    private static AvroSchema resolve(AvroSchema schema, ByteBuffer block) {
+        while (schema.type == AvroSchema.Type.UNION) {
+            schema = schema.branches[(int) AvroSchema.readLong(block)];
+        }
+        return schema.type == AvroSchema.Type.NULL ? null : schema;
+    }
+
+    /**
+     * Returns the record inside an optional record, whose schema is a union of null and the record
+     */
+    private static AvroSchema unwrap(AvroSchema schema) {
+        if (schema.type == AvroSchema.Type.UNION) {
+            for (AvroSchema branch : schema.branches) {
+                if (branch.type == AvroSchema.Type.RECORD) {
+                    return branch;
+                }
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Maps every field of the record to the position its value is decoded into. Fields that are not needed, or that
+     * are not plain values, are skipped
+     */
+    private static int[] plan(AvroSchema record, Map<String, Integer> targets) {
+        int[] plan = new int[record.fieldNames.length];
+        for (int i = 0; i < plan.length; i++) {
+            String name = record.fieldNames[i];
+            Integer target = targets.get(name);
+            if (target == null && targets == EVENT_FIELDS && name.equals("dataVersion")) {
+                target = STRING_COUNT + DATA_VERSION;
+            } else if (target == null && targets == DATA_FIELDS && name.equals("contentLength")) {
+                target = STRING_COUNT + CONTENT_LENGTH;
+            }
+            plan[i] = target == null ? SKIP : target;
+        }
+        return plan;
+    }
+
+    private static Map<String, byte[]> readMetadata(ByteBuffer file) {
+        Map<String, byte[]> metadata = new HashMap<>();
+        long count;
+        while ((count = AvroSchema.readLong(file)) != 0) {
+            if (count < 0) {
+                count = -count;
+                AvroSchema.readLong(file);
+            }
+            for (long i = 0; i < count; i++) {
+                byte[] key = new byte[(int) AvroSchema.readLong(file)];
+                file.get(key);
+                byte[] value = new byte[(int) AvroSchema.readLong(file)];
+                file.get(value);
+                metadata.put(new String(key, StandardCharsets.UTF_8), value);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Inflates a deflate compressed block into the reused buffers
+     */
+    private ByteBuffer inflate(ByteBuffer file, int size) throws IOException {
+        if (this.compressed.length < size) {
+            this.compressed = new byte[Math.max(size, this.compressed.length * 2)];
+        }
+        file.duplicate().get(this.compressed, 0, size);
+        this.inflater.reset();
+        this.inflater.setInput(this.compressed, 0, size);
+        int length = 0;
+        try {
+            while (!this.inflater.finished()) {
+                if (length == this.inflated.length) {
+                    this.inflated = Arrays.copyOf(this.inflated, this.inflated.length * 2);
+                }
+                int inflatedBytes = this.inflater.inflate(this.inflated, length, this.inflated.length - length);
+                if (inflatedBytes == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflatedBytes;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate block in change feed chunk", e);
+        }
+        return ByteBuffer.wrap(this.inflated, 0, length);
+    }
+
+    private BlobChangefeedEvent toEvent() {
+        String eventTime = this.strings[EVENT_TIME];
+        String eventType = this.strings[EVENT_TYPE];
+        String blobType = this.strings[BLOB_TYPE];
+        return new LocalChangefeedEvent(this.strings[TOPIC], this.strings[SUBJECT],
+                eventType == null ? null : this.eventTypes.computeIfAbsent(eventType, BlobChangefeedEventType::fromString),
+                eventTime == null ? null : OffsetDateTime.parse(eventTime), this.strings[ID],
+                this.longs[DATA_VERSION], this.strings[METADATA_VERSION], this.strings[API],
+                this.strings[CLIENT_REQUEST_ID], this.strings[REQUEST_ID], this.strings[ETAG],
+                this.strings[CONTENT_TYPE], this.longs[CONTENT_LENGTH],
+                blobType == null ? null : this.blobTypes.computeIfAbsent(blobType, BlobType::fromString),
+                this.strings[URL], this.strings[SEQUENCER]);
+    }
+}
@@ -0,0 +1,215 @@
+package changeFeedPipeline;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed Avro schema, enough to walk and skip every value of a change feed chunk file. Named types can be referenced
+ * by name after their definition, including from within themselves
+ */
+final class AvroSchema {
+    enum Type {
+        NULL, BOOLEAN, INT, LONG, FLOAT, DOUBLE, BYTES, STRING, RECORD, ENUM, ARRAY, MAP, UNION, FIXED
+    }
+
+    final Type type;
+    // Record fields
+    String[] fieldNames;
+    AvroSchema[] fieldSchemas;
+    // Enum symbols
+    String[] symbols;
+    // Array items and map values
+    AvroSchema element;
+    // Union branches
+    AvroSchema[] branches;
+    // Fixed size
+    int size;
+
+    private AvroSchema(Type type) {
+        this.type = type;
+    }
+
+    static AvroSchema parse(String json) {
+        return parse(Json.parse(json), new HashMap<>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AvroSchema parse(Object json, Map<String, AvroSchema> named) {
+        if (json instanceof String) {
+            AvroSchema reference = named.get(json);
+            if (reference != null) {
+                return reference;
+            }
+            return new AvroSchema(primitive((String) json));
+        }
+        if (json instanceof List) {
+            List<Object> branches = (List<Object>) json;
+            AvroSchema union = new AvroSchema(Type.UNION);
+            union.branches = new AvroSchema[branches.size()];
+            for (int i = 0; i < branches.size(); i++) {
+                union.branches[i] = parse(branches.get(i), named);
+            }
+            return union;
+        }
+        if (!(json instanceof Map)) {
+            throw new IllegalArgumentException("Invalid Avro schema element " + json);
+        }
+
+        Map<String, Object> definition = (Map<String, Object>) json;
+        String typeName = (String) definition.get("type");
+        AvroSchema schema;
+        switch (typeName) {
+            case "record":
+            case "error":
+                schema = new AvroSchema(Type.RECORD);
+                register(schema, definition, named);
+                List<Object> fields = (List<Object>) definition.get("fields");
+                schema.fieldNames = new String[fields.size()];
+                schema.fieldSchemas = new AvroSchema[fields.size()];
+                for (int i = 0; i < fields.size(); i++) {
+                    Map<String, Object> field = (Map<String, Object>) fields.get(i);
+                    schema.fieldNames[i] = (String) field.get("name");
+                    schema.fieldSchemas[i] = parse(field.get("type"), named);
+                }
+                return schema;
+            case "enum":
+                schema = new AvroSchema(Type.ENUM);
+                register(schema, definition, named);
+                schema.symbols = ((List<Object>) definition.get("symbols")).toArray(new String[0]);
+                return schema;
+            case "fixed":
+                schema = new AvroSchema(Type.FIXED);
+                register(schema, definition, named);
+                schema.size = ((Number) definition.get("size")).intValue();
+                return schema;
+            case "array":
+                schema = new AvroSchema(Type.ARRAY);
+                schema.element = parse(definition.get("items"), named);
+                return schema;
+            case "map":
+                schema = new AvroSchema(Type.MAP);
+                schema.element = parse(definition.get("values"), named);
+                return schema;
+            default:
+                // A primitive written as {"type": "string"}, possibly with a logical type on top
+                return parse(typeName, named);
+        }
+    }
+
+    private static void register(AvroSchema schema, Map<String, Object> definition, Map<String, AvroSchema> named) {
+        String name = (String) definition.get("name");
+        Object namespace = definition.get("namespace");
+        named.put(name, schema);
+        if (namespace != null && name.indexOf('.') < 0) {
+            named.put(namespace + "." + name, schema);
+        }
+    }
+
+    private static Type primitive(String name) {
+        switch (name) {
+            case "null":
+                return Type.NULL;
+            case "boolean":
+                return Type.BOOLEAN;
+            case "int":
+                return Type.INT;
+            case "long":
+                return Type.LONG;
+            case "float":
+                return Type.FLOAT;
+            case "double":
+                return Type.DOUBLE;
+            case "bytes":
+                return Type.BYTES;
+            case "string":
+                return Type.STRING;
+            default:
+                throw new IllegalArgumentException("Unknown Avro type " + name);
+        }
+    }
+
+    /**
+     * Moves the buffer past one value of this schema without decoding it
+     */
+    void skip(ByteBuffer buffer) {
+        switch (this.type) {
+            case NULL:
+                return;
+            case BOOLEAN:
+                buffer.position(buffer.position() + 1);
+                return;
+            case INT:
+            case LONG:
+            case ENUM:
+                readLong(buffer);
+                return;
+            case FLOAT:
+                buffer.position(buffer.position() + 4);
+                return;
+            case DOUBLE:
+                buffer.position(buffer.position() + 8);
+                return;
+            case BYTES:
+            case STRING:
+                int length = (int) readLong(buffer);
+                buffer.position(buffer.position() + length);
+                return;
+            case FIXED:
+                buffer.position(buffer.position() + this.size);
+                return;
+            case RECORD:
+                for (AvroSchema field : this.fieldSchemas) {
+                    field.skip(buffer);
+                }
+                return;
+            case UNION:
+                this.branches[(int) readLong(buffer)].skip(buffer);
+                return;
+            case ARRAY:
+            case MAP:
+                skipBlocks(buffer);
+                return;
+            default:
+                throw new IllegalStateException("Unknown Avro type " + this.type);
+        }
+    }
+
+    /**
+     * Skips the blocks of an array or map. A negative count is followed by the block's size in bytes, which lets the
+     * whole block be skipped at once
+     */
+    private void skipBlocks(ByteBuffer buffer) {
+        long count;
+        while ((count = readLong(buffer)) != 0) {
+            if (count < 0) {
+                long bytes = readLong(buffer);
+                buffer.position(buffer.position() + (int) bytes);
+                continue;
+            }
+            for (long i = 0; i < count; i++) {
+                if (this.type == Type.MAP) {
+                    int keyLength = (int) readLong(buffer);
+                    buffer.position(buffer.position() + keyLength);
+                }
+                this.element.skip(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads a zig-zag encoded variable length int or long
+     */
+    static long readLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buffer.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
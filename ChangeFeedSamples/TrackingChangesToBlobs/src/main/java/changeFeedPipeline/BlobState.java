@@ -0,0 +1,65 @@
+package changeFeedPipeline;
+
+/**
+ * Last known state of a blob as seen through the change feed. A deleted blob is kept as a tombstone so that older
+ * entries for the same blob are hidden
+ */
+public final class BlobState {
+    private final boolean deleted;
+    private final long eventTimeMillis;
+    private final long contentLength;
+    private final String eTag;
+    private final String contentType;
+    private final String blobType;
+
+    public BlobState(boolean deleted, long eventTimeMillis, long contentLength, String eTag, String contentType,
+                     String blobType) {
+        this.deleted = deleted;
+        this.eventTimeMillis = eventTimeMillis;
+        this.contentLength = contentLength;
+        this.eTag = eTag == null ? "" : eTag;
+        this.contentType = contentType == null ? "" : contentType;
+        this.blobType = blobType == null ? "" : blobType;
+    }
+
+    /**
+     * Creates a tombstone for a blob deleted at the given time
+     */
+    public static BlobState deleted(long eventTimeMillis) {
+        return new BlobState(true, eventTimeMillis, 0, "", "", "");
+    }
+
+    public boolean isDeleted() {
+        return this.deleted;
+    }
+
+    /**
+     * Time of the change feed event that produced this state
+     */
+    public long getEventTimeMillis() {
+        return this.eventTimeMillis;
+    }
+
+    public long getContentLength() {
+        return this.contentLength;
+    }
+
+    public String getETag() {
+        return this.eTag;
+    }
+
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    public String getBlobType() {
+        return this.blobType;
+    }
+
+    @Override
+    public String toString() {
+        return this.deleted
+                ? "deleted"
+                : this.contentLength + " bytes, " + this.blobType + ", " + this.contentType + ", ETag " + this.eTag;
+    }
+}
@@ -0,0 +1,787 @@
+package changeFeedPipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local sorted key-value store of blob states keyed by "container/blob", laid out as a small log-structured merge tree.
+ * Writes go to an append-only write-ahead log and a sorted in-memory table. When the table is full it is written out as
+ * an immutable sorted run. A run is one or more segment files of about MAX_SEGMENT_BYTES at most, split by key range,
+ * which are memory-mapped and searched in place. Once there are too many runs, the newest are merged into one, taking
+ * older runs along only while they are small next to the ones taken so far, so a large old run is only rewritten once
+ * the newer ones have grown to its size. Point lookups and prefix scans never touch the storage account
+ */
+public class BlobStateIndex implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(BlobStateIndex.class);
+    private static final int SEGMENT_MAGIC = 0x42534959;
+    private static final int FOOTER_SIZE = 40;
+    // Segments are mapped whole, and one mapping cannot exceed 2 GB
+    private static final long MAX_SEGMENT_BYTES = 64L << 20;
+    // An older run is merged along with newer ones when it is at most this many times their size
+    private static final int MERGE_RATIO = 2;
+    private static final String WAL_NAME = "wal.log";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".sst";
+
+    private final Path directory;
+    private final int memtableLimit;
+    private final int maxSegments;
+    private final long tombstoneRetentionMillis;
+    private final boolean readOnly;
+    private final TreeMap<String, BlobState> memtable = new TreeMap<>();
+
+    // Newest run first, so the first match during a lookup is the latest state
+    private final List<Run> runs = new ArrayList<>();
+    private long nextSegmentId = 0;
+    private FileOutputStream walFile;
+    private DataOutputStream wal;
+
+    /**
+     * Opens the index in the given directory, recovering any writes that were only in the write-ahead log
+     *
+     * @param directory Directory holding the log and segment files. Created if it does not exist.
+     * @param memtableLimit Number of entries kept in memory before they are written to a segment.
+     * @param maxSegments Number of runs allowed before the newest are merged into one.
+     * @param tombstoneRetentionMillis How long, by event time, a delete is kept after it happened. Older events for a
+     * deleted blob are only ignored while its tombstone is kept.
+     * @param readOnly Opens an index that another process is writing to, for queries only.
+     */
+    public BlobStateIndex(Path directory, int memtableLimit, int maxSegments, long tombstoneRetentionMillis,
+            boolean readOnly) throws IOException {
+        this.directory = directory;
+        this.memtableLimit = memtableLimit;
+        this.maxSegments = maxSegments;
+        this.tombstoneRetentionMillis = tombstoneRetentionMillis;
+        this.readOnly = readOnly;
+
+        if (!readOnly) {
+            Files.createDirectories(directory);
+        }
+        loadSegments();
+        replayWal();
+        if (!readOnly) {
+            // Moving recovered writes into a segment so the log starts empty and a torn last record is dropped
+            flushMemtable();
+            openWal();
+        }
+    }
+
+    /**
+     * Records the state of a blob. States older than the one already stored are ignored, so replaying events that
+     * were applied before is harmless as long as they are younger than the tombstone retention. A delete is forgotten
+     * once it is older than that and all runs have been merged, and replaying a create from before it then brings the
+     * blob back
+     */
+    public synchronized void put(String key, BlobState state) throws IOException {
+        if (this.readOnly) {
+            throw new IllegalStateException("Index was opened read-only");
+        }
+        BlobState current = lookup(key);
+        if (current != null && current.getEventTimeMillis() > state.getEventTimeMillis()) {
+            return;
+        }
+        writeRecord(this.wal, key, state);
+        this.memtable.put(key, state);
+        if (this.memtable.size() >= this.memtableLimit) {
+            flushMemtable();
+            openWal();
+        }
+    }
+
+    /**
+     * Returns the state of a blob, or null if it does not exist or was deleted
+     */
+    public synchronized BlobState get(String key) {
+        BlobState state = lookup(key);
+        return state == null || state.isDeleted() ? null : state;
+    }
+
+    /**
+     * Calls the consumer for every existing blob whose key starts with the prefix, in key order
+     */
+    public synchronized void scan(String prefix, BiConsumer<String, BlobState> consumer) {
+        Iterator<Map.Entry<String, BlobState>> entries = merged(this.runs, prefix, true);
+        while (entries.hasNext()) {
+            Map.Entry<String, BlobState> entry = entries.next();
+            if (!entry.getValue().isDeleted()) {
+                consumer.accept(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Forces the write-ahead log to disk. Everything put before this call survives a crash
+     */
+    public synchronized void sync() throws IOException {
+        if (this.wal != null) {
+            this.wal.flush();
+            this.walFile.getFD().sync();
+        }
+    }
+
+    /**
+     * Writes buffered entries to a segment, closes the log and unmaps the segments. The index cannot be queried after
+     * it is closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!this.readOnly) {
+            flushMemtable();
+        }
+        if (this.wal != null) {
+            this.wal.close();
+            this.wal = null;
+        }
+        for (Run run : this.runs) {
+            run.parts.forEach(Segment::unmap);
+        }
+        this.runs.clear();
+    }
+
+    /**
+     * Finds the newest state of a key, including tombstones
+     */
+    private BlobState lookup(String key) {
+        BlobState state = this.memtable.get(key);
+        if (state != null) {
+            return state;
+        }
+        for (Run run : this.runs) {
+            state = run.find(key);
+            if (state != null) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the in-memory table to a new run and starts a new log. Merges runs if there are too many
+     */
+    private void flushMemtable() throws IOException {
+        if (this.memtable.isEmpty()) {
+            return;
+        }
+        Run run = writeRun(this.memtable.entrySet().iterator(), -1, -1);
+        this.runs.add(0, run);
+        this.memtable.clear();
+        if (this.wal != null) {
+            this.wal.close();
+            this.wal = null;
+        }
+        // Truncating the log only after the segment is durable, so no write is ever in neither place
+        Files.deleteIfExists(this.directory.resolve(WAL_NAME));
+
+        if (this.runs.size() > this.maxSegments) {
+            compact();
+        }
+    }
+
+    /**
+     * Merges the newest runs into one: at least two, and each older run as long as it is at most MERGE_RATIO times the
+     * size of those taken so far. Tombstones can only be dropped when the oldest run is merged as well, since otherwise
+     * a run left out may still hold the state they hide, and only once they are older than the retention, so replayed
+     * events from before a delete are still recognised as stale
+     */
+    private void compact() throws IOException {
+        int merged = 2;
+        long bytes = this.runs.get(0).bytes() + this.runs.get(1).bytes();
+        while (merged < this.runs.size() && this.runs.get(merged).bytes() <= MERGE_RATIO * bytes) {
+            bytes += this.runs.get(merged).bytes();
+            merged++;
+        }
+        List<Run> inputs = new ArrayList<>(this.runs.subList(0, merged));
+        Iterator<Map.Entry<String, BlobState>> entries = merged(inputs, "", false);
+        if (merged == this.runs.size()) {
+            entries = withoutTombstonesBefore(entries, System.currentTimeMillis() - this.tombstoneRetentionMillis);
+        }
+        Run compacted = writeRun(entries, inputs.get(merged - 1).firstId(), inputs.get(0).lastId());
+        this.runs.subList(0, merged).clear();
+        this.runs.add(0, compacted);
+        for (Run input : inputs) {
+            discard(input.parts);
+        }
+        logger.info("Merged {} runs of {} bytes into {} segments ({} entries)", inputs.size(), bytes,
+                compacted.parts.size(), compacted.count());
+    }
+
+    private static Iterator<Map.Entry<String, BlobState>> withoutTombstonesBefore(
+            Iterator<Map.Entry<String, BlobState>> entries, long cutoffMillis) {
+        return new Iterator<Map.Entry<String, BlobState>>() {
+            private Map.Entry<String, BlobState> next = advance();
+
+            private Map.Entry<String, BlobState> advance() {
+                while (entries.hasNext()) {
+                    Map.Entry<String, BlobState> entry = entries.next();
+                    if (!entry.getValue().isDeleted() || entry.getValue().getEventTimeMillis() >= cutoffMillis) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            public Map.Entry<String, BlobState> next() {
+                Map.Entry<String, BlobState> current = this.next;
+                if (current == null) {
+                    throw new NoSuchElementException();
+                }
+                this.next = advance();
+                return current;
+            }
+        };
+    }
+
+    /**
+     * Writes sorted entries to a new run, starting a new segment file whenever one reaches MAX_SEGMENT_BYTES. The last
+     * segment of a run is marked as such, so a run that a crash cut short is recognized when the index is opened
+     *
+     * @param compactedFrom Lowest segment ID merged into this run, or -1 for a memtable flush.
+     * @param compactedThrough Highest segment ID merged into this run, or -1 for a memtable flush. Segments between the
+     * two IDs are obsolete once the run is complete, and are removed if still present after a crash.
+     */
+    private Run writeRun(Iterator<Map.Entry<String, BlobState>> entries, long compactedFrom, long compactedThrough)
+            throws IOException {
+        List<Segment> parts = new ArrayList<>();
+        do {
+            parts.add(writeSegment(entries, parts.size(), compactedFrom, compactedThrough));
+        } while (entries.hasNext());
+        return new Run(parts);
+    }
+
+    /**
+     * Writes sorted entries to a new segment file until it reaches MAX_SEGMENT_BYTES. The file is written under a
+     * temporary name and renamed once it is on disk, so a crash never leaves a partial segment behind
+     */
+    private Segment writeSegment(Iterator<Map.Entry<String, BlobState>> entries, int part, long compactedFrom,
+                                 long compactedThrough) throws IOException {
+        long id = this.nextSegmentId++;
+        Path path = this.directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Path tempPath = this.directory.resolve(path.getFileName() + ".tmp");
+
+        List<Long> offsets = new ArrayList<>();
+        try (FileOutputStream file = new FileOutputStream(tempPath.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            // Records are at most a few hundred KB, so a segment ends up only that much over the limit
+            while (entries.hasNext() && out.size() + 8L * offsets.size() + FOOTER_SIZE < MAX_SEGMENT_BYTES) {
+                Map.Entry<String, BlobState> entry = entries.next();
+                offsets.add((long) out.size());
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+            long indexOffset = out.size();
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(offsets.size());
+            out.writeInt(part);
+            out.writeInt(entries.hasNext() ? 0 : 1);
+            out.writeLong(compactedFrom);
+            out.writeLong(compactedThrough);
+            out.writeInt(SEGMENT_MAGIC);
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+        return Segment.open(path, id);
+    }
+
+    /**
+     * Opens existing segments, dropping those of a run that a crash cut short and those already merged into a newer
+     * run
+     */
+    private void loadSegments() throws IOException {
+        if (!Files.isDirectory(this.directory)) {
+            return;
+        }
+        // Segments by the ID of the run they belong to
+        TreeMap<Long, List<Segment>> found = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                Segment segment = Segment.open(file, id);
+                found.computeIfAbsent(segment.runId(), runId -> new ArrayList<>()).add(segment);
+                this.nextSegmentId = Math.max(this.nextSegmentId, id + 1);
+            }
+        }
+
+        List<Run> complete = new ArrayList<>();
+        for (List<Segment> parts : found.values()) {
+            parts.sort(Comparator.comparingInt((Segment segment) -> segment.part));
+            if (isComplete(parts)) {
+                complete.add(new Run(parts));
+            } else {
+                // A writer that is still merging looks the same to a read-only index, which just leaves it alone
+                if (!this.readOnly) {
+                    logger.warn("Dropping {} segments of a merge that did not finish", parts.size());
+                }
+                discard(parts);
+            }
+        }
+        for (Run run : complete) {
+            boolean obsolete = false;
+            for (Run other : complete) {
+                Segment first = other.parts.get(0);
+                if (first.compactedFrom >= 0 && run.firstId() >= first.compactedFrom
+                        && run.lastId() <= first.compactedThrough) {
+                    obsolete = true;
+                }
+            }
+            if (obsolete) {
+                discard(run.parts);
+            } else {
+                this.runs.add(run);
+            }
+        }
+        this.runs.sort(Comparator.comparingLong(Run::firstId).reversed());
+    }
+
+    private static boolean isComplete(List<Segment> parts) {
+        for (int i = 0; i < parts.size(); i++) {
+            if (parts.get(i).part != i) {
+                return false;
+            }
+        }
+        return parts.get(parts.size() - 1).last;
+    }
+
+    /**
+     * Unmaps segments that are no longer needed and, unless the index is read-only, deletes their files
+     */
+    private void discard(List<Segment> segments) throws IOException {
+        for (Segment segment : segments) {
+            segment.unmap();
+            if (!this.readOnly) {
+                Files.deleteIfExists(segment.path);
+            }
+        }
+    }
+
+    /**
+     * Reads writes that had not yet reached a segment back into memory. Stops at a torn record at the end of the log
+     */
+    private void replayWal() throws IOException {
+        Path walPath = this.directory.resolve(WAL_NAME);
+        if (!Files.exists(walPath)) {
+            return;
+        }
+        int recovered = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(walPath)))) {
+            while (true) {
+                String key = readString(in);
+                BlobState state = new BlobState(in.readBoolean(), in.readLong(), in.readLong(), readString(in),
+                        readString(in), readString(in));
+                this.memtable.put(key, state);
+                recovered++;
+            }
+        } catch (EOFException e) {
+            // Reached the end of the log
+        }
+        if (recovered > 0) {
+            logger.info("Recovered {} index writes from the write-ahead log", recovered);
+        }
+    }
+
+    private void openWal() throws IOException {
+        if (this.wal == null) {
+            this.walFile = new FileOutputStream(this.directory.resolve(WAL_NAME).toFile());
+            this.wal = new DataOutputStream(new BufferedOutputStream(this.walFile, 1 << 16));
+        }
+    }
+
+    /**
+     * Returns the newest state in the runs, and optionally the memtable, of every key starting with the prefix, in key
+     * order, including tombstones
+     */
+    private Iterator<Map.Entry<String, BlobState>> merged(List<Run> runs, String prefix, boolean includeMemtable) {
+        List<SortedSource> sources = new ArrayList<>();
+        if (includeMemtable) {
+            sources.add(new MemtableSource(this.memtable.tailMap(prefix, true).entrySet().iterator(), prefix, 0));
+        }
+        for (int i = 0; i < runs.size(); i++) {
+            sources.add(new RunSource(runs.get(i), prefix, i + 1));
+        }
+        return new MergeIterator(sources);
+    }
+
+    /**
+     * Record layout shared by the log and segments: key, deleted flag, event time, length, ETag, content type, blob type
+     */
+    private static void writeRecord(DataOutputStream out, String key, BlobState state) throws IOException {
+        writeString(out, key);
+        out.writeBoolean(state.isDeleted());
+        out.writeLong(state.getEventTimeMillis());
+        out.writeLong(state.getContentLength());
+        writeString(out, state.getETag());
+        writeString(out, state.getContentType());
+        writeString(out, state.getBlobType());
+    }
+
+    /**
+     * Strings are stored as UTF-16 chars so keys can be compared in the mapped file in the same order as String
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeShort(value.length());
+        out.writeChars(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        char[] chars = new char[in.readUnsignedShort()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Segments written by one memtable flush or merge, in key order, so their key ranges do not overlap
+     */
+    private static final class Run {
+        private final List<Segment> parts;
+
+        Run(List<Segment> parts) {
+            this.parts = parts;
+        }
+
+        long firstId() {
+            return this.parts.get(0).id;
+        }
+
+        long lastId() {
+            return this.parts.get(this.parts.size() - 1).id;
+        }
+
+        long bytes() {
+            long bytes = 0;
+            for (Segment part : this.parts) {
+                bytes += part.buffer.capacity();
+            }
+            return bytes;
+        }
+
+        long count() {
+            long count = 0;
+            for (Segment part : this.parts) {
+                count += part.count;
+            }
+            return count;
+        }
+
+        /**
+         * Returns the index of the segment whose key range holds the key, which is the last one whose first key is not
+         * greater
+         */
+        int partFor(String key) {
+            int index = this.parts.size() - 1;
+            while (index > 0 && this.parts.get(index).compareKey(this.parts.get(index).recordOffset(0), key) > 0) {
+                index--;
+            }
+            return index;
+        }
+
+        BlobState find(String key) {
+            return this.parts.get(partFor(key)).find(key);
+        }
+    }
+
+    /**
+     * Immutable memory-mapped segment: records, then an offset per record, then a fixed-size footer with the place of
+     * the segment in its run and the segments the run replaces
+     */
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final int indexOffset;
+        private final int count;
+        private final int part;
+        private final boolean last;
+        private final long compactedFrom;
+        private final long compactedThrough;
+
+        private Segment(long id, Path path, MappedByteBuffer buffer) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+            int footer = buffer.capacity() - FOOTER_SIZE;
+            if (footer < 0 || buffer.getInt(footer + 36) != SEGMENT_MAGIC) {
+                throw new IOException("Corrupt index segment " + path);
+            }
+            long indexOffset = buffer.getLong(footer);
+            this.count = buffer.getInt(footer + 8);
+            this.part = buffer.getInt(footer + 12);
+            this.last = buffer.getInt(footer + 16) != 0;
+            this.compactedFrom = buffer.getLong(footer + 20);
+            this.compactedThrough = buffer.getLong(footer + 28);
+            if (indexOffset < 0 || this.count < 0 || indexOffset + 8L * this.count != footer) {
+                throw new IOException("Corrupt index segment " + path);
+            }
+            this.indexOffset = (int) indexOffset;
+        }
+
+        private static Segment open(Path path, long id) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Index segment " + path + " is too large to map");
+                }
+                return new Segment(id, path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        /**
+         * The ID of the first segment of the run, as a run's segments get consecutive IDs
+         */
+        private long runId() {
+            return this.id - this.part;
+        }
+
+        private int recordOffset(int index) {
+            // Offsets are stored as longs, but a segment is small enough to be mapped, so they fit in an int
+            return (int) this.buffer.getLong(this.indexOffset + 8 * index);
+        }
+
+        /**
+         * Releases the mapping right away rather than when the buffer is garbage collected, so the disk space of a
+         * deleted segment is freed. The segment must not be read afterwards
+         */
+        private void unmap() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), this.buffer);
+            } catch (NoSuchMethodException e) {
+                // Java 8 has no invokeCleaner, but exposes the cleaner on the buffer
+                try {
+                    Method cleanerMethod = this.buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(this.buffer);
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                } catch (ReflectiveOperationException | RuntimeException cleanerException) {
+                    logger.debug("Could not unmap {}, it is unmapped once garbage collected", this.path,
+                            cleanerException);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.debug("Could not unmap {}, it is unmapped once garbage collected", this.path, e);
+            }
+        }
+
+        /**
+         * Compares the key stored at the offset with the given key, without creating a String
+         */
+        private int compareKey(int offset, String key) {
+            int length = this.buffer.getShort(offset) & 0xFFFF;
+            int common = Math.min(length, key.length());
+            for (int i = 0; i < common; i++) {
+                char c = this.buffer.getChar(offset + 2 + 2 * i);
+                if (c != key.charAt(i)) {
+                    return c - key.charAt(i);
+                }
+            }
+            return length - key.length();
+        }
+
+        /**
+         * Returns the index of the first record whose key is not less than the given key
+         */
+        private int lowerBound(String key) {
+            int low = 0;
+            int high = this.count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compareKey(recordOffset(middle), key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private BlobState find(String key) {
+            int index = lowerBound(key);
+            if (index < this.count && compareKey(recordOffset(index), key) == 0) {
+                return readState(recordOffset(index));
+            }
+            return null;
+        }
+
+        private String readKey(int offset) {
+            return readString(offset);
+        }
+
+        private BlobState readState(int offset) {
+            int position = offset + 2 + 2 * (this.buffer.getShort(offset) & 0xFFFF);
+            boolean deleted = this.buffer.get(position) != 0;
+            long eventTime = this.buffer.getLong(position + 1);
+            long contentLength = this.buffer.getLong(position + 9);
+            position += 17;
+            String eTag = readString(position);
+            position += 2 + 2 * eTag.length();
+            String contentType = readString(position);
+            position += 2 + 2 * contentType.length();
+            String blobType = readString(position);
+            return new BlobState(deleted, eventTime, contentLength, eTag, contentType, blobType);
+        }
+
+        private String readString(int offset) {
+            char[] chars = new char[this.buffer.getShort(offset) & 0xFFFF];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = this.buffer.getChar(offset + 2 + 2 * i);
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Sorted stream of entries from one source. Lower rank means newer data
+     */
+    private abstract static class SortedSource {
+        final int rank;
+        String key;
+        BlobState state;
+
+        SortedSource(int rank) {
+            this.rank = rank;
+        }
+
+        /**
+         * Moves to the next entry, returning false at the end of the prefix range
+         */
+        abstract boolean advance();
+    }
+
+    private static final class MemtableSource extends SortedSource {
+        private final Iterator<Map.Entry<String, BlobState>> entries;
+        private final String prefix;
+
+        MemtableSource(Iterator<Map.Entry<String, BlobState>> entries, String prefix, int rank) {
+            super(rank);
+            this.entries = entries;
+            this.prefix = prefix;
+        }
+
+        boolean advance() {
+            if (this.entries.hasNext()) {
+                Map.Entry<String, BlobState> entry = this.entries.next();
+                if (entry.getKey().startsWith(this.prefix)) {
+                    this.key = entry.getKey();
+                    this.state = entry.getValue();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads a run's segments one after the other, starting in the one whose key range holds the prefix
+     */
+    private static final class RunSource extends SortedSource {
+        private final Run run;
+        private final String prefix;
+        private int part;
+        private int index;
+
+        RunSource(Run run, String prefix, int rank) {
+            super(rank);
+            this.run = run;
+            this.prefix = prefix;
+            this.part = run.partFor(prefix);
+            this.index = run.parts.get(this.part).lowerBound(prefix);
+        }
+
+        boolean advance() {
+            while (this.part < this.run.parts.size()) {
+                Segment segment = this.run.parts.get(this.part);
+                if (this.index < segment.count) {
+                    int offset = segment.recordOffset(this.index++);
+                    String nextKey = segment.readKey(offset);
+                    if (!nextKey.startsWith(this.prefix)) {
+                        return false;
+                    }
+                    this.key = nextKey;
+                    this.state = segment.readState(offset);
+                    return true;
+                }
+                this.part++;
+                this.index = 0;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * K-way merge over sorted sources that yields each key once, taking the state from the newest source
+     */
+    private static final class MergeIterator implements Iterator<Map.Entry<String, BlobState>> {
+        private final PriorityQueue<SortedSource> queue = new PriorityQueue<>(
+                Comparator.comparing((SortedSource source) -> source.key).thenComparingInt(source -> source.rank));
+
+        MergeIterator(List<SortedSource> sources) {
+            for (SortedSource source : sources) {
+                if (source.advance()) {
+                    this.queue.add(source);
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return !this.queue.isEmpty();
+        }
+
+        public Map.Entry<String, BlobState> next() {
+            SortedSource newest = this.queue.poll();
+            if (newest == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, BlobState> entry = new AbstractMap.SimpleImmutableEntry<>(newest.key, newest.state);
+
+            // Skipping older versions of the same key in other sources
+            while (!this.queue.isEmpty() && this.queue.peek().key.equals(entry.getKey())) {
+                SortedSource older = this.queue.poll();
+                if (older.advance()) {
+                    this.queue.add(older);
+                }
+            }
+            if (newest.advance()) {
+                this.queue.add(newest);
+            }
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEventData;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Applies change feed events to a {@link BlobStateIndex}, so the index mirrors which blobs exist and how big they are
+ */
+public class BlobStateIndexer implements ChangeFeedEventHandler {
+    private static final String CONTAINERS = "/containers/";
+    private static final String BLOBS = "/blobs/";
+
+    private final BlobStateIndex index;
+
+    public BlobStateIndexer(BlobStateIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Returns the index key "container/blob" for an event subject such as
+     * "/blobServices/default/containers/container/blobs/path/to/blob", or null if the subject is not a blob
+     */
+    public static String keyOf(String subject) {
+        int containerStart = subject.indexOf(CONTAINERS);
+        int blobStart = subject.indexOf(BLOBS, containerStart + 1);
+        if (containerStart < 0 || blobStart < 0) {
+            return null;
+        }
+        return subject.substring(containerStart + CONTAINERS.length(), blobStart) + "/"
+                + subject.substring(blobStart + BLOBS.length());
+    }
+
+    public void handle(BlobChangefeedEvent event) {
+        String key = keyOf(event.getSubject());
+        if (key == null) {
+            return;
+        }
+        long eventTime = event.getEventTime().toInstant().toEpochMilli();
+        BlobChangefeedEventData data = event.getData();
+        String eventType = event.getEventType().toString();
+
+        try {
+            if (eventType.equals("BlobCreated")) {
+                this.index.put(key, new BlobState(false, eventTime,
+                        data.getContentLength() == null ? 0 : data.getContentLength(), data.getETag(),
+                        data.getContentType(), data.getBlobType() == null ? null : data.getBlobType().toString()));
+            } else if (eventType.equals("BlobDeleted")) {
+                this.index.put(key, BlobState.deleted(eventTime));
+            } else if (eventType.equals("BlobPropertiesUpdated")) {
+                // Property updates change the ETag and content type but not the content
+                BlobState current = this.index.get(key);
+                if (current != null) {
+                    this.index.put(key, new BlobState(false, eventTime, current.getContentLength(),
+                            data.getETag() == null ? current.getETag() : data.getETag(),
+                            data.getContentType() == null ? current.getContentType() : data.getContentType(),
+                            current.getBlobType()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Makes every applied event durable before the cursor moves past it
+     */
+    @Override
+    public void flush() {
+        try {
+            this.index.sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
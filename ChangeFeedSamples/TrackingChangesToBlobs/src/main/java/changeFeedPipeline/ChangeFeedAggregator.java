@@ -0,0 +1,241 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts events and bytes per container, blob name prefix and event type in event time windows. Every pane is a
+ * tumbling window and is emitted once the latest event time seen is more than the allowed lateness past its end. When
+ * sliding windows are enabled, the sum of the last closed panes is emitted after every pane as well, kept up to date by
+ * adding the pane that closed and subtracting the one that left the window.
+ * <p>
+ * Events older than a pane that already closed are counted as late and dropped. Events of containers, prefixes or
+ * event types beyond the number of distinct ones a key can hold are counted as overflowing and dropped. Not thread
+ * safe, events must be handled from one thread
+ */
+public class ChangeFeedAggregator implements ChangeFeedEventHandler {
+    private static Logger logger = LoggerFactory.getLogger(ChangeFeedAggregator.class);
+    private static final String CONTAINERS = "/containers/";
+    private static final String BLOBS = "/blobs/";
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final long paneMillis;
+    private final int slidingPanes;
+    private final int prefixDepth;
+    private final long allowedLatenessMillis;
+    private final Consumer<WindowAggregate> listener;
+
+    // Keys are packed into a long as container id (22 bits), prefix id (25 bits) and event type id (16 bits), leaving
+    // the sign bit clear
+    private static final int CONTAINER_BITS = 22;
+    private static final int PREFIX_BITS = 25;
+    private static final int EVENT_TYPE_BITS = 16;
+    private final StringDictionary containers = new StringDictionary(1 << CONTAINER_BITS);
+    private final StringDictionary prefixes = new StringDictionary(1 << PREFIX_BITS);
+    private final StringDictionary eventTypes = new StringDictionary(1 << EVENT_TYPE_BITS);
+
+    // Panes that are still open, indexed by pane number modulo the ring size
+    private final AggregateMap[] openPanes;
+    private final long[] openPaneStarts;
+    private int openPaneCount = 0;
+    private final ArrayDeque<AggregateMap> spareMaps = new ArrayDeque<>();
+
+    // Closed panes still inside the sliding window, and their sum
+    private final AggregateMap[] closedPanes;
+    private int closedPanePosition = 0;
+    private final AggregateMap sliding = new AggregateMap();
+
+    private long nextPaneStart = NONE;
+    private long maxEventTime = NONE;
+    private long lateEvents = 0;
+    private long overflowEvents = 0;
+
+    /**
+     * @param paneMillis length of a tumbling window
+     * @param slidingPanes number of panes a sliding window covers, or 0 to only emit tumbling windows
+     * @param prefixDepth number of leading folders of the blob name that form the prefix
+     * @param allowedLatenessMillis how long after the end of a pane events for it are still accepted
+     * @param listener receives the aggregates of every closed window, one per key
+     */
+    public ChangeFeedAggregator(long paneMillis, int slidingPanes, int prefixDepth, long allowedLatenessMillis,
+                                Consumer<WindowAggregate> listener) {
+        if (paneMillis <= 0 || slidingPanes < 0 || prefixDepth < 0 || allowedLatenessMillis < 0) {
+            throw new IllegalArgumentException("Window sizes, prefix depth and lateness must not be negative");
+        }
+        this.paneMillis = paneMillis;
+        this.slidingPanes = slidingPanes;
+        this.prefixDepth = prefixDepth;
+        this.allowedLatenessMillis = allowedLatenessMillis;
+        this.listener = listener;
+
+        // An event is never more than the allowed lateness plus one pane behind the oldest open pane's end
+        int ringSize = (int) (allowedLatenessMillis / paneMillis) + 3;
+        this.openPanes = new AggregateMap[ringSize];
+        this.openPaneStarts = new long[ringSize];
+        Arrays.fill(this.openPaneStarts, NONE);
+        this.closedPanes = new AggregateMap[Math.max(slidingPanes, 1)];
+    }
+
+    public void handle(BlobChangefeedEvent event) {
+        long eventTime = event.getEventTime().toInstant().toEpochMilli();
+        if (eventTime > this.maxEventTime) {
+            this.maxEventTime = eventTime;
+            if (this.nextPaneStart != NONE) {
+                advance(eventTime - this.allowedLatenessMillis);
+            }
+        }
+
+        long paneStart = eventTime - Math.floorMod(eventTime, this.paneMillis);
+        if (this.nextPaneStart == NONE) {
+            this.nextPaneStart = paneStart;
+        } else if (paneStart < this.nextPaneStart) {
+            this.lateEvents++;
+            return;
+        }
+
+        long key = keyOf(event);
+        if (key < 0) {
+            return;
+        }
+        Long contentLength = event.getData() == null ? null : event.getData().getContentLength();
+        paneStartingAt(paneStart).add(key, 1, contentLength == null ? 0 : contentLength);
+    }
+
+    /**
+     * Closes every pane whose end the given event time watermark has passed. Lets windows close when no newer events
+     * arrive, such as when the feed is caught up and the current wall clock time minus the feed's delay is passed in
+     */
+    public void advance(long watermarkMillis) {
+        while (this.nextPaneStart != NONE && this.nextPaneStart + this.paneMillis <= watermarkMillis) {
+            if (this.openPaneCount == 0 && this.sliding.isEmpty()) {
+                // Nothing left to emit, skipping straight to the pane holding the watermark
+                this.nextPaneStart = watermarkMillis - Math.floorMod(watermarkMillis, this.paneMillis);
+                break;
+            }
+            closePane(this.nextPaneStart);
+            this.nextPaneStart += this.paneMillis;
+        }
+    }
+
+    /**
+     * Closes every pane that ended more than the allowed lateness before the given wall clock time, so the last
+     * windows of a feed that went idle are emitted without waiting for a newer event
+     */
+    public void advanceToWallClock(long nowMillis) {
+        advance(nowMillis - this.allowedLatenessMillis);
+    }
+
+    /**
+     * Number of events dropped because their pane had already closed
+     */
+    public long getLateEvents() {
+        return this.lateEvents;
+    }
+
+    /**
+     * Number of events dropped because their container, prefix or event type did not fit into a key
+     */
+    public long getOverflowEvents() {
+        return this.overflowEvents;
+    }
+
+    private void closePane(long paneStart) {
+        long paneEnd = paneStart + this.paneMillis;
+        int slot = slotOf(paneStart);
+        AggregateMap pane = null;
+        if (this.openPaneStarts[slot] == paneStart) {
+            pane = this.openPanes[slot];
+            this.openPanes[slot] = null;
+            this.openPaneStarts[slot] = NONE;
+            this.openPaneCount--;
+            emit(WindowAggregate.Kind.TUMBLING, paneStart, paneEnd, pane);
+        }
+        if (this.slidingPanes == 0) {
+            recycle(pane);
+            return;
+        }
+
+        if (pane != null) {
+            this.sliding.addAll(pane);
+        }
+        AggregateMap expired = this.closedPanes[this.closedPanePosition];
+        if (expired != null) {
+            this.sliding.subtractAll(expired);
+            this.sliding.removeZeros();
+            recycle(expired);
+        }
+        this.closedPanes[this.closedPanePosition] = pane;
+        this.closedPanePosition = (this.closedPanePosition + 1) % this.slidingPanes;
+        emit(WindowAggregate.Kind.SLIDING, paneEnd - this.slidingPanes * this.paneMillis, paneEnd, this.sliding);
+    }
+
+    private AggregateMap paneStartingAt(long paneStart) {
+        int slot = slotOf(paneStart);
+        if (this.openPaneStarts[slot] != paneStart) {
+            this.openPanes[slot] = this.spareMaps.isEmpty() ? new AggregateMap() : this.spareMaps.pop();
+            this.openPaneStarts[slot] = paneStart;
+            this.openPaneCount++;
+        }
+        return this.openPanes[slot];
+    }
+
+    private void recycle(AggregateMap map) {
+        if (map != null) {
+            map.clear();
+            this.spareMaps.push(map);
+        }
+    }
+
+    private int slotOf(long paneStart) {
+        return (int) Math.floorMod(paneStart / this.paneMillis, (long) this.openPanes.length);
+    }
+
+    private void emit(WindowAggregate.Kind kind, long windowStart, long windowEnd, AggregateMap aggregates) {
+        aggregates.forEach((key, count, bytes) -> this.listener.accept(new WindowAggregate(kind, windowStart,
+                windowEnd, this.containers.get((int) (key >>> (PREFIX_BITS + EVENT_TYPE_BITS))),
+                this.prefixes.get((int) (key >>> EVENT_TYPE_BITS) & ((1 << PREFIX_BITS) - 1)),
+                this.eventTypes.get((int) key & ((1 << EVENT_TYPE_BITS) - 1)), count, bytes)));
+    }
+
+    /**
+     * Packs the ids of the event's container, prefix and event type into a key, or returns -1 if the subject is not a
+     * blob or a dictionary is full. Only strings that were not seen before are allocated
+     */
+    private long keyOf(BlobChangefeedEvent event) {
+        String subject = event.getSubject();
+        int containerStart = subject.indexOf(CONTAINERS);
+        int blobStart = subject.indexOf(BLOBS, containerStart + 1);
+        if (containerStart < 0 || blobStart < 0) {
+            return -1;
+        }
+        containerStart += CONTAINERS.length();
+        int nameStart = blobStart + BLOBS.length();
+        int prefixEnd = nameStart;
+        for (int depth = 0; depth < this.prefixDepth; depth++) {
+            int separator = subject.indexOf('/', prefixEnd);
+            if (separator < 0) {
+                break;
+            }
+            prefixEnd = separator + 1;
+        }
+
+        long container = this.containers.intern(subject, containerStart, blobStart);
+        long prefix = this.prefixes.intern(subject, nameStart, prefixEnd);
+        long eventType = this.eventTypes.intern(event.getEventType().toString());
+        // Full dictionaries stop adding strings, so new ones do not grow memory once they cannot be counted
+        if (container < 0 || prefix < 0 || eventType < 0) {
+            if (this.overflowEvents++ == 0) {
+                logger.warn("Too many distinct containers, prefixes or event types to aggregate, dropping the events "
+                        + "of new ones");
+            }
+            return -1;
+        }
+        return (container << (PREFIX_BITS + EVENT_TYPE_BITS)) | (prefix << EVENT_TYPE_BITS) | eventType;
+    }
+}
@@ -0,0 +1,128 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.BlobChangefeedClient;
+import com.azure.storage.blob.changefeed.BlobChangefeedPagedIterable;
+import com.azure.storage.blob.changefeed.BlobChangefeedPagedResponse;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes a historical range of the change feed in parallel. The range is split into hour-aligned slices, matching the
+ * hourly segments of the change feed, and every slice is read with its own bounded query and checkpointed on its own.
+ * A restarted backfill skips finished slices and resumes unfinished ones from their last page
+ */
+public class ChangeFeedBackfill {
+    private static Logger logger = LoggerFactory.getLogger(ChangeFeedBackfill.class);
+    private static final String DONE = "done";
+
+    private final BlobChangefeedClient changefeedClient;
+    private final Supplier<ChangeFeedEventHandler> sliceHandlers;
+    private final CursorStore cursorStore;
+    private final int parallelism;
+
+    /**
+     * @param changefeedClient Client used to read the change feed.
+     * @param sliceHandlers Creates a handler for each slice, which receives every event of the slice, in order, and
+     * is flushed after every page. Slices run in parallel, so whatever the handlers share must be thread safe and
+     * events are only ordered within a slice.
+     * @param cursorStore Stores the progress of each slice.
+     * @param parallelism Number of slices processed at the same time.
+     */
+    public ChangeFeedBackfill(BlobChangefeedClient changefeedClient, Supplier<ChangeFeedEventHandler> sliceHandlers,
+                              CursorStore cursorStore, int parallelism) {
+        this.changefeedClient = changefeedClient;
+        this.sliceHandlers = sliceHandlers;
+        this.cursorStore = cursorStore;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the time live tailing should start from once a backfill up to the given end time is done. This is the
+     * end time rounded down to the hour, since the hour still in progress is left to live tailing
+     */
+    public static OffsetDateTime handOffTime(OffsetDateTime end) {
+        return end.withOffsetSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS);
+    }
+
+    /**
+     * Processes all full hours between start and end, and returns once every slice is done. Throws if any slice
+     * failed. Finished slices stay checkpointed, so calling this again only retries the failed ones
+     */
+    public void run(OffsetDateTime start, OffsetDateTime end) throws InterruptedException {
+        List<OffsetDateTime> slices = new ArrayList<>();
+        OffsetDateTime sliceStart = start.withOffsetSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS);
+        OffsetDateTime lastSliceEnd = handOffTime(end);
+        while (sliceStart.isBefore(lastSliceEnd)) {
+            slices.add(sliceStart);
+            sliceStart = sliceStart.plusHours(1);
+        }
+        logger.info("Backfilling {} hourly slices from {} to {}", slices.size(), slices.isEmpty() ? lastSliceEnd
+                : slices.get(0), lastSliceEnd);
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.parallelism);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (OffsetDateTime slice : slices) {
+                futures.add(executor.submit(() -> processSlice(slice)));
+            }
+
+            // Waiting for every slice so one failure does not abandon the others
+            int failed = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    logger.error("Backfill of slice {} failed", slices.get(i), e.getCause());
+                }
+            }
+            if (failed > 0) {
+                throw new IllegalStateException(failed + " of " + slices.size() + " backfill slices failed");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        logger.info("Backfill complete up to {}", lastSliceEnd);
+    }
+
+    /**
+     * Reads one hour of the change feed, storing the slice's cursor after every page and marking it done at the end
+     */
+    private void processSlice(OffsetDateTime sliceStart) {
+        String key = "backfill/" + sliceStart;
+        String cursor = this.cursorStore.load(key);
+        if (DONE.equals(cursor)) {
+            return;
+        }
+
+        // A slice cursor remembers the slice's end time, so resuming from it stays within the slice
+        BlobChangefeedPagedIterable iterable = cursor == null
+                ? this.changefeedClient.getEvents(sliceStart, sliceStart.plusHours(1))
+                : this.changefeedClient.getEvents(cursor);
+        ChangeFeedEventHandler handler = this.sliceHandlers.get();
+        long events = 0;
+        for (BlobChangefeedPagedResponse page : iterable.iterableByPage()) {
+            for (BlobChangefeedEvent event : page.getElements()) {
+                handler.handle(event);
+                events++;
+            }
+            handler.flush();
+            this.cursorStore.store(key, page.getContinuationToken());
+        }
+        this.cursorStore.store(key, DONE);
+        logger.info("Backfilled slice {} ({} events)", sliceStart, events);
+    }
+}
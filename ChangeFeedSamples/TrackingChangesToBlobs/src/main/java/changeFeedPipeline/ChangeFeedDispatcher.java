@@ -0,0 +1,150 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.BlobChangefeedClient;
+import com.azure.storage.blob.changefeed.BlobChangefeedPagedIterable;
+import com.azure.storage.blob.changefeed.BlobChangefeedPagedResponse;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Reads the change feed once and routes every event to all registered subscribers whose filter accepts it. Each
+ * subscriber drains its own bounded queue on its own thread. A full queue blocks the reader, while the other
+ * subscribers keep working through what is already queued for them, but only up to the subscriber's offer timeout.
+ * Then that subscriber is failed, and the checkpoint only waits for the subscribers that have not failed
+ */
+public class ChangeFeedDispatcher {
+    private static final long DRAIN_POLL_MILLIS = 50;
+    private static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 60_000;
+
+    private final BlobChangefeedClient changefeedClient;
+    private final List<ChangeFeedSubscriber> subscribers = new ArrayList<>();
+    private final String initialCursor;
+    private String cursor;
+    private long pageCount = 0;
+    private boolean started = false;
+
+    public ChangeFeedDispatcher(BlobChangefeedClient changefeedClient, String cursor) {
+        this.changefeedClient = changefeedClient;
+        this.initialCursor = cursor;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Registers a subscriber that is failed once its queue stays full for a minute. All subscribers must be registered
+     * before the first call to {@link #runOnce()}
+     */
+    public ChangeFeedSubscriber subscribe(String name, Predicate<BlobChangefeedEvent> filter,
+                                          ChangeFeedEventHandler handler, int queueCapacity) {
+        return subscribe(name, filter, handler, queueCapacity, DEFAULT_OFFER_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Registers a subscriber that is failed once its queue stays full for the given time. All subscribers must be
+     * registered before the first call to {@link #runOnce()}
+     */
+    public synchronized ChangeFeedSubscriber subscribe(String name, Predicate<BlobChangefeedEvent> filter,
+                                                       ChangeFeedEventHandler handler, int queueCapacity,
+                                                       long offerTimeoutMillis) {
+        if (this.started) {
+            throw new IllegalStateException("Subscribers must be registered before the dispatcher runs");
+        }
+        ChangeFeedSubscriber subscriber = new ChangeFeedSubscriber(name, filter, handler, queueCapacity,
+                offerTimeoutMillis);
+        this.subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public synchronized List<ChangeFeedSubscriber> getSubscribers() {
+        return new ArrayList<>(this.subscribers);
+    }
+
+    /**
+     * Reads all events available since the last run, routes them to subscribers and waits until every healthy
+     * subscriber has handled them. Returns the cursor that is safe to checkpoint, which is the lowest watermark among
+     * the subscribers that have not failed
+     */
+    public synchronized String runOnce() throws InterruptedException {
+        BlobChangefeedPagedIterable iterable = this.cursor == null
+                ? this.changefeedClient.getEvents()
+                : this.changefeedClient.getEvents(this.cursor);
+
+        // Reading each page once and handing every event to each interested subscriber
+        for (BlobChangefeedPagedResponse page : iterable.iterableByPage()) {
+            dispatchPage(page.getElements(), page.getContinuationToken());
+        }
+        return awaitCheckpoint();
+    }
+
+    /**
+     * Hands one page of events to every subscriber, starting the subscribers on first use. The cursor is the
+     * continuation token that follows the page. Lets events that were not read through the change feed client, such as
+     * synthetic or local ones, go through the same subscribers
+     */
+    public synchronized void dispatchPage(Iterable<BlobChangefeedEvent> events, String cursor)
+            throws InterruptedException {
+        if (!this.started) {
+            this.subscribers.forEach(ChangeFeedSubscriber::start);
+            this.started = true;
+        }
+        for (BlobChangefeedEvent event : events) {
+            for (ChangeFeedSubscriber subscriber : this.subscribers) {
+                subscriber.offer(event);
+            }
+        }
+        this.pageCount++;
+        this.cursor = cursor;
+        for (ChangeFeedSubscriber subscriber : this.subscribers) {
+            subscriber.endPage(this.pageCount, this.cursor);
+        }
+    }
+
+    /**
+     * Waits until every healthy subscriber has handled all dispatched pages. Returns the cursor that is safe to
+     * checkpoint, which is the lowest watermark among the subscribers that have not failed
+     */
+    public synchronized String awaitCheckpoint() throws InterruptedException {
+        awaitDrained(this.pageCount);
+        return getCheckpointCursor();
+    }
+
+    /**
+     * Stops all subscriber threads. Events still queued are dropped and will be read again from the last checkpoint
+     */
+    public synchronized void close() {
+        this.subscribers.forEach(ChangeFeedSubscriber::stop);
+    }
+
+    /**
+     * Waits until every subscriber that has not failed has passed the given page
+     */
+    private void awaitDrained(long page) throws InterruptedException {
+        for (ChangeFeedSubscriber subscriber : this.subscribers) {
+            while (!subscriber.isFailed() && subscriber.getWatermarkPage() < page) {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Returns the cursor of the subscriber that is furthest behind, leaving out failed subscribers. They get no more
+     * events, so they would hold the cursor back until the process restarts
+     */
+    private String getCheckpointCursor() {
+        ChangeFeedSubscriber slowest = null;
+        for (ChangeFeedSubscriber subscriber : this.subscribers) {
+            if (subscriber.isFailed()) {
+                continue;
+            }
+            if (slowest == null || subscriber.getWatermarkPage() < slowest.getWatermarkPage()) {
+                slowest = subscriber;
+            }
+        }
+        if (slowest == null) {
+            return this.cursor;
+        }
+        return slowest.getWatermarkCursor() == null ? this.initialCursor : slowest.getWatermarkCursor();
+    }
+}
@@ -0,0 +1,32 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Receives change feed events that passed a consumer's filter
+ */
+public interface ChangeFeedEventHandler {
+    /**
+     * Handles a single event. Events arrive in change feed order
+     */
+    void handle(BlobChangefeedEvent event);
+
+    /**
+     * Called before the cursor is allowed to move past the events handled so far. Handlers that buffer events must
+     * persist them here
+     */
+    default void flush() {
+    }
+
+    /**
+     * Starts persisting the events handled so far and returns an acknowledgement that completes once they are durable.
+     * Callers keep handling new events while this is in progress and only move the cursor once it completes. The
+     * default flushes synchronously
+     */
+    default CompletableFuture<Void> flushAsync() {
+        flush();
+        return CompletableFuture.completedFuture(null);
+    }
+}
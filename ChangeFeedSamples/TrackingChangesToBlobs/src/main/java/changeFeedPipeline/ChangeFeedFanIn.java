@@ -0,0 +1,233 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.BlobChangefeedClient;
+import com.azure.storage.blob.changefeed.BlobChangefeedPagedIterable;
+import com.azure.storage.blob.changefeed.BlobChangefeedPagedResponse;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the change feeds of several storage accounts on one shared scheduler and merges the events that pass the
+ * filter into a single output handled on one thread. Each account has its own cursor and a limit on how many of its
+ * events may wait for the output, so a busy account cannot crowd out the others. An account's cursor is stored once the
+ * output has handled and flushed every event before it
+ */
+public class ChangeFeedFanIn implements AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger(ChangeFeedFanIn.class);
+    // Delay before a paused account is polled again, short next to the poll interval so it catches up soon
+    private static final long BACKOFF_MILLIS = 100;
+
+    private final ScheduledExecutorService scheduler;
+    private final Predicate<BlobChangefeedEvent> filter;
+    private final AccountEventHandler output;
+    private final CursorStore cursorStore;
+    private final List<Account> accounts = new ArrayList<>();
+    private final BlockingQueue<Item> merged = new LinkedBlockingQueue<>();
+    private Thread outputThread;
+    private volatile long intervalMillis;
+
+    public ChangeFeedFanIn(ScheduledExecutorService scheduler, Predicate<BlobChangefeedEvent> filter,
+                           AccountEventHandler output, CursorStore cursorStore) {
+        this.scheduler = scheduler;
+        this.filter = filter;
+        this.output = output;
+        this.cursorStore = cursorStore;
+    }
+
+    /**
+     * Adds an account, resuming from its stored cursor. All accounts must be added before {@link #start(long)}
+     *
+     * @param maxPendingEvents how many of the account's events may wait for the output before its reader pauses
+     */
+    public synchronized void addAccount(String name, BlobChangefeedClient changefeedClient, int maxPendingEvents) {
+        if (this.outputThread != null) {
+            throw new IllegalStateException("Accounts must be added before the fan-in starts");
+        }
+        this.accounts.add(new Account(name, changefeedClient, maxPendingEvents, this.cursorStore.load(name)));
+    }
+
+    /**
+     * Starts the output thread and polls every account's change feed with the given delay between the end of one poll
+     * and the start of the next
+     */
+    public synchronized void start(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+        this.outputThread = new Thread(this::drain, "change-feed-fan-in");
+        this.outputThread.start();
+        for (Account account : this.accounts) {
+            schedule(account, 0);
+        }
+    }
+
+    /**
+     * Schedules the next poll of an account. Each poll schedules the one after it, so polls of one account never
+     * overlap
+     */
+    private void schedule(Account account, long delayMillis) {
+        try {
+            this.scheduler.schedule(() -> poll(account), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The fan-in is closing
+        }
+    }
+
+    /**
+     * Stops polling and the output. Events that were read but not handled are read again on the next start
+     */
+    @Override
+    public synchronized void close() throws InterruptedException {
+        this.scheduler.shutdownNow();
+        this.scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        if (this.outputThread != null) {
+            this.outputThread.interrupt();
+            this.outputThread.join();
+        }
+    }
+
+    /**
+     * Reads the events of one account available since its last poll into the merged output, followed by a checkpoint
+     * for the last page read in full. Permits are only taken without waiting, since the scheduler threads are shared:
+     * once the account has maxPendingEvents waiting, the poll stops, remembers how far into the page it got, and is
+     * scheduled again shortly instead of blocking a thread the other accounts need
+     */
+    private void poll(Account account) {
+        int generation = account.generation;
+        if (generation != account.readGeneration) {
+            // The output failed on one of this account's events, so reading resumes from its last stored cursor
+            account.readCursor = account.storedCursor;
+            account.readSkip = 0;
+            account.readGeneration = generation;
+        }
+        // Reserving the checkpoint's permit first, so a paused poll can still store how far it got
+        if (!account.pending.tryAcquire()) {
+            schedule(account, BACKOFF_MILLIS);
+            return;
+        }
+        boolean paused = false;
+        String cursor = null;
+        try {
+            BlobChangefeedPagedIterable iterable = account.readCursor == null
+                    ? account.changefeedClient.getEvents()
+                    : account.changefeedClient.getEvents(account.readCursor);
+            for (BlobChangefeedPagedResponse page : iterable.iterableByPage()) {
+                // Events of this page that an earlier, paused poll already queued
+                int skip = account.readSkip;
+                int position = 0;
+                for (BlobChangefeedEvent event : page.getElements()) {
+                    if (position >= skip && this.filter.test(event)) {
+                        if (!account.pending.tryAcquire()) {
+                            account.readSkip = position;
+                            paused = true;
+                            break;
+                        }
+                        this.merged.add(new Item(account, generation, event, null));
+                    }
+                    position++;
+                }
+                if (paused) {
+                    break;
+                }
+                cursor = page.getContinuationToken();
+                account.readCursor = cursor;
+                account.readSkip = 0;
+            }
+        } catch (RuntimeException e) {
+            // Keeping the account scheduled. The next poll starts over from the last stored cursor
+            logger.error("Reading change feed of account {} failed", account.name, e);
+            account.readCursor = account.storedCursor;
+            account.readSkip = 0;
+            cursor = null;
+        }
+        if (cursor != null) {
+            this.merged.add(new Item(account, generation, null, cursor));
+        } else {
+            account.pending.release();
+        }
+        schedule(account, paused ? BACKOFF_MILLIS : this.intervalMillis);
+    }
+
+    /**
+     * Hands merged events to the output in arrival order and stores an account's cursor when its checkpoint comes up.
+     * If the output fails on an event, the rest of that account's queued items are dropped and it is read again from
+     * its stored cursor, while the other accounts carry on
+     */
+    private void drain() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Item item = this.merged.take();
+                try {
+                    if (item.generation != item.account.generation) {
+                        continue;
+                    }
+                    if (item.event != null) {
+                        this.output.handle(item.account.name, item.event);
+                    } else {
+                        this.output.flush();
+                        this.cursorStore.store(item.account.name, item.cursor);
+                        item.account.storedCursor = item.cursor;
+                        logger.info("Stored cursor of account {}", item.account.name);
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Output failed for account {}, reading it again from its stored cursor",
+                            item.account.name, e);
+                    item.account.generation++;
+                } finally {
+                    item.account.pending.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Account {
+        private final String name;
+        private final BlobChangefeedClient changefeedClient;
+        private final Semaphore pending;
+        // Where the next poll continues reading, ahead of the stored cursor while events are waiting for the output
+        private volatile String readCursor;
+        // Events at the start of the page after readCursor that were already queued by a poll that paused
+        private volatile int readSkip = 0;
+        private volatile String storedCursor;
+        // Incremented by the output thread when it fails on one of the account's items
+        private volatile int generation = 0;
+        private volatile int readGeneration = 0;
+
+        private Account(String name, BlobChangefeedClient changefeedClient, int maxPendingEvents, String cursor) {
+            this.name = name;
+            this.changefeedClient = changefeedClient;
+            this.pending = new Semaphore(maxPendingEvents);
+            this.readCursor = cursor;
+            this.storedCursor = cursor;
+        }
+    }
+
+    /**
+     * Either an event or, when the event is null, a cursor to store for the account
+     */
+    private static final class Item {
+        private final Account account;
+        private final int generation;
+        private final BlobChangefeedEvent event;
+        private final String cursor;
+
+        private Item(Account account, int generation, BlobChangefeedEvent event, String cursor) {
+            this.account = account;
+            this.generation = generation;
+            this.event = event;
+            this.cursor = cursor;
+        }
+    }
+}
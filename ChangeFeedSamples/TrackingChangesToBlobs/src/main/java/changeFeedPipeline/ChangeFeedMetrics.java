@@ -0,0 +1,257 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms describing how far behind a change feed consumer is and how fast it is going. Lag is the
+ * wall clock time minus the event time of the event being processed. Lag percentiles and maximum cover the events
+ * processed in the last complete minute, so they show how far behind the consumer is now rather than since it
+ * started. Metrics can be read through JMX and through a plain text HTTP endpoint on the loopback interface
+ */
+public class ChangeFeedMetrics implements ChangeFeedMetricsMBean {
+    private static final long LAG_WINDOW_SECONDS = 60;
+    private static final long LAG_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(LAG_WINDOW_SECONDS);
+
+    private final LongAdder eventsRead = new LongAdder();
+    private final LongAdder eventsMatched = new LongAdder();
+    private final LongAdder pagesRead = new LongAdder();
+    private final LongAdder checkpoints = new LongAdder();
+    private final LatencyHistogram checkpointLatency = new LatencyHistogram();
+    // Lag is recorded into the current window, and reported from the previous one once the window is over
+    private volatile LatencyHistogram lag = new LatencyHistogram();
+    private volatile LatencyHistogram completedLag = new LatencyHistogram();
+    private volatile long lagWindowStart = System.nanoTime();
+    private final Object lagWindowLock = new Object();
+    private final AtomicLong lastEventTimeMillis = new AtomicLong();
+    private final AtomicLong lastLagMillis = new AtomicLong();
+
+    // Rates are computed over the time since the previous rate sample
+    private long rateSampleTime = System.nanoTime();
+    private long rateSampleEvents = 0;
+    private long rateSamplePages = 0;
+    private double eventsPerSecond = 0;
+    private double pagesPerSecond = 0;
+
+    private HttpServer server;
+
+    /**
+     * Records an event read from the change feed, whether or not it matches the filters
+     */
+    public void recordEvent(BlobChangefeedEvent event) {
+        this.eventsRead.increment();
+        OffsetDateTime eventTime = event.getEventTime();
+        if (eventTime != null) {
+            long eventMillis = eventTime.toInstant().toEpochMilli();
+            long lagMillis = System.currentTimeMillis() - eventMillis;
+            rollLagWindow();
+            this.lag.record(lagMillis);
+            this.lastLagMillis.set(lagMillis);
+            this.lastEventTimeMillis.set(eventMillis);
+        }
+    }
+
+    /**
+     * Records an event that passed the filters
+     */
+    public void recordMatch() {
+        this.eventsMatched.increment();
+    }
+
+    public void recordPage() {
+        this.pagesRead.increment();
+    }
+
+    public void recordCheckpoint(long latencyMillis) {
+        this.checkpoints.increment();
+        this.checkpointLatency.record(latencyMillis);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under the given name
+     */
+    public void registerJmx(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("changeFeedPipeline:type=ChangeFeedMetrics,name=" + name));
+    }
+
+    /**
+     * Serves the metrics as plain text on http://127.0.0.1:port/metrics
+     */
+    public synchronized void startHttpEndpoint(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.server.createContext("/metrics", exchange -> {
+            byte[] body = toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        this.server.start();
+    }
+
+    public synchronized void stopHttpEndpoint() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.server = null;
+        }
+    }
+
+    /**
+     * Renders all metrics as one "name value" pair per line
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        appendLine(text, "changefeed_events_read_total", getEventsRead());
+        appendLine(text, "changefeed_events_matched_total", getEventsMatched());
+        appendLine(text, "changefeed_pages_read_total", getPagesRead());
+        appendLine(text, "changefeed_events_per_second", getEventsPerSecond());
+        appendLine(text, "changefeed_pages_per_second", getPagesPerSecond());
+        appendLine(text, "changefeed_filter_selectivity", getFilterSelectivity());
+        appendLine(text, "changefeed_checkpoints_total", getCheckpoints());
+        appendLine(text, "changefeed_checkpoint_latency_p50_ms", getCheckpointLatencyP50Millis());
+        appendLine(text, "changefeed_checkpoint_latency_p99_ms", getCheckpointLatencyP99Millis());
+        appendLine(text, "changefeed_lag_ms", getLagMillis());
+        appendLine(text, "changefeed_lag_p50_ms", getLagP50Millis());
+        appendLine(text, "changefeed_lag_p90_ms", getLagP90Millis());
+        appendLine(text, "changefeed_lag_p99_ms", getLagP99Millis());
+        appendLine(text, "changefeed_lag_max_ms", getLagMaxMillis());
+        return text.toString();
+    }
+
+    public long getEventsRead() {
+        return this.eventsRead.sum();
+    }
+
+    public long getEventsMatched() {
+        return this.eventsMatched.sum();
+    }
+
+    public long getPagesRead() {
+        return this.pagesRead.sum();
+    }
+
+    public double getEventsPerSecond() {
+        sampleRates();
+        return this.eventsPerSecond;
+    }
+
+    public double getPagesPerSecond() {
+        sampleRates();
+        return this.pagesPerSecond;
+    }
+
+    /**
+     * Fraction of read events that passed the filters
+     */
+    public double getFilterSelectivity() {
+        long read = getEventsRead();
+        return read == 0 ? 0 : (double) getEventsMatched() / read;
+    }
+
+    public long getCheckpoints() {
+        return this.checkpoints.sum();
+    }
+
+    public long getCheckpointLatencyP50Millis() {
+        return this.checkpointLatency.getPercentile(50);
+    }
+
+    public long getCheckpointLatencyP99Millis() {
+        return this.checkpointLatency.getPercentile(99);
+    }
+
+    /**
+     * Lag of the most recently processed event
+     */
+    public long getLagMillis() {
+        return this.lastLagMillis.get();
+    }
+
+    public long getLagP50Millis() {
+        return completedLag().getPercentile(50);
+    }
+
+    public long getLagP90Millis() {
+        return completedLag().getPercentile(90);
+    }
+
+    public long getLagP99Millis() {
+        return completedLag().getPercentile(99);
+    }
+
+    public long getLagMaxMillis() {
+        return completedLag().getMax();
+    }
+
+    public String getLastEventTime() {
+        long millis = this.lastEventTimeMillis.get();
+        return millis == 0 ? "" : Instant.ofEpochMilli(millis).toString();
+    }
+
+    /**
+     * Updates the rates once at least a second has passed since the last sample, so frequent readers do not see noise
+     */
+    private synchronized void sampleRates() {
+        long now = System.nanoTime();
+        double seconds = (now - this.rateSampleTime) / 1e9;
+        if (seconds < 1) {
+            return;
+        }
+        long events = getEventsRead();
+        long pages = getPagesRead();
+        this.eventsPerSecond = (events - this.rateSampleEvents) / seconds;
+        this.pagesPerSecond = (pages - this.rateSamplePages) / seconds;
+        this.rateSampleTime = now;
+        this.rateSampleEvents = events;
+        this.rateSamplePages = pages;
+    }
+
+    private LatencyHistogram completedLag() {
+        rollLagWindow();
+        return this.completedLag;
+    }
+
+    /**
+     * Starts a new lag window once the current one is over. A window in which no event was processed is reported
+     * as empty
+     */
+    private void rollLagWindow() {
+        if (System.nanoTime() - this.lagWindowStart < LAG_WINDOW_NANOS) {
+            return;
+        }
+        synchronized (this.lagWindowLock) {
+            long now = System.nanoTime();
+            long elapsed = now - this.lagWindowStart;
+            if (elapsed < LAG_WINDOW_NANOS) {
+                return;
+            }
+            this.completedLag = elapsed < 2 * LAG_WINDOW_NANOS ? this.lag : new LatencyHistogram();
+            this.lag = new LatencyHistogram();
+            this.lagWindowStart = now - elapsed % LAG_WINDOW_NANOS;
+        }
+    }
+
+    private static void appendLine(StringBuilder text, String name, long value) {
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendLine(StringBuilder text, String name, double value) {
+        text.append(name).append(' ').append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+    }
+}
@@ -0,0 +1,36 @@
+package changeFeedPipeline;
+
+/**
+ * JMX view of {@link ChangeFeedMetrics}
+ */
+public interface ChangeFeedMetricsMBean {
+    long getEventsRead();
+
+    long getEventsMatched();
+
+    long getPagesRead();
+
+    double getEventsPerSecond();
+
+    double getPagesPerSecond();
+
+    double getFilterSelectivity();
+
+    long getCheckpoints();
+
+    long getCheckpointLatencyP50Millis();
+
+    long getCheckpointLatencyP99Millis();
+
+    long getLagMillis();
+
+    long getLagP50Millis();
+
+    long getLagP90Millis();
+
+    long getLagP99Millis();
+
+    long getLagMaxMillis();
+
+    String getLastEventTime();
+}
@@ -0,0 +1,93 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads change feed events from a local copy of the "$blobchangefeed" container. Segments are read in time order from
+ * their "idx/segments/.../meta.json" manifests, and each segment's shards one after the other, so events of one shard
+ * keep their order but shards are not interleaved the way the service client does. A directory without manifests, such
+ * as a folder of downloaded chunk files, is read as all of its ".avro" files in path order
+ */
+public class ChangeFeedSegmentReader {
+    private static final String CONTAINER_PREFIX = "$blobchangefeed/";
+
+    private final Path root;
+    private final AvroChunkReader chunkReader = new AvroChunkReader();
+
+    public ChangeFeedSegmentReader(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Passes every event of the segments that start within the given range to the consumer and returns how many there
+     * were. Either bound may be null to leave that side open
+     */
+    public long read(OffsetDateTime start, OffsetDateTime end, Consumer<BlobChangefeedEvent> consumer)
+            throws IOException {
+        long events = 0;
+        for (Path chunk : chunkFiles(start, end)) {
+            events += this.chunkReader.read(chunk, consumer);
+        }
+        return events;
+    }
+
+    /**
+     * Lists the chunk files to read, in the order they are read
+     */
+    public List<Path> chunkFiles(OffsetDateTime start, OffsetDateTime end) throws IOException {
+        Path segments = this.root.resolve("idx").resolve("segments");
+        if (!Files.isDirectory(segments)) {
+            return avroFiles(this.root);
+        }
+
+        List<Path> chunks = new ArrayList<>();
+        for (Path manifest : sorted(segments, path -> path.getFileName().toString().equals("meta.json"))) {
+            Map<?, ?> segment = (Map<?, ?>) Json.parse(new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8));
+            Object begin = segment.get("begin");
+            if (begin != null) {
+                OffsetDateTime segmentStart = OffsetDateTime.parse((String) begin);
+                if ((start != null && segmentStart.isBefore(start)) || (end != null && !segmentStart.isBefore(end))) {
+                    continue;
+                }
+            }
+            Object shards = segment.get("chunkFilePaths");
+            if (shards == null) {
+                continue;
+            }
+            for (Object shard : (List<?>) shards) {
+                String shardPath = (String) shard;
+                if (shardPath.startsWith(CONTAINER_PREFIX)) {
+                    shardPath = shardPath.substring(CONTAINER_PREFIX.length());
+                }
+                Path shardDirectory = this.root.resolve(shardPath);
+                if (Files.isDirectory(shardDirectory)) {
+                    chunks.addAll(avroFiles(shardDirectory));
+                }
+            }
+        }
+        return chunks;
+    }
+
+    private static List<Path> avroFiles(Path directory) throws IOException {
+        return sorted(directory, path -> path.getFileName().toString().endsWith(".avro"));
+    }
+
+    private static List<Path> sorted(Path directory, Predicate<Path> filter) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).filter(filter).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A consumer registered with a {@link ChangeFeedDispatcher}. Each subscriber has its own filter, bounded queue, worker
+ * thread and watermark, so a slow or failing subscriber only holds back its own progress. A subscriber whose handler
+ * throws, or whose queue stays full for longer than its offer timeout, is failed: it gets no more events and no longer
+ * counts towards the checkpoint, and the cursor it stopped at is logged so its missed events can be read again
+ */
+public class ChangeFeedSubscriber {
+    private static Logger logger = LoggerFactory.getLogger(ChangeFeedSubscriber.class);
+
+    private final String name;
+    private final Predicate<BlobChangefeedEvent> filter;
+    private final ChangeFeedEventHandler handler;
+    private final BlockingQueue<Object> queue;
+    private final long offerTimeoutMillis;
+    private final Thread worker;
+
+    // Watermark is the last page whose events were all handled and flushed by this subscriber
+    private volatile long watermarkPage = -1;
+    private volatile String watermarkCursor;
+    private volatile boolean failed = false;
+
+    ChangeFeedSubscriber(String name, Predicate<BlobChangefeedEvent> filter, ChangeFeedEventHandler handler,
+                         int queueCapacity, long offerTimeoutMillis) {
+        this.name = name;
+        this.filter = filter;
+        this.handler = handler;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.worker = new Thread(this::drain, "changefeed-subscriber-" + name);
+        this.worker.setDaemon(true);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public long getWatermarkPage() {
+        return this.watermarkPage;
+    }
+
+    public String getWatermarkCursor() {
+        return this.watermarkCursor;
+    }
+
+    public boolean isFailed() {
+        return this.failed;
+    }
+
+    /**
+     * Number of events waiting in this subscriber's queue
+     */
+    public int getBacklog() {
+        return this.queue.size();
+    }
+
+    void start() {
+        this.worker.start();
+    }
+
+    void stop() {
+        this.worker.interrupt();
+    }
+
+    /**
+     * Queues an event if it passes this subscriber's filter. Blocks while the queue is full, which is how a slow
+     * subscriber applies backpressure to the reader, but for no longer than the offer timeout
+     */
+    void offer(BlobChangefeedEvent event) throws InterruptedException {
+        if (!this.failed && this.filter.test(event)) {
+            enqueue(event);
+        }
+    }
+
+    /**
+     * Queues the end of a page so the watermark advances once every event before it has been handled
+     */
+    void endPage(long page, String cursor) throws InterruptedException {
+        if (!this.failed) {
+            enqueue(new PageMarker(page, cursor));
+        }
+    }
+
+    private void enqueue(Object item) throws InterruptedException {
+        if (!this.queue.offer(item, this.offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            // A stuck subscriber would otherwise stall the reader, and with it every other subscriber
+            fail("its queue stayed full for " + this.offerTimeoutMillis + " ms", null);
+        }
+    }
+
+    /**
+     * Stops handing events to this subscriber and stops its worker. The events from its watermark on are not handled
+     * by it, so the cursor to read them again from is logged
+     */
+    private synchronized void fail(String reason, RuntimeException e) {
+        if (this.failed) {
+            return;
+        }
+        this.failed = true;
+        this.queue.clear();
+        this.worker.interrupt();
+        logger.error("Subscriber {} failed as {}. It gets no more events and no longer holds back the stored cursor. "
+                + "The events it missed start after page {}, at cursor {}", this.name, reason, this.watermarkPage,
+                this.watermarkCursor == null ? "the dispatcher started from" : this.watermarkCursor, e);
+    }
+
+    /**
+     * Worker loop that hands queued events to the handler and advances the watermark at page boundaries
+     */
+    private void drain() {
+        try {
+            while (true) {
+                Object item = this.queue.take();
+                if (item instanceof PageMarker) {
+                    PageMarker marker = (PageMarker) item;
+                    this.handler.flush();
+                    this.watermarkCursor = marker.cursor;
+                    this.watermarkPage = marker.page;
+                } else {
+                    this.handler.handle((BlobChangefeedEvent) item);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // Stop accepting events so the reader is never blocked by this subscriber again
+            fail("its handler threw", e);
+        }
+    }
+
+    private static final class PageMarker {
+        private final long page;
+        private final String cursor;
+
+        private PageMarker(long page, String cursor) {
+            this.page = page;
+            this.cursor = cursor;
+        }
+    }
+}
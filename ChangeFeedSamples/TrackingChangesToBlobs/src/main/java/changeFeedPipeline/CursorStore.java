@@ -0,0 +1,16 @@
+package changeFeedPipeline;
+
+/**
+ * Durable storage for named change feed cursors
+ */
+public interface CursorStore {
+    /**
+     * Returns the cursor stored under the key, or null if there is none
+     */
+    String load(String key);
+
+    /**
+     * Stores the cursor under the key, replacing any previous value
+     */
+    void store(String key, String cursor);
+}
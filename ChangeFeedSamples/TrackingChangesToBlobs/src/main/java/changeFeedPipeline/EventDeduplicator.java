@@ -0,0 +1,287 @@
+package changeFeedPipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops change feed events whose ID has already been seen, using bounded memory. The most recent IDs are kept in an
+ * exact set. Older IDs are remembered by a ring of Bloom filters, one per time window, so memory stays constant and
+ * IDs are forgotten once the oldest window is rotated out. A Bloom filter can report an ID as seen when it is not, so a
+ * small fraction of new events, set by the false-positive rate, is dropped as well
+ */
+public class EventDeduplicator {
+    private static Logger logger = LoggerFactory.getLogger(EventDeduplicator.class);
+    private static final int STATE_VERSION = 1;
+
+    private final long windowMillis;
+    private final int generations;
+    private final int expectedIdsPerWindow;
+    private final double falsePositiveRate;
+    private final Map<String, Boolean> recentIds;
+    private final Deque<BloomFilter> filters = new ArrayDeque<>();
+    private final Path stateFile;
+    private final long saveIntervalMillis;
+    private long currentWindowStart;
+    private long lastSave;
+    private long duplicates = 0;
+
+    /**
+     * @param windowMillis Length of the time window covered by one Bloom filter.
+     * @param generations Number of windows remembered. IDs older than this many windows are forgotten.
+     * @param expectedIdsPerWindow Number of IDs each Bloom filter is sized for.
+     * @param falsePositiveRate Chance that a new ID is wrongly reported as a duplicate while a filter is under capacity.
+     * @param exactCapacity Number of most recent IDs that are checked exactly.
+     * @param stateFile File the state is saved to and restored from, or null to keep state in memory only.
+     * @param saveIntervalMillis Minimum time between two saves done by {@link #checkpoint()}.
+     */
+    public EventDeduplicator(long windowMillis, int generations, int expectedIdsPerWindow, double falsePositiveRate,
+                             int exactCapacity, Path stateFile, long saveIntervalMillis) throws IOException {
+        this.windowMillis = windowMillis;
+        this.generations = generations;
+        this.expectedIdsPerWindow = expectedIdsPerWindow;
+        this.falsePositiveRate = falsePositiveRate;
+        this.recentIds = new LinkedHashMap<String, Boolean>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > exactCapacity;
+            }
+        };
+        this.stateFile = stateFile;
+        this.saveIntervalMillis = saveIntervalMillis;
+        this.lastSave = System.currentTimeMillis();
+
+        if (stateFile != null && Files.exists(stateFile)) {
+            load(stateFile);
+        } else {
+            this.currentWindowStart = System.currentTimeMillis();
+            this.filters.addLast(new BloomFilter(expectedIdsPerWindow, falsePositiveRate));
+        }
+    }
+
+    /**
+     * Returns true if the ID was seen before. Otherwise records it and returns false
+     */
+    public synchronized boolean isDuplicate(String id) {
+        if (isSeen(id)) {
+            return true;
+        }
+        add(id);
+        return false;
+    }
+
+    /**
+     * Returns true if the ID was seen before, without recording it. Used with {@link #record(Collection)} when an
+     * event only counts as seen once it is persisted
+     */
+    public synchronized boolean isSeen(String id) {
+        rotateIfDue(System.currentTimeMillis());
+
+        if (this.recentIds.containsKey(id)) {
+            this.duplicates++;
+            return true;
+        }
+        long h1 = hash(id, 0x9E3779B97F4A7C15L);
+        long h2 = hash(id, 0xC2B2AE3D27D4EB4FL);
+        for (BloomFilter filter : this.filters) {
+            if (filter.mightContain(h1, h2)) {
+                this.duplicates++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records IDs as seen
+     */
+    public synchronized void record(Collection<String> ids) {
+        rotateIfDue(System.currentTimeMillis());
+        for (String id : ids) {
+            add(id);
+        }
+    }
+
+    private void add(String id) {
+        this.recentIds.put(id, Boolean.TRUE);
+        this.filters.peekLast().add(hash(id, 0x9E3779B97F4A7C15L), hash(id, 0xC2B2AE3D27D4EB4FL));
+    }
+
+    public synchronized long getDuplicates() {
+        return this.duplicates;
+    }
+
+    /**
+     * Saves state if the save interval has passed since the last save. Call at page boundaries so that events handled
+     * shortly before a crash are still recognized when they are delivered again
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (isCheckpointDue()) {
+            save();
+        }
+    }
+
+    /**
+     * Returns whether the save interval has passed since the last save
+     */
+    public synchronized boolean isCheckpointDue() {
+        return System.currentTimeMillis() - this.lastSave >= this.saveIntervalMillis;
+    }
+
+    /**
+     * Saves state to the state file. The file is replaced atomically, so a crash never leaves a partial state behind
+     */
+    public synchronized void save() throws IOException {
+        if (this.stateFile == null) {
+            return;
+        }
+        Path tempFile = this.stateFile.resolveSibling(this.stateFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(STATE_VERSION);
+            out.writeLong(this.currentWindowStart);
+            out.writeInt(this.recentIds.size());
+            for (String id : this.recentIds.keySet()) {
+                byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(this.filters.size());
+            for (BloomFilter filter : this.filters) {
+                filter.writeTo(out);
+            }
+        }
+        Files.move(tempFile, this.stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.lastSave = System.currentTimeMillis();
+    }
+
+    private void load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != STATE_VERSION) {
+                throw new IOException("Unsupported deduplication state in " + file);
+            }
+            this.currentWindowStart = in.readLong();
+            int idCount = in.readInt();
+            for (int i = 0; i < idCount; i++) {
+                byte[] bytes = new byte[in.readUnsignedShort()];
+                in.readFully(bytes);
+                this.recentIds.put(new String(bytes, StandardCharsets.UTF_8), Boolean.TRUE);
+            }
+            int filterCount = in.readInt();
+            for (int i = 0; i < filterCount; i++) {
+                this.filters.addLast(BloomFilter.readFrom(in));
+            }
+        }
+        logger.info("Restored {} recent event IDs and {} windows from {}", this.recentIds.size(), this.filters.size(),
+                file);
+    }
+
+    /**
+     * Starts a new Bloom filter once the current window has passed, dropping the oldest one beyond the generation limit
+     */
+    private void rotateIfDue(long now) {
+        // After a long pause every window has expired, so skip ahead instead of rotating through each one
+        long elapsedWindows = (now - this.currentWindowStart) / this.windowMillis;
+        if (elapsedWindows > this.generations) {
+            this.filters.clear();
+            this.filters.addLast(new BloomFilter(this.expectedIdsPerWindow, this.falsePositiveRate));
+            this.currentWindowStart += elapsedWindows * this.windowMillis;
+            return;
+        }
+        while (now - this.currentWindowStart >= this.windowMillis) {
+            this.filters.addLast(new BloomFilter(this.expectedIdsPerWindow, this.falsePositiveRate));
+            while (this.filters.size() > this.generations) {
+                this.filters.removeFirst();
+            }
+            this.currentWindowStart += this.windowMillis;
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of the ID followed by a finalizer, seeded so two independent hashes can be
+     * derived for double hashing
+     */
+    private static long hash(String id, long seed) {
+        long h = 0xCBF29CE484222325L ^ seed;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Fixed-size Bloom filter over a long array, probed with double hashing
+     */
+    private static final class BloomFilter {
+        private final long[] bits;
+        private final long bitCount;
+        private final int hashCount;
+
+        private BloomFilter(int expectedIds, double falsePositiveRate) {
+            // Standard sizing: m = -n ln(p) / ln(2)^2 bits and k = (m / n) ln(2) hash functions
+            long m = (long) Math.ceil(-expectedIds * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.bits = new long[(int) Math.max(1, (m + 63) / 64)];
+            this.bitCount = this.bits.length * 64L;
+            this.hashCount = Math.max(1, (int) Math.round((double) m / expectedIds * Math.log(2)));
+        }
+
+        private BloomFilter(long[] bits, int hashCount) {
+            this.bits = bits;
+            this.bitCount = bits.length * 64L;
+            this.hashCount = hashCount;
+        }
+
+        private void add(long h1, long h2) {
+            for (int i = 0; i < this.hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, this.bitCount);
+                this.bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        private boolean mightContain(long h1, long h2) {
+            for (int i = 0; i < this.hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, this.bitCount);
+                if ((this.bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(this.hashCount);
+            out.writeInt(this.bits.length);
+            for (long word : this.bits) {
+                out.writeLong(word);
+            }
+        }
+
+        private static BloomFilter readFrom(DataInputStream in) throws IOException {
+            int hashCount = in.readInt();
+            long[] bits = new long[in.readInt()];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = in.readLong();
+            }
+            return new BloomFilter(bits, hashCount);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.util.function.Predicate;
+
+/**
+ * Building blocks for change feed event filters. Consumers chain them with {@link Predicate#and(Predicate)} and
+ * {@link Predicate#or(Predicate)}, and the benchmarks measure the same predicates the consumers run
+ */
+public final class EventFilters {
+    private EventFilters() {
+    }
+
+    /**
+     * Accepts events whose subject contains the text, such as "containers/name" or a blob name
+     */
+    public static Predicate<BlobChangefeedEvent> subjectContains(String text) {
+        return event -> event.getSubject().contains(text);
+    }
+
+    /**
+     * Accepts events of the given type, such as "BlobCreated"
+     */
+    public static Predicate<BlobChangefeedEvent> eventType(String eventType) {
+        return event -> event.getEventType().toString().equals(eventType);
+    }
+}
@@ -0,0 +1,189 @@
+package changeFeedPipeline;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON parser for the small documents found next to change feed data, such as Avro schemas and segment
+ * manifests. Objects become maps, arrays become lists, numbers become longs or doubles
+ */
+public final class Json {
+    private final String text;
+    private int position = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    public static Object parse(String text) {
+        Json parser = new Json(text);
+        Object value = parser.value();
+        parser.whitespace();
+        if (parser.position != text.length()) {
+            throw parser.error("Unexpected trailing characters");
+        }
+        return value;
+    }
+
+    private Object value() {
+        whitespace();
+        if (this.position >= this.text.length()) {
+            throw error("Unexpected end of document");
+        }
+        char c = this.text.charAt(this.position);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                return number();
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        this.position++;
+        whitespace();
+        if (peek() == '}') {
+            this.position++;
+            return object;
+        }
+        while (true) {
+            whitespace();
+            if (peek() != '"') {
+                throw error("Expected a member name");
+            }
+            String name = string();
+            whitespace();
+            expect(':');
+            object.put(name, value());
+            whitespace();
+            if (peek() == ',') {
+                this.position++;
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> array = new ArrayList<>();
+        this.position++;
+        whitespace();
+        if (peek() == ']') {
+            this.position++;
+            return array;
+        }
+        while (true) {
+            array.add(value());
+            whitespace();
+            if (peek() == ',') {
+                this.position++;
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String string() {
+        this.position++;
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            if (this.position >= this.text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = this.text.charAt(this.position++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            char escaped = this.text.charAt(this.position++);
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    builder.append((char) Integer.parseInt(this.text.substring(this.position, this.position + 4), 16));
+                    this.position += 4;
+                    break;
+                default:
+                    builder.append(escaped);
+            }
+        }
+    }
+
+    private Object number() {
+        int start = this.position;
+        while (this.position < this.text.length() && "+-0123456789.eE".indexOf(this.text.charAt(this.position)) >= 0) {
+            this.position++;
+        }
+        String number = this.text.substring(start, this.position);
+        if (number.isEmpty()) {
+            throw error("Unexpected character");
+        }
+        if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+            return Double.parseDouble(number);
+        }
+        return Long.parseLong(number);
+    }
+
+    private Object literal(String literal, Object value) {
+        if (!this.text.startsWith(literal, this.position)) {
+            throw error("Unexpected character");
+        }
+        this.position += literal.length();
+        return value;
+    }
+
+    private void whitespace() {
+        while (this.position < this.text.length() && Character.isWhitespace(this.text.charAt(this.position))) {
+            this.position++;
+        }
+    }
+
+    private char peek() {
+        if (this.position >= this.text.length()) {
+            throw error("Unexpected end of document");
+        }
+        return this.text.charAt(this.position);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        this.position++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + this.position + " of JSON document");
+    }
+}
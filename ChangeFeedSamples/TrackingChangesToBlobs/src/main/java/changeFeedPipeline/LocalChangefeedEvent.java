@@ -0,0 +1,137 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEventData;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEventType;
+import com.azure.storage.blob.models.BlobType;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Change feed event that was not read through the service, such as one read back from a local file. Implements the
+ * same interfaces as the events returned by the change feed client, so filters and handlers work on both
+ */
+public class LocalChangefeedEvent implements BlobChangefeedEvent, BlobChangefeedEventData {
+    private final String topic;
+    private final String subject;
+    private final BlobChangefeedEventType eventType;
+    private final OffsetDateTime eventTime;
+    private final String id;
+    private final Long dataVersion;
+    private final String metadataVersion;
+    private final String api;
+    private final String clientRequestId;
+    private final String requestId;
+    private final String eTag;
+    private final String contentType;
+    private final Long contentLength;
+    private final BlobType blobType;
+    private final String blobUrl;
+    private final String sequencer;
+
+    public LocalChangefeedEvent(String topic, String subject, BlobChangefeedEventType eventType,
+                                OffsetDateTime eventTime, String id, Long dataVersion, String metadataVersion,
+                                String api, String clientRequestId, String requestId, String eTag, String contentType,
+                                Long contentLength, BlobType blobType, String blobUrl, String sequencer) {
+        this.topic = topic;
+        this.subject = subject;
+        this.eventType = eventType;
+        this.eventTime = eventTime;
+        this.id = id;
+        this.dataVersion = dataVersion;
+        this.metadataVersion = metadataVersion;
+        this.api = api;
+        this.clientRequestId = clientRequestId;
+        this.requestId = requestId;
+        this.eTag = eTag;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.blobType = blobType;
+        this.blobUrl = blobUrl;
+        this.sequencer = sequencer;
+    }
+
+    public String getTopic() {
+        return this.topic;
+    }
+
+    public String getSubject() {
+        return this.subject;
+    }
+
+    public BlobChangefeedEventType getEventType() {
+        return this.eventType;
+    }
+
+    public OffsetDateTime getEventTime() {
+        return this.eventTime;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public BlobChangefeedEventData getData() {
+        return this;
+    }
+
+    public Long getDataVersion() {
+        return this.dataVersion;
+    }
+
+    public String getMetadataVersion() {
+        return this.metadataVersion;
+    }
+
+    public String getApi() {
+        return this.api;
+    }
+
+    public String getClientRequestId() {
+        return this.clientRequestId;
+    }
+
+    public String getRequestId() {
+        return this.requestId;
+    }
+
+    public String getETag() {
+        return this.eTag;
+    }
+
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    public Long getContentLength() {
+        return this.contentLength;
+    }
+
+    public BlobType getBlobType() {
+        return this.blobType;
+    }
+
+    public Long getContentOffset() {
+        return null;
+    }
+
+    public String getDestinationUrl() {
+        return null;
+    }
+
+    public String getSourceUrl() {
+        return null;
+    }
+
+    public String getBlobUrl() {
+        return this.blobUrl;
+    }
+
+    public Boolean getRecursive() {
+        return null;
+    }
+
+    public String getSequencer() {
+        return this.sequencer;
+    }
+}
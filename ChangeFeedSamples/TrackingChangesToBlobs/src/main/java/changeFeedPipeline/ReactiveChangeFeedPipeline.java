@@ -0,0 +1,126 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.BlobChangefeedAsyncClient;
+import com.azure.storage.blob.changefeed.BlobChangefeedPagedFlux;
+import com.azure.storage.blob.changefeed.BlobChangefeedPagedResponse;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Non-blocking change feed pipeline built on {@link BlobChangefeedAsyncClient}. Pages are fetched ahead of processing,
+ * events of a page are filtered and handled on parallel rails with bounded buffers, and the cursor only advances once
+ * every event of a page has been acknowledged by the handler
+ */
+public class ReactiveChangeFeedPipeline {
+    private final BlobChangefeedAsyncClient changefeedClient;
+    private final Predicate<BlobChangefeedEvent> filter;
+    private final Function<BlobChangefeedEvent, Mono<Void>> handler;
+    private final Function<String, Mono<Void>> checkpointer;
+    private final int prefetchPages;
+    private final int rails;
+    private final int railBuffer;
+    private final int checkpointEveryPages;
+    private final Scheduler railScheduler;
+
+    /**
+     * @param changefeedClient Client used to read the change feed.
+     * @param filter Events that do not pass the filter are acknowledged without being handled.
+     * @param handler Handles one event. The returned Mono completing is the acknowledgement for that event.
+     * @param checkpointer Persists a cursor. Only called with cursors of fully acknowledged pages.
+     * @param prefetchPages Number of pages requested ahead of the page being processed.
+     * @param rails Number of parallel rails. Events for the same blob always use the same rail, so they stay in order.
+     * @param railBuffer Number of events buffered per rail.
+     * @param checkpointEveryPages How many acknowledged pages to process between cursor checkpoints, at least 1.
+     */
+    public ReactiveChangeFeedPipeline(BlobChangefeedAsyncClient changefeedClient,
+                                      Predicate<BlobChangefeedEvent> filter,
+                                      Function<BlobChangefeedEvent, Mono<Void>> handler,
+                                      Function<String, Mono<Void>> checkpointer,
+                                      int prefetchPages, int rails, int railBuffer, int checkpointEveryPages) {
+        if (checkpointEveryPages < 1) {
+            throw new IllegalArgumentException("checkpointEveryPages must be at least 1, but is "
+                    + checkpointEveryPages);
+        }
+        this.changefeedClient = changefeedClient;
+        this.filter = filter;
+        this.handler = handler;
+        this.checkpointer = checkpointer;
+        this.prefetchPages = prefetchPages;
+        this.rails = rails;
+        this.railBuffer = railBuffer;
+        this.checkpointEveryPages = checkpointEveryPages;
+        this.railScheduler = Schedulers.newParallel("changefeed-rail", rails);
+    }
+
+    /**
+     * Adapts a blocking handler so it can be used in the pipeline. The handler runs on the rail's thread
+     */
+    public static Function<BlobChangefeedEvent, Mono<Void>> fromHandler(ChangeFeedEventHandler handler) {
+        return event -> Mono.fromRunnable(() -> handler.handle(event));
+    }
+
+    /**
+     * Processes every event available after the given cursor. Completes with the last checkpointed cursor, or the
+     * given cursor if there were no new pages
+     */
+    public Mono<String> run(String cursor) {
+        BlobChangefeedPagedFlux events = cursor == null
+                ? this.changefeedClient.getEvents()
+                : this.changefeedClient.getEvents(cursor);
+
+        // concatMap keeps pages in order and its prefetch requests the next pages while the current one is processed
+        Flux<String> acknowledgedCursors = events.byPage()
+                .concatMap(page -> processPage(page).thenReturn(page.getContinuationToken()), this.prefetchPages);
+
+        // Checkpointing every few acknowledged pages, and always after the last one
+        AtomicReference<String> acknowledged = new AtomicReference<>(cursor);
+        AtomicReference<String> checkpointed = new AtomicReference<>(cursor);
+        return acknowledgedCursors.index()
+                .concatMap(indexed -> {
+                    acknowledged.set(indexed.getT2());
+                    return (indexed.getT1() + 1) % this.checkpointEveryPages == 0
+                            ? checkpoint(indexed.getT2(), checkpointed)
+                            : Mono.<Void>empty();
+                })
+                .then(Mono.defer(() -> Objects.equals(acknowledged.get(), checkpointed.get())
+                        ? Mono.justOrEmpty(checkpointed.get())
+                        : checkpoint(acknowledged.get(), checkpointed).then(Mono.just(acknowledged.get()))));
+    }
+
+    /**
+     * Stops the rail threads
+     */
+    public void close() {
+        this.railScheduler.dispose();
+    }
+
+    /**
+     * Persists a cursor and remembers it as the latest checkpoint once the write completes
+     */
+    private Mono<Void> checkpoint(String cursor, AtomicReference<String> checkpointed) {
+        return this.checkpointer.apply(cursor).doOnSuccess(ignored -> checkpointed.set(cursor));
+    }
+
+    /**
+     * Splits a page into rails keyed by blob, filters and handles events on each rail, and completes when every event
+     * has been acknowledged
+     */
+    private Mono<Void> processPage(BlobChangefeedPagedResponse page) {
+        return Flux.fromIterable(page.getElements())
+                .groupBy(event -> Math.floorMod(event.getSubject().hashCode(), this.rails))
+                .flatMap(rail -> rail
+                        .publishOn(this.railScheduler, this.railBuffer)
+                        .filter(this.filter)
+                        .concatMap(this.handler), this.rails)
+                .then();
+    }
+}
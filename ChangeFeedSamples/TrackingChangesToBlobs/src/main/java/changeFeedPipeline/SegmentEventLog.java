@@ -0,0 +1,373 @@
+package changeFeedPipeline;
+
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEvent;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEventData;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEventType;
+import com.azure.storage.blob.models.BlobType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Event sink that appends events in a compact binary format to rotating, memory-mapped segment files. Appends only copy
+ * bytes into the mapped file. A background thread forces the file to disk every commit interval, so many events share
+ * one disk flush, and {@link #flush()} forces it right away. Each record is its length, a CRC32 of the payload and the
+ * payload. Segments are preallocated and zero-filled, so a zero length marks the end of the written data. Flush
+ * acknowledgements from {@link #flushAsync()} that arrive while a force is in progress are completed together by the
+ * next one
+ */
+public class SegmentEventLog implements ChangeFeedEventHandler, Closeable {
+    private static Logger logger = LoggerFactory.getLogger(SegmentEventLog.class);
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ScheduledExecutorService committer;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer payload = ByteBuffer.allocate(1024);
+    private MappedByteBuffer segment;
+    private long segmentId;
+
+    // Records appended and records known to be on disk, so a commit is skipped when nothing new was written
+    private long appended = 0;
+    private long committed = 0;
+    private final List<PendingFlush> pendingFlushes = new ArrayList<>();
+
+    /**
+     * @param directory Directory for the segment files. New segments are numbered after any existing ones.
+     * @param segmentSize Size of each segment file in bytes.
+     * @param commitIntervalMillis How often appended records are forced to disk in the background.
+     */
+    public SegmentEventLog(Path directory, int segmentSize, long commitIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        List<Path> existing = listSegments(directory);
+        this.segmentId = existing.isEmpty() ? 0 : segmentIdOf(existing.get(existing.size() - 1)) + 1;
+        openSegment();
+
+        this.committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-event-log-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.committer.scheduleWithFixedDelay(() -> {
+            try {
+                commit();
+            } catch (RuntimeException e) {
+                logger.error("Background commit of event log failed", e);
+            }
+        }, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends an event to the current segment, starting a new segment when it is full
+     */
+    public synchronized void handle(BlobChangefeedEvent event) {
+        encode(event);
+        int recordSize = RECORD_HEADER_SIZE + this.payload.remaining();
+        if (recordSize > this.segmentSize) {
+            throw new IllegalArgumentException("Event " + event.getId() + " does not fit in a segment");
+        }
+        if (this.segment.remaining() < recordSize) {
+            rotate();
+        }
+
+        this.crc.reset();
+        this.crc.update(this.payload.array(), 0, this.payload.remaining());
+        this.segment.putInt(this.payload.remaining());
+        this.segment.putInt((int) this.crc.getValue());
+        this.segment.put(this.payload);
+        this.appended++;
+    }
+
+    /**
+     * Forces every appended event to disk before returning
+     */
+    @Override
+    public void flush() {
+        commit();
+    }
+
+    /**
+     * Returns an acknowledgement that completes once every event appended so far is on disk. The force runs on the
+     * commit thread, so the caller can keep appending
+     */
+    @Override
+    public CompletableFuture<Void> flushAsync() {
+        CompletableFuture<Void> acknowledgement = new CompletableFuture<>();
+        synchronized (this) {
+            if (this.committed >= this.appended) {
+                return CompletableFuture.completedFuture(null);
+            }
+            this.pendingFlushes.add(new PendingFlush(this.appended, acknowledgement));
+        }
+        this.committer.execute(() -> {
+            try {
+                commit();
+            } catch (RuntimeException e) {
+                logger.error("Commit of event log failed", e);
+            }
+        });
+        return acknowledgement;
+    }
+
+    /**
+     * Stops background commits and forces outstanding events to disk
+     */
+    @Override
+    public void close() {
+        this.committer.shutdown();
+        commit();
+    }
+
+    /**
+     * Reads every event in the segments of a directory, in the order they were written. Stops reading a segment at its
+     * end marker or at a record that was only partly written before a crash. Returns the number of events read
+     */
+    public static long read(Path directory, Consumer<BlobChangefeedEvent> consumer) throws IOException {
+        long events = 0;
+        CRC32 crc = new CRC32();
+        for (Path file : listSegments(directory)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining()) {
+                        break;
+                    }
+                    ByteBuffer record = buffer.slice();
+                    record.limit(length);
+                    crc.reset();
+                    crc.update(record.duplicate());
+                    if ((int) crc.getValue() != checksum) {
+                        logger.warn("Stopping at torn record in {}", file.getFileName());
+                        break;
+                    }
+                    consumer.accept(decode(record));
+                    buffer.position(buffer.position() + length);
+                    events++;
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Forces the current segment to disk if anything was appended since the last commit. The force happens outside the
+     * lock so appends continue while the disk catches up
+     */
+    private void commit() {
+        MappedByteBuffer target;
+        long upTo;
+        synchronized (this) {
+            if (this.committed >= this.appended) {
+                target = null;
+                upTo = this.committed;
+            } else {
+                target = this.segment;
+                upTo = this.appended;
+            }
+        }
+        if (target != null) {
+            try {
+                target.force();
+            } catch (RuntimeException e) {
+                completePendingFlushes(upTo, e);
+                throw e;
+            }
+        }
+        synchronized (this) {
+            this.committed = Math.max(this.committed, upTo);
+        }
+        completePendingFlushes(upTo, null);
+    }
+
+    /**
+     * Completes the acknowledgements of flushes covered by a commit up to the given record, or fails them if the
+     * commit failed
+     */
+    private void completePendingFlushes(long upTo, RuntimeException failure) {
+        List<PendingFlush> covered = new ArrayList<>();
+        synchronized (this) {
+            this.pendingFlushes.removeIf(flush -> {
+                if (flush.upTo <= upTo) {
+                    covered.add(flush);
+                    return true;
+                }
+                return false;
+            });
+        }
+        for (PendingFlush flush : covered) {
+            if (failure == null) {
+                flush.acknowledgement.complete(null);
+            } else {
+                flush.acknowledgement.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Forces the full segment to disk and starts the next one
+     */
+    private void rotate() {
+        this.segment.force();
+        this.committed = this.appended;
+        this.segmentId++;
+        try {
+            openSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void openSegment() throws IOException {
+        Path file = this.directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, this.segmentId, SEGMENT_SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(this.segmentSize);
+            this.segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+        }
+        logger.info("Writing events to {}", file.getFileName());
+    }
+
+    /**
+     * Payload layout: event time in epoch millis, content length (-1 if unknown), then event type, ID, subject, API,
+     * request ID, ETag, content type, blob type and sequencer as length-prefixed UTF-8 strings
+     */
+    private void encode(BlobChangefeedEvent event) {
+        BlobChangefeedEventData data = event.getData();
+        this.payload.clear();
+        putLong(event.getEventTime() == null ? 0 : event.getEventTime().toInstant().toEpochMilli());
+        putLong(data == null || data.getContentLength() == null ? -1 : data.getContentLength());
+        putString(event.getEventType() == null ? null : event.getEventType().toString());
+        putString(event.getId());
+        putString(event.getSubject());
+        putString(data == null ? null : data.getApi());
+        putString(data == null ? null : data.getRequestId());
+        putString(data == null ? null : data.getETag());
+        putString(data == null ? null : data.getContentType());
+        putString(data == null || data.getBlobType() == null ? null : data.getBlobType().toString());
+        putString(data == null ? null : data.getSequencer());
+        this.payload.flip();
+    }
+
+    private static LocalChangefeedEvent decode(ByteBuffer record) {
+        long eventTime = record.getLong();
+        long contentLength = record.getLong();
+        String eventType = getString(record);
+        String id = getString(record);
+        String subject = getString(record);
+        String api = getString(record);
+        String requestId = getString(record);
+        String eTag = getString(record);
+        String contentType = getString(record);
+        String blobType = getString(record);
+        String sequencer = getString(record);
+        return new LocalChangefeedEvent(null, subject,
+                eventType == null ? null : BlobChangefeedEventType.fromString(eventType),
+                OffsetDateTime.ofInstant(Instant.ofEpochMilli(eventTime), ZoneOffset.UTC), id, null, null, api, null,
+                requestId, eTag, contentType, contentLength < 0 ? null : contentLength,
+                blobType == null ? null : BlobType.fromString(blobType), null, sequencer);
+    }
+
+    private void putLong(long value) {
+        ensureCapacity(8);
+        this.payload.putLong(value);
+    }
+
+    /**
+     * Strings are written as a signed short length, -1 for null, followed by UTF-8 bytes
+     */
+    private void putString(String value) {
+        if (value == null) {
+            ensureCapacity(2);
+            this.payload.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(2 + bytes.length);
+        this.payload.putShort((short) bytes.length);
+        this.payload.put(bytes);
+    }
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Grows the reusable payload buffer when an event does not fit
+     */
+    private void ensureCapacity(int bytes) {
+        if (this.payload.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(this.payload.capacity() * 2,
+                    this.payload.position() + bytes));
+            this.payload.flip();
+            larger.put(this.payload);
+            this.payload = larger;
+        }
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static final class PendingFlush {
+        private final long upTo;
+        private final CompletableFuture<Void> acknowledgement;
+
+        private PendingFlush(long upTo, CompletableFuture<Void> acknowledgement) {
+            this.upTo = upTo;
+            this.acknowledgement = acknowledgement;
+        }
+    }
+
+    private static long segmentIdOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
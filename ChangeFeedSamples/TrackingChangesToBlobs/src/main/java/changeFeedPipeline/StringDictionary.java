@@ -0,0 +1,82 @@
+package changeFeedPipeline;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense int ids to strings, up to a fixed number of them. Lookups take a range of a larger string, so a known
+ * string is found without allocating a substring for it
+ */
+final class StringDictionary {
+    private final int capacity;
+    private int[] slots = new int[64];
+    private int[] hashes = new int[32];
+    private String[] values = new String[32];
+    private int size = 0;
+
+    StringDictionary(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the id of the characters between start and end of the source, adding them if they are new, or -1 if
+     * they are new and the dictionary is full
+     */
+    int intern(String source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        int length = end - start;
+        int mask = this.slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (this.slots[slot] != 0) {
+            int id = this.slots[slot] - 1;
+            String value = this.values[id];
+            if (this.hashes[id] == hash && value.length() == length && value.regionMatches(0, source, start, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (this.size == this.capacity) {
+            return -1;
+        }
+        int id = this.size++;
+        if (id == this.values.length) {
+            this.values = Arrays.copyOf(this.values, id * 2);
+            this.hashes = Arrays.copyOf(this.hashes, id * 2);
+        }
+        this.values[id] = source.substring(start, end);
+        this.hashes[id] = hash;
+        this.slots[slot] = id + 1;
+        if (this.size * 2 > this.slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    int intern(String value) {
+        return intern(value, 0, value.length());
+    }
+
+    String get(int id) {
+        return this.values[id];
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private void rehash() {
+        this.slots = new int[this.slots.length * 2];
+        int mask = this.slots.length - 1;
+        for (int id = 0; id < this.size; id++) {
+            int hash = this.hashes[id];
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (this.slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            this.slots[slot] = id + 1;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package changeFeedPipeline;
+
+import java.time.Instant;
+
+/**
+ * Number of events and bytes for one container, blob name prefix and event type within a closed window
+ */
+public final class WindowAggregate {
+    /**
+     * Tumbling windows are single panes. Sliding windows cover the last several panes and are emitted after every pane
+     */
+    public enum Kind {
+        TUMBLING,
+        SLIDING
+    }
+
+    private final Kind kind;
+    private final long windowStartMillis;
+    private final long windowEndMillis;
+    private final String container;
+    private final String prefix;
+    private final String eventType;
+    private final long count;
+    private final long bytes;
+
+    public WindowAggregate(Kind kind, long windowStartMillis, long windowEndMillis, String container, String prefix,
+                           String eventType, long count, long bytes) {
+        this.kind = kind;
+        this.windowStartMillis = windowStartMillis;
+        this.windowEndMillis = windowEndMillis;
+        this.container = container;
+        this.prefix = prefix;
+        this.eventType = eventType;
+        this.count = count;
+        this.bytes = bytes;
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * Event time at which the window starts, inclusive
+     */
+    public long getWindowStartMillis() {
+        return this.windowStartMillis;
+    }
+
+    /**
+     * Event time at which the window ends, exclusive
+     */
+    public long getWindowEndMillis() {
+        return this.windowEndMillis;
+    }
+
+    public String getContainer() {
+        return this.container;
+    }
+
+    /**
+     * Leading folders of the blob names, such as "logs/2020/", or an empty string for blobs outside any folder
+     */
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    public String getEventType() {
+        return this.eventType;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Sum of the content lengths reported by the events
+     */
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    @Override
+    public String toString() {
+        return this.kind + " [" + Instant.ofEpochMilli(this.windowStartMillis) + ", "
+                + Instant.ofEpochMilli(this.windowEndMillis) + ") " + this.container + "/" + this.prefix + " "
+                + this.eventType + ": " + this.count + " events, " + this.bytes + " bytes";
+    }
+}
@@ -0,0 +1,295 @@
+package exampleEventCreator;
+
+import changeFeedPipeline.LatencyHistogram;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobServiceClient;
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.common.StorageSharedKeyCredential;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates blob events at a fixed target rate to load test change feed consumers. Operations are scheduled open loop:
+ * each one has an intended start time derived from the rate alone, and a pool of workers runs them. When the service
+ * slows down, operations queue up rather than being issued later, and their latency is measured from the intended
+ * start time, so the waiting shows up in the latency instead of being hidden by a lower rate.
+ * <p>
+ * The mix of creates, overwrites, deletes and metadata updates is configurable. Overwrites, deletes and metadata
+ * updates pick a random blob out of the most recently created ones
+ */
+public class ChangeFeedLoadGenerator {
+    private static Logger logger = LoggerFactory.getLogger(ChangeFeedLoadGenerator.class);
+
+    enum Operation {
+        CREATE, OVERWRITE, DELETE, SET_METADATA
+    }
+
+    private final BlobContainerClient containerClient;
+    private final double rate;
+    private final ExecutorService workers;
+    private final Operation[] mix;
+    private final byte[] payload;
+    private final String prefix;
+    // Names of recently created blobs, indexed by creation number modulo the key space
+    private final AtomicReferenceArray<String> liveBlobs;
+    private final AtomicLong created = new AtomicLong();
+
+    private final LatencyHistogram[] totalLatency = new LatencyHistogram[Operation.values().length];
+    private final LatencyHistogram[] intervalLatency = new LatencyHistogram[Operation.values().length];
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final AtomicLong issued = new AtomicLong();
+
+    /**
+     * @param rate target operations per second
+     * @param concurrency number of operations that may be in flight at once
+     * @param mix weights of create, overwrite, delete and set-metadata operations, such as "60,20,10,10"
+     * @param blobSize size of every uploaded blob in bytes
+     * @param keySpace number of recently created blobs that overwrites, deletes and metadata updates pick from
+     */
+    public ChangeFeedLoadGenerator(BlobContainerClient containerClient, double rate, int concurrency, String mix,
+                                   int blobSize, int keySpace) {
+        this.containerClient = containerClient;
+        this.rate = rate;
+        this.workers = Executors.newFixedThreadPool(concurrency);
+        this.mix = parseMix(mix);
+        this.payload = new byte[blobSize];
+        ThreadLocalRandom.current().nextBytes(this.payload);
+        this.prefix = "load-" + System.currentTimeMillis() + "/";
+        this.liveBlobs = new AtomicReferenceArray<>(keySpace);
+        for (int i = 0; i < this.totalLatency.length; i++) {
+            this.totalLatency[i] = new LatencyHistogram();
+            this.intervalLatency[i] = new LatencyHistogram();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path currentPath = Paths.get(System.getProperty("user.dir"));
+        Path pathToDir = Paths.get(currentPath.toString(), "changeFeedSamples",
+                "trackingChangesToBlobs", "src", "main", "java", "exampleEventCreator");
+        String configPath = Paths.get(pathToDir.toString(), "app.config").toString();
+
+        // Extracting variables from config file
+        InputStream input = new FileInputStream(configPath);
+        Properties prop = new Properties();
+        prop.load(input);
+        String sharedKeyCred = prop.getProperty("sharedKeyCred");
+        String storageAccount = prop.getProperty("storageAccount");
+        String connectionString = prop.getProperty("connectionString", "");
+        String storageAccountUrl = "https://" + storageAccount + ".blob.core.windows.net";
+
+        BlobServiceClientBuilder blobServiceClientBuilder = new BlobServiceClientBuilder();
+        if (connectionString.isEmpty()) {
+            blobServiceClientBuilder.endpoint(storageAccountUrl)
+                    .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred));
+        } else {
+            blobServiceClientBuilder.connectionString(connectionString);
+        }
+        BlobServiceClient blobServiceClient = blobServiceClientBuilder.buildClient();
+        BlobContainerClient containerClient = blobServiceClient.getBlobContainerClient(
+                prop.getProperty("loadContainer", "test-changefeed-container"));
+        if (!containerClient.exists()) {
+            containerClient.create();
+        }
+
+        ChangeFeedLoadGenerator generator = new ChangeFeedLoadGenerator(containerClient,
+                Double.parseDouble(prop.getProperty("loadRate", "500")),
+                Integer.parseInt(prop.getProperty("loadConcurrency", "64")),
+                prop.getProperty("loadMix", "60,20,10,10"),
+                Integer.parseInt(prop.getProperty("loadBlobSize", "1024")),
+                Integer.parseInt(prop.getProperty("loadKeySpace", "10000")));
+        generator.run(Long.parseLong(prop.getProperty("loadDurationSeconds", "300")) * 1000,
+                Long.parseLong(prop.getProperty("loadReportSeconds", "10")) * 1000);
+    }
+
+    /**
+     * Issues operations at the target rate for the given time, reporting every report interval, then waits for the
+     * queued operations to finish and reports the totals
+     */
+    public void run(long durationMillis, long reportMillis) throws InterruptedException {
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / this.rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long nextReport = start + TimeUnit.MILLISECONDS.toNanos(reportMillis);
+        long lastReport = start;
+        long lastCompleted = 0;
+
+        for (long n = 0; ; n++) {
+            // The intended start only depends on the schedule, never on how long earlier operations took
+            long intendedStart = start + (long) (n * intervalNanos);
+            if (intendedStart >= end) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < intendedStart) {
+                LockSupport.parkNanos(intendedStart - now);
+            }
+            if (now >= nextReport) {
+                long completedNow = this.completed.get();
+                report("interval", this.intervalLatency, completedNow - lastCompleted, now - lastReport);
+                for (LatencyHistogram histogram : this.intervalLatency) {
+                    histogram.reset();
+                }
+                lastCompleted = completedNow;
+                lastReport = now;
+                nextReport = now + TimeUnit.MILLISECONDS.toNanos(reportMillis);
+            }
+
+            Operation operation = this.mix[ThreadLocalRandom.current().nextInt(this.mix.length)];
+            this.issued.incrementAndGet();
+            this.workers.execute(() -> execute(operation, intendedStart));
+        }
+
+        this.workers.shutdown();
+        this.workers.awaitTermination(1, TimeUnit.HOURS);
+        report("total", this.totalLatency, this.completed.get(), System.nanoTime() - start);
+    }
+
+    private void execute(Operation operation, long intendedStart) {
+        try {
+            switch (operation) {
+                case CREATE:
+                    create();
+                    break;
+                case OVERWRITE:
+                    String overwritten = pickLiveBlob(false);
+                    if (overwritten == null) {
+                        create();
+                    } else {
+                        upload(overwritten);
+                    }
+                    break;
+                case DELETE:
+                    String deleted = pickLiveBlob(true);
+                    if (deleted == null) {
+                        create();
+                    } else {
+                        this.containerClient.getBlobClient(deleted).delete();
+                    }
+                    break;
+                case SET_METADATA:
+                    String updated = pickLiveBlob(false);
+                    if (updated == null) {
+                        create();
+                    } else {
+                        this.containerClient.getBlobClient(updated).setMetadata(
+                                Collections.singletonMap("loadtest", String.valueOf(intendedStart)));
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+            long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart);
+            this.totalLatency[operation.ordinal()].record(latencyMicros);
+            this.intervalLatency[operation.ordinal()].record(latencyMicros);
+            this.completed.incrementAndGet();
+        } catch (BlobStorageException e) {
+            if (e.getStatusCode() == 404) {
+                // A concurrent delete removed the blob first
+                this.missing.incrementAndGet();
+            } else {
+                this.failed.incrementAndGet();
+                logger.warn("{} failed with status {}", operation, e.getStatusCode());
+            }
+        } catch (RuntimeException e) {
+            this.failed.incrementAndGet();
+            logger.warn("{} failed", operation, e);
+        }
+    }
+
+    private void create() {
+        long number = this.created.getAndIncrement();
+        String name = this.prefix + number;
+        upload(name);
+        this.liveBlobs.set((int) (number % this.liveBlobs.length()), name);
+    }
+
+    private void upload(String name) {
+        BlobClient blobClient = this.containerClient.getBlobClient(name);
+        blobClient.getBlockBlobClient().upload(new ByteArrayInputStream(this.payload), this.payload.length, true);
+    }
+
+    /**
+     * Returns a random recently created blob, removing it from the candidates if it is about to be deleted. Returns
+     * null if there is none yet
+     */
+    private String pickLiveBlob(boolean remove) {
+        long created = Math.min(this.created.get(), this.liveBlobs.length());
+        if (created == 0) {
+            return null;
+        }
+        int index = ThreadLocalRandom.current().nextInt((int) created);
+        return remove ? this.liveBlobs.getAndSet(index, null) : this.liveBlobs.get(index);
+    }
+
+    private void report(String label, LatencyHistogram[] latency, long operations, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        logger.info("{}: {} ops/s achieved of {} ops/s target, {} issued, {} completed, {} queued, {} failed, "
+                        + "{} hit deleted blobs", label, String.format("%.1f", operations / seconds),
+                String.format("%.1f", this.rate), this.issued.get(), this.completed.get(),
+                this.issued.get() - this.completed.get() - this.failed.get() - this.missing.get(), this.failed.get(),
+                this.missing.get());
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latency[operation.ordinal()];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            logger.info("{} {}: {} ops, latency ms p50 {}, p99 {}, p99.9 {}, max {}", label, operation,
+                    histogram.getCount(), millis(histogram.getPercentile(50)), millis(histogram.getPercentile(99)),
+                    millis(histogram.getPercentile(99.9)), millis(histogram.getMax()));
+        }
+    }
+
+    private static String millis(long micros) {
+        return String.format("%.2f", micros / 1000.0);
+    }
+
+    /**
+     * Expands weights such as "60,20,10,10" into a table of operations to pick from uniformly
+     */
+    private static Operation[] parseMix(String mix) {
+        String[] weights = mix.split(",");
+        Operation[] operations = Operation.values();
+        if (weights.length != operations.length) {
+            throw new IllegalArgumentException("Operation mix needs weights for create, overwrite, delete and "
+                    + "set metadata, got " + mix);
+        }
+        int total = 0;
+        int[] parsed = new int[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            parsed[i] = Integer.parseInt(weights[i].trim());
+            total += parsed[i];
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Operation mix must have a positive weight");
+        }
+        Operation[] table = new Operation[total];
+        int position = 0;
+        for (int i = 0; i < parsed.length; i++) {
+            for (int j = 0; j < parsed[i]; j++) {
+                table[position++] = operations[i];
+            }
+        }
+        return table;
+    }
+}
@@ -35,12 +35,13 @@ public class ExampleEventCreator {
         prop.load(input);
         String sharedKeyCred = prop.getProperty("sharedKeyCred");
         String storageAccount = prop.getProperty("storageAccount");
+        String connectionString = prop.getProperty("connectionString", "");
         String intervalString = prop.getProperty("interval");
         int interval = Integer.parseInt(intervalString);
         
         // Create a Timer for creating events on a consistent interval
         Timer timer = new Timer();
-        TimerTask task = new ExampleEventCreatorHelper(storageAccount, sharedKeyCred);
+        TimerTask task = new ExampleEventCreatorHelper(storageAccount, sharedKeyCred, connectionString);
 
         // Running on schedule
         timer.scheduleAtFixedRate(task, 0, interval);
@@ -48,38 +49,40 @@ public class ExampleEventCreator {
 }
 
 class ExampleEventCreatorHelper extends TimerTask {
-    String storageAccount;
-    String sharedKeyCred;
+    BlobContainerClient blobContainerClient;
     private static Logger logger = LoggerFactory.getLogger(ExampleEventCreatorHelper.class);
     int blobCount = 0;
+    String blobName = "exampleBlob.txt";
+    String blobData = "Lorem ipsum";
 
-    public ExampleEventCreatorHelper(String storageAccount, String sharedKeyCred) {
-        this.storageAccount = storageAccount;
-        this.sharedKeyCred = sharedKeyCred;
-    }
-
-    // Creates a new blob every time timer is triggered with file name "#exampleBlob.txt" where # is an int.
-    public void run() {
+    public ExampleEventCreatorHelper(String storageAccount, String sharedKeyCred, String connectionString) {
         String storageAccountUrl = "https://" + storageAccount + ".blob.core.windows.net";
         String containerName = "test-changefeed-container";
-        String blobName = "exampleBlob.txt";
-        String blobData = "Lorem ipsum";
 
         // Creating a BlobServiceClient that allows us to perform container and blob operations, given our storage
-        // account URL and shared key credential
-        BlobServiceClient blobServiceClient = new BlobServiceClientBuilder()
-                .endpoint(storageAccountUrl)
-                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred))
-                .buildClient();
+        // account URL and shared key credential, or given a connection string. The client and container are set up once
+        // and reused on every tick
+        BlobServiceClientBuilder blobServiceClientBuilder = new BlobServiceClientBuilder();
+        if (connectionString.isEmpty()) {
+            blobServiceClientBuilder.endpoint(storageAccountUrl)
+                    .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred));
+        } else {
+            blobServiceClientBuilder.connectionString(connectionString);
+        }
+        BlobServiceClient blobServiceClient = blobServiceClientBuilder.buildClient();
 
         // Creating client referencing to-be-created container, and then creating it
-        BlobContainerClient blobContainerClient = blobServiceClient.getBlobContainerClient(containerName);
-        if (!blobContainerClient.exists()) {
-            blobContainerClient.create();
+        this.blobContainerClient = blobServiceClient.getBlobContainerClient(containerName);
+        if (!this.blobContainerClient.exists()) {
+            this.blobContainerClient.create();
         }
+    }
 
+    // Creates a new blob every time timer is triggered with file name "#exampleBlob.txt" where # is an int.
+    public void run() {
         // Generate blob as event
-        BlockBlobClient blockBlobClient = blobContainerClient.getBlobClient(this.blobCount + blobName).getBlockBlobClient();
+        BlockBlobClient blockBlobClient =
+                this.blobContainerClient.getBlobClient(this.blobCount + blobName).getBlockBlobClient();
         ByteArrayInputStream dataStream = new ByteArrayInputStream(blobData.getBytes());
         blockBlobClient.upload(dataStream, blobData.length(), true);
         logger.info("Generated blob called " + this.blobCount + blobName);
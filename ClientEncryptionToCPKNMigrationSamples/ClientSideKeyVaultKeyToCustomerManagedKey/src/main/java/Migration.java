@@ -1,12 +1,7 @@
-import com.azure.core.credential.TokenCredential;
-import com.azure.core.cryptography.AsyncKeyEncryptionKey;
-import com.azure.identity.ClientSecretCredentialBuilder;
-import com.azure.security.keyvault.keys.KeyClient;
-import com.azure.security.keyvault.keys.KeyClientBuilder;
-import com.azure.security.keyvault.keys.cryptography.KeyEncryptionKeyClientBuilder;
-import com.azure.security.keyvault.keys.models.KeyVaultKey;
 import com.azure.storage.blob.BlobClient;
 import com.azure.storage.blob.BlobClientBuilder;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobContainerClientBuilder;
 import com.azure.storage.blob.specialized.cryptography.EncryptedBlobClient;
 import com.azure.storage.blob.specialized.cryptography.EncryptedBlobClientBuilder;
 import com.azure.storage.common.StorageSharedKeyCredential;
@@ -18,12 +13,28 @@ import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Properties;
+import java.util.UUID;
+
+import migrationCommon.BlobTransfer;
+import migrationCommon.BulkMigration;
+import migrationCommon.KeyVaultKeyCache;
+import migrationCommon.MigrationTask;
+import migrationCommon.ServerSideCopy;
+import migrationCommon.TransferTuner;
 
 /**
  * Downloads and decrypts blob using key vault, then reuploads using customer-managed keys through encryption scopes
  */
 public class Migration {
-    public static void main(String[] args) throws IOException {
+    // Used instead of the storage account and shared key when set, for example to run against LocalBlobService
+    private static String connectionString = "";
+    // Set unless migrationMode is file
+    private static BlobTransfer blobTransfer;
+    private static TransferTuner transferTuner;
+    private static ServerSideCopy serverSideCopy;
+    private static KeyVaultKeyCache keyVaultKeyCache;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
         String clientId = null;
         String clientSecret = null;
         String tenantId = null;
@@ -51,6 +62,7 @@ public class Migration {
         tenantId = prop.getProperty("tenantId");
         storageAccount = prop.getProperty("storageAccount");
         sharedKeyCred = prop.getProperty("sharedKeyCred");
+        connectionString = prop.getProperty("connectionString", "");
         keyVaultUrl = prop.getProperty("keyVaultUrl");
         containerName = prop.getProperty("containerName");
         blobName = prop.getProperty("blobName");
@@ -61,17 +73,27 @@ public class Migration {
 
         String blobAfterMigrationPath = Paths.get(pathToDir.toString(), blobNameAfterMigration).toString();
 
-        // Decrypts sample blob then reuploads with server-side encryption using customer-managed keys
-        try {
-            decryptClientSideKeyVaultKey(clientSecret, tenantId, clientId,
-                    storageAccount, sharedKeyCred, containerName, blobName, keyVaultUrl,
-                    clientSideEncryptionKeyName, keyWrapAlgorithm, blobAfterMigrationPath);
-            encryptCustomerManagedKey(storageAccount, sharedKeyCred, containerName, blobNameAfterMigration, encryptionScope,
-                    blobAfterMigrationPath);
-        } finally {
-            cleanup(blobAfterMigrationPath);
+        // Chooses block size and concurrency of every download and upload
+        transferTuner = new TransferTuner(prop);
+        // Copies blobs that are not client-side encrypted on the server in bulk mode
+        serverSideCopy = new ServerSideCopy(prop);
+        // Resolves the key vault key once for all blobs instead of once per blob
+        keyVaultKeyCache = new KeyVaultKeyCache(prop);
+        // Transfers blobs without a temp file next to app.config unless migrationMode is file
+        blobTransfer = BlobTransfer.fromConfig(prop, transferTuner);
+
+        // Migrates every blob in the container, or under bulkPrefix, instead of only blobName
+        if (Boolean.parseBoolean(prop.getProperty("bulkMode", "false"))) {
+            migrateContainer(prop, pathToDir, clientSecret, tenantId, clientId, storageAccount, sharedKeyCred,
+                    containerName, keyVaultUrl, clientSideEncryptionKeyName, keyWrapAlgorithm, encryptionScope);
+            return;
         }
 
+        // Decrypts sample blob then reuploads with server-side encryption using customer-managed keys
+        migrateBlob(clientSecret, tenantId, clientId, storageAccount, sharedKeyCred, containerName, keyVaultUrl,
+                clientSideEncryptionKeyName, keyWrapAlgorithm, encryptionScope,
+                new MigrationTask(blobName, blobNameAfterMigration, -1), blobAfterMigrationPath);
+
     }
 
     /**
@@ -80,64 +102,120 @@ public class Migration {
     private static void decryptClientSideKeyVaultKey(String clientSecret, String tenantId, String clientId,
                                                      String storageAccount, String sharedKeyCred, String containerName,
                                                      String blobName, String keyVaultUrl, String keyname,
-                                                     String keyWrapAlgorithm, String path) {
-        String storageAccountUrl = "https://" + storageAccount + ".blob.core.windows.net";
+                                                     String keyWrapAlgorithm, String path, MigrationTask task) {
+        EncryptedBlobClient encryptedBlobClient = encryptedBlobClient(clientSecret, tenantId, clientId, storageAccount,
+                sharedKeyCred, containerName, blobName, keyVaultUrl, keyname, keyWrapAlgorithm);
+
+        // Downloading encrypted blob, blob is decrypted upon download
+        transferTuner.downloadToFile(encryptedBlobClient, path, task);
+    }
 
+    /**
+     * Creates encrypted blob client that decrypts the blob with the key vault key upon download
+     */
+    private static EncryptedBlobClient encryptedBlobClient(String clientSecret, String tenantId, String clientId,
+                                                           String storageAccount, String sharedKeyCred,
+                                                           String containerName, String blobName, String keyVaultUrl,
+                                                           String keyname, String keyWrapAlgorithm) {
         // Setting encryptedKeyClient with key vault key
-        BlobClient blobClient = new BlobClientBuilder()
-                .endpoint(storageAccountUrl)
-                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred))
+        BlobClient blobClient = blobClientBuilder(storageAccount, sharedKeyCred)
                 .containerName(containerName)
                 .blobName(blobName)
                 .buildClient();
-        TokenCredential cred = new ClientSecretCredentialBuilder()
-                .clientSecret(clientSecret)
-                .tenantId(tenantId)
-                .clientId(clientId)
-                .build();
-        KeyClient keyClient = new KeyClientBuilder()
-                .vaultUrl(keyVaultUrl)
-                .credential(cred)
-                .buildClient();
-        KeyVaultKey rsaKey = keyClient.getKey(keyname);
         EncryptedBlobClient encryptedBlobClient = new EncryptedBlobClientBuilder()
-                .key(createAsyncKey(rsaKey, cred), keyWrapAlgorithm)
+                .key(keyVaultKeyCache.getKey(clientSecret, tenantId, clientId, keyVaultUrl, keyname), keyWrapAlgorithm)
                 .blobClient(blobClient)
                 .buildEncryptedBlobClient();
-
-        // Downloading encrypted blob, blob is decrypted upon download
-        encryptedBlobClient.downloadToFile(path);
+        return encryptedBlobClient;
     }
 
     /**
-     * Creates an Async key for client-side encryption
+     * Reuploads blob with server-side encryption using a customer-managed key
      */
-    private static AsyncKeyEncryptionKey createAsyncKey(KeyVaultKey key, TokenCredential cred) {
-        AsyncKeyEncryptionKey akek = new KeyEncryptionKeyClientBuilder()
-                .credential(cred)
-                .buildAsyncKeyEncryptionKey(key.getId())
-                .block();
-        return akek;
+    private static void encryptCustomerManagedKey(String storageAccount, String sharedKeyCred, String containerName,
+                                                  String blobDecryptName, String encryptionScope, String path,
+                                                  MigrationTask task) throws IOException {
+        BlobClient blobClientDecrypted = destinationBlobClient(storageAccount, sharedKeyCred, containerName,
+                blobDecryptName, encryptionScope);
+
+        // Uploading file to server
+        transferTuner.uploadFromFile(blobClientDecrypted, path, task);
     }
 
     /**
-     * Reuploads blob with server-side encryption using a customer-managed key
+     * Creates blob client for reuploading with server-side encryption using a customer-managed key
      */
-    private static void encryptCustomerManagedKey(String storageAccount, String sharedKeyCred, String containerName,
-                                                  String blobDecryptName,
-                                                  String encryptionScope, String path) {
-        String storageAccountUrl = "https://" + storageAccount + ".blob.core.windows.net";
+    private static BlobClient destinationBlobClient(String storageAccount, String sharedKeyCred, String containerName,
+                                                    String blobDecryptName, String encryptionScope) {
         // Creating blob client for reuploading
-        BlobClientBuilder blobClientBuilder = new BlobClientBuilder()
-                .endpoint(storageAccountUrl)
-                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred))
+        BlobClientBuilder blobClientBuilder = blobClientBuilder(storageAccount, sharedKeyCred)
                 .containerName(containerName)
                 .encryptionScope(encryptionScope)
                 .blobName(blobDecryptName);
         BlobClient blobClientDecrypted = blobClientBuilder.buildClient();
+        return blobClientDecrypted;
+    }
 
-        // Uploading file to server
-        blobClientDecrypted.uploadFromFile(path, true);
+    /**
+     * Decrypts blob then reuploads it with server-side encryption using a customer-managed key. The blob is
+     * staged in the file at path, or transferred as chosen by migrationMode
+     */
+    private static void migrateBlob(String clientSecret, String tenantId, String clientId, String storageAccount,
+                                    String sharedKeyCred, String containerName, String keyVaultUrl,
+                                    String clientSideEncryptionKeyName, String keyWrapAlgorithm, String encryptionScope,
+                                    MigrationTask task, String path) throws IOException {
+        if (blobTransfer != null) {
+            EncryptedBlobClient source = encryptedBlobClient(clientSecret, tenantId, clientId, storageAccount,
+                    sharedKeyCred, containerName, task.getBlobName(), keyVaultUrl, clientSideEncryptionKeyName,
+                    keyWrapAlgorithm);
+            BlobClient destination = destinationBlobClient(storageAccount, sharedKeyCred, containerName,
+                    task.getDestinationBlobName(), encryptionScope);
+            blobTransfer.transfer(source, destination, task);
+            return;
+        }
+
+        try {
+            decryptClientSideKeyVaultKey(clientSecret, tenantId, clientId, storageAccount, sharedKeyCred, containerName,
+                    task.getBlobName(), keyVaultUrl, clientSideEncryptionKeyName, keyWrapAlgorithm, path, task);
+            task.downloaded();
+            encryptCustomerManagedKey(storageAccount, sharedKeyCred, containerName, task.getDestinationBlobName(),
+                    encryptionScope, path, task);
+        } finally {
+            cleanup(path);
+        }
+    }
+
+    /**
+     * Copies a blob that is not client-side encrypted to its destination on the server, without downloading it
+     */
+    private static void copyBlob(String storageAccount, String sharedKeyCred, String containerName,
+                                 String encryptionScope, MigrationTask task) throws IOException {
+        BlobClient source = blobClientBuilder(storageAccount, sharedKeyCred)
+                .containerName(containerName)
+                .blobName(task.getBlobName())
+                .buildClient();
+        BlobClient destination = destinationBlobClient(storageAccount, sharedKeyCred, containerName,
+                task.getDestinationBlobName(), encryptionScope);
+        serverSideCopy.copy(source, destination, task);
+    }
+
+    /**
+     * Reuploads every blob in the container with server-side encryption using customer-managed keys, under its
+     * name followed by bulkDestinationSuffix
+     */
+    private static void migrateContainer(Properties prop, Path pathToDir, String clientSecret, String tenantId,
+                                         String clientId, String storageAccount, String sharedKeyCred,
+                                         String containerName, String keyVaultUrl, String clientSideEncryptionKeyName,
+                                         String keyWrapAlgorithm, String encryptionScope)
+            throws IOException, InterruptedException {
+        BlobContainerClient containerClient = containerClientBuilder(storageAccount, sharedKeyCred)
+                .containerName(containerName)
+                .buildClient();
+        new BulkMigration(containerClient, prop, pathToDir).run(task -> {
+            migrateBlob(clientSecret, tenantId, clientId, storageAccount, sharedKeyCred, containerName, keyVaultUrl,
+                    clientSideEncryptionKeyName, keyWrapAlgorithm, encryptionScope, task,
+                    Paths.get(pathToDir.toString(), UUID.randomUUID() + ".tmp").toString());
+        }, task -> copyBlob(storageAccount, sharedKeyCred, containerName, encryptionScope, task));
     }
 
     /**
@@ -148,4 +226,29 @@ public class Migration {
         File localFile = new File(path);
         localFile.delete();
     }
+
+    /**
+     * Creates a client builder for the storage account, or for the configured connection string if there is one
+     */
+    private static BlobClientBuilder blobClientBuilder(String storageAccount, String sharedKeyCred) {
+        if (!connectionString.isEmpty()) {
+            return new BlobClientBuilder().connectionString(connectionString);
+        }
+        return new BlobClientBuilder()
+                .endpoint("https://" + storageAccount + ".blob.core.windows.net")
+                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred));
+    }
+
+    /**
+     * Creates a container client builder for the storage account, or for the configured connection string if there is
+     * one
+     */
+    private static BlobContainerClientBuilder containerClientBuilder(String storageAccount, String sharedKeyCred) {
+        if (!connectionString.isEmpty()) {
+            return new BlobContainerClientBuilder().connectionString(connectionString);
+        }
+        return new BlobContainerClientBuilder()
+                .endpoint("https://" + storageAccount + ".blob.core.windows.net")
+                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred));
+    }
 }
@@ -32,6 +32,9 @@ import java.util.Properties;
  * encrypted blob ready to be migrated and encryption scope created
  */
 public class ExampleDataCreator {
+    // Used instead of the storage account and shared key when set, for example to run against LocalBlobService
+    private static String connectionString = "";
+
     public static void main(String[] args) throws IOException {
         String clientId = null;
         String clientSecret = null;
@@ -62,6 +65,7 @@ public class ExampleDataCreator {
         tenantId = prop.getProperty("tenantId");
         storageAccount = prop.getProperty("storageAccount");
         sharedKeyCred = prop.getProperty("sharedKeyCred");
+        connectionString = prop.getProperty("connectionString", "");
         keyVaultUrl = prop.getProperty("keyVaultUrl");
         resourceGroup = prop.getProperty("resourceGroup");
         subscription = prop.getProperty("subscription");
@@ -126,13 +130,9 @@ public class ExampleDataCreator {
                              String storageAccount, String sharedKeyCred, String keyVaultUrl,
                              String containerName, String blobName, String keyName, String keyWrapAlgorithm,
                              String blobPath) {
-        String storageAccountUrl = "https://" + storageAccount + ".blob.core.windows.net";
-
         // Creating a BlobServiceClient that allows us to perform container and blob operations, given our storage
         // account URL and shared key credential
-        BlobServiceClient blobServiceClient = new BlobServiceClientBuilder()
-                .endpoint(storageAccountUrl)
-                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred))
+        BlobServiceClient blobServiceClient = blobServiceClientBuilder(storageAccount, sharedKeyCred)
                 .buildClient();
 
         // Creating client referencing to-be-created container, and then creating it
@@ -180,4 +180,16 @@ public class ExampleDataCreator {
                 .block();
         return akek;
     }
+
+    /**
+     * Creates a client builder for the storage account, or for the configured connection string if there is one
+     */
+    private static BlobServiceClientBuilder blobServiceClientBuilder(String storageAccount, String sharedKeyCred) {
+        if (!connectionString.isEmpty()) {
+            return new BlobServiceClientBuilder().connectionString(connectionString);
+        }
+        return new BlobServiceClientBuilder()
+                .endpoint("https://" + storageAccount + ".blob.core.windows.net")
+                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred));
+    }
 }
@@ -4,6 +4,8 @@ import com.azure.security.keyvault.keys.models.JsonWebKey;
 import com.azure.security.keyvault.keys.models.KeyOperation;
 import com.azure.storage.blob.BlobClient;
 import com.azure.storage.blob.BlobClientBuilder;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobContainerClientBuilder;
 import com.azure.storage.blob.specialized.cryptography.EncryptedBlobClient;
 import com.azure.storage.blob.specialized.cryptography.EncryptedBlobClientBuilder;
 import com.azure.storage.common.StorageSharedKeyCredential;
@@ -18,13 +20,30 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Properties;
+import java.util.UUID;
+
+import migrationCommon.BlobTransfer;
+import migrationCommon.BulkMigration;
+import migrationCommon.KeyRingResolver;
+import migrationCommon.MigrationTask;
+import migrationCommon.ServerSideCopy;
+import migrationCommon.TransferTuner;
 
 /**
  * Downloads and decrypts blob using local key found in local file, then reuploads using customer-managed keys
  * with default Microsoft-managed keys
  */
 public class Migration {
-    public static void main(String[] args) throws IOException {
+    // Used instead of the storage account and shared key when set, for example to run against LocalBlobService
+    private static String connectionString = "";
+    // Set unless migrationMode is file
+    private static BlobTransfer blobTransfer;
+    private static TransferTuner transferTuner;
+    private static ServerSideCopy serverSideCopy;
+    // Set when app.config lists a key ring
+    private static KeyRingResolver keyRing;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
         String storageAccount = null;
         String sharedKeyCred = null;
         String containerName = null;
@@ -45,6 +64,7 @@ public class Migration {
         prop.load(input);
         storageAccount = prop.getProperty("storageAccount");
         sharedKeyCred = prop.getProperty("sharedKeyCred");
+        connectionString = prop.getProperty("connectionString", "");
         containerName = prop.getProperty("containerName");
         blobName = prop.getProperty("blobName");
         blobNameAfterMigration = prop.getProperty("blobNameAfterMigration");
@@ -58,15 +78,29 @@ public class Migration {
         // Extracting key from file
         byte[] b = extractLocalKey(localKeyPath);
         AsyncKeyEncryptionKey key = createLocalKey(b);
-        // Decrypts sample blob then reuploads with server-side encryption using Microsoft-managed keys
-        try {
-            decryptClientSideLocalKey(storageAccount, sharedKeyCred, containerName, blobName, key,
-                    keyWrapAlgorithm, blobAfterMigrationPath);
-            encryptMicrosoftManagedKey(storageAccount, sharedKeyCred, containerName, blobNameAfterMigration, encryptionScope,
-                    blobAfterMigrationPath);
-        } finally {
-            cleanup(blobAfterMigrationPath);
+
+        // Resolves each blob's key by the key id in its encryption metadata when app.config lists a key ring
+        if (KeyRingResolver.isConfigured(prop)) {
+            keyRing = new KeyRingResolver(prop, pathToDir);
+            keyRing.addKey(key);
+        }
+        // Chooses block size and concurrency of every download and upload
+        transferTuner = new TransferTuner(prop);
+        // Copies blobs that are not client-side encrypted on the server in bulk mode
+        serverSideCopy = new ServerSideCopy(prop);
+        // Transfers blobs without a temp file next to app.config unless migrationMode is file
+        blobTransfer = BlobTransfer.fromConfig(prop, transferTuner);
+
+        // Migrates every blob in the container, or under bulkPrefix, instead of only blobName
+        if (Boolean.parseBoolean(prop.getProperty("bulkMode", "false"))) {
+            migrateContainer(prop, pathToDir, storageAccount, sharedKeyCred, containerName, key, keyWrapAlgorithm,
+                    encryptionScope);
+            return;
         }
+
+        // Decrypts sample blob then reuploads with server-side encryption using Microsoft-managed keys
+        migrateBlob(storageAccount, sharedKeyCred, containerName, key, keyWrapAlgorithm, encryptionScope,
+                new MigrationTask(blobName, blobNameAfterMigration, -1), blobAfterMigrationPath);
     }
 
     /**
@@ -93,44 +127,120 @@ public class Migration {
      * Downloads client-side encrypted blob, decrypts with local key, then stores in local file temporarily
      */
     private static void decryptClientSideLocalKey(String storageAccount, String sharedKeyCred, String containerName,
-                                                  String blobName, AsyncKeyEncryptionKey key,
-                                                  String keyWrapAlgorithm, String path) {
-        String storageAccountUrl = "https://" + storageAccount + ".blob.core.windows.net";
+                                                  String blobName, AsyncKeyEncryptionKey key, String keyWrapAlgorithm,
+                                                  String path, MigrationTask task) {
+        EncryptedBlobClient encryptedBlobClient = encryptedBlobClient(storageAccount, sharedKeyCred, containerName,
+                blobName, key, keyWrapAlgorithm);
 
+        // Downloading encrypted blob, blob is decrypted upon download
+        transferTuner.downloadToFile(encryptedBlobClient, path, task);
+    }
+
+    /**
+     * Creates encrypted blob client that decrypts the blob with the local key upon download
+     */
+    private static EncryptedBlobClient encryptedBlobClient(String storageAccount, String sharedKeyCred,
+                                                           String containerName, String blobName,
+                                                           AsyncKeyEncryptionKey key, String keyWrapAlgorithm) {
         // Creating encrypted blob client to download blob
-        BlobClient blobClient = new BlobClientBuilder()
-                .endpoint(storageAccountUrl)
-                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred))
+        BlobClient blobClient = blobClientBuilder(storageAccount, sharedKeyCred)
                 .containerName(containerName)
                 .blobName(blobName)
                 .buildClient();
-        EncryptedBlobClient encryptedBlobClient = new EncryptedBlobClientBuilder()
-                .key(key, keyWrapAlgorithm)
-                .blobClient(blobClient)
-                .buildEncryptedBlobClient();
-
-        // Downloading encrypted blob, blob is decrypted upon download
-        encryptedBlobClient.downloadToFile(path);
+        EncryptedBlobClientBuilder encryptedBlobClientBuilder = new EncryptedBlobClientBuilder()
+                .blobClient(blobClient);
+        // Decrypting with the key of the key ring that the blob's encryption metadata names, if there is a key ring
+        if (keyRing != null) {
+            encryptedBlobClientBuilder.keyResolver(keyRing);
+        } else {
+            encryptedBlobClientBuilder.key(key, keyWrapAlgorithm);
+        }
+        EncryptedBlobClient encryptedBlobClient = encryptedBlobClientBuilder.buildEncryptedBlobClient();
+        return encryptedBlobClient;
     }
 
     /**
      * Reuploads blob with server-side encryption using a Microsoft-managed key
      */
     private static void encryptMicrosoftManagedKey(String storageAccount, String sharedKeyCred, String containerName,
-                                                   String blobDecryptName, String encryptionScope, String path) {
-        String storageAccountUrl = "https://" + storageAccount + ".blob.core.windows.net";
+                                                   String blobDecryptName, String encryptionScope, String path,
+                                                   MigrationTask task) throws IOException {
+        BlobClient blobClientDecrypted = destinationBlobClient(storageAccount, sharedKeyCred, containerName,
+                blobDecryptName, encryptionScope);
+
+        // Uploading file to server
+        transferTuner.uploadFromFile(blobClientDecrypted, path, task);
+    }
 
+    /**
+     * Creates blob client for reuploading with server-side encryption using a Microsoft-managed key
+     */
+    private static BlobClient destinationBlobClient(String storageAccount, String sharedKeyCred, String containerName,
+                                                    String blobDecryptName, String encryptionScope) {
         // Creating blob client for reuploading
-        BlobClientBuilder blobClientBuilder = new BlobClientBuilder()
-                .endpoint(storageAccountUrl)
-                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred))
+        BlobClientBuilder blobClientBuilder = blobClientBuilder(storageAccount, sharedKeyCred)
                 .containerName(containerName)
                 .encryptionScope(encryptionScope)
                 .blobName(blobDecryptName);
         BlobClient blobClientDecrypted = blobClientBuilder.buildClient();
+        return blobClientDecrypted;
+    }
 
-        // Uploading file to server
-        blobClientDecrypted.uploadFromFile(path, true);
+    /**
+     * Decrypts blob then reuploads it with server-side encryption using a Microsoft-managed key. The blob is
+     * staged in the file at path, or transferred as chosen by migrationMode
+     */
+    private static void migrateBlob(String storageAccount, String sharedKeyCred, String containerName,
+                                    AsyncKeyEncryptionKey key, String keyWrapAlgorithm, String encryptionScope,
+                                    MigrationTask task, String path) throws IOException {
+        if (blobTransfer != null) {
+            EncryptedBlobClient source = encryptedBlobClient(storageAccount, sharedKeyCred, containerName,
+                    task.getBlobName(), key, keyWrapAlgorithm);
+            BlobClient destination = destinationBlobClient(storageAccount, sharedKeyCred, containerName,
+                    task.getDestinationBlobName(), encryptionScope);
+            blobTransfer.transfer(source, destination, task);
+            return;
+        }
+
+        try {
+            decryptClientSideLocalKey(storageAccount, sharedKeyCred, containerName, task.getBlobName(), key,
+                    keyWrapAlgorithm, path, task);
+            task.downloaded();
+            encryptMicrosoftManagedKey(storageAccount, sharedKeyCred, containerName, task.getDestinationBlobName(),
+                    encryptionScope, path, task);
+        } finally {
+            cleanup(path);
+        }
+    }
+
+    /**
+     * Copies a blob that is not client-side encrypted to its destination on the server, without downloading it
+     */
+    private static void copyBlob(String storageAccount, String sharedKeyCred, String containerName,
+                                 String encryptionScope, MigrationTask task) throws IOException {
+        BlobClient source = blobClientBuilder(storageAccount, sharedKeyCred)
+                .containerName(containerName)
+                .blobName(task.getBlobName())
+                .buildClient();
+        BlobClient destination = destinationBlobClient(storageAccount, sharedKeyCred, containerName,
+                task.getDestinationBlobName(), encryptionScope);
+        serverSideCopy.copy(source, destination, task);
+    }
+
+    /**
+     * Reuploads every blob in the container with server-side encryption using Microsoft-managed keys, under its
+     * name followed by bulkDestinationSuffix
+     */
+    private static void migrateContainer(Properties prop, Path pathToDir, String storageAccount, String sharedKeyCred,
+                                         String containerName, AsyncKeyEncryptionKey key, String keyWrapAlgorithm,
+                                         String encryptionScope) throws IOException, InterruptedException {
+        BlobContainerClient containerClient = containerClientBuilder(storageAccount, sharedKeyCred)
+                .containerName(containerName)
+                .buildClient();
+        new BulkMigration(containerClient, prop, pathToDir).run(task -> {
+            migrateBlob(storageAccount, sharedKeyCred, containerName, key, keyWrapAlgorithm, encryptionScope, task,
+                    Paths.get(pathToDir.toString(), UUID.randomUUID() + ".tmp").toString());
+        }, task -> copyBlob(storageAccount, sharedKeyCred, containerName, encryptionScope, task));
     }
 
     /**
@@ -141,4 +251,29 @@ public class Migration {
         File localFile = new File(path);
         localFile.delete();
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a client builder for the storage account, or for the configured connection string if there is one
+     */
+    private static BlobClientBuilder blobClientBuilder(String storageAccount, String sharedKeyCred) {
+        if (!connectionString.isEmpty()) {
+            return new BlobClientBuilder().connectionString(connectionString);
+        }
+        return new BlobClientBuilder()
+                .endpoint("https://" + storageAccount + ".blob.core.windows.net")
+                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred));
+    }
+
+    /**
+     * Creates a container client builder for the storage account, or for the configured connection string if there is
+     * one
+     */
+    private static BlobContainerClientBuilder containerClientBuilder(String storageAccount, String sharedKeyCred) {
+        if (!connectionString.isEmpty()) {
+            return new BlobContainerClientBuilder().connectionString(connectionString);
+        }
+        return new BlobContainerClientBuilder()
+                .endpoint("https://" + storageAccount + ".blob.core.windows.net")
+                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred));
+    }
+}
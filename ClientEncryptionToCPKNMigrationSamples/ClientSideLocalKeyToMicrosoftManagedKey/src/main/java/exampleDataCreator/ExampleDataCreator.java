@@ -33,6 +33,9 @@ import java.util.Random;
  * encryption scope created
  */
 public class ExampleDataCreator {
+    // Used instead of the storage account and shared key when set, for example to run against LocalBlobService
+    private static String connectionString = "";
+
     public static void main(String[] args) throws IOException {
         String clientSideLocalKeyFileName = null;
         String storageAccount = null;
@@ -56,6 +59,7 @@ public class ExampleDataCreator {
         clientSideLocalKeyFileName = prop.getProperty("clientSideLocalKeyFileName");
         storageAccount = prop.getProperty("storageAccount");
         sharedKeyCred = prop.getProperty("sharedKeyCred");
+        connectionString = prop.getProperty("connectionString", "");
         containerName = prop.getProperty("containerName");
         blobName = prop.getProperty("blobName");
         resourceGroup = prop.getProperty("resourceGroup");
@@ -118,13 +122,9 @@ public class ExampleDataCreator {
      */
     public static void setup(String storageAccount, String sharedKeyCred, String containerName, String blobName,
                              AsyncKeyEncryptionKey key, String keyWrapAlgorithm, String blobPath) {
-        String storageAccountUrl = "https://" + storageAccount + ".blob.core.windows.net";
-
         // Creating a BlobServiceClient that allows us to perform container and blob operations, given our storage
         // account URL and shared key credential
-        BlobServiceClient blobServiceClient = new BlobServiceClientBuilder()
-                .endpoint(storageAccountUrl)
-                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred))
+        BlobServiceClient blobServiceClient = blobServiceClientBuilder(storageAccount, sharedKeyCred)
                 .buildClient();
 
         // Creating client referencing to-be-created container, and then creating it
@@ -145,4 +145,16 @@ public class ExampleDataCreator {
         // Uploading example blob with client-side encryption
         encryptedBlobClient.uploadFromFile(blobPath, true);
     }
+
+    /**
+     * Creates a client builder for the storage account, or for the configured connection string if there is one
+     */
+    private static BlobServiceClientBuilder blobServiceClientBuilder(String storageAccount, String sharedKeyCred) {
+        if (!connectionString.isEmpty()) {
+            return new BlobServiceClientBuilder().connectionString(connectionString);
+        }
+        return new BlobServiceClientBuilder()
+                .endpoint("https://" + storageAccount + ".blob.core.windows.net")
+                .credential(new StorageSharedKeyCredential(storageAccount, sharedKeyCred));
+    }
 }
@@ -0,0 +1,10 @@
+package migrationCommon;
+
+/**
+ * Migrates one blob, in the way of the sample that supplies it: decrypting the client-side encrypted source blob and
+ * uploading it again with server-side encryption under the destination name
+ */
+@FunctionalInterface
+public interface BlobMigrator {
+    void migrate(MigrationTask task) throws Exception;
+}
@@ -0,0 +1,51 @@
+package migrationCommon;
+
+import com.azure.storage.blob.BlobClient;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Copies a blob by piping its download straight into a block upload of the destination, instead of downloading it to
+ * a file and uploading the file afterwards. Nothing touches local disk, and the upload runs while the download is still
+ * in progress.
+ * <p>
+ * Every pipe made by one BlobPipe shares its pool of pipeBuffers buffers of pipeBlockSize bytes and its
+ * pipeStagingThreads upload threads, so the memory used for streaming stays the same however many blobs are migrated
+ * at once
+ */
+public class BlobPipe implements BlobTransfer {
+    private final BufferPool bufferPool;
+    private final ExecutorService stagingExecutor;
+
+    /**
+     * Reads pipeBlockSize, pipeBuffers and pipeStagingThreads from the sample's app.config
+     */
+    public BlobPipe(Properties prop) {
+        this.bufferPool = new BufferPool(Integer.parseInt(prop.getProperty("pipeBlockSize", "4194304")),
+                Integer.parseInt(prop.getProperty("pipeBuffers", "16")));
+        this.stagingExecutor = Executors.newFixedThreadPool(Integer.parseInt(prop.getProperty("pipeStagingThreads",
+                "8")), runnable -> {
+                    Thread thread = new Thread(runnable, "blob-pipe-staging");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public void transfer(BlobClient source, BlobClient destination, MigrationTask task) throws IOException {
+        task.note("pipe blockSize=" + this.bufferPool.getBufferSize());
+        BlockStagingOutputStream upload = new BlockStagingOutputStream(destination.getBlockBlobClient(),
+                this.bufferPool, this.stagingExecutor);
+        try {
+            source.download(upload);
+        } catch (RuntimeException e) {
+            upload.abort();
+            throw e;
+        }
+        task.downloaded();
+        upload.close();
+    }
+}
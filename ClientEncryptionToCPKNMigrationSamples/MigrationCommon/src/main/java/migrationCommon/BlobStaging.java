@@ -0,0 +1,52 @@
+package migrationCommon;
+
+import com.azure.storage.blob.BlobClient;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Copies a blob by downloading all of it before uploading it, staging it in memory when it is small and on disk when
+ * it is not. Most blobs of a typical container are small, and for those creating and deleting a file costs more than
+ * the transfer itself.
+ * <p>
+ * A blob stays in memory while it is no larger than stagingMemoryThreshold. The chunks of stagingChunkSize bytes that
+ * hold it come from one pool, allocated on the heap or, with stagingDirectBuffers, outside of it, and all blobs
+ * staged at the same time share a budget of stagingMemoryBudget bytes. A blob that is larger, or that arrives when
+ * the budget is used up, is spilled to a temp file in stagingDirectory, which is memory-mapped for the upload unless
+ * stagingMemoryMapped is false. The upload uses the settings the {@link TransferTuner} chooses for the blob's size
+ */
+public class BlobStaging implements BlobTransfer {
+    private final TransferTuner transferTuner;
+    private final ChunkPool chunkPool;
+    private final long memoryThreshold;
+    private final Path directory;
+    private final boolean memoryMapped;
+
+    /**
+     * Reads stagingMemoryThreshold, stagingMemoryBudget, stagingChunkSize, stagingDirectBuffers, stagingDirectory and
+     * stagingMemoryMapped from the sample's app.config. Without a stagingDirectory, the system temp directory is used
+     */
+    public BlobStaging(Properties prop, TransferTuner transferTuner) {
+        this.transferTuner = transferTuner;
+        this.chunkPool = new ChunkPool(Integer.parseInt(prop.getProperty("stagingChunkSize", "65536")),
+                Long.parseLong(prop.getProperty("stagingMemoryBudget", "268435456")),
+                Boolean.parseBoolean(prop.getProperty("stagingDirectBuffers", "false")));
+        this.memoryThreshold = Long.parseLong(prop.getProperty("stagingMemoryThreshold", "8388608"));
+        String directory = prop.getProperty("stagingDirectory", "");
+        this.directory = Paths.get(directory.isEmpty() ? System.getProperty("java.io.tmpdir") : directory);
+        this.memoryMapped = Boolean.parseBoolean(prop.getProperty("stagingMemoryMapped", "true"));
+    }
+
+    @Override
+    public void transfer(BlobClient source, BlobClient destination, MigrationTask task) throws IOException {
+        try (StagedBlob staged = new StagedBlob(this.chunkPool, this.memoryThreshold, this.directory,
+                this.memoryMapped)) {
+            source.download(staged);
+            task.downloaded();
+            this.transferTuner.upload(destination, staged.openInputStream(), staged.size(), task);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package migrationCommon;
+
+import com.azure.storage.blob.BlobClient;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * A way of copying the content of one blob into another without going through a file of the sample's choosing. The
+ * source is usually an EncryptedBlobClient, which decrypts while it downloads, and the destination a client built with
+ * the target encryption scope or customer-provided key
+ */
+public interface BlobTransfer {
+    /**
+     * Downloads the source into the destination, replacing it. If the download fails, the destination is left as it
+     * was
+     */
+    void transfer(BlobClient source, BlobClient destination, MigrationTask task) throws IOException;
+
+    /**
+     * Returns the transfer chosen by migrationMode in the sample's app.config: a {@link BlobPipe} for stream, a
+     * {@link BlobStaging} for adaptive, and null for file, where the sample downloads to and uploads from a file itself
+     */
+    static BlobTransfer fromConfig(Properties prop, TransferTuner transferTuner) {
+        String migrationMode = prop.getProperty("migrationMode", "file");
+        switch (migrationMode) {
+            case "file":
+                return null;
+            case "stream":
+                return new BlobPipe(prop);
+            case "adaptive":
+                return new BlobStaging(prop, transferTuner);
+            default:
+                throw new IllegalArgumentException("Unknown migrationMode " + migrationMode);
+        }
+    }
+}
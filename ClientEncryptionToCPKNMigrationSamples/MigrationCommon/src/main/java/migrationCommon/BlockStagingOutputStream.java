@@ -0,0 +1,129 @@
+package migrationCommon;
+
+import com.azure.storage.blob.specialized.BlockBlobClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Uploads what is written to it as the blocks of a block blob. Every time a pooled buffer fills up it is staged as the
+ * next block on the given executor while writing continues into another buffer, and closing the stream commits the
+ * blocks in the order they were written. When the pool runs out of buffers, writing waits for a block to finish
+ * staging, so a fast writer cannot get further ahead of the upload than the pool allows
+ */
+class BlockStagingOutputStream extends OutputStream {
+    private final BlockBlobClient destination;
+    private final BufferPool bufferPool;
+    private final ExecutorService stagingExecutor;
+    private final List<String> blockIds = new ArrayList<>();
+    private final List<CompletableFuture<Void>> stagedBlocks = new ArrayList<>();
+    private volatile Throwable failure;
+    private byte[] buffer;
+    private int position;
+    private boolean closed;
+
+    BlockStagingOutputStream(BlockBlobClient destination, BufferPool bufferPool, ExecutorService stagingExecutor) {
+        this.destination = destination;
+        this.bufferPool = bufferPool;
+        this.stagingExecutor = stagingExecutor;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream is closed");
+        }
+        while (len > 0) {
+            if (this.buffer == null) {
+                this.buffer = acquireBuffer();
+            }
+            int count = Math.min(len, this.buffer.length - this.position);
+            System.arraycopy(b, off, this.buffer, this.position, count);
+            this.position += count;
+            off += count;
+            len -= count;
+            if (this.position == this.buffer.length) {
+                stageBuffer();
+            }
+        }
+    }
+
+    /**
+     * Stages what is left, waits for every block and commits the block list, replacing the destination blob
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        if (this.position > 0) {
+            stageBuffer();
+        }
+        this.closed = true;
+        try {
+            CompletableFuture.allOf(this.stagedBlocks.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw new IOException("Staging a block failed", e.getCause());
+        }
+        this.destination.commitBlockList(this.blockIds, true);
+    }
+
+    /**
+     * Stops the upload without committing. Blocks still being staged finish in the background, and as they are never
+     * committed the service discards them
+     */
+    void abort() {
+        this.closed = true;
+        if (this.buffer != null) {
+            this.bufferPool.release(this.buffer);
+            this.buffer = null;
+        }
+    }
+
+    private byte[] acquireBuffer() throws IOException {
+        if (this.failure != null) {
+            throw new IOException("Staging a block failed", this.failure);
+        }
+        try {
+            return this.bufferPool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a buffer");
+        }
+    }
+
+    private void stageBuffer() {
+        byte[] staged = this.buffer;
+        int length = this.position;
+        this.buffer = null;
+        this.position = 0;
+
+        // Block ids must all have the same length, so the index is zero padded
+        String blockId = Base64.getEncoder().encodeToString(
+                String.format("%010d", this.blockIds.size()).getBytes(StandardCharsets.UTF_8));
+        this.blockIds.add(blockId);
+        this.stagedBlocks.add(CompletableFuture
+                .runAsync(() -> this.destination.stageBlock(blockId, new ByteArrayInputStream(staged, 0, length),
+                        length), this.stagingExecutor)
+                .whenComplete((result, error) -> {
+                    this.bufferPool.release(staged);
+                    if (error != null && this.failure == null) {
+                        this.failure = error;
+                    }
+                }));
+    }
+}
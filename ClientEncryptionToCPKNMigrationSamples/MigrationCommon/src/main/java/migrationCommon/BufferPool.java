@@ -0,0 +1,47 @@
+package migrationCommon;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed number of equally sized buffers that are handed out and returned instead of allocated per block. Buffers are
+ * only allocated when first needed, and once all of them are in use, acquiring one waits until another is released.
+ * This bounds the memory held by every pipe sharing the pool, however many blobs are migrated at the same time
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final int capacity;
+    private final BlockingQueue<byte[]> free;
+    private int allocated;
+
+    public BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+        this.free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * Returns a free buffer, waiting for one to be released if all of them are in use
+     */
+    public byte[] acquire() throws InterruptedException {
+        byte[] buffer = this.free.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        synchronized (this) {
+            if (this.allocated < this.capacity) {
+                this.allocated++;
+                return new byte[this.bufferSize];
+            }
+        }
+        return this.free.take();
+    }
+
+    public void release(byte[] buffer) {
+        this.free.offer(buffer);
+    }
+}
@@ -0,0 +1,330 @@
+package migrationCommon;
+
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.ListBlobsOptions;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Migrates every blob in a container, or under a prefix of it, instead of the single configured blob. Blobs are listed
+ * page by page and handed to a fixed pool of workers. Listing only runs ahead of the workers by a bounded number of
+ * blobs, so memory use does not grow with the size of the container.
+ * <p>
+ * A blob that fails to migrate is recorded as failed and does not stop the others. Every blob's outcome is appended to
+ * a tab separated status file as it finishes, with its name, destination name, size, time taken, error and the notes
+ * the migration left on it, such as the transfer settings it chose. A summary of the throughput is logged while the
+ * migration runs and at its end.
+ * <p>
+ * The destination of each blob is its name followed by bulkDestinationSuffix, in the same container. Blobs whose name
+ * already ends with the suffix are skipped, as they are the output of this or an earlier run. With an empty suffix,
+ * blobs are migrated in place.
+ * <p>
+ * How far each blob got is kept in a {@link MigrationJournal} at bulkJournalFile, synced every bulkJournalSyncMillis
+ * milliseconds. After an upload, the destination is checked to exist with a size that fits the source before the blob
+ * counts as done. When a stopped migration is run again, blobs the journal shows as done are skipped as long as the
+ * source still has the ETag it had then, blobs that were uploaded but not yet checked are checked, and all others are
+ * migrated again
+ */
+public class BulkMigration {
+    private static Logger logger = LoggerFactory.getLogger(BulkMigration.class);
+    // Client-side encryption pads the content to a whole AES block of 16 bytes, adding at least one byte. Copies have
+    // to keep the size of their source exactly
+    private static final long PADDING = 16;
+
+    private final BlobContainerClient containerClient;
+    private final String prefix;
+    private final int concurrency;
+    private final String destinationSuffix;
+    private final Path statusFile;
+    private final long progressSeconds;
+    private final Path journalFile;
+    private final long journalSyncMillis;
+    private final boolean scan;
+    private final boolean scanOnly;
+    private final int scanConcurrency;
+    private final String scanSplitCharacters;
+    private final Path planFile;
+    private final boolean serverSideCopy;
+
+    /**
+     * Reads bulkPrefix, bulkConcurrency, bulkDestinationSuffix, bulkStatusFile, bulkProgressSeconds, bulkJournalFile,
+     * bulkJournalSyncMillis, bulkScan, bulkScanOnly, bulkScanConcurrency, bulkScanSplitCharacters, bulkPlanFile and
+     * bulkServerSideCopy from the sample's app.config. Relative status, journal and plan files are resolved against
+     * the given directory
+     */
+    public BulkMigration(BlobContainerClient containerClient, Properties prop, Path directory) {
+        this.containerClient = containerClient;
+        this.prefix = prop.getProperty("bulkPrefix", "");
+        this.concurrency = Integer.parseInt(prop.getProperty("bulkConcurrency", "8"));
+        this.destinationSuffix = prop.getProperty("bulkDestinationSuffix", "-migrated");
+        this.statusFile = directory.resolve(prop.getProperty("bulkStatusFile", "migrationStatus.tsv"));
+        this.progressSeconds = Long.parseLong(prop.getProperty("bulkProgressSeconds", "10"));
+        this.journalFile = directory.resolve(prop.getProperty("bulkJournalFile", "migrationJournal.log"));
+        this.journalSyncMillis = Long.parseLong(prop.getProperty("bulkJournalSyncMillis", "1000"));
+        this.scan = Boolean.parseBoolean(prop.getProperty("bulkScan", "true"));
+        this.scanOnly = Boolean.parseBoolean(prop.getProperty("bulkScanOnly", "false"));
+        this.scanConcurrency = Integer.parseInt(prop.getProperty("bulkScanConcurrency", "8"));
+        this.scanSplitCharacters = prop.getProperty("bulkScanSplitCharacters", "");
+        this.planFile = directory.resolve(prop.getProperty("bulkPlanFile", "migrationPlan.tsv"));
+        this.serverSideCopy = Boolean.parseBoolean(prop.getProperty("bulkServerSideCopy", "true"));
+    }
+
+    /**
+     * Migrates every listed blob that needs it with the given migrator and waits until all of them finished
+     *
+     * @return the counts and throughput of the run
+     */
+    public MigrationSummary run(BlobMigrator migrator) throws IOException, InterruptedException {
+        return run(migrator, null);
+    }
+
+    /**
+     * Migrates every listed blob that needs decrypting with the given migrator, and, with bulkServerSideCopy, every
+     * blob the scan found not to be client-side encrypted with the given copier, and waits until all of them finished.
+     * Blobs encrypted with a customer-provided key are not copied, as they cannot be read without that key
+     *
+     * @return the counts and throughput of the run
+     */
+    public MigrationSummary run(BlobMigrator migrator, BlobMigrator copier) throws IOException, InterruptedException {
+        MigrationSummary summary = new MigrationSummary();
+        WorkPlan plan = null;
+        if (this.scan || this.scanOnly) {
+            plan = new EncryptionScan(this.containerClient, this.prefix, this.scanConcurrency, this.scanSplitCharacters)
+                    .scan(this.planFile);
+            if (this.scanOnly) {
+                summary.finish();
+                logger.info("Scan finished: {}. The category of every blob is in {}", plan, this.planFile);
+                return summary;
+            }
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(this.concurrency);
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor();
+        progress.scheduleAtFixedRate(() -> logger.info("Progress: {}", summary), this.progressSeconds,
+                this.progressSeconds, TimeUnit.SECONDS);
+        // Each worker may have one blob queued behind the one it migrates
+        Semaphore pending = new Semaphore(this.concurrency * 2);
+
+        boolean interrupted = false;
+        try (MigrationJournal journal = new MigrationJournal(this.journalFile, this.journalSyncMillis);
+             BufferedWriter status = Files.newBufferedWriter(this.statusFile, StandardCharsets.UTF_8,
+                     StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             Stream<WorkPlan.Entry> blobs = plan != null ? plan.entries() : list()) {
+            try {
+                for (WorkPlan.Entry blob : (Iterable<WorkPlan.Entry>) blobs::iterator) {
+                    if (!this.destinationSuffix.isEmpty() && blob.blobName.endsWith(this.destinationSuffix)) {
+                        summary.record(MigrationStatus.SKIPPED, blob.size);
+                        continue;
+                    }
+                    BlobMigrator blobMigrator = migratorFor(blob, migrator, copier);
+                    // Only blobs that are not client-side encrypted are copied
+                    boolean copied = blob.category == WorkPlan.Category.ALREADY_SERVER_SIDE;
+                    if (blobMigrator == null) {
+                        summary.record(MigrationStatus.SKIPPED, blob.size);
+                        writeStatus(status, MigrationStatus.SKIPPED, blob.blobName, "", blob.size, 0, "",
+                                blob.category + " " + blob.reason);
+                        continue;
+                    }
+
+                    pending.acquire();
+                    workers.execute(() -> {
+                        try {
+                            migrate(blobMigrator, copied, blob.blobName, blob.eTag, blob.size, summary, status,
+                                    journal);
+                        } finally {
+                            pending.release();
+                        }
+                    });
+                }
+            } finally {
+                // Workers write to the journal and the status file, so they have to finish before those are closed,
+                // also when listing failed
+                interrupted = awaitWorkers(workers, summary);
+            }
+        } finally {
+            workers.shutdownNow();
+            progress.shutdownNow();
+        }
+        if (interrupted) {
+            throw new InterruptedException("Interrupted while waiting for the workers");
+        }
+
+        summary.finish();
+        logger.info("Bulk migration finished: {}. Status of every blob is in {}", summary, this.statusFile);
+        return summary;
+    }
+
+    /**
+     * Lets the workers finish the blobs they were given and waits for them. An interrupt interrupts the workers, but
+     * the wait goes on until they stopped
+     *
+     * @return whether the wait was interrupted
+     */
+    private static boolean awaitWorkers(ExecutorService workers, MigrationSummary summary) {
+        workers.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                    return interrupted;
+                }
+                logger.info("Waiting for workers: {}", summary);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    private void migrate(BlobMigrator migrator, boolean copied, String blobName, String eTag, long size,
+                         MigrationSummary summary, BufferedWriter status, MigrationJournal journal) {
+        String destinationBlobName = blobName + this.destinationSuffix;
+        MigrationTask task = new MigrationTask(blobName, destinationBlobName, size, eTag.isEmpty() ? null : eTag);
+        long start = System.nanoTime();
+        MigrationStatus outcome = MigrationStatus.MIGRATED;
+        String error = "";
+        try {
+            if (isDone(task, copied, eTag, journal)) {
+                outcome = MigrationStatus.SKIPPED;
+            } else {
+                journal.record(MigrationJournal.State.PENDING, blobName, eTag, destinationBlobName, null);
+                task.onDownloaded(() -> journal.record(MigrationJournal.State.DOWNLOADED, blobName, eTag,
+                        destinationBlobName, null));
+                migrator.migrate(task);
+                journal.record(MigrationJournal.State.UPLOADED, blobName, eTag, destinationBlobName, null);
+                journal.record(MigrationJournal.State.VERIFIED, blobName, eTag, destinationBlobName,
+                        verify(task, copied));
+            }
+        } catch (Exception e) {
+            outcome = MigrationStatus.FAILED;
+            error = tsvField(String.valueOf(e));
+            journal.record(MigrationJournal.State.FAILED, blobName, eTag, destinationBlobName, null);
+            logger.warn("Migrating {} failed", blobName, e);
+        }
+        summary.record(outcome, size);
+
+        writeStatus(status, outcome, blobName, task.getDestinationBlobName(), size,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), error, task.getNotes());
+    }
+
+    /**
+     * Returns what migrates the blob, or null if it is skipped
+     */
+    private BlobMigrator migratorFor(WorkPlan.Entry blob, BlobMigrator migrator, BlobMigrator copier) {
+        if (blob.category == WorkPlan.Category.NEEDS_DECRYPT) {
+            return migrator;
+        }
+        if (blob.category == WorkPlan.Category.ALREADY_SERVER_SIDE && this.serverSideCopy
+                && !blob.customerProvidedKey) {
+            return copier;
+        }
+        return null;
+    }
+
+    /**
+     * Lists the blobs under the prefix without looking at their encryption, assuming all of them need decrypting
+     */
+    private Stream<WorkPlan.Entry> list() {
+        ListBlobsOptions options = new ListBlobsOptions().setPrefix(this.prefix.isEmpty() ? null : this.prefix);
+        return this.containerClient.listBlobs(options, null).stream().map(blobItem -> {
+            long size = blobItem.getProperties().getContentLength() == null
+                    ? 0 : blobItem.getProperties().getContentLength();
+            return new WorkPlan.Entry(WorkPlan.Category.NEEDS_DECRYPT, blobItem.getName(),
+                    blobItem.getProperties().getETag(), size, "not scanned",
+                    blobItem.getProperties().getCustomerProvidedKeySha256() != null);
+        });
+    }
+
+    private static void writeStatus(BufferedWriter status, MigrationStatus outcome, String blobName,
+                                    String destinationBlobName, long size, long millis, String error, String notes) {
+        String line = outcome + "\t" + blobName + "\t" + destinationBlobName + "\t" + size + "\t" + millis + "\t"
+                + error + "\t" + tsvField(notes) + "\n";
+        synchronized (status) {
+            try {
+                status.write(line);
+                status.flush();
+            } catch (IOException e) {
+                logger.error("Writing the status of {} failed", blobName, e);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the journal shows the blob was migrated by an earlier run. A blob that an earlier run uploaded
+     * but stopped before verifying is verified now, and migrated again if that fails
+     */
+    private boolean isDone(MigrationTask task, boolean copied, String eTag, MigrationJournal journal) {
+        MigrationJournal.Entry previous = journal.get(task.getBlobName());
+        if (previous == null || !previous.destinationBlobName.equals(task.getDestinationBlobName())) {
+            return false;
+        }
+        if (previous.state == MigrationJournal.State.VERIFIED) {
+            // Migrating in place gives the source the ETag of the destination
+            if (previous.isFor(eTag, task.getDestinationBlobName()) || previous.destinationETag.equals(eTag)) {
+                task.note("migrated by an earlier run");
+                return true;
+            }
+            return false;
+        }
+        if (previous.state != MigrationJournal.State.UPLOADED || !previous.isFor(eTag, task.getDestinationBlobName())) {
+            return false;
+        }
+
+        try {
+            String destinationETag = verify(task, copied);
+            journal.record(MigrationJournal.State.VERIFIED, task.getBlobName(), eTag, task.getDestinationBlobName(),
+                    destinationETag);
+            task.note("verified the upload of an earlier run");
+            return true;
+        } catch (IllegalStateException e) {
+            task.note("upload of an earlier run did not verify: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Checks that the destination exists and is as large as the migrated source can be, which is the size of the
+     * source, less up to one block of padding if it was decrypted, or exactly the size of the source if it was copied,
+     * and returns the destination's ETag. The destination is looked up by listing, as reading the properties of a blob
+     * encrypted with a customer-provided key needs that key
+     */
+    private String verify(MigrationTask task, boolean copied) {
+        String name = task.getDestinationBlobName();
+        ListBlobsOptions options = new ListBlobsOptions().setPrefix(name).setMaxResultsPerPage(1);
+        // No other blob with the name as prefix sorts before the name itself
+        for (BlobItem destination : this.containerClient.listBlobs(options, null)) {
+            if (!destination.getName().equals(name)) {
+                break;
+            }
+            long size = destination.getProperties().getContentLength() == null
+                    ? 0 : destination.getProperties().getContentLength();
+            long padding = copied ? 0 : PADDING;
+            if (task.getSize() >= 0 && (size > task.getSize() || size < task.getSize() - padding)) {
+                throw new IllegalStateException("Destination " + name + " has " + size + " bytes, but source "
+                        + task.getBlobName() + " has " + task.getSize());
+            }
+            return destination.getProperties().getETag();
+        }
+        throw new IllegalStateException("Destination " + name + " does not exist");
+    }
+
+    private static String tsvField(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ');
+    }
+}
@@ -0,0 +1,54 @@
+package migrationCommon;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads the remaining bytes of a list of buffers one after the other, without copying them into an array first
+ */
+class ByteBuffersInputStream extends InputStream {
+    private final List<ByteBuffer> buffers;
+    private int current;
+
+    ByteBuffersInputStream(List<ByteBuffer> buffers) {
+        this.buffers = buffers;
+    }
+
+    @Override
+    public int read() {
+        ByteBuffer buffer = nextBuffer();
+        return buffer == null ? -1 : buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        ByteBuffer buffer = nextBuffer();
+        if (buffer == null) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        ByteBuffer buffer = nextBuffer();
+        return buffer == null ? 0 : buffer.remaining();
+    }
+
+    private ByteBuffer nextBuffer() {
+        while (this.current < this.buffers.size()) {
+            ByteBuffer buffer = this.buffers.get(this.current);
+            if (buffer.hasRemaining()) {
+                return buffer;
+            }
+            this.current++;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,44 @@
+package migrationCommon;
+
+import com.azure.core.cryptography.AsyncKeyEncryptionKey;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * A key encryption key that remembers the content encryption keys it unwrapped. Every client-side encrypted blob
+ * carries its content encryption key wrapped, and a Key Vault key unwraps it with a request to Key Vault. Blobs that
+ * share a content encryption key, and blobs that are retried, are then decrypted without asking Key Vault again
+ */
+class CachingKeyEncryptionKey implements AsyncKeyEncryptionKey {
+    private final AsyncKeyEncryptionKey key;
+    private final String keyId;
+    private final UnwrappedKeyCache unwrappedKeys;
+
+    CachingKeyEncryptionKey(AsyncKeyEncryptionKey key, String keyId, UnwrappedKeyCache unwrappedKeys) {
+        this.key = key;
+        this.keyId = keyId;
+        this.unwrappedKeys = unwrappedKeys;
+    }
+
+    @Override
+    public Mono<String> getKeyId() {
+        return this.key.getKeyId();
+    }
+
+    @Override
+    public Mono<byte[]> wrapKey(String algorithm, byte[] key) {
+        return this.key.wrapKey(algorithm, key);
+    }
+
+    @Override
+    public Mono<byte[]> unwrapKey(String algorithm, byte[] encryptedKey) {
+        return Mono.defer(() -> {
+            byte[] cached = this.unwrappedKeys.get(this.keyId, algorithm, encryptedKey);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return this.key.unwrapKey(algorithm, encryptedKey)
+                    .doOnNext(unwrapped -> this.unwrappedKeys.put(this.keyId, algorithm, encryptedKey, unwrapped));
+        });
+    }
+}
@@ -0,0 +1,51 @@
+package migrationCommon;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Equally sized heap or direct byte buffers, reused across blobs, with a fixed budget for how many may exist at once.
+ * Unlike {@link BufferPool}, acquiring never waits: once the budget is used up it returns null, and the caller stages
+ * on disk instead
+ */
+class ChunkPool {
+    private final int chunkSize;
+    private final int capacity;
+    private final boolean direct;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    ChunkPool(int chunkSize, long budget, boolean direct) {
+        this.chunkSize = chunkSize;
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, budget / chunkSize);
+        this.direct = direct;
+    }
+
+    int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * Returns a cleared chunk, or null if the whole budget is in use
+     */
+    ByteBuffer tryAcquire() {
+        ByteBuffer chunk = this.free.poll();
+        if (chunk != null) {
+            chunk.clear();
+            return chunk;
+        }
+        int count;
+        do {
+            count = this.allocated.get();
+            if (count >= this.capacity) {
+                return null;
+            }
+        } while (!this.allocated.compareAndSet(count, count + 1));
+        return this.direct ? ByteBuffer.allocateDirect(this.chunkSize) : ByteBuffer.allocate(this.chunkSize);
+    }
+
+    void release(ByteBuffer chunk) {
+        this.free.offer(chunk);
+    }
+}
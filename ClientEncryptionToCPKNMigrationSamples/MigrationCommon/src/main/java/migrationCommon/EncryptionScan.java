@@ -0,0 +1,281 @@
+package migrationCommon;
+
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.BlobItemProperties;
+import com.azure.storage.blob.models.BlobListDetails;
+import com.azure.storage.blob.models.BlobType;
+import com.azure.storage.blob.models.ListBlobsOptions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds out which blobs of a container actually need migrating before any of their content is downloaded, by listing
+ * the container with metadata and looking at the encryptiondata metadata that client-side encryption leaves on every
+ * blob it encrypts.
+ * <p>
+ * A block blob with encryptiondata that describes a content key wrapped with protocol 1.0 needs to be decrypted. A
+ * blob without encryptiondata is already only encrypted by the service. Page and append blobs, which the SDK does not
+ * encrypt client-side, and blobs whose encryptiondata is not understood are skipped.
+ * <p>
+ * The top level of the container, or of the prefix, is listed by hierarchy, and every virtual directory found there is
+ * then listed on its own, several at once. Blobs at the top level are found by that one listing, so a flat container is
+ * listed by a single thread. With split characters, every listing of the top level or of a directory is split into one
+ * per character, for the names that continue with it, which are listed at the same time. Blob names cannot be listed
+ * by range, so the names that continue with any other character are found by one more listing of each level, without
+ * metadata, which skips the names the split listings cover. The blobs it finds are looked up one by one and logged
+ * with a warning, as the split characters do not fit the container
+ */
+class EncryptionScan {
+    private static Logger logger = LoggerFactory.getLogger(EncryptionScan.class);
+    private static final String ENCRYPTION_DATA = "encryptiondata";
+    private static final String DELIMITER = "/";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BlobContainerClient containerClient;
+    private final String prefix;
+    private final int concurrency;
+    private final String splitCharacters;
+
+    /**
+     * @param splitCharacters Characters to split every listing by, or an empty string to list each level whole
+     */
+    EncryptionScan(BlobContainerClient containerClient, String prefix, int concurrency, String splitCharacters) {
+        this.containerClient = containerClient;
+        this.prefix = prefix == null ? "" : prefix;
+        this.concurrency = concurrency;
+        this.splitCharacters = splitCharacters;
+    }
+
+    /**
+     * Lists and classifies every blob under the prefix, writing the plan to the given file, which is replaced
+     */
+    WorkPlan scan(Path planFile) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Map<WorkPlan.Category, Long> counts = new EnumMap<>(WorkPlan.Category.class);
+        ExecutorService listers = Executors.newFixedThreadPool(this.concurrency);
+        try (BufferedWriter plan = Files.newBufferedWriter(planFile, StandardCharsets.UTF_8)) {
+            // Listings of the top level add those of the directories they find before they finish
+            List<Future<?>> listings = Collections.synchronizedList(new ArrayList<>());
+            for (String level : split(this.prefix)) {
+                listings.add(listers.submit(() -> listTopLevel(level, false, listers, listings, plan, counts)));
+            }
+            if (!this.splitCharacters.isEmpty()) {
+                listings.add(listers.submit(() -> listTopLevel(this.prefix, true, listers, listings, plan, counts)));
+            }
+
+            for (int i = 0; i < listings.size(); i++) {
+                try {
+                    listings.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof UncheckedIOException) {
+                        throw ((UncheckedIOException) e.getCause()).getCause();
+                    }
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            listers.shutdownNow();
+        }
+
+        WorkPlan workPlan = new WorkPlan(planFile, counts);
+        logger.info("Scanned {} in {} ms: {}", this.containerClient.getBlobContainerName(),
+                (System.nanoTime() - start) / 1000000, workPlan);
+        return workPlan;
+    }
+
+    /**
+     * Lists one part of the top level, classifying its blobs and starting the listings of the directories in it. The
+     * listing of leftovers lists the whole top level and only takes the names no split listing covers
+     */
+    private void listTopLevel(String level, boolean leftovers, ExecutorService listers, List<Future<?>> listings,
+                              BufferedWriter plan, Map<WorkPlan.Category, Long> counts) {
+        long missed = 0;
+        for (BlobItem item : this.containerClient.listBlobsByHierarchy(DELIMITER, options(level, !leftovers), null)) {
+            if (leftovers) {
+                if (isSplit(item.getName(), this.prefix)) {
+                    continue;
+                }
+                missed++;
+            }
+            if (Boolean.TRUE.equals(item.isPrefix())) {
+                String directory = item.getName();
+                for (String part : split(directory)) {
+                    listings.add(listers.submit(() -> listDirectory(part, directory, false, plan, counts)));
+                }
+                if (!this.splitCharacters.isEmpty()) {
+                    listings.add(listers.submit(() -> listDirectory(directory, directory, true, plan, counts)));
+                }
+            } else {
+                writeListed(item, leftovers, plan, counts);
+            }
+        }
+        warnIfMissed(missed, this.prefix);
+    }
+
+    /**
+     * Lists and classifies the blobs under one part of a directory. The listing of leftovers lists the whole
+     * directory and only takes the names no split listing covers
+     */
+    private void listDirectory(String part, String directory, boolean leftovers, BufferedWriter plan,
+                               Map<WorkPlan.Category, Long> counts) {
+        long missed = 0;
+        for (BlobItem blob : this.containerClient.listBlobs(options(part, !leftovers), null)) {
+            if (leftovers) {
+                if (isSplit(blob.getName(), directory)) {
+                    continue;
+                }
+                missed++;
+            }
+            writeListed(blob, leftovers, plan, counts);
+        }
+        warnIfMissed(missed, directory);
+    }
+
+    /**
+     * Classifies a listed blob. A blob listed without metadata is looked up first, and left out if it is gone
+     */
+    private void writeListed(BlobItem item, boolean withoutMetadata, BufferedWriter plan,
+                             Map<WorkPlan.Category, Long> counts) {
+        BlobItem blob = withoutMetadata ? lookUp(item.getName()) : item;
+        if (blob != null) {
+            write(classify(blob), plan, counts);
+        }
+    }
+
+    private BlobItem lookUp(String name) {
+        ListBlobsOptions options = options(name, true).setMaxResultsPerPage(1);
+        // No other blob with the name as prefix sorts before the name itself
+        for (BlobItem blob : this.containerClient.listBlobs(options, null)) {
+            return blob.getName().equals(name) ? blob : null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether a name under the given level is covered by one of the split listings
+     */
+    private boolean isSplit(String name, String level) {
+        return name.length() > level.length() && this.splitCharacters.indexOf(name.codePointAt(level.length())) >= 0;
+    }
+
+    private void warnIfMissed(long missed, String level) {
+        if (missed > 0) {
+            logger.warn("{} names under '{}' do not continue with one of the split characters {}, so they were only "
+                    + "found by listing it once more", missed, level, this.splitCharacters);
+        }
+    }
+
+    /**
+     * Returns the prefixes a listing of the given prefix is split into, or the prefix itself without split characters
+     */
+    private List<String> split(String prefix) {
+        if (this.splitCharacters.isEmpty()) {
+            return Collections.singletonList(prefix);
+        }
+        List<String> prefixes = new ArrayList<>();
+        this.splitCharacters.codePoints().forEach(c -> prefixes.add(prefix + new String(Character.toChars(c))));
+        return prefixes;
+    }
+
+    private static ListBlobsOptions options(String prefix, boolean metadata) {
+        return new ListBlobsOptions()
+                .setPrefix(prefix == null || prefix.isEmpty() ? null : prefix)
+                .setDetails(new BlobListDetails().setRetrieveMetadata(metadata));
+    }
+
+    private static void write(WorkPlan.Entry entry, BufferedWriter plan, Map<WorkPlan.Category, Long> counts) {
+        synchronized (plan) {
+            try {
+                plan.write(entry.toLine());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            counts.merge(entry.category, 1L, Long::sum);
+        }
+    }
+
+    /**
+     * Decides what has to be done with a listed blob from its type and encryption metadata
+     */
+    private WorkPlan.Entry classify(BlobItem item) {
+        BlobItemProperties properties = item.getProperties();
+        long size = properties.getContentLength() == null ? 0 : properties.getContentLength();
+        if (properties.getBlobType() != null && properties.getBlobType() != BlobType.BLOCK_BLOB) {
+            return entry(WorkPlan.Category.SKIP, item, size,
+                    properties.getBlobType() + " is not client-side encrypted");
+        }
+
+        String encryptionData = encryptionData(item.getMetadata());
+        if (encryptionData == null) {
+            return entry(WorkPlan.Category.ALREADY_SERVER_SIDE, item, size, serverSideEncryption(properties));
+        }
+
+        JsonNode node;
+        try {
+            node = this.mapper.readTree(encryptionData);
+        } catch (IOException e) {
+            return entry(WorkPlan.Category.SKIP, item, size, "encryptiondata is not JSON");
+        }
+        String protocol = node.path("EncryptionAgent").path("Protocol").asText();
+        if (!"1.0".equals(protocol)) {
+            return entry(WorkPlan.Category.SKIP, item, size, "unsupported encryption protocol " + protocol);
+        }
+        JsonNode wrappedKey = node.path("WrappedContentKey");
+        if (wrappedKey.path("EncryptedKey").asText().isEmpty() || node.path("ContentEncryptionIV").asText().isEmpty()) {
+            return entry(WorkPlan.Category.SKIP, item, size, "encryptiondata has no wrapped key or IV");
+        }
+        return entry(WorkPlan.Category.NEEDS_DECRYPT, item, size, "key " + wrappedKey.path("KeyId").asText()
+                + " wrapped with " + wrappedKey.path("Algorithm").asText());
+    }
+
+    private static WorkPlan.Entry entry(WorkPlan.Category category, BlobItem item, long size, String reason) {
+        return new WorkPlan.Entry(category, item.getName(), item.getProperties().getETag(), size, reason,
+                item.getProperties().getCustomerProvidedKeySha256() != null);
+    }
+
+    private static String encryptionData(Map<String, String> metadata) {
+        if (metadata == null) {
+            return null;
+        }
+        // Metadata names are case-insensitive
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            if (ENCRYPTION_DATA.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String serverSideEncryption(BlobItemProperties properties) {
+        if (properties.getCustomerProvidedKeySha256() != null) {
+            return "customer-provided key " + properties.getCustomerProvidedKeySha256();
+        }
+        if (properties.getEncryptionScope() != null) {
+            return "encryption scope " + properties.getEncryptionScope();
+        }
+        return "service-managed key";
+    }
+}
@@ -0,0 +1,71 @@
+package migrationCommon;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Values that are expensive to load, kept for a fixed time after they were loaded. However many threads ask for a
+ * missing or expired value at once, only one of them loads it and the others wait for its result. A load that fails
+ * is not kept, so the next request tries again
+ */
+class ExpiringCache<K, V> {
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+
+    ExpiringCache(long ttlNanos) {
+        this.ttlNanos = ttlNanos;
+    }
+
+    V get(K key, Function<K, V> loader) {
+        while (true) {
+            Entry<V> entry = this.entries.get(key);
+            if (entry != null && !entry.isExpired()) {
+                return entry.await();
+            }
+
+            Entry<V> loading = new Entry<>(System.nanoTime() + this.ttlNanos);
+            boolean claimed = entry == null
+                    ? this.entries.putIfAbsent(key, loading) == null
+                    : this.entries.replace(key, entry, loading);
+            if (!claimed) {
+                // Another thread started loading first
+                continue;
+            }
+            try {
+                V value = loader.apply(key);
+                loading.value.complete(value);
+                return value;
+            } catch (RuntimeException e) {
+                this.entries.remove(key, loading);
+                loading.value.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    private static class Entry<V> {
+        final CompletableFuture<V> value = new CompletableFuture<>();
+        final long expiresAt;
+
+        Entry(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - this.expiresAt > 0;
+        }
+
+        V await() {
+            try {
+                return this.value.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package migrationCommon;
+
+import com.azure.core.cryptography.AsyncKeyEncryptionKey;
+import com.azure.core.cryptography.AsyncKeyEncryptionKeyResolver;
+import com.azure.identity.ClientSecretCredentialBuilder;
+import com.azure.security.keyvault.keys.cryptography.KeyEncryptionKeyClientBuilder;
+import com.azure.security.keyvault.keys.cryptography.LocalKeyEncryptionKeyClientBuilder;
+import com.azure.security.keyvault.keys.models.JsonWebKey;
+import com.azure.security.keyvault.keys.models.KeyOperation;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+/**
+ * Finds the key that decrypts each blob by the key id (kid) in the blob's encryption metadata, instead of assuming
+ * every blob of a container was encrypted with the same key. Given to an EncryptedBlobClientBuilder as its key
+ * resolver, it lets one migration decrypt a container whose blobs were encrypted with keys rotated over the years.
+ * <p>
+ * Local keys are listed in app.config as keyRing.&lt;kid&gt; = &lt;file&gt;, each file holding the bytes of an AES key
+ * and resolved against the sample's directory. With keyRingKeyVault set to true, key ids that are Key Vault key URLs
+ * are resolved through Key Vault using clientSecret, clientId and tenantId, and remember the content encryption keys
+ * they unwrap like the keys of {@link KeyVaultKeyCache} do. Every key is built once, when a blob first needs it, and
+ * shared by every blob after that. A blob whose key id is not in the ring fails to download
+ */
+public class KeyRingResolver implements AsyncKeyEncryptionKeyResolver {
+    private static Logger logger = LoggerFactory.getLogger(KeyRingResolver.class);
+    private static final String PREFIX = "keyRing.";
+
+    private final Map<String, byte[]> localKeys = new HashMap<>();
+    private final ConcurrentHashMap<String, Mono<AsyncKeyEncryptionKey>> keys = new ConcurrentHashMap<>();
+    private final KeyEncryptionKeyClientBuilder keyVault;
+    private final UnwrappedKeyCache unwrappedKeys;
+
+    /**
+     * Reads the keyRing.&lt;kid&gt; entries and their key files, keyRingKeyVault, and for Key Vault keys clientSecret,
+     * clientId, tenantId, unwrappedKeyCacheSize and unwrappedKeyCacheTtlSeconds from the sample's app.config
+     */
+    public KeyRingResolver(Properties prop, Path directory) throws IOException {
+        for (String name : prop.stringPropertyNames()) {
+            if (name.startsWith(PREFIX)) {
+                this.localKeys.put(name.substring(PREFIX.length()),
+                        Files.readAllBytes(directory.resolve(prop.getProperty(name).trim())));
+            }
+        }
+
+        if (Boolean.parseBoolean(prop.getProperty("keyRingKeyVault", "false"))) {
+            this.keyVault = new KeyEncryptionKeyClientBuilder()
+                    .credential(new ClientSecretCredentialBuilder()
+                            .clientSecret(prop.getProperty("clientSecret"))
+                            .tenantId(prop.getProperty("tenantId"))
+                            .clientId(prop.getProperty("clientId"))
+                            .build());
+        } else {
+            this.keyVault = null;
+        }
+        this.unwrappedKeys = new UnwrappedKeyCache(
+                Integer.parseInt(prop.getProperty("unwrappedKeyCacheSize", "10000")),
+                TimeUnit.SECONDS.toNanos(Long.parseLong(prop.getProperty("unwrappedKeyCacheTtlSeconds", "900"))));
+    }
+
+    /**
+     * Returns whether app.config lists any keys for the ring, or allows resolving Key Vault keys
+     */
+    public static boolean isConfigured(Properties prop) {
+        return Boolean.parseBoolean(prop.getProperty("keyRingKeyVault", "false"))
+                || prop.stringPropertyNames().stream().anyMatch(name -> name.startsWith(PREFIX));
+    }
+
+    /**
+     * Adds a key that was already built, under its own key id
+     */
+    public void addKey(AsyncKeyEncryptionKey key) {
+        this.keys.put(key.getKeyId().block(), Mono.just(key));
+    }
+
+    @Override
+    public Mono<AsyncKeyEncryptionKey> buildAsyncKeyEncryptionKey(String keyId) {
+        return this.keys.computeIfAbsent(keyId, this::load);
+    }
+
+    private Mono<AsyncKeyEncryptionKey> load(String keyId) {
+        Mono<AsyncKeyEncryptionKey> key;
+        byte[] localKey = this.localKeys.get(keyId);
+        if (localKey != null) {
+            logger.info("Building local key {}", keyId);
+            JsonWebKey jsonWebKey = JsonWebKey.fromAes(new SecretKeySpec(localKey, "AES"),
+                    Arrays.asList(KeyOperation.WRAP_KEY, KeyOperation.UNWRAP_KEY))
+                    .setId(keyId);
+            key = new LocalKeyEncryptionKeyClientBuilder().buildAsyncKeyEncryptionKey(jsonWebKey);
+        } else if (this.keyVault != null && keyId.startsWith("https://")) {
+            logger.info("Loading key vault key {}", keyId);
+            key = this.keyVault.buildAsyncKeyEncryptionKey(keyId)
+                    .map(loaded -> new CachingKeyEncryptionKey(loaded, keyId, this.unwrappedKeys));
+        } else {
+            key = Mono.error(new IllegalStateException("No key in the key ring for key id " + keyId));
+        }
+
+        // A key that failed to build is dropped, so the next blob that needs it tries again
+        return key.doOnError(error -> this.keys.remove(keyId)).cache();
+    }
+}
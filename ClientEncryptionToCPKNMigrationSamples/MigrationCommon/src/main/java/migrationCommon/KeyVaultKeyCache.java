@@ -0,0 +1,88 @@
+package migrationCommon;
+
+import com.azure.core.credential.TokenCredential;
+import com.azure.core.cryptography.AsyncKeyEncryptionKey;
+import com.azure.identity.ClientSecretCredentialBuilder;
+import com.azure.security.keyvault.keys.KeyClient;
+import com.azure.security.keyvault.keys.KeyClientBuilder;
+import com.azure.security.keyvault.keys.cryptography.KeyEncryptionKeyClientBuilder;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Key Vault keys for client-side decryption, resolved once and shared by every blob instead of looked up per blob.
+ * Looking up a key per blob costs two Key Vault round trips each time, and with thousands of blobs Key Vault throttles
+ * the migration.
+ * <p>
+ * Credentials and key clients are kept for as long as the migration runs, as they renew their tokens themselves. The
+ * version a key name refers to is looked up once and kept for the whole run. The SDK only decrypts blobs whose wrapped
+ * key has the id of the key it was given, so following a rotation during the run would fail every remaining blob
+ * wrapped with the version the run started with. Key encryption keys are kept per key id, which includes the version,
+ * and built again after keyCacheTtlSeconds. A key name may be given as name/version to pick a version other than the
+ * latest.
+ * <p>
+ * The keys returned also remember the content encryption keys they unwrapped, up to unwrappedKeyCacheSize of them for
+ * unwrappedKeyCacheTtlSeconds each, so each distinct content encryption key is unwrapped by Key Vault only once. A
+ * size of 0 turns this off
+ */
+public class KeyVaultKeyCache {
+    private static Logger logger = LoggerFactory.getLogger(KeyVaultKeyCache.class);
+
+    private final ConcurrentHashMap<String, TokenCredential> credentials = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, KeyClient> keyClients = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> keyIds = new ConcurrentHashMap<>();
+    private final ExpiringCache<String, AsyncKeyEncryptionKey> keys;
+    private final UnwrappedKeyCache unwrappedKeys;
+
+    /**
+     * Reads keyCacheTtlSeconds, unwrappedKeyCacheSize and unwrappedKeyCacheTtlSeconds from the sample's app.config
+     */
+    public KeyVaultKeyCache(Properties prop) {
+        long ttlNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(prop.getProperty("keyCacheTtlSeconds", "3600")));
+        this.keys = new ExpiringCache<>(ttlNanos);
+        this.unwrappedKeys = new UnwrappedKeyCache(
+                Integer.parseInt(prop.getProperty("unwrappedKeyCacheSize", "10000")),
+                TimeUnit.SECONDS.toNanos(Long.parseLong(prop.getProperty("unwrappedKeyCacheTtlSeconds", "900"))));
+    }
+
+    /**
+     * Returns the key encryption key for the version the named key had when it was first asked for, loading it only if
+     * it is not cached yet or has expired
+     */
+    public AsyncKeyEncryptionKey getKey(String clientSecret, String tenantId, String clientId, String keyVaultUrl,
+                                        String keyName) {
+        TokenCredential credential = this.credentials.computeIfAbsent(tenantId + "/" + clientId,
+                ignored -> new ClientSecretCredentialBuilder()
+                        .clientSecret(clientSecret)
+                        .tenantId(tenantId)
+                        .clientId(clientId)
+                        .build());
+        KeyClient keyClient = this.keyClients.computeIfAbsent(keyVaultUrl + "|" + tenantId + "/" + clientId,
+                ignored -> new KeyClientBuilder()
+                        .vaultUrl(keyVaultUrl)
+                        .credential(credential)
+                        .buildClient());
+
+        String keyId = this.keyIds.computeIfAbsent(keyVaultUrl + "|" + keyName, ignored -> {
+            int separator = keyName.indexOf('/');
+            String id = separator < 0
+                    ? keyClient.getKey(keyName).getId()
+                    : keyClient.getKey(keyName.substring(0, separator), keyName.substring(separator + 1)).getId();
+            logger.info("Resolved key {} to {}", keyName, id);
+            return id;
+        });
+        return this.keys.get(keyId, id -> {
+            logger.info("Loading key encryption key {}", id);
+            AsyncKeyEncryptionKey key = new KeyEncryptionKeyClientBuilder()
+                    .credential(credential)
+                    .buildAsyncKeyEncryptionKey(id)
+                    .block();
+            return new CachingKeyEncryptionKey(key, id, this.unwrappedKeys);
+        });
+    }
+}
@@ -0,0 +1,206 @@
+package migrationCommon;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local record of how far every blob of a bulk migration got, kept so that a migration that was stopped or died
+ * can be started again without redoing the blobs it already finished.
+ * <p>
+ * Every change of a blob's state is appended to the journal file as one tab separated line with the state, the blob
+ * name, the ETag the source had when it was listed, the destination name and, once the destination was verified, the
+ * ETag of the destination. Lines are collected in memory and
+ * written and forced to disk together every syncMillis milliseconds, so recording a state costs no disk round trip of
+ * its own. A crash loses at most the lines of the last interval, which only means those blobs are looked at again.
+ * <p>
+ * When the journal is opened, the lines already in the file are replayed, and the last state recorded for each blob
+ * is what {@link #get(String)} returns. A line cut off by a crash is ignored
+ */
+class MigrationJournal implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(MigrationJournal.class);
+
+    /**
+     * How far the migration of a blob got
+     */
+    enum State {
+        PENDING, DOWNLOADED, UPLOADED, VERIFIED, FAILED
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService syncer;
+    private StringBuilder unwritten = new StringBuilder();
+    private IOException syncFailure;
+
+    MigrationJournal(Path file, long syncMillis) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            replay(file);
+            if (!endsWithNewline(file)) {
+                // Ends the line cut off by a crash, so the first new line is not appended to it
+                this.unwritten.append('\n');
+            }
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "migration-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.syncer.scheduleWithFixedDelay(this::syncQuietly, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the last state recorded for the blob, in this run or an earlier one, or null if there is none
+     */
+    Entry get(String blobName) {
+        return this.entries.get(blobName);
+    }
+
+    /**
+     * Records a new state of the blob. It reaches the disk with the next sync
+     */
+    void record(State state, String blobName, String sourceETag, String destinationBlobName,
+                String destinationETag) {
+        Entry entry = new Entry(state, orEmpty(sourceETag), destinationBlobName, orEmpty(destinationETag));
+        this.entries.put(blobName, entry);
+        String line = state + "\t" + blobName + "\t" + entry.sourceETag + "\t" + destinationBlobName + "\t"
+                + entry.destinationETag + "\n";
+        synchronized (this) {
+            this.unwritten.append(line);
+        }
+    }
+
+    /**
+     * Writes every recorded state to the journal file and forces it to disk
+     */
+    void sync() throws IOException {
+        StringBuilder lines;
+        synchronized (this) {
+            if (this.syncFailure != null) {
+                throw this.syncFailure;
+            }
+            if (this.unwritten.length() == 0) {
+                return;
+            }
+            lines = this.unwritten;
+            this.unwritten = new StringBuilder();
+        }
+        // Only the syncing thread, or close after it stopped, writes to the channel
+        synchronized (this.channel) {
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            this.channel.force(false);
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            synchronized (this) {
+                if (this.syncFailure == null) {
+                    logger.error("Writing the migration journal {} failed", this.file, e);
+                    this.syncFailure = e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.syncer.shutdown();
+        try {
+            this.syncer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sync();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    private static boolean endsWithNewline(Path file) throws IOException {
+        try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (reader.size() == 0) {
+                return true;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            reader.read(last, reader.size() - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    private void replay(Path file) throws IOException {
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 5) {
+                    continue;
+                }
+                State state;
+                try {
+                    state = State.valueOf(fields[0]);
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                this.entries.put(fields[1], new Entry(state, fields[2], fields[3], fields[4]));
+                lines++;
+            }
+        }
+        logger.info("Replayed {} lines of the migration journal {}, covering {} blobs", lines, file,
+                this.entries.size());
+    }
+
+    private static String orEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * The last state recorded for a blob
+     */
+    static class Entry {
+        final State state;
+        final String sourceETag;
+        final String destinationBlobName;
+        final String destinationETag;
+
+        Entry(State state, String sourceETag, String destinationBlobName, String destinationETag) {
+            this.state = state;
+            this.sourceETag = sourceETag;
+            this.destinationBlobName = destinationBlobName;
+            this.destinationETag = destinationETag;
+        }
+
+        /**
+         * Returns whether the entry was recorded for the same version of the source and the same destination
+         */
+        boolean isFor(String sourceETag, String destinationBlobName) {
+            return this.sourceETag.equals(orEmpty(sourceETag))
+                    && this.destinationBlobName.equals(destinationBlobName);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package migrationCommon;
+
+/**
+ * The outcome of migrating one blob in bulk mode
+ */
+public enum MigrationStatus {
+    MIGRATED, FAILED, SKIPPED
+}
@@ -0,0 +1,68 @@
+package migrationCommon;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts of what a bulk migration did, updated by its workers as blobs finish
+ */
+public class MigrationSummary {
+    private final AtomicLong migrated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong migratedBytes = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    void record(MigrationStatus status, long bytes) {
+        switch (status) {
+            case MIGRATED:
+                this.migrated.incrementAndGet();
+                this.migratedBytes.addAndGet(bytes);
+                break;
+            case FAILED:
+                this.failed.incrementAndGet();
+                break;
+            case SKIPPED:
+                this.skipped.incrementAndGet();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown status " + status);
+        }
+    }
+
+    void finish() {
+        this.endNanos = System.nanoTime();
+    }
+
+    public long getMigrated() {
+        return this.migrated.get();
+    }
+
+    public long getFailed() {
+        return this.failed.get();
+    }
+
+    public long getSkipped() {
+        return this.skipped.get();
+    }
+
+    public long getMigratedBytes() {
+        return this.migratedBytes.get();
+    }
+
+    /**
+     * Seconds from the start of the migration until it finished, or until now while it runs
+     */
+    public double getElapsedSeconds() {
+        long end = this.endNanos == 0 ? System.nanoTime() : this.endNanos;
+        return (end - this.startNanos) / 1e9;
+    }
+
+    @Override
+    public String toString() {
+        double seconds = Math.max(getElapsedSeconds(), 1e-9);
+        return String.format("%d migrated, %d failed, %d skipped in %.1f s: %.1f blobs/s, %.2f MB/s", getMigrated(),
+                getFailed(), getSkipped(), seconds, getMigrated() / seconds,
+                getMigratedBytes() / seconds / (1024 * 1024));
+    }
+}
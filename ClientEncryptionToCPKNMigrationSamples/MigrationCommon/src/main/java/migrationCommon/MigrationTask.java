@@ -0,0 +1,74 @@
+package migrationCommon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One blob to migrate: its name, the name to reupload it under, and its size where the listing gave one. Whatever
+ * migrates it can attach notes, such as the transfer settings that were chosen, which bulk mode records in its status
+ * file
+ */
+public class MigrationTask {
+    private final String blobName;
+    private final String destinationBlobName;
+    private final long size;
+    private final String sourceETag;
+    private final List<String> notes = new ArrayList<>();
+    private Runnable downloadedListener;
+
+    /**
+     * @param size the size of the source blob in bytes, or -1 if it is not known yet
+     */
+    public MigrationTask(String blobName, String destinationBlobName, long size) {
+        this(blobName, destinationBlobName, size, null);
+    }
+
+    /**
+     * @param size the size of the source blob in bytes, or -1 if it is not known yet
+     * @param sourceETag the ETag the source had when it was listed, or null if it is not known
+     */
+    public MigrationTask(String blobName, String destinationBlobName, long size, String sourceETag) {
+        this.blobName = blobName;
+        this.destinationBlobName = destinationBlobName;
+        this.size = size;
+        this.sourceETag = sourceETag;
+    }
+
+    public String getBlobName() {
+        return this.blobName;
+    }
+
+    public String getDestinationBlobName() {
+        return this.destinationBlobName;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public String getSourceETag() {
+        return this.sourceETag;
+    }
+
+    /**
+     * Tells bulk mode that the source was downloaded in full, so its journal can record how far the blob got
+     */
+    public void downloaded() {
+        Runnable listener = this.downloadedListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    void onDownloaded(Runnable listener) {
+        this.downloadedListener = listener;
+    }
+
+    public synchronized void note(String note) {
+        this.notes.add(note);
+    }
+
+    public synchronized String getNotes() {
+        return String.join("; ", this.notes);
+    }
+}
@@ -0,0 +1,117 @@
+package migrationCommon;
+
+import com.azure.core.util.Context;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.models.BlobHttpHeaders;
+import com.azure.storage.blob.models.BlobProperties;
+import com.azure.storage.blob.models.BlobRange;
+import com.azure.storage.blob.models.BlobRequestConditions;
+import com.azure.storage.blob.sas.BlobSasPermission;
+import com.azure.storage.blob.sas.BlobServiceSasSignatureValues;
+import com.azure.storage.blob.specialized.BlockBlobClient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Moves a blob that is not client-side encrypted to its destination without its content passing through this host.
+ * The destination is built block by block with Put Block From URL, each block read by the service straight from the
+ * source through a short-lived read-only SAS, and committed with the source's content headers and metadata. Unlike an
+ * asynchronous Copy Blob, blocks staged from a URL are encrypted with the encryption scope or customer-provided key of
+ * the destination client, whatever the size of the blob.
+ * <p>
+ * Blocks are copySourceBlockSize bytes, staged by a pool of copyStagingThreads threads shared by every blob, and the
+ * SAS is valid for copySasMinutes minutes. The SAS is signed with the shared key the source client was built with, so
+ * the source client needs one. A blob that is copied onto itself and already has the encryption the destination asks
+ * for is left alone.
+ * <p>
+ * Every block is only read if the source still has the ETag it had when the copy started, so a source that changes
+ * during the copy fails it instead of leaving a destination made of blocks of different versions. A source whose
+ * ETag differs from the one the task was listed with fails as well
+ */
+public class ServerSideCopy {
+    private final long blockSize;
+    private final long sasMinutes;
+    private final ExecutorService stagingExecutor;
+
+    /**
+     * Reads copySourceBlockSize, copyStagingThreads and copySasMinutes from the sample's app.config
+     */
+    public ServerSideCopy(Properties prop) {
+        this.blockSize = Long.parseLong(prop.getProperty("copySourceBlockSize", "104857600"));
+        this.sasMinutes = Long.parseLong(prop.getProperty("copySasMinutes", "60"));
+        this.stagingExecutor = Executors.newFixedThreadPool(Integer.parseInt(prop.getProperty("copyStagingThreads",
+                "8")), runnable -> {
+                    Thread thread = new Thread(runnable, "server-side-copy-staging");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Copies the source to the destination, replacing it, with the destination client's server-side encryption
+     */
+    public void copy(BlobClient source, BlobClient destination, MigrationTask task) throws IOException {
+        BlobProperties properties = source.getProperties();
+        if (task.getSourceETag() != null && !task.getSourceETag().equals(properties.getETag())) {
+            throw new IllegalStateException("Source " + source.getBlobName() + " changed since it was listed");
+        }
+        if (isAlreadyEncrypted(source, destination, properties)) {
+            task.note("copy not needed, already encrypted as required");
+            return;
+        }
+
+        String sourceUrl = source.getBlobUrl() + "?" + source.generateSas(new BlobServiceSasSignatureValues(
+                OffsetDateTime.now().plusMinutes(this.sasMinutes), new BlobSasPermission().setReadPermission(true)));
+        BlockBlobClient blockBlobClient = destination.getBlockBlobClient();
+        long size = properties.getBlobSize();
+        BlobRequestConditions sourceConditions = new BlobRequestConditions().setIfMatch(properties.getETag());
+        task.note("server-side copy blockSize=" + this.blockSize);
+
+        List<String> blockIds = new ArrayList<>();
+        List<CompletableFuture<Void>> stagedBlocks = new ArrayList<>();
+        for (long offset = 0; offset < size; offset += this.blockSize) {
+            String blockId = Base64.getEncoder().encodeToString(String.format("%010d", blockIds.size())
+                    .getBytes(StandardCharsets.UTF_8));
+            BlobRange range = new BlobRange(offset, Math.min(this.blockSize, size - offset));
+            blockIds.add(blockId);
+            stagedBlocks.add(CompletableFuture.runAsync(() -> blockBlobClient.stageBlockFromUrlWithResponse(blockId,
+                    sourceUrl, range, null, null, sourceConditions, null, Context.NONE), this.stagingExecutor));
+        }
+        try {
+            CompletableFuture.allOf(stagedBlocks.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw new IOException("Staging a block from " + source.getBlobName() + " failed", e.getCause());
+        }
+
+        BlobHttpHeaders headers = new BlobHttpHeaders()
+                .setContentType(properties.getContentType())
+                .setContentEncoding(properties.getContentEncoding())
+                .setContentLanguage(properties.getContentLanguage())
+                .setContentDisposition(properties.getContentDisposition())
+                .setCacheControl(properties.getCacheControl())
+                .setContentMd5(properties.getContentMd5());
+        blockBlobClient.commitBlockListWithResponse(blockIds, headers, properties.getMetadata(), null, null, null,
+                Context.NONE);
+    }
+
+    private static boolean isAlreadyEncrypted(BlobClient source, BlobClient destination, BlobProperties properties) {
+        if (!source.getBlobUrl().equals(destination.getBlobUrl())) {
+            return false;
+        }
+        String keySha256 = destination.getCustomerProvidedKey() == null
+                ? null : destination.getCustomerProvidedKey().getEncryptionKeySha256();
+        return Objects.equals(keySha256, properties.getEncryptionKeySha256())
+                && Objects.equals(destination.getEncryptionScope(), properties.getEncryptionScope());
+    }
+}
@@ -0,0 +1,164 @@
+package migrationCommon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the content of one downloaded blob until it is uploaded again. The content is kept in pooled chunks while it
+ * is no larger than the memory threshold and the pool has chunks left. After that, everything is moved to a temp file
+ * that is deleted when the staged blob is closed. Mappings of the temp file are released on close as well, since the
+ * file's disk space is only freed once nothing maps it
+ */
+class StagedBlob extends OutputStream {
+    private static Logger logger = LoggerFactory.getLogger(StagedBlob.class);
+
+    private final ChunkPool chunkPool;
+    private final long memoryThreshold;
+    private final Path directory;
+    private final boolean memoryMapped;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final List<MappedByteBuffer> mappings = new ArrayList<>();
+    private FileChannel spill;
+    private long size;
+
+    StagedBlob(ChunkPool chunkPool, long memoryThreshold, Path directory, boolean memoryMapped) {
+        this.chunkPool = chunkPool;
+        this.memoryThreshold = memoryThreshold;
+        this.directory = directory;
+        this.memoryMapped = memoryMapped;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.spill == null && this.size + len > this.memoryThreshold) {
+            spill();
+        }
+        while (this.spill == null && len > 0) {
+            ByteBuffer chunk = this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+            if (chunk == null || !chunk.hasRemaining()) {
+                chunk = this.chunkPool.tryAcquire();
+                if (chunk == null) {
+                    spill();
+                    break;
+                }
+                this.chunks.add(chunk);
+            }
+            int count = Math.min(len, chunk.remaining());
+            chunk.put(b, off, count);
+            this.size += count;
+            off += count;
+            len -= count;
+        }
+        if (len > 0) {
+            writeFully(ByteBuffer.wrap(b, off, len));
+            this.size += len;
+        }
+    }
+
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * Returns a stream of everything written so far. A temp file is memory-mapped when enabled and small enough to
+     * map in one piece, and read through its channel otherwise
+     */
+    InputStream openInputStream() throws IOException {
+        if (this.spill == null) {
+            List<ByteBuffer> content = new ArrayList<>(this.chunks.size());
+            for (ByteBuffer chunk : this.chunks) {
+                ByteBuffer written = chunk.duplicate();
+                written.flip();
+                content.add(written);
+            }
+            return new ByteBuffersInputStream(content);
+        }
+        if (this.memoryMapped && this.size <= Integer.MAX_VALUE) {
+            MappedByteBuffer mapping = this.spill.map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+            this.mappings.add(mapping);
+            return new ByteBuffersInputStream(Collections.singletonList(mapping));
+        }
+        this.spill.position(0);
+        return Channels.newInputStream(this.spill);
+    }
+
+    /**
+     * Returns the chunks to the pool, and unmaps and deletes the temp file, if there is one. Streams opened before are
+     * no longer readable
+     */
+    @Override
+    public void close() throws IOException {
+        this.chunks.forEach(this.chunkPool::release);
+        this.chunks.clear();
+        this.mappings.forEach(StagedBlob::unmap);
+        this.mappings.clear();
+        if (this.spill != null) {
+            this.spill.close();
+        }
+    }
+
+    /**
+     * Releases a mapping right away rather than when the buffer is garbage collected. The buffer must not be read
+     * afterwards
+     */
+    private static void unmap(MappedByteBuffer mapping) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), mapping);
+        } catch (NoSuchMethodException e) {
+            // Java 8 has no invokeCleaner, but exposes the cleaner on the buffer
+            try {
+                Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(mapping);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            } catch (ReflectiveOperationException | RuntimeException cleanerException) {
+                logger.debug("Could not unmap a staging file, it is unmapped once garbage collected",
+                        cleanerException);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Could not unmap a staging file, it is unmapped once garbage collected", e);
+        }
+    }
+
+    private void spill() throws IOException {
+        Path file = Files.createTempFile(this.directory, "staging", ".tmp");
+        this.spill = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        for (ByteBuffer chunk : this.chunks) {
+            chunk.flip();
+            writeFully(chunk);
+            this.chunkPool.release(chunk);
+        }
+        this.chunks.clear();
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            this.spill.write(source);
+        }
+    }
+}
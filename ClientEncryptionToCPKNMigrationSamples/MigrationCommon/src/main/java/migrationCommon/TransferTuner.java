@@ -0,0 +1,160 @@
+package migrationCommon;
+
+import com.azure.core.util.Context;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.models.ParallelTransferOptions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Chooses the block size, concurrency and single upload threshold of every download and upload, instead of leaving
+ * them at the SDK's defaults, which are sized for small blobs and keep large ones from using the available bandwidth.
+ * <p>
+ * The choice rests on the throughput one connection achieved in earlier transfers, averaged with a weight of 1/5 for
+ * the latest, starting from transferInitialThroughput bytes per second. One request should move about as much as a
+ * connection moves in transferTargetRequestSeconds, so blobs up to that size are uploaded in a single request, and
+ * larger blobs in blocks of that size, split at most transferMaxConcurrency ways. Blocks are kept between
+ * transferMinBlockSize and transferMaxBlockSize, and are made smaller when a blob would otherwise be split into fewer
+ * than two blocks per connection. Downloads of blobs whose size is not known yet use the block size of the current
+ * estimate and full concurrency.
+ * <p>
+ * With transferTuning set to false, every transfer uses transferMinBlockSize, transferMaxConcurrency and
+ * transferMaxSingleUploadSize as they are. Either way the settings are noted on the migration task
+ */
+public class TransferTuner {
+    // A block blob has at most this many blocks
+    private static final long MAX_BLOCKS = 50000;
+    private static final double WEIGHT = 0.2;
+
+    private final boolean tuning;
+    private final int minBlockSize;
+    private final int maxBlockSize;
+    private final int maxConcurrency;
+    private final int maxSingleUploadSize;
+    private final double targetRequestSeconds;
+    private double connectionThroughput;
+
+    /**
+     * Reads transferTuning, transferMinBlockSize, transferMaxBlockSize, transferMaxConcurrency,
+     * transferMaxSingleUploadSize, transferTargetRequestSeconds and transferInitialThroughput from the sample's
+     * app.config
+     */
+    public TransferTuner(Properties prop) {
+        this.tuning = Boolean.parseBoolean(prop.getProperty("transferTuning", "true"));
+        this.minBlockSize = Integer.parseInt(prop.getProperty("transferMinBlockSize", "4194304"));
+        this.maxBlockSize = Integer.parseInt(prop.getProperty("transferMaxBlockSize", "104857600"));
+        this.maxConcurrency = Integer.parseInt(prop.getProperty("transferMaxConcurrency", "8"));
+        this.maxSingleUploadSize = Integer.parseInt(prop.getProperty("transferMaxSingleUploadSize", "268435456"));
+        this.targetRequestSeconds = Double.parseDouble(prop.getProperty("transferTargetRequestSeconds", "2"));
+        this.connectionThroughput = Double.parseDouble(prop.getProperty("transferInitialThroughput", "8388608"));
+    }
+
+    /**
+     * Downloads the source to the file at path with settings chosen for the size of the task's blob
+     */
+    public void downloadToFile(BlobClient source, String path, MigrationTask task) {
+        Choice choice = choose(task.getSize());
+        task.note("download " + choice);
+        long start = System.nanoTime();
+        long size = source.downloadToFileWithResponse(path, null, choice.toOptions(), null, null, false, null,
+                Context.NONE).getValue().getBlobSize();
+        record(size, System.nanoTime() - start, choice);
+    }
+
+    /**
+     * Uploads the file at path to the destination, replacing it, with settings chosen for the size of the file
+     */
+    public void uploadFromFile(BlobClient destination, String path, MigrationTask task) throws IOException {
+        long size = Files.size(Paths.get(path));
+        Choice choice = choose(size);
+        task.note("upload " + choice);
+        long start = System.nanoTime();
+        destination.uploadFromFile(path, choice.toOptions(), null, null, null, null, null);
+        record(size, System.nanoTime() - start, choice);
+    }
+
+    /**
+     * Uploads size bytes of data to the destination, replacing it, with settings chosen for that size
+     */
+    public void upload(BlobClient destination, InputStream data, long size, MigrationTask task) {
+        Choice choice = choose(size);
+        task.note("upload " + choice);
+        long start = System.nanoTime();
+        destination.uploadWithResponse(data, size, choice.toOptions(), null, null, null, null, null, Context.NONE);
+        record(size, System.nanoTime() - start, choice);
+    }
+
+    /**
+     * Chooses the settings for a blob of the given size, or of unknown size if it is negative
+     */
+    synchronized Choice choose(long size) {
+        if (!this.tuning) {
+            return new Choice(this.minBlockSize, this.maxConcurrency, this.maxSingleUploadSize, 1);
+        }
+
+        long perRequest = clamp((long) (this.connectionThroughput * this.targetRequestSeconds), this.minBlockSize,
+                this.maxBlockSize);
+        int singleUploadSize = (int) Math.min(perRequest, this.maxSingleUploadSize);
+        if (size < 0) {
+            return new Choice((int) perRequest, this.maxConcurrency, singleUploadSize, this.maxConcurrency);
+        }
+
+        long blockSize = Math.min(perRequest, divideRoundingUp(size, 2L * this.maxConcurrency));
+        blockSize = clamp(Math.max(blockSize, divideRoundingUp(size, MAX_BLOCKS)), this.minBlockSize,
+                this.maxBlockSize);
+        long blocks = size <= singleUploadSize ? 1 : divideRoundingUp(size, blockSize);
+        int concurrency = (int) Math.max(1, Math.min(this.maxConcurrency, blocks));
+        return new Choice((int) blockSize, concurrency, singleUploadSize, concurrency);
+    }
+
+    /**
+     * Folds the throughput one connection achieved in a transfer into the estimate. Transfers smaller than a block
+     * are left out, as their time is mostly latency
+     */
+    private synchronized void record(long bytes, long nanos, Choice choice) {
+        if (!this.tuning || bytes < this.minBlockSize || nanos <= 0) {
+            return;
+        }
+        double throughput = bytes / (nanos / 1e9) / choice.connections;
+        this.connectionThroughput = WEIGHT * throughput + (1 - WEIGHT) * this.connectionThroughput;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static long divideRoundingUp(long dividend, long divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    /**
+     * The settings of one transfer and how many connections it is expected to keep busy
+     */
+    static class Choice {
+        final int blockSize;
+        final int maxConcurrency;
+        final int maxSingleUploadSize;
+        final int connections;
+
+        Choice(int blockSize, int maxConcurrency, int maxSingleUploadSize, int connections) {
+            this.blockSize = blockSize;
+            this.maxConcurrency = maxConcurrency;
+            this.maxSingleUploadSize = maxSingleUploadSize;
+            this.connections = connections;
+        }
+
+        ParallelTransferOptions toOptions() {
+            return new ParallelTransferOptions(this.blockSize, this.maxConcurrency, null, this.maxSingleUploadSize);
+        }
+
+        @Override
+        public String toString() {
+            return "blockSize=" + this.blockSize + " maxConcurrency=" + this.maxConcurrency + " maxSingleUploadSize="
+                    + this.maxSingleUploadSize;
+        }
+    }
+}
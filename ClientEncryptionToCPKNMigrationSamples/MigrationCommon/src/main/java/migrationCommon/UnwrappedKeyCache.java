@@ -0,0 +1,89 @@
+package migrationCommon;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Content encryption keys that were already unwrapped, by the key that wrapped them, the algorithm and the wrapped
+ * bytes. At most a fixed number are kept, dropping the oldest first, and each for a fixed time after it was unwrapped.
+ * As every key lives for the same time, keys are kept in the order they were unwrapped, and every put drops the expired
+ * keys from the oldest end. Most keys are never asked for again, since every blob has its own content encryption key,
+ * so expired keys cannot wait for a lookup to be dropped. A key that is dropped is overwritten with zeros, so plaintext
+ * keys do not linger in memory until the garbage collector reclaims them. Callers always get a copy, which they may
+ * keep after the cached key is zeroed
+ */
+class UnwrappedKeyCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    UnwrappedKeyCache(int maxEntries, long ttlNanos) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlNanos;
+    }
+
+    /**
+     * Returns a copy of the cached key, or null if it is not cached or has expired
+     */
+    synchronized byte[] get(String keyId, String algorithm, byte[] encryptedKey) {
+        String cacheKey = cacheKey(keyId, algorithm, encryptedKey);
+        Entry entry = this.entries.get(cacheKey);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            this.entries.remove(cacheKey);
+            entry.zero();
+            return null;
+        }
+        return entry.key.clone();
+    }
+
+    synchronized void put(String keyId, String algorithm, byte[] encryptedKey, byte[] key) {
+        if (this.maxEntries <= 0) {
+            return;
+        }
+        String cacheKey = cacheKey(keyId, algorithm, encryptedKey);
+        // Removed first, so the new key moves to the youngest end
+        Entry previous = this.entries.remove(cacheKey);
+        if (previous != null) {
+            previous.zero();
+        }
+        this.entries.put(cacheKey, new Entry(key.clone(), System.nanoTime() + this.ttlNanos));
+
+        Iterator<Map.Entry<String, Entry>> eldest = this.entries.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            if (this.entries.size() <= this.maxEntries && !entry.isExpired()) {
+                break;
+            }
+            entry.zero();
+            eldest.remove();
+        }
+    }
+
+    private static String cacheKey(String keyId, String algorithm, byte[] encryptedKey) {
+        return keyId + "|" + algorithm + "|" + Base64.getEncoder().encodeToString(encryptedKey);
+    }
+
+    private static class Entry {
+        final byte[] key;
+        final long expiresAt;
+
+        Entry(byte[] key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - this.expiresAt > 0;
+        }
+
+        void zero() {
+            Arrays.fill(this.key, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package migrationCommon;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * What an {@link EncryptionScan} found in a container: every blob with the category it falls in, the ETag and size it
+ * was listed with, the reason for its category, and whether it is encrypted with a customer-provided key. The plan is
+ * kept in a tab separated file, one blob per line, so it is read back blob by blob however large the container is
+ */
+class WorkPlan {
+    /**
+     * What a migration has to do with a blob
+     */
+    enum Category {
+        /**
+         * The blob is client-side encrypted and has to be downloaded, decrypted and uploaded again
+         */
+        NEEDS_DECRYPT,
+        /**
+         * The blob is not client-side encrypted, so its content is stored as it is and only encrypted by the service
+         */
+        ALREADY_SERVER_SIDE,
+        /**
+         * The blob cannot be migrated, such as a page blob or one whose encryption metadata is not understood
+         */
+        SKIP
+    }
+
+    private final Path file;
+    private final Map<Category, Long> counts;
+
+    WorkPlan(Path file, Map<Category, Long> counts) {
+        this.file = file;
+        this.counts = new EnumMap<>(counts);
+    }
+
+    Path getFile() {
+        return this.file;
+    }
+
+    long getCount(Category category) {
+        return this.counts.getOrDefault(category, 0L);
+    }
+
+    /**
+     * Reads the blobs of the plan lazily, in the order they were found. The stream has to be closed
+     */
+    Stream<Entry> entries() throws IOException {
+        return Files.lines(this.file, StandardCharsets.UTF_8).map(Entry::parse);
+    }
+
+    @Override
+    public String toString() {
+        return getCount(Category.NEEDS_DECRYPT) + " to decrypt, " + getCount(Category.ALREADY_SERVER_SIDE)
+                + " already server-side, " + getCount(Category.SKIP) + " to skip";
+    }
+
+    /**
+     * One blob of the plan
+     */
+    static class Entry {
+        final Category category;
+        final String blobName;
+        final String eTag;
+        final long size;
+        final String reason;
+        // A blob encrypted with a customer-provided key cannot be read without that key
+        final boolean customerProvidedKey;
+
+        Entry(Category category, String blobName, String eTag, long size, String reason, boolean customerProvidedKey) {
+            this.category = category;
+            this.blobName = blobName;
+            this.eTag = eTag == null ? "" : eTag;
+            this.size = size;
+            this.reason = reason.replace('\t', ' ').replace('\n', ' ');
+            this.customerProvidedKey = customerProvidedKey;
+        }
+
+        String toLine() {
+            return this.category + "\t" + this.blobName + "\t" + this.eTag + "\t" + this.size + "\t" + this.reason
+                    + "\t" + this.customerProvidedKey + "\n";
+        }
+
+        static Entry parse(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 6) {
+                throw new UncheckedIOException(new IOException("Malformed work plan line: " + line));
+            }
+            return new Entry(Category.valueOf(fields[0]), fields[1], fields[2], Long.parseLong(fields[3]), fields[4],
+                    Boolean.parseBoolean(fields[5]));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package loadDriver;
+
+import changeFeedPipeline.ChangeFeedDispatcher;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobServiceClient;
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.changefeed.BlobChangefeedClient;
+import com.azure.storage.blob.changefeed.BlobChangefeedClientBuilder;
+import com.azure.storage.blob.changefeed.BlobChangefeedPagedIterable;
+import com.azure.storage.blob.changefeed.BlobChangefeedPagedResponse;
+import com.azure.storage.blob.changefeed.models.BlobChangefeedEventType;
+
+import java.io.ByteArrayInputStream;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The dispatcher mode of ChangeFeedTimer under a write load. Workers upload blobs, while one reader follows the change
+ * feed from a cursor page by page and hands every page to a {@link ChangeFeedDispatcher}, whose subscriber sees the
+ * BlobCreated events on its own thread. The reader reads the pages itself rather than through
+ * {@link ChangeFeedDispatcher#runOnce()}, so it can start at the current hour and time every page.
+ * <p>
+ * Operations:
+ * <ul>
+ * <li>changefeed.write, the upload of a blob by a worker</li>
+ * <li>changefeed.page, the read of one change feed page</li>
+ * <li>changefeed.lag, from the end of an upload until the subscriber handles its BlobCreated event. Includes the delay
+ * with which the service publishes events, and changefeedPollMillis when the reader is caught up</li>
+ * </ul>
+ */
+public class ChangeFeedWorkload implements Workload {
+    private static Logger logger = LoggerFactory.getLogger(ChangeFeedWorkload.class);
+
+    private final String connectionString;
+    private final String containerName;
+    private final byte[] payload;
+    private final long pollMillis;
+    private final int queueCapacity;
+    private final String prefix = "load-" + System.currentTimeMillis() + "/";
+    private final AtomicLong counter = new AtomicLong();
+    // Upload completion times of blobs whose event has not been seen yet, by event subject
+    private final ConcurrentHashMap<String, Long> pendingEvents = new ConcurrentHashMap<>();
+
+    private BlobContainerClient containerClient;
+    private ChangeFeedDispatcher dispatcher;
+    private Thread reader;
+    private volatile boolean closed;
+
+    public ChangeFeedWorkload(String connectionString, Properties prop) {
+        this.connectionString = connectionString;
+        this.containerName = prop.getProperty("changefeedContainer", "test-changefeed-container");
+        this.payload = new byte[Integer.parseInt(prop.getProperty("changefeedBlobSize", "1024"))];
+        ThreadLocalRandom.current().nextBytes(this.payload);
+        this.pollMillis = Long.parseLong(prop.getProperty("changefeedPollMillis", "200"));
+        this.queueCapacity = Integer.parseInt(prop.getProperty("changefeedQueueCapacity", "10000"));
+    }
+
+    @Override
+    public String getName() {
+        return "changefeed";
+    }
+
+    @Override
+    public void setUp(OperationRecorder recorder) {
+        BlobServiceClient serviceClient = new BlobServiceClientBuilder().connectionString(this.connectionString)
+                .buildClient();
+        this.containerClient = serviceClient.getBlobContainerClient(this.containerName);
+        if (!this.containerClient.exists()) {
+            this.containerClient.create();
+        }
+        BlobChangefeedClient changefeedClient = new BlobChangefeedClientBuilder(serviceClient).buildClient();
+        this.dispatcher = new ChangeFeedDispatcher(changefeedClient, null);
+        this.dispatcher.subscribe("load", event -> BlobChangefeedEventType.BLOB_CREATED.equals(event.getEventType()),
+                event -> {
+                    Long written = this.pendingEvents.remove(event.getSubject());
+                    if (written != null) {
+                        recorder.record("changefeed.lag", System.nanoTime() - written);
+                    }
+                }, this.queueCapacity);
+
+        // Starting at the current hour rather than the beginning of the feed, which may be long on a real account
+        OffsetDateTime startTime = OffsetDateTime.now(ZoneOffset.UTC);
+        this.reader = new Thread(() -> read(changefeedClient, startTime, recorder), "changefeed-load-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    @Override
+    public void runOnce(OperationRecorder recorder) {
+        String blobName = this.prefix + this.counter.getAndIncrement();
+        recorder.run("changefeed.write", () -> this.containerClient.getBlobClient(blobName)
+                .upload(new ByteArrayInputStream(this.payload), this.payload.length, true));
+        this.pendingEvents.put("/blobServices/default/containers/" + this.containerName + "/blobs/" + blobName,
+                System.nanoTime());
+    }
+
+    /**
+     * Follows the change feed until the workload is closed, resuming from the cursor of the last page read, and waits
+     * for the subscriber to handle every page before polling again
+     */
+    private void read(BlobChangefeedClient changefeedClient, OffsetDateTime startTime, OperationRecorder recorder) {
+        String cursor = null;
+        while (!this.closed) {
+            boolean caughtUp = true;
+            try {
+                BlobChangefeedPagedIterable iterable = cursor == null
+                        ? changefeedClient.getEvents(startTime, null)
+                        : changefeedClient.getEvents(cursor);
+                Iterator<BlobChangefeedPagedResponse> pages = iterable.iterableByPage().iterator();
+                while (!this.closed) {
+                    long start = System.nanoTime();
+                    if (!pages.hasNext()) {
+                        break;
+                    }
+                    BlobChangefeedPagedResponse page = pages.next();
+                    recorder.record("changefeed.page", System.nanoTime() - start);
+                    if (page.getElements().iterator().hasNext()) {
+                        caughtUp = false;
+                    }
+                    this.dispatcher.dispatchPage(page.getElements(), page.getContinuationToken());
+                    cursor = page.getContinuationToken();
+                }
+                this.dispatcher.awaitCheckpoint();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                recorder.recordError("changefeed.page");
+                logger.warn("Reading the change feed failed, retrying from the last cursor", e);
+            }
+            if (caughtUp) {
+                try {
+                    Thread.sleep(this.pollMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        if (this.reader != null) {
+            this.reader.interrupt();
+        }
+        if (this.dispatcher != null) {
+            this.dispatcher.close();
+        }
+        if (!this.pendingEvents.isEmpty()) {
+            logger.info("{} uploads had no change feed event yet when the run ended", this.pendingEvents.size());
+        }
+    }
+}
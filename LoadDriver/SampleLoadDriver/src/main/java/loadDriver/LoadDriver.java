@@ -0,0 +1,227 @@
+package loadDriver;
+
+import localBlobService.LocalBlobService;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the sample flows as workloads under load and reports throughput and latency percentiles per operation. Each
+ * workload in turn is set up, run by concurrency worker threads for warmupSeconds, whose results are discarded, and
+ * then measured for durationSeconds.
+ * <p>
+ * By default everything runs against an embedded LocalBlobService, so runs are repeatable and need no account. The
+ * results are written to resultFile. If a baseline result file is given, every operation is compared against it and
+ * the process exits with status 1 if any got slower
+ */
+public class LoadDriver {
+    private static Logger logger = LoggerFactory.getLogger(LoadDriver.class);
+
+    private final Properties prop;
+    private final int concurrency;
+    private final long warmupMillis;
+    private final long durationMillis;
+    // Account names on the embedded service
+    private final String account;
+    private final String orsSourceAccount;
+    private final String orsDestinationAccount;
+
+    public LoadDriver(Properties prop) {
+        this.prop = prop;
+        this.concurrency = Integer.parseInt(prop.getProperty("concurrency", "16"));
+        this.warmupMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(prop.getProperty("warmupSeconds", "10")));
+        this.durationMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(prop.getProperty("durationSeconds", "60")));
+        this.account = prop.getProperty("account", "devstoreaccount1");
+        this.orsSourceAccount = prop.getProperty("orsSourceAccount", "loadsource");
+        this.orsDestinationAccount = prop.getProperty("orsDestinationAccount", "loaddestination");
+    }
+
+    /**
+     * Reads app.config, then applies arguments of the form key=value on top, so a single setting can be changed from
+     * the command line
+     */
+    public static void main(String[] args) throws Exception {
+        Path currentPath = Paths.get(System.getProperty("user.dir"));
+        Path pathToDir = Paths.get(currentPath.toString(), "src", "main", "java");
+        String pathToConfig = Paths.get(pathToDir.toString(), "app.config").toString();
+
+        InputStream input = new FileInputStream(pathToConfig);
+        Properties prop = new Properties();
+        prop.load(input);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Arguments must be key=value, got " + arg);
+            }
+            prop.setProperty(arg.substring(0, equals).trim(), arg.substring(equals + 1).trim());
+        }
+
+        ResultFile.Verdict verdict = new LoadDriver(prop).run();
+        // The embedded service and the SDK leave non-daemon threads behind
+        System.exit(verdict == ResultFile.Verdict.SLOWER ? 1 : 0);
+    }
+
+    /**
+     * Runs every configured workload, writes the result file and compares it against the baseline if there is one
+     *
+     * @return the result of the comparison, UNCHANGED if there is no baseline
+     */
+    public ResultFile.Verdict run() throws Exception {
+        boolean embedded = Boolean.parseBoolean(this.prop.getProperty("embedded", "true"));
+        LocalBlobService service = embedded ? startService() : null;
+        List<WorkloadResult> results = new ArrayList<>();
+        try {
+            for (String name : this.prop.getProperty("workloads", "ors,changefeed,migration").split(",")) {
+                try (Workload workload = createWorkload(name.trim(), service)) {
+                    results.add(run(workload));
+                }
+            }
+        } finally {
+            if (service != null) {
+                service.close();
+            }
+        }
+
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("concurrency", this.concurrency);
+        settings.put("warmupSeconds", TimeUnit.MILLISECONDS.toSeconds(this.warmupMillis));
+        settings.put("durationSeconds", TimeUnit.MILLISECONDS.toSeconds(this.durationMillis));
+        settings.put("embedded", embedded);
+        Path resultPath = Paths.get(this.prop.getProperty("resultFile", "target/load-result.json"));
+        ResultFile.write(resultPath, settings, results);
+        logger.info("Results written to {}", resultPath.toAbsolutePath());
+
+        String baseline = this.prop.getProperty("baseline", "");
+        if (baseline.isEmpty()) {
+            return ResultFile.Verdict.UNCHANGED;
+        }
+        ResultFile.Verdict verdict = ResultFile.compare(Paths.get(baseline), resultPath,
+                Double.parseDouble(this.prop.getProperty("regressionThreshold", "0.1")));
+        logger.info("Compared with {}: {}", baseline, verdict);
+        return verdict;
+    }
+
+    private WorkloadResult run(Workload workload) throws Exception {
+        OperationRecorder recorder = new OperationRecorder();
+        logger.info("Setting up {}", workload.getName());
+        workload.setUp(recorder);
+
+        AtomicLong iterations = new AtomicLong();
+        AtomicLong failedIterations = new AtomicLong();
+        AtomicLong end = new AtomicLong(Long.MAX_VALUE);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < this.concurrency; i++) {
+            Thread worker = new Thread(() -> {
+                while (System.nanoTime() < end.get() && !Thread.currentThread().isInterrupted()) {
+                    try {
+                        workload.runOnce(recorder);
+                        iterations.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception e) {
+                        failedIterations.incrementAndGet();
+                        logger.debug("{} iteration failed", workload.getName(), e);
+                    }
+                }
+            }, workload.getName() + "-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+
+        logger.info("Warming up {} with {} workers for {} s", workload.getName(), this.concurrency,
+                TimeUnit.MILLISECONDS.toSeconds(this.warmupMillis));
+        workers.forEach(Thread::start);
+        Thread.sleep(this.warmupMillis);
+        recorder.reset();
+        iterations.set(0);
+        failedIterations.set(0);
+
+        logger.info("Measuring {} for {} s", workload.getName(), TimeUnit.MILLISECONDS.toSeconds(this.durationMillis));
+        long start = System.nanoTime();
+        Thread.sleep(this.durationMillis);
+        long stop = System.nanoTime();
+        recorder.stop();
+        Map<String, OperationRecorder.OperationStats> operations = recorder.snapshot();
+        WorkloadResult result = new WorkloadResult(workload.getName(), (stop - start) / 1e9, iterations.get(),
+                failedIterations.get(), operations);
+
+        // Letting iterations in flight finish, so the next workload starts on an idle service
+        end.set(stop);
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        logger.info("{}: {} iterations, {} failed, {} ops/s", workload.getName(), result.iterations,
+                result.failedIterations, String.format("%.1f", result.iterations / result.elapsedSeconds));
+        return result;
+    }
+
+    private Workload createWorkload(String name, LocalBlobService service) {
+        switch (name) {
+            case "ors":
+                return new OrsWorkload(
+                        connectionString(service, this.orsSourceAccount, "orsSourceConnectionString"),
+                        connectionString(service, this.orsDestinationAccount, "orsDestinationConnectionString"),
+                        this.prop);
+            case "changefeed":
+                return new ChangeFeedWorkload(connectionString(service, this.account, "connectionString"), this.prop);
+            case "migration":
+                return new MigrationWorkload(connectionString(service, this.account, "connectionString"), this.prop);
+            default:
+                throw new IllegalArgumentException("Unknown workload " + name);
+        }
+    }
+
+    /**
+     * The connection string of the embedded service for the account, or the configured connection string when not
+     * running embedded
+     */
+    private String connectionString(LocalBlobService service, String account, String connectionStringKey) {
+        if (service != null) {
+            return service.getConnectionString(account);
+        }
+        return this.prop.getProperty(connectionStringKey);
+    }
+
+    /**
+     * Starts the embedded service with the settings prefixed "service." and a replication rule between the ORS
+     * workload's containers
+     */
+    private LocalBlobService startService() throws IOException {
+        Properties serviceProp = new Properties();
+        serviceProp.setProperty("port", "0");
+        for (String name : this.prop.stringPropertyNames()) {
+            if (name.startsWith("service.")) {
+                serviceProp.setProperty(name.substring("service.".length()), this.prop.getProperty(name));
+            }
+        }
+        serviceProp.setProperty("replication.load", this.orsSourceAccount + "/"
+                + this.prop.getProperty("orsSourceContainer", "sourcecontainer") + " -> " + this.orsDestinationAccount
+                + "/" + this.prop.getProperty("orsDestinationContainer", "destcontainer"));
+
+        LocalBlobService service = new LocalBlobService(serviceProp);
+        service.start();
+        String keyStore = serviceProp.getProperty("httpsKeyStore", "");
+        if (!keyStore.isEmpty()) {
+            // The driver is the service's only client, so it trusts the self-signed certificate for the whole process
+            System.setProperty("javax.net.ssl.trustStore", keyStore);
+            System.setProperty("javax.net.ssl.trustStorePassword",
+                    serviceProp.getProperty("httpsKeyStorePassword", "changeit"));
+            System.setProperty("javax.net.ssl.trustStoreType", "PKCS12");
+        }
+        logger.info("Embedded blob service listening on port {}", service.getPort());
+        return service;
+    }
+}
@@ -0,0 +1,178 @@
+package loadDriver;
+
+import com.azure.core.cryptography.AsyncKeyEncryptionKey;
+import com.azure.security.keyvault.keys.cryptography.LocalKeyEncryptionKeyClientBuilder;
+import com.azure.security.keyvault.keys.models.JsonWebKey;
+import com.azure.security.keyvault.keys.models.KeyOperation;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobClientBuilder;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.models.CustomerProvidedKey;
+import com.azure.storage.blob.specialized.cryptography.EncryptedBlobClient;
+import com.azure.storage.blob.specialized.cryptography.EncryptedBlobClientBuilder;
+import migrationCommon.BlobTransfer;
+import migrationCommon.MigrationTask;
+import migrationCommon.TransferTuner;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The flow of the ClientSideLocalKey migration samples, one blob per iteration: download a client-side encrypted blob,
+ * decrypting it with the local key into a temporary file, then upload the file again with server-side encryption.
+ * Set up uploads migrationBlobs encrypted blobs, which the iterations migrate in turn.
+ * <p>
+ * Downloads and uploads go through the samples' own {@link TransferTuner}, and migrationMode picks the
+ * {@link BlobTransfer} as it does in a sample's app.config, so the transfer settings of MigrationCommon are read from
+ * this app.config as well. With migrationMode stream or adaptive, the blob is transferred without a temporary file.
+ * <p>
+ * migrationTarget picks the server-side encryption of the upload: "mmk" for Microsoft-managed keys, "scope" for the
+ * encryption scope in migrationEncryptionScope, or "cpk" for a customer-provided key. The SDK only sends
+ * customer-provided keys over https, so "cpk" needs service.httpsKeyStore when run against the embedded service.
+ * <p>
+ * Operations:
+ * <ul>
+ * <li>migration.decrypt, the download and decryption, only with migrationMode file</li>
+ * <li>migration.reencrypt, the upload, only with migrationMode file</li>
+ * <li>migration.blob, the whole migration of one blob</li>
+ * </ul>
+ */
+public class MigrationWorkload implements Workload {
+    private static final String KEY_WRAP_ALGORITHM = "A256KW";
+
+    private final String connectionString;
+    private final String containerName;
+    private final int blobCount;
+    private final byte[] payload;
+    private final String target;
+    private final String encryptionScope;
+    private final String prefix = "load-" + System.currentTimeMillis() + "-";
+    private final AtomicLong counter = new AtomicLong();
+    private final TransferTuner transferTuner;
+    private final BlobTransfer blobTransfer;
+
+    private AsyncKeyEncryptionKey key;
+    private CustomerProvidedKey serverSideKey;
+    private Path tempDirectory;
+
+    public MigrationWorkload(String connectionString, Properties prop) {
+        this.connectionString = connectionString;
+        this.containerName = prop.getProperty("migrationContainer", "migrationloadcontainer");
+        this.blobCount = Integer.parseInt(prop.getProperty("migrationBlobs", "100"));
+        this.payload = new byte[Integer.parseInt(prop.getProperty("migrationBlobSize", "65536"))];
+        ThreadLocalRandom.current().nextBytes(this.payload);
+        this.target = prop.getProperty("migrationTarget", "mmk");
+        this.encryptionScope = prop.getProperty("migrationEncryptionScope", "");
+        if (!Arrays.asList("mmk", "scope", "cpk").contains(this.target)) {
+            throw new IllegalArgumentException("migrationTarget must be mmk, scope or cpk, got " + this.target);
+        }
+        this.transferTuner = new TransferTuner(prop);
+        this.blobTransfer = BlobTransfer.fromConfig(prop, this.transferTuner);
+    }
+
+    @Override
+    public String getName() {
+        return "migration";
+    }
+
+    @Override
+    public void setUp(OperationRecorder recorder) throws IOException {
+        BlobContainerClient containerClient = new BlobServiceClientBuilder().connectionString(this.connectionString)
+                .buildClient().getBlobContainerClient(this.containerName);
+        if (!containerClient.exists()) {
+            containerClient.create();
+        }
+
+        // Random, not secure keys, as the exampleDataCreators make them
+        byte[] clientSideKey = new byte[32];
+        byte[] serverSideKey = new byte[32];
+        ThreadLocalRandom.current().nextBytes(clientSideKey);
+        ThreadLocalRandom.current().nextBytes(serverSideKey);
+        JsonWebKey localKey = JsonWebKey.fromAes(new SecretKeySpec(clientSideKey, "AES"),
+                Arrays.asList(KeyOperation.WRAP_KEY, KeyOperation.UNWRAP_KEY))
+                .setId("my-id");
+        this.key = new LocalKeyEncryptionKeyClientBuilder().buildAsyncKeyEncryptionKey(localKey).block();
+        this.serverSideKey = new CustomerProvidedKey(serverSideKey);
+
+        this.tempDirectory = Files.createTempDirectory("migration-load");
+        Path source = this.tempDirectory.resolve("source");
+        Files.write(source, this.payload);
+        try {
+            for (int i = 0; i < this.blobCount; i++) {
+                encryptedBlobClient(this.prefix + i).uploadFromFile(source.toString(), true);
+            }
+        } finally {
+            Files.delete(source);
+        }
+    }
+
+    @Override
+    public void runOnce(OperationRecorder recorder) throws Exception {
+        String blobName = this.prefix + (this.counter.getAndIncrement() % this.blobCount);
+        MigrationTask task = new MigrationTask(blobName, blobName + "-migrated", this.payload.length);
+        EncryptedBlobClient encryptedBlobClient = encryptedBlobClient(blobName);
+        BlobClient blobClient = destinationBlobClient(task.getDestinationBlobName());
+        long start = System.nanoTime();
+        if (this.blobTransfer != null) {
+            recorder.time("migration.blob", () -> {
+                this.blobTransfer.transfer(encryptedBlobClient, blobClient, task);
+                return null;
+            });
+            return;
+        }
+
+        Path path = this.tempDirectory.resolve(UUID.randomUUID().toString());
+        try {
+            recorder.run("migration.decrypt", () -> this.transferTuner.downloadToFile(encryptedBlobClient,
+                    path.toString(), task));
+            task.downloaded();
+            recorder.time("migration.reencrypt", () -> {
+                this.transferTuner.uploadFromFile(blobClient, path.toString(), task);
+                return null;
+            });
+            recorder.record("migration.blob", System.nanoTime() - start);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private BlobClient destinationBlobClient(String blobName) {
+        BlobClientBuilder builder = new BlobClientBuilder()
+                .connectionString(this.connectionString)
+                .containerName(this.containerName)
+                .blobName(blobName);
+        if (this.target.equals("scope")) {
+            builder.encryptionScope(this.encryptionScope);
+        } else if (this.target.equals("cpk")) {
+            builder.customerProvidedKey(this.serverSideKey);
+        }
+        return builder.buildClient();
+    }
+
+    private EncryptedBlobClient encryptedBlobClient(String blobName) {
+        BlobClient blobClient = new BlobClientBuilder()
+                .connectionString(this.connectionString)
+                .containerName(this.containerName)
+                .blobName(blobName)
+                .buildClient();
+        return new EncryptedBlobClientBuilder()
+                .key(this.key, KEY_WRAP_ALGORITHM)
+                .blobClient(blobClient)
+                .buildEncryptedBlobClient();
+    }
+
+    @Override
+    public void close() {
+        if (this.tempDirectory != null) {
+            this.tempDirectory.toFile().delete();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package loadDriver;
+
+import changeFeedPipeline.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the latency and error count of every operation a workload runs, keyed by operation name such as
+ * "ors.upload". Latencies are kept in microseconds. Recording is thread-safe, so every worker of a workload shares one
+ * recorder
+ */
+public class OperationRecorder {
+    private final ConcurrentHashMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    /**
+     * Runs the operation and records its latency, or an error if it throws. The exception is rethrown so the caller can
+     * skip the rest of its iteration
+     */
+    public <T> T time(String operation, Callable<T> call) throws Exception {
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            record(operation, System.nanoTime() - start);
+            return result;
+        } catch (Exception e) {
+            recordError(operation);
+            throw e;
+        }
+    }
+
+    /**
+     * Same as {@link #time(String, Callable)} for operations without a result
+     */
+    public void run(String operation, Runnable call) {
+        long start = System.nanoTime();
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            recordError(operation);
+            throw e;
+        }
+        record(operation, System.nanoTime() - start);
+    }
+
+    /**
+     * Records an operation that was timed by the caller, such as the lag between a write and its change feed event
+     */
+    public void record(String operation, long elapsedNanos) {
+        if (this.stopped) {
+            return;
+        }
+        stats(operation).latency.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    public void recordError(String operation) {
+        if (this.stopped) {
+            return;
+        }
+        stats(operation).errors.incrementAndGet();
+    }
+
+    /**
+     * Forgets everything recorded so far, at the end of the warmup
+     */
+    public void reset() {
+        for (OperationStats stats : this.operations.values()) {
+            stats.latency.reset();
+            stats.errors.set(0);
+        }
+    }
+
+    /**
+     * Ignores everything recorded from now on, at the end of the measured time, so operations still in flight do not
+     * change the results
+     */
+    public void stop() {
+        this.stopped = true;
+    }
+
+    /**
+     * The statistics of every operation recorded so far, by operation name
+     */
+    public Map<String, OperationStats> snapshot() {
+        return new TreeMap<>(this.operations);
+    }
+
+    private OperationStats stats(String operation) {
+        return this.operations.computeIfAbsent(operation, name -> new OperationStats());
+    }
+
+    /**
+     * Latencies in microseconds and the error count of one operation
+     */
+    public static final class OperationStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+
+        public LatencyHistogram getLatency() {
+            return this.latency;
+        }
+
+        public long getErrors() {
+            return this.errors.get();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package loadDriver;
+
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.models.AccessTier;
+import com.azure.storage.blob.models.BlobProperties;
+import com.azure.storage.blob.models.ObjectReplicationPolicy;
+import com.azure.storage.blob.models.ObjectReplicationRule;
+import com.azure.storage.blob.models.ObjectReplicationStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The flow of ObjectReplicationMonitor, one blob per iteration: upload to the source container, wait until the source
+ * blob reports its replication as complete, read the replica from the destination container and archive it.
+ * <p>
+ * Operations:
+ * <ul>
+ * <li>ors.upload, the upload to the source</li>
+ * <li>ors.replication, from the end of the upload until the replication status is seen as complete. The status is
+ * polled every orsPollMillis, which bounds the resolution</li>
+ * <li>ors.download, the read of the replica</li>
+ * <li>ors.archive, setting the replica's tier to archive</li>
+ * </ul>
+ */
+public class OrsWorkload implements Workload {
+    private final String sourceConnectionString;
+    private final String sourceContainerName;
+    private final String destinationConnectionString;
+    private final String destinationContainerName;
+    private final byte[] payload;
+    private final long pollMillis;
+    private final long timeoutMillis;
+    private final String prefix = "load-" + System.currentTimeMillis() + "-";
+    private final AtomicLong counter = new AtomicLong();
+
+    private BlobContainerClient sourceContainer;
+    private BlobContainerClient destinationContainer;
+
+    public OrsWorkload(String sourceConnectionString, String destinationConnectionString, Properties prop) {
+        this.sourceConnectionString = sourceConnectionString;
+        this.destinationConnectionString = destinationConnectionString;
+        this.sourceContainerName = prop.getProperty("orsSourceContainer", "sourcecontainer");
+        this.destinationContainerName = prop.getProperty("orsDestinationContainer", "destcontainer");
+        this.payload = new byte[Integer.parseInt(prop.getProperty("orsBlobSize", "1024"))];
+        ThreadLocalRandom.current().nextBytes(this.payload);
+        this.pollMillis = Long.parseLong(prop.getProperty("orsPollMillis", "100"));
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(prop.getProperty("orsTimeoutSeconds", "300")));
+    }
+
+    @Override
+    public String getName() {
+        return "ors";
+    }
+
+    @Override
+    public void setUp(OperationRecorder recorder) {
+        this.sourceContainer = new BlobServiceClientBuilder().connectionString(this.sourceConnectionString)
+                .buildClient().getBlobContainerClient(this.sourceContainerName);
+        this.destinationContainer = new BlobServiceClientBuilder().connectionString(this.destinationConnectionString)
+                .buildClient().getBlobContainerClient(this.destinationContainerName);
+        // The replication policy has to exist already, and with it both containers, unless running embedded
+        if (!this.sourceContainer.exists()) {
+            this.sourceContainer.create();
+        }
+        if (!this.destinationContainer.exists()) {
+            this.destinationContainer.create();
+        }
+    }
+
+    @Override
+    public void runOnce(OperationRecorder recorder) throws Exception {
+        String blobName = this.prefix + this.counter.getAndIncrement();
+        BlobClient sourceBlob = this.sourceContainer.getBlobClient(blobName);
+        recorder.run("ors.upload", () -> sourceBlob.upload(new ByteArrayInputStream(this.payload),
+                this.payload.length, true));
+
+        long uploaded = System.nanoTime();
+        ObjectReplicationStatus status;
+        while ((status = replicationStatus(sourceBlob.getProperties())) == null) {
+            if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - uploaded) > this.timeoutMillis) {
+                recorder.recordError("ors.replication");
+                return;
+            }
+            Thread.sleep(this.pollMillis);
+        }
+        if (status != ObjectReplicationStatus.COMPLETE) {
+            // As in the monitor, a failed replication usually means the destination blob is archived
+            recorder.recordError("ors.replication");
+            return;
+        }
+        recorder.record("ors.replication", System.nanoTime() - uploaded);
+
+        BlobClient destinationBlob = this.destinationContainer.getBlobClient(blobName);
+        recorder.run("ors.download", () -> destinationBlob.download(new ByteArrayOutputStream(this.payload.length)));
+        recorder.run("ors.archive", () -> destinationBlob.setAccessTier(AccessTier.ARCHIVE));
+    }
+
+    /**
+     * Returns the status of the first replication rule that reports one, or null while replication is pending
+     */
+    private static ObjectReplicationStatus replicationStatus(BlobProperties properties) {
+        List<ObjectReplicationPolicy> policies = properties.getObjectReplicationSourcePolicies();
+        if (policies == null) {
+            return null;
+        }
+        for (ObjectReplicationPolicy policy : policies) {
+            for (ObjectReplicationRule rule : policy.getRules()) {
+                if (rule.getStatus() != null) {
+                    return rule.getStatus();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+    }
+}
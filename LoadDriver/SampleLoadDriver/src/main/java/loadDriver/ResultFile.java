@@ -0,0 +1,168 @@
+package loadDriver;
+
+import changeFeedPipeline.Json;
+import changeFeedPipeline.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the results of a run as JSON, and compares them against the results of an earlier run.
+ * <p>
+ * The file has one entry per workload under "workloads", each with its measured time, its iterations and, under
+ * "operations", the count, errors, throughput in operations per second and mean, p50, p99, p99.9 and maximum latency
+ * in milliseconds of every operation
+ */
+final class ResultFile {
+    private static Logger logger = LoggerFactory.getLogger(ResultFile.class);
+
+    enum Verdict {
+        FASTER, UNCHANGED, SLOWER
+    }
+
+    private ResultFile() {
+    }
+
+    static void write(Path path, Map<String, Object> settings, List<WorkloadResult> results) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"timestamp\": ").append(quote(Instant.now().toString())).append(",\n");
+        json.append("  \"settings\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Object> setting : settings.entrySet()) {
+            json.append(separator).append("    ").append(quote(setting.getKey())).append(": ");
+            json.append(setting.getValue() instanceof String ? quote((String) setting.getValue()) : setting.getValue());
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"workloads\": {");
+
+        separator = "\n";
+        for (WorkloadResult result : results) {
+            json.append(separator).append("    ").append(quote(result.name)).append(": {\n");
+            json.append("      \"elapsedSeconds\": ").append(number(result.elapsedSeconds)).append(",\n");
+            json.append("      \"iterations\": ").append(result.iterations).append(",\n");
+            json.append("      \"failedIterations\": ").append(result.failedIterations).append(",\n");
+            json.append("      \"throughput\": ").append(number(result.iterations / result.elapsedSeconds))
+                    .append(",\n");
+            json.append("      \"operations\": {");
+            String operationSeparator = "\n";
+            for (Map.Entry<String, OperationRecorder.OperationStats> operation : result.operations.entrySet()) {
+                LatencyHistogram latency = operation.getValue().getLatency();
+                json.append(operationSeparator).append("        ").append(quote(operation.getKey())).append(": {")
+                        .append("\"count\": ").append(latency.getCount())
+                        .append(", \"errors\": ").append(operation.getValue().getErrors())
+                        .append(", \"throughput\": ").append(number(latency.getCount() / result.elapsedSeconds))
+                        .append(", \"meanMillis\": ").append(number(latency.getMean() / 1000))
+                        .append(", \"p50Millis\": ").append(millis(latency.getPercentile(50)))
+                        .append(", \"p99Millis\": ").append(millis(latency.getPercentile(99)))
+                        .append(", \"p999Millis\": ").append(millis(latency.getPercentile(99.9)))
+                        .append(", \"maxMillis\": ").append(millis(latency.getMax()))
+                        .append('}');
+                operationSeparator = ",\n";
+            }
+            json.append("\n      }\n    }");
+            separator = ",\n";
+        }
+        json.append("\n  }\n}\n");
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Files.write(path, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compares every operation found in both result files and logs how its throughput and p99 latency changed. An
+     * operation counts as slower if its throughput dropped, or its p99 latency rose, by more than the threshold, a
+     * fraction such as 0.1, and as faster if either moved as far the other way without the other getting worse.
+     *
+     * @return SLOWER if any operation is slower, otherwise FASTER if any is faster, otherwise UNCHANGED
+     */
+    @SuppressWarnings("unchecked")
+    static Verdict compare(Path baselinePath, Path currentPath, double threshold) throws IOException {
+        Map<String, Object> baseline = (Map<String, Object>) Json.parse(
+                new String(Files.readAllBytes(baselinePath), StandardCharsets.UTF_8));
+        Map<String, Object> current = (Map<String, Object>) Json.parse(
+                new String(Files.readAllBytes(currentPath), StandardCharsets.UTF_8));
+        Map<String, Object> baselineWorkloads = (Map<String, Object>) baseline.get("workloads");
+        Map<String, Object> currentWorkloads = (Map<String, Object>) current.get("workloads");
+
+        boolean slower = false;
+        boolean faster = false;
+        for (Map.Entry<String, Object> workload : currentWorkloads.entrySet()) {
+            Map<String, Object> baselineWorkload = (Map<String, Object>) baselineWorkloads.get(workload.getKey());
+            if (baselineWorkload == null) {
+                logger.info("{} is not in the baseline, skipping it", workload.getKey());
+                continue;
+            }
+            Map<String, Object> baselineOperations = (Map<String, Object>) baselineWorkload.get("operations");
+            Map<String, Object> currentOperations =
+                    (Map<String, Object>) ((Map<String, Object>) workload.getValue()).get("operations");
+            for (Map.Entry<String, Object> operation : currentOperations.entrySet()) {
+                Map<String, Object> before = (Map<String, Object>) baselineOperations.get(operation.getKey());
+                Map<String, Object> after = (Map<String, Object>) operation.getValue();
+                if (before == null) {
+                    continue;
+                }
+                double throughputChange = change(before, after, "throughput");
+                double p99Change = change(before, after, "p99Millis");
+                Verdict verdict = Verdict.UNCHANGED;
+                if (throughputChange < -threshold || p99Change > threshold) {
+                    verdict = Verdict.SLOWER;
+                    slower = true;
+                } else if (throughputChange > threshold || p99Change < -threshold) {
+                    verdict = Verdict.FASTER;
+                    faster = true;
+                }
+                logger.info("{}: {}, throughput {} -> {} ops/s ({}), p99 {} -> {} ms ({})", operation.getKey(),
+                        verdict, before.get("throughput"), after.get("throughput"), percent(throughputChange),
+                        before.get("p99Millis"), after.get("p99Millis"), percent(p99Change));
+            }
+        }
+        return slower ? Verdict.SLOWER : faster ? Verdict.FASTER : Verdict.UNCHANGED;
+    }
+
+    /**
+     * The relative change of a value between the two results, 0 if the baseline value is 0
+     */
+    private static double change(Map<String, Object> before, Map<String, Object> after, String field) {
+        double baselineValue = ((Number) before.get(field)).doubleValue();
+        double currentValue = ((Number) after.get(field)).doubleValue();
+        return baselineValue == 0 ? 0 : (currentValue - baselineValue) / baselineValue;
+    }
+
+    private static String percent(double change) {
+        return String.format(Locale.ROOT, "%+.1f%%", change * 100);
+    }
+
+    private static String millis(long micros) {
+        return number(micros / 1000.0);
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,26 @@
+package loadDriver;
+
+/**
+ * One of the sample flows, run by the load driver from many worker threads at once. Each call to
+ * {@link #runOnce(OperationRecorder)} is one iteration of the flow, timing its steps as separate operations
+ */
+public interface Workload extends AutoCloseable {
+    /**
+     * The name used in the result file and as the prefix of the workload's operation names
+     */
+    String getName();
+
+    /**
+     * Prepares containers, keys and data the iterations need. Nothing done here is measured, but background work such
+     * as a change feed reader may keep recording into the recorder until {@link #close()}
+     */
+    void setUp(OperationRecorder recorder) throws Exception;
+
+    /**
+     * Runs one iteration. Called concurrently by every worker until the run ends
+     */
+    void runOnce(OperationRecorder recorder) throws Exception;
+
+    @Override
+    void close();
+}
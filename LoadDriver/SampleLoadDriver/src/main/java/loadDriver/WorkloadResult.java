@@ -0,0 +1,23 @@
+package loadDriver;
+
+import java.util.Map;
+
+/**
+ * What one workload achieved during its measured time, after the warmup
+ */
+final class WorkloadResult {
+    final String name;
+    final double elapsedSeconds;
+    final long iterations;
+    final long failedIterations;
+    final Map<String, OperationRecorder.OperationStats> operations;
+
+    WorkloadResult(String name, double elapsedSeconds, long iterations, long failedIterations,
+                   Map<String, OperationRecorder.OperationStats> operations) {
+        this.name = name;
+        this.elapsedSeconds = elapsedSeconds;
+        this.iterations = iterations;
+        this.failedIterations = failedIterations;
+        this.operations = operations;
+    }
+}
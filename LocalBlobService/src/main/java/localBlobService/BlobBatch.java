@@ -0,0 +1,139 @@
+package localBlobService;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the multipart/mixed body of a Blob Batch request into its sub-requests and writes their responses back in the
+ * same framing. Sub-requests are the delete and set tier calls the batch client sends, which have no body of their own
+ */
+final class BlobBatch {
+    static final int MAX_REQUESTS = 256;
+
+    private BlobBatch() {
+    }
+
+    static String boundary(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        for (String parameter : contentType.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith("boundary=")) {
+                String boundary = trimmed.substring("boundary=".length());
+                return boundary.startsWith("\"") ? boundary.substring(1, boundary.length() - 1) : boundary;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits the batch body into sub-requests, in order
+     *
+     * @throws IllegalArgumentException If a part is not an HTTP request
+     */
+    static List<Part> parse(byte[] body, String boundary) {
+        // Sub-requests are ASCII, paths are percent-encoded
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        List<Part> parts = new ArrayList<>();
+        String delimiter = "--" + boundary;
+        int at = text.indexOf(delimiter);
+        while (at >= 0) {
+            int start = at + delimiter.length();
+            if (text.startsWith("--", start)) {
+                break;
+            }
+            int next = text.indexOf(delimiter, start);
+            String part = text.substring(start, next < 0 ? text.length() : next);
+            parts.add(parsePart(part));
+            at = next;
+        }
+        return parts;
+    }
+
+    private static Part parsePart(String part) {
+        String normalized = part.replace("\r\n", "\n");
+        int headersEnd = normalized.indexOf("\n\n");
+        if (headersEnd < 0) {
+            throw new IllegalArgumentException("Batch part has no body");
+        }
+        Map<String, String> partHeaders = headers(normalized.substring(0, headersEnd).trim());
+        String message = normalized.substring(headersEnd + 2);
+
+        int messageHeadersEnd = message.indexOf("\n\n");
+        String head = messageHeadersEnd < 0 ? message.trim() : message.substring(0, messageHeadersEnd);
+        String requestBody = messageHeadersEnd < 0 ? "" : message.substring(messageHeadersEnd + 2).trim();
+        int lineEnd = head.indexOf('\n');
+        String requestLine = lineEnd < 0 ? head : head.substring(0, lineEnd);
+        String[] words = requestLine.trim().split(" ");
+        if (words.length < 2) {
+            throw new IllegalArgumentException("Batch part is not an HTTP request: " + requestLine);
+        }
+        String target = words[1];
+        int scheme = target.indexOf("://");
+        if (scheme >= 0) {
+            int pathStart = target.indexOf('/', scheme + 3);
+            target = pathStart < 0 ? "/" : target.substring(pathStart);
+        }
+        int question = target.indexOf('?');
+        String path = question < 0 ? target : target.substring(0, question);
+        String query = question < 0 ? null : target.substring(question + 1);
+
+        Map<String, String> headers = headers(lineEnd < 0 ? "" : head.substring(lineEnd + 1));
+        BlobRequest request = new BlobRequest(words[0], path, query, headers,
+                requestBody.getBytes(StandardCharsets.ISO_8859_1));
+        return new Part(partHeaders.getOrDefault("content-id", "0"), request);
+    }
+
+    private static Map<String, String> headers(String block) {
+        Map<String, String> headers = new HashMap<>();
+        for (String line : block.split("\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    static byte[] encode(List<Part> parts, List<BlobResponse> responses, String boundary) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < parts.size(); i++) {
+            BlobResponse response = responses.get(i);
+            StringBuilder head = new StringBuilder();
+            head.append("--").append(boundary).append("\r\n")
+                    .append("Content-Type: application/http\r\n")
+                    .append("Content-ID: ").append(parts.get(i).contentId).append("\r\n\r\n")
+                    .append("HTTP/1.1 ").append(response.status).append(' ')
+                    .append(BlobResponse.reason(response.status)).append("\r\n");
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            head.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+            write(out, head.toString());
+            out.write(response.body, 0, response.body.length);
+            write(out, "\r\n");
+        }
+        write(out, "--" + boundary + "--\r\n");
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    static final class Part {
+        final String contentId;
+        final BlobRequest request;
+
+        Part(String contentId, BlobRequest request) {
+            this.contentId = contentId;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,937 @@
+package localBlobService;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Blob REST operations the samples call, served from the in-memory store. Requests are matched on method, path
+ * depth and the restype and comp query parameters, the same way the service tells its operations apart. Anything else
+ * gets 400 UnsupportedOperation rather than a guess at the service's behavior
+ */
+final class BlobOperations {
+    static final String DEFAULT_VERSION = "2019-12-12";
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobOperations.class);
+    private static final DateTimeFormatter RFC_1123 =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    private static final int MAX_RESULTS = 5000;
+
+    private final BlobStore store;
+    private final ChangeFeedLog changeFeed;
+    private final List<ReplicationRule> replicationRules;
+    private final ScheduledExecutorService scheduler;
+    private final long replicationDelayMillis;
+    private final String baseUrl;
+
+    /**
+     * @param changeFeed Log to record changes in, or null if the change feed is off
+     * @param baseUrl Scheme, host and port the service is reached at, used for URLs in listings and change events
+     */
+    BlobOperations(BlobStore store, ChangeFeedLog changeFeed, List<ReplicationRule> replicationRules,
+                   ScheduledExecutorService scheduler, long replicationDelayMillis, String baseUrl) {
+        this.store = store;
+        this.changeFeed = changeFeed;
+        this.replicationRules = replicationRules;
+        this.scheduler = scheduler;
+        this.replicationDelayMillis = replicationDelayMillis;
+        this.baseUrl = baseUrl;
+    }
+
+    BlobResponse handle(BlobRequest request) {
+        String requestId = UUID.randomUUID().toString();
+        BlobResponse response;
+        if (request.account.isEmpty()) {
+            response = BlobResponse.error(400, "InvalidUri", "Requests must be addressed as /account/container/blob.");
+        } else {
+            try {
+                response = route(request, requestId);
+            } catch (IllegalArgumentException e) {
+                response = BlobResponse.error(400, "InvalidInput", e.getMessage());
+            }
+        }
+        return stamp(request, response, requestId);
+    }
+
+    /**
+     * Adds the headers every response carries
+     */
+    static BlobResponse stamp(BlobRequest request, BlobResponse response, String requestId) {
+        String version = request.header("x-ms-version");
+        return response.header("x-ms-request-id", requestId)
+                .header("x-ms-version", version == null ? DEFAULT_VERSION : version)
+                .header("x-ms-client-request-id", request.header("x-ms-client-request-id"));
+    }
+
+    private BlobResponse route(BlobRequest request, String requestId) {
+        String restype = request.query("restype");
+        String comp = request.query("comp") == null ? "" : request.query("comp");
+        String method = request.method;
+        BlobStore.Account account = this.store.account(request.account);
+
+        if (request.container == null) {
+            if (comp.equals("list") && isRead(method)) {
+                return listContainers(account, request);
+            }
+            if (comp.equals("batch") && method.equals("POST")) {
+                return batch(request);
+            }
+            return unsupported(request);
+        }
+
+        if (request.blob == null) {
+            if (!"container".equals(restype)) {
+                return unsupported(request);
+            }
+            switch (comp) {
+                case "list":
+                    return isRead(method) ? listBlobs(account, request) : unsupported(request);
+                case "batch":
+                    return method.equals("POST") ? batch(request) : unsupported(request);
+                case "":
+                    break;
+                default:
+                    return unsupported(request);
+            }
+            switch (method) {
+                case "PUT":
+                    return createContainer(account, request);
+                case "GET":
+                case "HEAD":
+                    return containerProperties(account, request);
+                case "DELETE":
+                    return deleteContainer(account, request);
+                default:
+                    return unsupported(request);
+            }
+        }
+
+        BlobStore.Container container = account.containers.get(request.container);
+        if (container == null) {
+            return BlobResponse.error(404, "ContainerNotFound", "The specified container does not exist.");
+        }
+        if (request.header("x-ms-copy-source") != null) {
+            // Copy Blob, Put Blob From URL and Put Block From URL would otherwise store the empty request body
+            return BlobResponse.error(400, "UnsupportedOperation", "The local blob service does not implement "
+                    + "copying from a URL.");
+        }
+        switch (method + " " + comp) {
+            case "PUT ":
+                return putBlob(account, container, request, requestId);
+            case "PUT block":
+                return putBlock(container, request);
+            case "PUT blocklist":
+                return putBlockList(account, container, request, requestId);
+            case "PUT metadata":
+                return setMetadata(account, container, request, requestId);
+            case "PUT properties":
+                return setProperties(account, container, request, requestId);
+            case "PUT tier":
+                return setTier(account, container, request, requestId);
+            case "GET ":
+                return getBlob(container, request);
+            case "HEAD ":
+                return blobProperties(container, request);
+            case "DELETE ":
+                return deleteBlob(account, container, request, requestId);
+            default:
+                return unsupported(request);
+        }
+    }
+
+    private static boolean isRead(String method) {
+        return method.equals("GET") || method.equals("HEAD");
+    }
+
+    private static BlobResponse unsupported(BlobRequest request) {
+        return BlobResponse.error(400, "UnsupportedOperation", "The local blob service does not implement "
+                + request.method + " with query " + request.query.keySet() + ".");
+    }
+
+    private BlobResponse createContainer(BlobStore.Account account, BlobRequest request) {
+        BlobStore.Container created = new BlobStore.Container(request.container, this.store.nextEtag(),
+                BlobStore.now());
+        created.metadata.putAll(request.metadata());
+        if (account.containers.putIfAbsent(request.container, created) != null) {
+            return BlobResponse.error(409, "ContainerAlreadyExists", "The specified container already exists.");
+        }
+        return new BlobResponse(201)
+                .header("ETag", quote(created.etag))
+                .header("Last-Modified", created.lastModified.format(RFC_1123));
+    }
+
+    private BlobResponse containerProperties(BlobStore.Account account, BlobRequest request) {
+        BlobStore.Container container = account.containers.get(request.container);
+        if (container == null) {
+            return BlobResponse.error(404, "ContainerNotFound", "The specified container does not exist.");
+        }
+        BlobResponse response = new BlobResponse(200)
+                .header("ETag", quote(container.etag))
+                .header("Last-Modified", container.lastModified.format(RFC_1123))
+                .header("x-ms-lease-status", "unlocked")
+                .header("x-ms-lease-state", "available")
+                .header("x-ms-has-immutability-policy", "false")
+                .header("x-ms-has-legal-hold", "false");
+        for (Map.Entry<String, String> entry : container.metadata.entrySet()) {
+            response.header("x-ms-meta-" + entry.getKey(), entry.getValue());
+        }
+        return response;
+    }
+
+    private BlobResponse deleteContainer(BlobStore.Account account, BlobRequest request) {
+        if (account.containers.remove(request.container) == null) {
+            return BlobResponse.error(404, "ContainerNotFound", "The specified container does not exist.");
+        }
+        return new BlobResponse(202);
+    }
+
+    private BlobResponse listContainers(BlobStore.Account account, BlobRequest request) {
+        String prefix = request.query("prefix") == null ? "" : request.query("prefix");
+        String marker = request.query("marker");
+        int maxResults = maxResults(request);
+        boolean includeMetadata = includes(request, "metadata");
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>")
+                .append("<EnumerationResults ServiceEndpoint=\"").append(Xml.escape(serviceEndpoint(account)))
+                .append("\">");
+        Xml.element(xml, "Prefix", prefix);
+        Xml.element(xml, "MaxResults", maxResults);
+        xml.append("<Containers>");
+        String from = marker != null && marker.compareTo(prefix) > 0 ? marker : prefix;
+        String nextMarker = null;
+        int count = 0;
+        for (BlobStore.Container container : account.containers.tailMap(from, true).values()) {
+            if (!container.name.startsWith(prefix)) {
+                break;
+            }
+            if (count == maxResults) {
+                nextMarker = container.name;
+                break;
+            }
+            xml.append("<Container>");
+            Xml.element(xml, "Name", container.name);
+            xml.append("<Properties>");
+            Xml.element(xml, "Last-Modified", container.lastModified.format(RFC_1123));
+            Xml.element(xml, "Etag", quote(container.etag));
+            xml.append("<LeaseStatus>unlocked</LeaseStatus><LeaseState>available</LeaseState>")
+                    .append("<HasImmutabilityPolicy>false</HasImmutabilityPolicy><HasLegalHold>false</HasLegalHold>")
+                    .append("</Properties>");
+            if (includeMetadata) {
+                appendMetadata(xml, "Metadata", "", container.metadata);
+            }
+            xml.append("</Container>");
+            count++;
+        }
+        xml.append("</Containers>");
+        appendNextMarker(xml, nextMarker);
+        return BlobResponse.xml(200, xml.append("</EnumerationResults>").toString());
+    }
+
+    /**
+     * List Blobs, flat or by hierarchy. The marker is the name the next page starts at. With a delimiter, names that
+     * share a virtual directory are returned once, as a BlobPrefix, and count once towards maxresults
+     */
+    private BlobResponse listBlobs(BlobStore.Account account, BlobRequest request) {
+        BlobStore.Container container = account.containers.get(request.container);
+        if (container == null) {
+            return BlobResponse.error(404, "ContainerNotFound", "The specified container does not exist.");
+        }
+        String prefix = request.query("prefix") == null ? "" : request.query("prefix");
+        String delimiter = request.query("delimiter");
+        String marker = request.query("marker");
+        int maxResults = maxResults(request);
+        boolean includeMetadata = includes(request, "metadata");
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>")
+                .append("<EnumerationResults ServiceEndpoint=\"").append(Xml.escape(serviceEndpoint(account)))
+                .append("\" ContainerName=\"").append(Xml.escape(container.name)).append("\">");
+        Xml.element(xml, "Prefix", prefix);
+        Xml.element(xml, "MaxResults", maxResults);
+        if (delimiter != null) {
+            Xml.element(xml, "Delimiter", delimiter);
+        }
+        xml.append("<Blobs>");
+        String from = marker != null && marker.compareTo(prefix) > 0 ? marker : prefix;
+        String nextMarker = null;
+        String lastPrefix = null;
+        int count = 0;
+        for (Map.Entry<String, StoredBlob> entry : container.blobs.tailMap(from, true).entrySet()) {
+            String name = entry.getKey();
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+            if (lastPrefix != null && name.startsWith(lastPrefix)) {
+                continue;
+            }
+            if (count == maxResults) {
+                nextMarker = name;
+                break;
+            }
+            count++;
+            if (delimiter != null && !delimiter.isEmpty()) {
+                int at = name.indexOf(delimiter, prefix.length());
+                if (at >= 0) {
+                    lastPrefix = name.substring(0, at + delimiter.length());
+                    xml.append("<BlobPrefix>");
+                    Xml.element(xml, "Name", lastPrefix);
+                    xml.append("</BlobPrefix>");
+                    continue;
+                }
+            }
+            appendBlob(xml, name, entry.getValue(), includeMetadata);
+        }
+        xml.append("</Blobs>");
+        appendNextMarker(xml, nextMarker);
+        return BlobResponse.xml(200, xml.append("</EnumerationResults>").toString());
+    }
+
+    private static void appendBlob(StringBuilder xml, String name, StoredBlob blob, boolean includeMetadata) {
+        xml.append("<Blob>");
+        Xml.element(xml, "Name", name);
+        xml.append("<Properties>");
+        Xml.element(xml, "Creation-Time", blob.created.format(RFC_1123));
+        Xml.element(xml, "Last-Modified", blob.lastModified.format(RFC_1123));
+        Xml.element(xml, "Etag", blob.etag);
+        Xml.element(xml, "Content-Length", blob.content.length);
+        Xml.element(xml, "Content-Type", blob.contentType);
+        if (blob.contentEncoding != null) {
+            Xml.element(xml, "Content-Encoding", blob.contentEncoding);
+        }
+        if (blob.contentLanguage != null) {
+            Xml.element(xml, "Content-Language", blob.contentLanguage);
+        }
+        if (blob.contentDisposition != null) {
+            Xml.element(xml, "Content-Disposition", blob.contentDisposition);
+        }
+        if (blob.cacheControl != null) {
+            Xml.element(xml, "Cache-Control", blob.cacheControl);
+        }
+        if (blob.contentMd5 != null) {
+            Xml.element(xml, "Content-MD5", Base64.getEncoder().encodeToString(blob.contentMd5));
+        }
+        xml.append("<BlobType>BlockBlob</BlobType>");
+        Xml.element(xml, "AccessTier", blob.tier);
+        if (blob.tierInferred) {
+            xml.append("<AccessTierInferred>true</AccessTierInferred>");
+        }
+        xml.append("<LeaseStatus>unlocked</LeaseStatus><LeaseState>available</LeaseState>")
+                .append("<ServerEncrypted>true</ServerEncrypted>");
+        if (blob.encryptionKeySha256 != null) {
+            Xml.element(xml, "CustomerProvidedKeySha256", blob.encryptionKeySha256);
+        }
+        if (blob.encryptionScope != null) {
+            Xml.element(xml, "EncryptionScope", blob.encryptionScope);
+        }
+        xml.append("</Properties>");
+        if (includeMetadata) {
+            appendMetadata(xml, "Metadata", "", blob.metadata);
+        }
+        if (!blob.replicationStatus.isEmpty()) {
+            appendMetadata(xml, "OrMetadata", "Or-", blob.replicationStatus);
+        }
+        xml.append("</Blob>");
+    }
+
+    private static void appendMetadata(StringBuilder xml, String element, String keyPrefix,
+                                       Map<String, String> metadata) {
+        xml.append('<').append(element).append('>');
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            Xml.element(xml, keyPrefix + entry.getKey(), entry.getValue());
+        }
+        xml.append("</").append(element).append('>');
+    }
+
+    private static void appendNextMarker(StringBuilder xml, String nextMarker) {
+        if (nextMarker == null) {
+            xml.append("<NextMarker />");
+        } else {
+            Xml.element(xml, "NextMarker", nextMarker);
+        }
+    }
+
+    private static int maxResults(BlobRequest request) {
+        String maxResults = request.query("maxresults");
+        return maxResults == null ? MAX_RESULTS : Math.max(1, Math.min(MAX_RESULTS, Integer.parseInt(maxResults)));
+    }
+
+    private static boolean includes(BlobRequest request, String dataset) {
+        String include = request.query("include");
+        return include != null && Arrays.asList(include.split(",")).contains(dataset);
+    }
+
+    private String serviceEndpoint(BlobStore.Account account) {
+        return this.baseUrl + "/" + account.name + "/";
+    }
+
+    private String blobUrl(String account, String container, String blob) {
+        return this.baseUrl + "/" + account + "/" + container + "/" + BlobRequest.encodePath(blob);
+    }
+
+    private BlobResponse putBlob(BlobStore.Account account, BlobStore.Container container, BlobRequest request,
+                                 String requestId) {
+        if (!"BlockBlob".equals(request.header("x-ms-blob-type"))) {
+            return BlobResponse.error(400, "InvalidHeaderValue", "The local blob service only stores block blobs.");
+        }
+        byte[] md5 = md5(request.body);
+        BlobResponse response = commit(account, container, request, requestId, request.body,
+                new String[0], new int[0], md5, "PutBlob");
+        return response.status == 201
+                ? response.header("Content-MD5", Base64.getEncoder().encodeToString(md5))
+                : response;
+    }
+
+    private BlobResponse putBlock(BlobStore.Container container, BlobRequest request) {
+        String blockId = request.query("blockid");
+        if (blockId == null || blockId.isEmpty()) {
+            return BlobResponse.error(400, "InvalidQueryParameterValue", "Put Block requires a block ID.");
+        }
+        container.uncommittedBlocks.computeIfAbsent(request.blob, name -> new ConcurrentHashMap<>())
+                .put(blockId, request.body);
+        return new BlobResponse(201).header("x-ms-request-server-encrypted", "true")
+                .header("x-ms-encryption-key-sha256", request.header("x-ms-encryption-key-sha256"))
+                .header("x-ms-encryption-scope", request.header("x-ms-encryption-scope"));
+    }
+
+    /**
+     * Put Block List. Latest looks in the staged blocks first and then the committed ones, Uncommitted and Committed
+     * only look in the one they name
+     */
+    private BlobResponse putBlockList(BlobStore.Account account, BlobStore.Container container, BlobRequest request,
+                                      String requestId) {
+        List<String[]> entries = Xml.blockList(new String(request.body, StandardCharsets.UTF_8));
+        Map<String, byte[]> staged = container.uncommittedBlocks.getOrDefault(request.blob, Collections.emptyMap());
+        StoredBlob existing = container.blobs.get(request.blob);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        String[] blockIds = new String[entries.size()];
+        int[] blockSizes = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            String list = entries.get(i)[0];
+            String blockId = entries.get(i)[1];
+            byte[] block = list.equals("Committed") ? null : staged.get(blockId);
+            if (block == null && !list.equals("Uncommitted")) {
+                block = committedBlock(existing, blockId);
+            }
+            if (block == null) {
+                return BlobResponse.error(400, "InvalidBlockList", "The specified block list is invalid.");
+            }
+            content.write(block, 0, block.length);
+            blockIds[i] = blockId;
+            blockSizes[i] = block.length;
+        }
+        String md5 = request.header("x-ms-blob-content-md5");
+        BlobResponse response = commit(account, container, request, requestId, content.toByteArray(), blockIds,
+                blockSizes, md5 == null ? null : Base64.getDecoder().decode(md5), "PutBlockList");
+        if (response.status == 201) {
+            container.uncommittedBlocks.remove(request.blob);
+        }
+        return response;
+    }
+
+    private static byte[] committedBlock(StoredBlob blob, String blockId) {
+        if (blob == null) {
+            return null;
+        }
+        int offset = 0;
+        for (int i = 0; i < blob.blockIds.length; i++) {
+            if (blob.blockIds[i].equals(blockId)) {
+                return Arrays.copyOfRange(blob.content, offset, offset + blob.blockSizes[i]);
+            }
+            offset += blob.blockSizes[i];
+        }
+        return null;
+    }
+
+    /**
+     * Stores a new version of the blob from a Put Blob or Put Block List, taking properties, metadata, tier and
+     * encryption settings from the request headers
+     */
+    private BlobResponse commit(BlobStore.Account account, BlobStore.Container container, BlobRequest request,
+                                String requestId, byte[] content, String[] blockIds, int[] blockSizes, byte[] md5,
+                                String api) {
+        BlobResponse[] failure = new BlobResponse[1];
+        StoredBlob[] stored = new StoredBlob[1];
+        container.blobs.compute(request.blob, (name, existing) -> {
+            failure[0] = checkWriteConditions(request, existing);
+            if (failure[0] != null) {
+                return existing;
+            }
+            StoredBlob.Builder blob = new StoredBlob.Builder();
+            OffsetDateTime now = BlobStore.now();
+            blob.content = content;
+            blob.contentType = request.header("x-ms-blob-content-type") == null
+                    ? StoredBlob.DEFAULT_CONTENT_TYPE : request.header("x-ms-blob-content-type");
+            blob.contentEncoding = request.header("x-ms-blob-content-encoding");
+            blob.contentLanguage = request.header("x-ms-blob-content-language");
+            blob.contentDisposition = request.header("x-ms-blob-content-disposition");
+            blob.cacheControl = request.header("x-ms-blob-cache-control");
+            blob.contentMd5 = md5;
+            blob.metadata.putAll(request.metadata());
+            if (request.header("x-ms-access-tier") != null) {
+                blob.tier = tier(request.header("x-ms-access-tier"));
+                blob.tierInferred = false;
+            }
+            blob.created = existing == null ? now : existing.created;
+            blob.lastModified = now;
+            blob.etag = this.store.nextEtag();
+            blob.encryptionKeySha256 = request.header("x-ms-encryption-key-sha256");
+            blob.encryptionScope = request.header("x-ms-encryption-scope");
+            blob.blockIds = blockIds;
+            blob.blockSizes = blockSizes;
+            stored[0] = blob.build();
+            return stored[0];
+        });
+        if (failure[0] != null) {
+            return failure[0];
+        }
+        changed(account, container, request, requestId, stored[0], "BlobCreated", api);
+        replicate(account, container, request.blob);
+        return new BlobResponse(201)
+                .header("ETag", quote(stored[0].etag))
+                .header("Last-Modified", stored[0].lastModified.format(RFC_1123))
+                .header("x-ms-request-server-encrypted", "true")
+                .header("x-ms-encryption-key-sha256", stored[0].encryptionKeySha256)
+                .header("x-ms-encryption-scope", stored[0].encryptionScope);
+    }
+
+    private BlobResponse getBlob(BlobStore.Container container, BlobRequest request) {
+        StoredBlob blob = container.blobs.get(request.blob);
+        BlobResponse failure = checkReadable(request, blob);
+        if (failure != null) {
+            return failure;
+        }
+        if (blob.isArchived()) {
+            return BlobResponse.error(409, "BlobArchived", "This operation is not permitted on an archived blob.");
+        }
+
+        String range = request.header("x-ms-range") != null ? request.header("x-ms-range") : request.header("Range");
+        int size = blob.content.length;
+        if (range == null) {
+            BlobResponse response = blobHeaders(new BlobResponse(200, blob.content), blob);
+            return blob.contentMd5 == null ? response
+                    : response.header("Content-MD5", Base64.getEncoder().encodeToString(blob.contentMd5));
+        }
+        long[] bounds = parseRange(range);
+        if (bounds == null) {
+            return BlobResponse.error(400, "InvalidHeaderValue", "The range header is not valid: " + range);
+        }
+        if (bounds[0] >= size) {
+            return BlobResponse.error(416, "InvalidRange",
+                    "The range specified is invalid for the current size of the resource.")
+                    .header("Content-Range", "bytes */" + size);
+        }
+        int start = (int) bounds[0];
+        int end = (int) Math.min(bounds[1], size - 1);
+        BlobResponse response = blobHeaders(
+                new BlobResponse(206, Arrays.copyOfRange(blob.content, start, end + 1)), blob)
+                .header("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        return blob.contentMd5 == null ? response
+                : response.header("x-ms-blob-content-md5", Base64.getEncoder().encodeToString(blob.contentMd5));
+    }
+
+    /**
+     * Parses "bytes=start-end" or "bytes=start-" into inclusive bounds
+     */
+    private static long[] parseRange(String range) {
+        if (!range.startsWith("bytes=")) {
+            return null;
+        }
+        String[] bounds = range.substring(6).split("-", -1);
+        if (bounds.length != 2 || bounds[0].isEmpty()) {
+            return null;
+        }
+        try {
+            long start = Long.parseLong(bounds[0]);
+            long end = bounds[1].isEmpty() ? Long.MAX_VALUE : Long.parseLong(bounds[1]);
+            return end < start ? null : new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private BlobResponse blobProperties(BlobStore.Container container, BlobRequest request) {
+        StoredBlob blob = container.blobs.get(request.blob);
+        BlobResponse failure = checkReadable(request, blob);
+        if (failure != null) {
+            return failure;
+        }
+        BlobResponse response = blobHeaders(new BlobResponse(200), blob)
+                .header("Content-Length", Integer.toString(blob.content.length))
+                .header("x-ms-access-tier", blob.tier);
+        if (blob.tierInferred) {
+            response.header("x-ms-access-tier-inferred", "true");
+        }
+        return blob.contentMd5 == null ? response
+                : response.header("Content-MD5", Base64.getEncoder().encodeToString(blob.contentMd5));
+    }
+
+    private static BlobResponse blobHeaders(BlobResponse response, StoredBlob blob) {
+        response.header("Last-Modified", blob.lastModified.format(RFC_1123))
+                .header("ETag", quote(blob.etag))
+                .header("Content-Type", blob.contentType)
+                .header("Content-Encoding", blob.contentEncoding)
+                .header("Content-Language", blob.contentLanguage)
+                .header("Content-Disposition", blob.contentDisposition)
+                .header("Cache-Control", blob.cacheControl)
+                .header("x-ms-blob-type", "BlockBlob")
+                .header("x-ms-creation-time", blob.created.format(RFC_1123))
+                .header("Accept-Ranges", "bytes")
+                .header("x-ms-lease-status", "unlocked")
+                .header("x-ms-lease-state", "available")
+                .header("x-ms-server-encrypted", "true")
+                .header("x-ms-encryption-key-sha256", blob.encryptionKeySha256)
+                .header("x-ms-encryption-scope", blob.encryptionScope);
+        for (Map.Entry<String, String> entry : blob.metadata.entrySet()) {
+            response.header("x-ms-meta-" + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : blob.replicationStatus.entrySet()) {
+            response.header("x-ms-or-" + entry.getKey(), entry.getValue());
+        }
+        return response;
+    }
+
+    private BlobResponse setMetadata(BlobStore.Account account, BlobStore.Container container, BlobRequest request,
+                                     String requestId) {
+        return update(account, container, request, requestId, "BlobPropertiesUpdated", "SetBlobMetadata",
+                (existing, blob) -> {
+                    blob.metadata.clear();
+                    blob.metadata.putAll(request.metadata());
+                    blob.etag = this.store.nextEtag();
+                    blob.lastModified = BlobStore.now();
+                    return null;
+                });
+    }
+
+    /**
+     * Set Blob Properties replaces all content headers, so a header missing from the request clears that property,
+     * as it does on the service
+     */
+    private BlobResponse setProperties(BlobStore.Account account, BlobStore.Container container, BlobRequest request,
+                                       String requestId) {
+        return update(account, container, request, requestId, "BlobPropertiesUpdated", "SetBlobProperties",
+                (existing, blob) -> {
+                    String md5 = request.header("x-ms-blob-content-md5");
+                    blob.contentType = request.header("x-ms-blob-content-type") == null
+                            ? StoredBlob.DEFAULT_CONTENT_TYPE : request.header("x-ms-blob-content-type");
+                    blob.contentEncoding = request.header("x-ms-blob-content-encoding");
+                    blob.contentLanguage = request.header("x-ms-blob-content-language");
+                    blob.contentDisposition = request.header("x-ms-blob-content-disposition");
+                    blob.cacheControl = request.header("x-ms-blob-cache-control");
+                    blob.contentMd5 = md5 == null ? null : Base64.getDecoder().decode(md5);
+                    blob.etag = this.store.nextEtag();
+                    blob.lastModified = BlobStore.now();
+                    return null;
+                });
+    }
+
+    /**
+     * Set Blob Tier. Rehydration from archive completes at once here, though the service takes hours; the 202 it
+     * answers with is kept so clients see the same status
+     */
+    private BlobResponse setTier(BlobStore.Account account, BlobStore.Container container, BlobRequest request,
+                                 String requestId) {
+        String tier = tier(request.header("x-ms-access-tier"));
+        if (tier == null) {
+            return BlobResponse.error(400, "InvalidHeaderValue", "The access tier must be Hot, Cool or Archive.");
+        }
+        boolean[] rehydrating = new boolean[1];
+        BlobResponse response = update(account, container, request, requestId, "BlobTierChanged", "SetBlobTier",
+                (existing, blob) -> {
+                    rehydrating[0] = existing.isArchived() && !tier.equals("Archive");
+                    blob.tier = tier;
+                    blob.tierInferred = false;
+                    return null;
+                });
+        return rehydrating[0] && response.status == 200 ? copyHeaders(response, new BlobResponse(202)) : response;
+    }
+
+    private BlobResponse deleteBlob(BlobStore.Account account, BlobStore.Container container, BlobRequest request,
+                                    String requestId) {
+        BlobResponse[] failure = new BlobResponse[1];
+        StoredBlob[] deleted = new StoredBlob[1];
+        container.blobs.computeIfPresent(request.blob, (name, existing) -> {
+            failure[0] = checkWriteConditions(request, existing);
+            if (failure[0] != null) {
+                return existing;
+            }
+            deleted[0] = existing;
+            return null;
+        });
+        if (failure[0] != null) {
+            return failure[0];
+        }
+        if (deleted[0] == null) {
+            return BlobResponse.error(404, "BlobNotFound", "The specified blob does not exist.");
+        }
+        container.uncommittedBlocks.remove(request.blob);
+        changed(account, container, request, requestId, deleted[0], "BlobDeleted", "DeleteBlob");
+        return new BlobResponse(202);
+    }
+
+    /**
+     * Applies a change to an existing blob under the blob's lock, after checking conditions and the customer-provided
+     * key. The change returns an error response to reject the request, or null to store the blob
+     */
+    private BlobResponse update(BlobStore.Account account, BlobStore.Container container, BlobRequest request,
+                                String requestId, String eventType, String api, BlobChange change) {
+        BlobResponse[] failure = new BlobResponse[1];
+        StoredBlob[] stored = new StoredBlob[1];
+        container.blobs.computeIfPresent(request.blob, (name, existing) -> {
+            failure[0] = checkWriteConditions(request, existing);
+            if (failure[0] == null && !eventType.equals("BlobTierChanged")) {
+                failure[0] = checkCustomerKey(request, existing);
+            }
+            StoredBlob.Builder blob = existing.toBuilder();
+            if (failure[0] == null) {
+                failure[0] = change.apply(existing, blob);
+            }
+            if (failure[0] != null) {
+                return existing;
+            }
+            stored[0] = blob.build();
+            return stored[0];
+        });
+        if (failure[0] != null) {
+            return failure[0];
+        }
+        if (stored[0] == null) {
+            return BlobResponse.error(404, "BlobNotFound", "The specified blob does not exist.");
+        }
+        changed(account, container, request, requestId, stored[0], eventType, api);
+        if (api.equals("SetBlobMetadata")) {
+            replicate(account, container, request.blob);
+        }
+        return new BlobResponse(200)
+                .header("ETag", quote(stored[0].etag))
+                .header("Last-Modified", stored[0].lastModified.format(RFC_1123))
+                .header("x-ms-request-server-encrypted", "true");
+    }
+
+    private interface BlobChange {
+        BlobResponse apply(StoredBlob existing, StoredBlob.Builder blob);
+    }
+
+    private static BlobResponse copyHeaders(BlobResponse from, BlobResponse to) {
+        for (Map.Entry<String, String> header : from.headers.entrySet()) {
+            to.header(header.getKey(), header.getValue());
+        }
+        return to;
+    }
+
+    private static String tier(String tier) {
+        if (tier == null) {
+            return null;
+        }
+        for (String known : new String[] {"Hot", "Cool", "Archive"}) {
+            if (known.equalsIgnoreCase(tier)) {
+                return known;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * If-Match and If-None-Match on a write. If-None-Match: * is how clients ask not to overwrite
+     */
+    private static BlobResponse checkWriteConditions(BlobRequest request, StoredBlob existing) {
+        String ifMatch = request.header("If-Match");
+        String ifNoneMatch = request.header("If-None-Match");
+        if (ifMatch != null && (existing == null || !etagMatches(ifMatch, existing.etag))) {
+            return BlobResponse.error(412, "ConditionNotMet",
+                    "The condition specified using HTTP conditional header(s) is not met.");
+        }
+        if (ifNoneMatch != null && existing != null) {
+            if (ifNoneMatch.trim().equals("*")) {
+                return BlobResponse.error(409, "BlobAlreadyExists", "The specified blob already exists.");
+            }
+            if (etagMatches(ifNoneMatch, existing.etag)) {
+                return BlobResponse.error(412, "ConditionNotMet",
+                        "The condition specified using HTTP conditional header(s) is not met.");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Existence, read conditions and the customer-provided key, for Get Blob and Get Blob Properties
+     */
+    private static BlobResponse checkReadable(BlobRequest request, StoredBlob blob) {
+        if (blob == null) {
+            return BlobResponse.error(404, "BlobNotFound", "The specified blob does not exist.");
+        }
+        String ifMatch = request.header("If-Match");
+        if (ifMatch != null && !etagMatches(ifMatch, blob.etag)) {
+            return BlobResponse.error(412, "ConditionNotMet",
+                    "The condition specified using HTTP conditional header(s) is not met.");
+        }
+        String ifNoneMatch = request.header("If-None-Match");
+        if (ifNoneMatch != null && etagMatches(ifNoneMatch, blob.etag)) {
+            return new BlobResponse(304).header("ETag", quote(blob.etag));
+        }
+        return checkCustomerKey(request, blob);
+    }
+
+    /**
+     * Blobs written with a customer-provided key can only be read with the same key, and other blobs not with one.
+     * Keys are compared by the SHA-256 the client sends; content is not actually encrypted
+     */
+    private static BlobResponse checkCustomerKey(BlobRequest request, StoredBlob blob) {
+        String keySha256 = request.header("x-ms-encryption-key-sha256");
+        if (blob.encryptionKeySha256 == null) {
+            return keySha256 == null ? null : BlobResponse.error(409, "BlobDoesNotUseCustomerSpecifiedEncryption",
+                    "The blob is not encrypted with customer specified encryption.");
+        }
+        if (keySha256 == null) {
+            return BlobResponse.error(409, "BlobUsesCustomerSpecifiedEncryption",
+                    "The blob is encrypted with customer specified encryption, but it was not provided in the "
+                            + "request.");
+        }
+        if (!keySha256.equals(blob.encryptionKeySha256)) {
+            return BlobResponse.error(409, "BlobUsesCustomerSpecifiedEncryption",
+                    "The given customer specified encryption key does not match the key used to encrypt the blob.");
+        }
+        return null;
+    }
+
+    private static boolean etagMatches(String condition, String etag) {
+        for (String candidate : condition.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || unquote(trimmed).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String quote(String etag) {
+        return "\"" + etag + "\"";
+    }
+
+    private static String unquote(String etag) {
+        return etag.startsWith("\"") && etag.endsWith("\"") && etag.length() > 1
+                ? etag.substring(1, etag.length() - 1) : etag;
+    }
+
+    private static byte[] md5(byte[] content) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Blob Batch. Every sub-request is served in order and gets its own status in the multipart response, while the
+     * batch itself succeeds with 202
+     */
+    private BlobResponse batch(BlobRequest request) {
+        String boundary = BlobBatch.boundary(request.header("Content-Type"));
+        if (boundary == null) {
+            return BlobResponse.error(400, "InvalidHeaderValue", "A batch needs a multipart/mixed Content-Type.");
+        }
+        List<BlobBatch.Part> parts = BlobBatch.parse(request.body, boundary);
+        if (parts.isEmpty() || parts.size() > BlobBatch.MAX_REQUESTS) {
+            return BlobResponse.error(400, "InvalidInput", "A batch must have between 1 and "
+                    + BlobBatch.MAX_REQUESTS + " sub-requests.");
+        }
+        List<BlobResponse> responses = new ArrayList<>(parts.size());
+        for (BlobBatch.Part part : parts) {
+            BlobRequest subRequest = part.request;
+            if ("batch".equals(subRequest.query("comp"))) {
+                responses.add(stamp(subRequest, BlobResponse.error(400, "InvalidInput",
+                        "Batches cannot be nested."), UUID.randomUUID().toString()));
+            } else {
+                responses.add(handle(subRequest));
+            }
+        }
+        String responseBoundary = "batchresponse_" + UUID.randomUUID();
+        return new BlobResponse(202, BlobBatch.encode(parts, responses, responseBoundary))
+                .header("Content-Type", "multipart/mixed; boundary=" + responseBoundary);
+    }
+
+    /**
+     * Records a change in the account's change feed
+     */
+    private void changed(BlobStore.Account account, BlobStore.Container container, BlobRequest request,
+                         String requestId, StoredBlob blob, String eventType, String api) {
+        if (this.changeFeed != null && !container.name.equals(ChangeFeedLog.CONTAINER)) {
+            this.changeFeed.record(account.name, container.name, request.blob, eventType, api, blob, requestId,
+                    request.header("x-ms-client-request-id"), blobUrl(account.name, container.name, request.blob));
+        }
+    }
+
+    /**
+     * Schedules the copy of a written blob to the destination of every replication rule for its container
+     */
+    private void replicate(BlobStore.Account account, BlobStore.Container container, String blobName) {
+        for (ReplicationRule rule : this.replicationRules) {
+            if (rule.appliesTo(account.name, container.name)) {
+                this.scheduler.schedule(() -> replicate(rule, blobName), this.replicationDelayMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Copies the source blob as it is now. As on the service, replication fails if the destination blob is archived,
+     * and the source blob's status for the rule shows the outcome
+     */
+    private void replicate(ReplicationRule rule, String blobName) {
+        try {
+            BlobStore.Container source = this.store.account(rule.sourceAccount).containers.get(rule.sourceContainer);
+            StoredBlob original = source == null ? null : source.blobs.get(blobName);
+            if (original == null) {
+                return;
+            }
+            BlobStore.Account destinationAccount = this.store.account(rule.destinationAccount);
+            BlobStore.Container destination = destinationAccount.containers.computeIfAbsent(
+                    rule.destinationContainer,
+                    name -> new BlobStore.Container(name, this.store.nextEtag(), BlobStore.now()));
+            StoredBlob[] replica = new StoredBlob[1];
+            destination.blobs.compute(blobName, (name, existing) -> {
+                if (existing != null && existing.isArchived()) {
+                    return existing;
+                }
+                StoredBlob.Builder copy = original.toBuilder();
+                OffsetDateTime now = BlobStore.now();
+                copy.replicationStatus.clear();
+                copy.tier = "Hot";
+                copy.tierInferred = true;
+                copy.created = existing == null ? now : existing.created;
+                copy.lastModified = now;
+                copy.etag = this.store.nextEtag();
+                replica[0] = copy.build();
+                return replica[0];
+            });
+            if (replica[0] != null && this.changeFeed != null) {
+                this.changeFeed.record(destinationAccount.name, destination.name, blobName, "BlobCreated", "PutBlob",
+                        replica[0], UUID.randomUUID().toString(), null,
+                        blobUrl(destinationAccount.name, destination.name, blobName));
+            }
+            String status = replica[0] != null ? "complete" : "failed";
+            source.blobs.computeIfPresent(blobName, (name, blob) -> {
+                StoredBlob.Builder updated = blob.toBuilder();
+                updated.replicationStatus.put(rule.statusKey(), status);
+                return updated.build();
+            });
+        } catch (RuntimeException e) {
+            logger.error("Replicating {} under policy {} failed", blobName, rule.policyId, e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package localBlobService;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A request against the service, addressed path-style as /account/container/blob the way the storage emulator is. The
+ * same type carries top-level requests and the sub-requests of a batch
+ */
+final class BlobRequest {
+    final String method;
+    final String account;
+    final String container;
+    final String blob;
+    final Map<String, String> query;
+    final Map<String, String> headers;
+    final byte[] body;
+
+    BlobRequest(String method, String rawPath, String rawQuery, Map<String, String> headers, byte[] body) {
+        this.method = method;
+        String path = rawPath.startsWith("/") ? rawPath.substring(1) : rawPath;
+        int accountEnd = path.indexOf('/');
+        this.account = decode(accountEnd < 0 ? path : path.substring(0, accountEnd));
+        String rest = accountEnd < 0 ? "" : path.substring(accountEnd + 1);
+        int containerEnd = rest.indexOf('/');
+        String container = decode(containerEnd < 0 ? rest : rest.substring(0, containerEnd));
+        String blob = containerEnd < 0 ? "" : decode(rest.substring(containerEnd + 1));
+        this.container = container.isEmpty() ? null : container;
+        this.blob = blob.isEmpty() ? null : blob;
+        this.query = parseQuery(rawQuery);
+        TreeMap<String, String> caseInsensitive = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        caseInsensitive.putAll(headers);
+        this.headers = Collections.unmodifiableMap(caseInsensitive);
+        this.body = body;
+    }
+
+    String header(String name) {
+        return this.headers.get(name);
+    }
+
+    String query(String name) {
+        return this.query.get(name);
+    }
+
+    boolean hasQuery(String name, String value) {
+        return value.equals(this.query.get(name));
+    }
+
+    /**
+     * The x-ms-meta-* headers, without their prefix
+     */
+    Map<String, String> metadata() {
+        Map<String, String> metadata = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, String> header : this.headers.entrySet()) {
+            if (header.getKey().regionMatches(true, 0, "x-ms-meta-", 0, 10)) {
+                metadata.put(header.getKey().substring(10), header.getValue());
+            }
+        }
+        return metadata;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0) {
+                query.put(decode(parameter), "");
+            } else {
+                query.put(decode(parameter.substring(0, equals)), decode(parameter.substring(equals + 1)));
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Percent-encodes a blob name for use in a URL, leaving the slashes of virtual directories as they are
+     */
+    static String encodePath(String path) {
+        StringBuilder encoded = new StringBuilder(path.length() + 16);
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || "-._~/".indexOf(c) >= 0) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Percent-decodes a path segment or query value. Unlike URLDecoder, '+' is kept as is, since block IDs are base64
+     * and clients do not always escape them
+     */
+    static String decode(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            if (value.charAt(i) == '%' && i + 2 < value.length()) {
+                bytes.write(Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                i += 3;
+            } else {
+                int codePoint = value.codePointAt(i);
+                byte[] encoded = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+                i += Character.charCount(codePoint);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
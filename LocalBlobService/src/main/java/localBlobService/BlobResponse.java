@@ -0,0 +1,73 @@
+package localBlobService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Status, headers and body of a reply. Errors carry the x-ms-error-code header and XML body the service sends, so
+ * clients raise the same exceptions they would against a storage account
+ */
+final class BlobResponse {
+    final int status;
+    final Map<String, String> headers = new LinkedHashMap<>();
+    final byte[] body;
+
+    BlobResponse(int status, byte[] body) {
+        this.status = status;
+        this.body = body;
+    }
+
+    BlobResponse(int status) {
+        this(status, new byte[0]);
+    }
+
+    BlobResponse header(String name, String value) {
+        if (value != null) {
+            this.headers.put(name, value);
+        }
+        return this;
+    }
+
+    static BlobResponse xml(int status, String xml) {
+        return new BlobResponse(status, xml.getBytes(StandardCharsets.UTF_8))
+                .header("Content-Type", "application/xml");
+    }
+
+    static BlobResponse error(int status, String code, String message) {
+        return xml(status, "<?xml version=\"1.0\" encoding=\"utf-8\"?><Error><Code>" + code + "</Code><Message>"
+                + Xml.escape(message) + "</Message></Error>")
+                .header("x-ms-error-code", code);
+    }
+
+    static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 201:
+                return "Created";
+            case 202:
+                return "Accepted";
+            case 206:
+                return "Partial Content";
+            case 304:
+                return "Not Modified";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 409:
+                return "Conflict";
+            case 412:
+                return "Precondition Failed";
+            case 416:
+                return "Requested Range Not Satisfiable";
+            case 500:
+                return "Internal Server Error";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status " + status;
+        }
+    }
+}
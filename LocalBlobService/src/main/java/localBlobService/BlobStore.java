@@ -0,0 +1,95 @@
+package localBlobService;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * In-memory accounts, containers and blobs. Accounts are created on first use, so any account name in a request path
+ * works. Containers and blobs are kept in sorted maps, since listings are returned in name order
+ */
+final class BlobStore {
+    private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+    // ETags look like the service's, a hex counter that starts from the current time
+    private final AtomicLong etags = new AtomicLong(0x8D800000000000L + System.currentTimeMillis());
+    private final Consumer<Account> onCreate;
+
+    /**
+     * @param onCreate Called once for every new account, before any request can see it
+     */
+    BlobStore(Consumer<Account> onCreate) {
+        this.onCreate = onCreate;
+    }
+
+    Account account(String name) {
+        return this.accounts.computeIfAbsent(name, key -> {
+            Account account = new Account(key);
+            this.onCreate.accept(account);
+            return account;
+        });
+    }
+
+    Iterable<Account> accounts() {
+        return this.accounts.values();
+    }
+
+    String nextEtag() {
+        return "0x" + Long.toHexString(this.etags.incrementAndGet()).toUpperCase();
+    }
+
+    /**
+     * Timestamps have the service's one-second resolution, so Last-Modified round-trips through its header unchanged
+     */
+    static OffsetDateTime now() {
+        return OffsetDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    /**
+     * Stores a blob the service writes itself, such as a change feed file, without raising change feed events for it
+     */
+    void putSystemBlob(Account account, String containerName, String blobName, byte[] content, String contentType) {
+        Container container = account.containers.computeIfAbsent(containerName,
+                name -> new Container(name, nextEtag(), now()));
+        container.blobs.compute(blobName, (name, existing) -> {
+            StoredBlob.Builder blob = new StoredBlob.Builder();
+            OffsetDateTime now = now();
+            blob.content = content;
+            blob.contentType = contentType;
+            blob.created = existing == null ? now : existing.created;
+            blob.lastModified = now;
+            blob.etag = nextEtag();
+            return blob.build();
+        });
+    }
+
+    static final class Account {
+        final String name;
+        final ConcurrentSkipListMap<String, Container> containers = new ConcurrentSkipListMap<>();
+
+        Account(String name) {
+            this.name = name;
+        }
+    }
+
+    static final class Container {
+        final String name;
+        final String etag;
+        final OffsetDateTime lastModified;
+        final Map<String, String> metadata = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final ConcurrentSkipListMap<String, StoredBlob> blobs = new ConcurrentSkipListMap<>();
+        // Staged blocks by blob name, then by block ID, until a block list commits them
+        final ConcurrentHashMap<String, Map<String, byte[]>> uncommittedBlocks = new ConcurrentHashMap<>();
+
+        Container(String name, String etag, OffsetDateTime lastModified) {
+            this.name = name;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package localBlobService;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes every account's change feed into its "$blobchangefeed" container, laid out the way the change feed client
+ * reads it: meta/segments.json, an hourly segment manifest under idx/segments, and Avro chunks under log/00.
+ * <p>
+ * Events are buffered as they are recorded and appended as one Avro block per account on every publish, so, like the
+ * real feed, changes show up after a delay. Chunks only ever grow by whole blocks, which keeps cursors into a chunk
+ * that is still being written valid. A chunk is closed and the next one started once it passes the configured size
+ */
+final class ChangeFeedLog {
+    static final String CONTAINER = "$blobchangefeed";
+
+    private static final byte[] MAGIC = {'O', 'b', 'j', 1};
+    private static final String[] EVENT_TYPES = {"UnspecifiedEventType", "BlobCreated", "BlobDeleted",
+        "BlobPropertiesUpdated", "BlobSnapshotCreated", "Control", "BlobTierChanged"};
+    private static final String[] APIS = {"UnspecifiedApi", "PutBlob", "PutBlockList", "CopyBlob", "DeleteBlob",
+        "SetBlobMetadata", "SetBlobProperties", "SetBlobTier"};
+    private static final String SCHEMA = "{\"type\":\"record\",\"name\":\"BlobChangeEvent\","
+            + "\"namespace\":\"com.microsoft.azure.storage.blob\",\"fields\":["
+            + "{\"name\":\"schemaVersion\",\"type\":\"int\"},"
+            + "{\"name\":\"topic\",\"type\":\"string\"},"
+            + "{\"name\":\"subject\",\"type\":\"string\"},"
+            + "{\"name\":\"eventType\",\"type\":{\"type\":\"enum\",\"name\":\"BlobChangeEventType\",\"symbols\":"
+            + symbols(EVENT_TYPES) + "}},"
+            + "{\"name\":\"eventTime\",\"type\":\"string\"},"
+            + "{\"name\":\"id\",\"type\":\"string\"},"
+            + "{\"name\":\"data\",\"type\":{\"type\":\"record\",\"name\":\"BlobChangeEventData\",\"fields\":["
+            + "{\"name\":\"api\",\"type\":{\"type\":\"enum\",\"name\":\"BlobApiName\",\"symbols\":"
+            + symbols(APIS) + "}},"
+            + "{\"name\":\"clientRequestId\",\"type\":\"string\"},"
+            + "{\"name\":\"requestId\",\"type\":\"string\"},"
+            + "{\"name\":\"etag\",\"type\":\"string\"},"
+            + "{\"name\":\"contentType\",\"type\":\"string\"},"
+            + "{\"name\":\"contentLength\",\"type\":\"long\"},"
+            + "{\"name\":\"blobType\",\"type\":{\"type\":\"enum\",\"name\":\"BlobType\",\"symbols\":"
+            + "[\"BlockBlob\",\"PageBlob\",\"AppendBlob\"]}},"
+            + "{\"name\":\"url\",\"type\":\"string\"},"
+            + "{\"name\":\"sequencer\",\"type\":\"string\"},"
+            + "{\"name\":\"storageDiagnostics\",\"type\":{\"type\":\"map\",\"values\":\"string\"}}]}}]}";
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+    private static final DateTimeFormatter SEGMENT_PATH = DateTimeFormatter.ofPattern("yyyy/MM/dd/HHmm", Locale.US);
+
+    private final BlobStore store;
+    private final int chunkBytes;
+    private final ConcurrentHashMap<String, AccountLog> logs = new ConcurrentHashMap<>();
+
+    /**
+     * @param chunkBytes Size past which a chunk is closed and the next one started
+     */
+    ChangeFeedLog(BlobStore store, int chunkBytes) {
+        this.store = store;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Creates an account's change feed container, so the client finds the feed enabled before the first change
+     */
+    void initialize(BlobStore.Account account) {
+        AccountLog log = new AccountLog(account);
+        this.logs.put(account.name, log);
+        synchronized (log) {
+            writeSegmentsJson(log, BlobStore.now().truncatedTo(ChronoUnit.HOURS));
+        }
+    }
+
+    /**
+     * Buffers an event for the next publish
+     *
+     * @param blob The blob as it is after the change, or as it was before a delete
+     */
+    void record(String account, String container, String blobName, String eventType, String api, StoredBlob blob,
+                String requestId, String clientRequestId, String url) {
+        AccountLog log = this.logs.get(account);
+        if (log == null) {
+            return;
+        }
+        Event event = new Event();
+        event.subject = "/blobServices/default/containers/" + container + "/blobs/" + blobName;
+        event.eventType = eventType;
+        event.api = api;
+        event.id = UUID.randomUUID().toString();
+        event.requestId = requestId;
+        event.clientRequestId = clientRequestId == null ? "" : clientRequestId;
+        event.etag = blob.etag;
+        event.contentType = blob.contentType;
+        event.contentLength = blob.content.length;
+        event.url = url;
+        synchronized (log.pending) {
+            // Requests finish out of order across threads, while segments assume event times only move forward
+            OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+            event.eventTime = log.lastEventTime != null && now.isBefore(log.lastEventTime) ? log.lastEventTime : now;
+            log.lastEventTime = event.eventTime;
+            log.pending.add(event);
+        }
+    }
+
+    /**
+     * Appends the buffered events of every account to its feed
+     */
+    void publish() {
+        for (AccountLog log : this.logs.values()) {
+            List<Event> events;
+            synchronized (log.pending) {
+                if (log.pending.isEmpty()) {
+                    continue;
+                }
+                events = new ArrayList<>(log.pending);
+                log.pending.clear();
+            }
+            synchronized (log) {
+                publish(log, events);
+            }
+        }
+    }
+
+    private void publish(AccountLog log, List<Event> events) {
+        int start = 0;
+        while (start < events.size()) {
+            OffsetDateTime hour = events.get(start).eventTime.truncatedTo(ChronoUnit.HOURS);
+            // Event times never go back, so the events of one hour are next to each other
+            int end = start + 1;
+            while (end < events.size() && events.get(end).eventTime.truncatedTo(ChronoUnit.HOURS).equals(hour)) {
+                end++;
+            }
+            if (!hour.equals(log.segment)) {
+                if (log.segment != null) {
+                    writeManifest(log, "Finalized");
+                }
+                log.segment = hour;
+                log.chunkIndex = 0;
+                startChunk(log);
+            } else if (log.chunk.size() >= this.chunkBytes) {
+                log.chunkIndex++;
+                startChunk(log);
+            }
+            appendBlock(log, events.subList(start, end));
+            this.store.putSystemBlob(log.account, CONTAINER, chunkName(log), log.chunk.toByteArray(),
+                    "avro/binary");
+            writeManifest(log, "Publishing");
+            writeSegmentsJson(log, hour.plusHours(1));
+            start = end;
+        }
+    }
+
+    private void startChunk(AccountLog log) {
+        log.chunk = new ByteArrayOutputStream();
+        log.chunk.write(MAGIC, 0, MAGIC.length);
+        // File metadata is a map of schema and codec
+        writeLong(log.chunk, 2);
+        writeString(log.chunk, "avro.schema");
+        writeString(log.chunk, SCHEMA);
+        writeString(log.chunk, "avro.codec");
+        writeString(log.chunk, "null");
+        writeLong(log.chunk, 0);
+        // The sync marker is derived from the chunk name, so rerunning a test writes identical files
+        log.sync = sync(log.account.name + "/" + chunkName(log));
+        log.chunk.write(log.sync, 0, log.sync.length);
+    }
+
+    private void appendBlock(AccountLog log, List<Event> events) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(events.size() * 512);
+        for (Event event : events) {
+            log.sequence++;
+            writeLong(block, 1);
+            writeString(block, "/subscriptions/00000000-0000-0000-0000-000000000000/resourceGroups/local/providers/"
+                    + "Microsoft.Storage/storageAccounts/" + log.account.name);
+            writeString(block, event.subject);
+            writeLong(block, indexOf(EVENT_TYPES, event.eventType));
+            writeString(block, event.eventTime.toString());
+            writeString(block, event.id);
+            writeLong(block, indexOf(APIS, event.api));
+            writeString(block, event.clientRequestId);
+            writeString(block, event.requestId);
+            writeString(block, event.etag);
+            writeString(block, event.contentType);
+            writeLong(block, event.contentLength);
+            writeLong(block, 0);
+            writeString(block, event.url);
+            writeString(block, String.format("%032x", log.sequence));
+            writeLong(block, 1);
+            writeString(block, "seq");
+            writeString(block, Long.toString(log.sequence));
+            writeLong(block, 0);
+        }
+        writeLong(log.chunk, events.size());
+        writeLong(log.chunk, block.size());
+        log.chunk.write(block.toByteArray(), 0, block.size());
+        log.chunk.write(log.sync, 0, log.sync.length);
+    }
+
+    private void writeManifest(AccountLog log, String status) {
+        String path = log.segment.format(SEGMENT_PATH);
+        String manifest = "{\"version\":0,\"begin\":\"" + log.segment.format(TIMESTAMP) + "\",\"intervalSecs\":3600,"
+                + "\"status\":\"" + status + "\",\"config\":{\"version\":0,\"numShards\":1,\"recordsFormat\":\"avro\","
+                + "\"formatSchemaVersion\":1,\"shardDistFnVersion\":1},"
+                + "\"chunkFilePaths\":[\"" + CONTAINER + "/log/00/" + path + "/\"]}";
+        this.store.putSystemBlob(log.account, CONTAINER, "idx/segments/" + path + "/meta.json",
+                manifest.getBytes(StandardCharsets.UTF_8), "application/json");
+    }
+
+    private void writeSegmentsJson(AccountLog log, OffsetDateTime lastConsumable) {
+        String segments = "{\"version\":0,\"lastConsumable\":\"" + lastConsumable.format(TIMESTAMP) + "\"}";
+        this.store.putSystemBlob(log.account, CONTAINER, "meta/segments.json",
+                segments.getBytes(StandardCharsets.UTF_8), "application/json");
+    }
+
+    private static String chunkName(AccountLog log) {
+        return "log/00/" + log.segment.format(SEGMENT_PATH) + "/" + String.format("%05d", log.chunkIndex) + ".avro";
+    }
+
+    private static byte[] sync(String seed) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(seed.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int indexOf(String[] symbols, String symbol) {
+        for (int i = 0; i < symbols.length; i++) {
+            if (symbols[i].equals(symbol)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static String symbols(String[] symbols) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < symbols.length; i++) {
+            json.append(i == 0 ? "\"" : ",\"").append(symbols[i]).append('"');
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * Avro int and long: zig-zag encoded, then written seven bits at a time
+     */
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        long encoded = (value << 1) ^ (value >> 63);
+        while ((encoded & ~0x7FL) != 0) {
+            out.write((int) ((encoded & 0x7F) | 0x80));
+            encoded >>>= 7;
+        }
+        out.write((int) encoded);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static final class AccountLog {
+        final BlobStore.Account account;
+        final List<Event> pending = new ArrayList<>();
+        OffsetDateTime lastEventTime;
+        OffsetDateTime segment;
+        int chunkIndex;
+        ByteArrayOutputStream chunk;
+        byte[] sync;
+        long sequence;
+
+        AccountLog(BlobStore.Account account) {
+            this.account = account;
+        }
+    }
+
+    private static final class Event {
+        String subject;
+        String eventType;
+        String api;
+        OffsetDateTime eventTime;
+        String id;
+        String requestId;
+        String clientRequestId;
+        String etag;
+        String contentType;
+        long contentLength;
+        String url;
+    }
+}
@@ -0,0 +1,97 @@
+package localBlobService;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides, before a request is served, how long it is delayed and whether it fails. Three kinds of fault can be set
+ * independently:
+ * <ul>
+ * <li>latency, a fixed delay plus a uniformly distributed jitter</li>
+ * <li>throttling, a per-account limit on requests per second above which requests get 503 ServerBusy, as a storage
+ * account does past its scalability targets, plus a rate of 503s regardless of load</li>
+ * <li>failures, a rate of 500 InternalError</li>
+ * </ul>
+ * The random decisions come from one seeded generator, so a single-threaded test sees the same faults on every run
+ */
+public class FaultInjector {
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final double requestsPerSecond;
+    private final double throttleRate;
+    private final double failureRate;
+    private final Random random;
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param requestsPerSecond Sustained requests per second each account accepts, or 0 for no limit. Bursts of up to
+     *     one second's worth are let through
+     */
+    public FaultInjector(long latencyMillis, long latencyJitterMillis, double requestsPerSecond, double throttleRate,
+                         double failureRate, long seed) {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.requestsPerSecond = requestsPerSecond;
+        this.throttleRate = throttleRate;
+        this.failureRate = failureRate;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * A fault injector that lets every request through without delay
+     */
+    public static FaultInjector none() {
+        return new FaultInjector(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Delays the calling thread by the configured latency and returns the fault to answer the request with, or null
+     * to serve it
+     */
+    BlobResponse apply(String account) throws InterruptedException {
+        long delay = this.latencyMillis;
+        if (this.latencyJitterMillis > 0) {
+            delay += (long) (this.random.nextDouble() * this.latencyJitterMillis);
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+
+        if (this.requestsPerSecond > 0 && !this.buckets
+                .computeIfAbsent(account, name -> new TokenBucket(this.requestsPerSecond)).tryAcquire()) {
+            return BlobResponse.error(503, "ServerBusy", "Operations per second is over the account limit.");
+        }
+        if (this.throttleRate > 0 && this.random.nextDouble() < this.throttleRate) {
+            return BlobResponse.error(503, "ServerBusy", "The server is busy.");
+        }
+        if (this.failureRate > 0 && this.random.nextDouble() < this.failureRate) {
+            return BlobResponse.error(500, "InternalError", "The server encountered an internal error. Please retry "
+                    + "the request.");
+        }
+        return null;
+    }
+
+    private static final class TokenBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        TokenBucket(double requestsPerSecond) {
+            this.ratePerNano = requestsPerSecond / 1e9;
+            this.capacity = Math.max(1, requestsPerSecond);
+            this.tokens = this.capacity;
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            this.tokens = Math.min(this.capacity, this.tokens + (now - this.refilled) * this.ratePerNano);
+            this.refilled = now;
+            if (this.tokens < 1) {
+                return false;
+            }
+            this.tokens--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package localBlobService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process stand-in for the parts of the Blob service the samples use, so their throughput can be measured
+ * offline and repeatably. Blobs live in memory and accounts are addressed path-style, as with the storage emulator:
+ * http://127.0.0.1:port/account/container/blob. Any account name works and the account key is not checked, so a
+ * connection string from {@link #getConnectionString(String)} is all a client needs.
+ * <p>
+ * With httpsKeyStore set, the service serves https instead, with the key in that PKCS12 key store, which is created
+ * with a self-signed certificate for the host if it does not exist. The SDK only sends customer-provided keys over
+ * https, so that is what the samples that use them need. Clients have to trust the certificate, for example by passing
+ * the key store as javax.net.ssl.trustStore.
+ * <p>
+ * Besides blob and container operations, the service writes a change feed for every account, replicates blobs between
+ * containers as object replication would, and can delay, throttle and fail requests; see {@link FaultInjector}
+ */
+public class LocalBlobService implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(LocalBlobService.class);
+    // The key is never checked, but clients require one that decodes as base64
+    private static final String ACCOUNT_KEY =
+            Base64.getEncoder().encodeToString("localBlobService".getBytes(StandardCharsets.UTF_8));
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final ChangeFeedLog changeFeed;
+    private final BlobOperations operations;
+    private final FaultInjector faults;
+    private final long changeFeedPublishMillis;
+    private final String host;
+    private final String scheme;
+
+    /**
+     * Binds the service with settings named as in app.config. Requests are not served until {@link #start()}
+     */
+    public LocalBlobService(Properties prop) throws IOException {
+        this.host = prop.getProperty("host", "127.0.0.1");
+        int port = Integer.parseInt(prop.getProperty("port", "10000"));
+        int threads = Integer.parseInt(prop.getProperty("threads", "64"));
+        this.faults = new FaultInjector(
+                Long.parseLong(prop.getProperty("latencyMillis", "0")),
+                Long.parseLong(prop.getProperty("latencyJitterMillis", "0")),
+                Double.parseDouble(prop.getProperty("requestsPerSecond", "0")),
+                Double.parseDouble(prop.getProperty("throttleRate", "0")),
+                Double.parseDouble(prop.getProperty("failureRate", "0")),
+                Long.parseLong(prop.getProperty("faultSeed", "42")));
+        this.changeFeedPublishMillis = Long.parseLong(prop.getProperty("changeFeedPublishMillis", "1000"));
+        List<ReplicationRule> replicationRules = new ArrayList<>();
+        for (String name : prop.stringPropertyNames()) {
+            if (name.startsWith("replication.")) {
+                replicationRules.add(ReplicationRule.parse(prop.getProperty(name)));
+            }
+        }
+
+        String httpsKeyStore = prop.getProperty("httpsKeyStore", "");
+        this.scheme = httpsKeyStore.isEmpty() ? "http" : "https";
+        if (httpsKeyStore.isEmpty()) {
+            this.server = HttpServer.create(new InetSocketAddress(this.host, port), 1024);
+        } else {
+            HttpsServer httpsServer = HttpsServer.create(new InetSocketAddress(this.host, port), 1024);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext(Paths.get(httpsKeyStore),
+                    prop.getProperty("httpsKeyStorePassword", "changeit").toCharArray())));
+            this.server = httpsServer;
+        }
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "local-blob-service-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        boolean changeFeedEnabled = Boolean.parseBoolean(prop.getProperty("changeFeedEnabled", "true"));
+        ChangeFeedLog[] changeFeed = new ChangeFeedLog[1];
+        BlobStore store = new BlobStore(account -> {
+            if (changeFeed[0] != null) {
+                changeFeed[0].initialize(account);
+            }
+        });
+        if (changeFeedEnabled) {
+            changeFeed[0] = new ChangeFeedLog(store,
+                    Integer.parseInt(prop.getProperty("changeFeedChunkMegabytes", "4")) * 1024 * 1024);
+        }
+        this.changeFeed = changeFeed[0];
+        this.operations = new BlobOperations(store, this.changeFeed, replicationRules, this.scheduler,
+                Long.parseLong(prop.getProperty("replicationDelayMillis", "2000")),
+                this.scheme + "://" + this.host + ":" + getPort());
+
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        this.server.start();
+        if (this.changeFeed != null) {
+            this.scheduler.scheduleWithFixedDelay(this::publishChangeFeed, this.changeFeedPublishMillis,
+                    this.changeFeedPublishMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The port the service listens on, which is the one chosen by the system if port 0 was configured
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    public String getEndpoint(String account) {
+        return this.scheme + "://" + this.host + ":" + getPort() + "/" + account;
+    }
+
+    public String getConnectionString(String account) {
+        return "DefaultEndpointsProtocol=" + this.scheme + ";AccountName=" + account + ";AccountKey=" + ACCOUNT_KEY
+                + ";BlobEndpoint=" + getEndpoint(account) + ";";
+    }
+
+    /**
+     * Publishes buffered change feed events right away instead of at the next interval, so a test can read its own
+     * changes without waiting
+     */
+    public void publishChangeFeed() {
+        if (this.changeFeed == null) {
+            return;
+        }
+        try {
+            this.changeFeed.publish();
+        } catch (RuntimeException e) {
+            logger.error("Publishing the change feed failed", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+        this.scheduler.shutdownNow();
+    }
+
+    /**
+     * Loads the key store, creating it first with a self-signed certificate for localhost, 127.0.0.1 and the host
+     */
+    private SSLContext sslContext(Path keyStorePath, char[] password) throws IOException {
+        if (!Files.exists(keyStorePath)) {
+            createKeyStore(keyStorePath, password);
+        }
+        try (InputStream in = Files.newInputStream(keyStorePath)) {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(in, password);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, password);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Loading the key store " + keyStorePath + " failed", e);
+        }
+    }
+
+    /**
+     * Creates the key store with the JDK's keytool, which can sign a certificate, unlike the public JDK API
+     */
+    private void createKeyStore(Path keyStorePath, char[] password) throws IOException {
+        String names = "dns:localhost,ip:127.0.0.1";
+        if (!this.host.equals("localhost") && !this.host.equals("127.0.0.1")) {
+            names += (this.host.matches("[0-9.]+|.*:.*") ? ",ip:" : ",dns:") + this.host;
+        }
+        Process keytool = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "localblobservice", "-keyalg", "RSA", "-keysize", "2048", "-validity", "3650",
+                "-dname", "CN=" + this.host, "-ext", "SAN=" + names, "-storetype", "PKCS12",
+                "-keystore", keyStorePath.toString(), "-storepass", new String(password))
+                .redirectErrorStream(true)
+                .start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try (InputStream in = keytool.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                output.write(buffer, 0, read);
+            }
+        }
+        try {
+            if (keytool.waitFor() != 0) {
+                throw new IOException("Creating the key store " + keyStorePath + " failed: "
+                        + new String(output.toByteArray(), StandardCharsets.UTF_8).trim());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while creating the key store " + keyStorePath);
+        }
+        logger.info("Created the key store {} with a self-signed certificate for {}", keyStorePath, names);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            URI uri = exchange.getRequestURI();
+            Map<String, String> headers = new HashMap<>();
+            for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+                headers.put(header.getKey(), header.getValue().get(0));
+            }
+            BlobRequest request = new BlobRequest(exchange.getRequestMethod(), uri.getRawPath(), uri.getRawQuery(),
+                    headers, readBody(exchange));
+
+            BlobResponse response;
+            BlobResponse fault = this.faults.apply(request.account);
+            if (fault != null) {
+                response = BlobOperations.stamp(request, fault, UUID.randomUUID().toString());
+            } else {
+                response = this.operations.handle(request);
+            }
+            write(exchange, response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("Request {} {} failed", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            write(exchange, BlobResponse.error(500, "InternalError", String.valueOf(e)));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        ByteArrayOutputStream body = new ByteArrayOutputStream(
+                contentLength == null ? 256 : Math.max(0, Integer.parseInt(contentLength)));
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static void write(HttpExchange exchange, BlobResponse response) throws IOException {
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+        }
+        exchange.getResponseHeaders().set("Server", "LocalBlobService");
+        // HEAD responses carry the Content-Length of the blob they describe, which they set themselves
+        if (exchange.getRequestMethod().equals("HEAD") || response.body.length == 0) {
+            exchange.sendResponseHeaders(response.status, -1);
+        } else {
+            exchange.sendResponseHeaders(response.status, response.body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response.body);
+            }
+        }
+    }
+
+    /**
+     * Runs the service with the settings in app.config until the process is stopped
+     */
+    public static void main(String[] args) throws IOException {
+        Path currentPath = Paths.get(System.getProperty("user.dir"));
+        Path pathToDir = Paths.get(currentPath.toString(), "src", "main", "java");
+        String pathToConfig = Paths.get(pathToDir.toString(), "app.config").toString();
+
+        InputStream input = new FileInputStream(pathToConfig);
+        Properties prop = new Properties();
+        prop.load(input);
+
+        LocalBlobService service = new LocalBlobService(prop);
+        Runtime.getRuntime().addShutdownHook(new Thread(service::close));
+        service.start();
+        logger.info("Local blob service listening on port {}", service.getPort());
+        for (String account : prop.getProperty("accounts", "devstoreaccount1").split(",")) {
+            logger.info("Connection string for {}: {}", account.trim(), service.getConnectionString(account.trim()));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package localBlobService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * An object replication rule from a container in one account to a container in another. Policy and rule IDs are
+ * derived from the rule itself, so they stay the same across runs
+ */
+final class ReplicationRule {
+    final String sourceAccount;
+    final String sourceContainer;
+    final String destinationAccount;
+    final String destinationContainer;
+    final String policyId;
+    final String ruleId;
+
+    private ReplicationRule(String sourceAccount, String sourceContainer, String destinationAccount,
+                            String destinationContainer, String spec) {
+        this.sourceAccount = sourceAccount;
+        this.sourceContainer = sourceContainer;
+        this.destinationAccount = destinationAccount;
+        this.destinationContainer = destinationContainer;
+        this.policyId = UUID.nameUUIDFromBytes(("policy:" + spec).getBytes(StandardCharsets.UTF_8)).toString();
+        this.ruleId = UUID.nameUUIDFromBytes(("rule:" + spec).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Parses "sourceAccount/sourceContainer -> destinationAccount/destinationContainer"
+     */
+    static ReplicationRule parse(String spec) {
+        String[] sides = spec.split("->");
+        if (sides.length != 2) {
+            throw new IllegalArgumentException("Replication rule must look like 'account/container -> "
+                    + "account/container': " + spec);
+        }
+        String[] source = sides[0].trim().split("/");
+        String[] destination = sides[1].trim().split("/");
+        if (source.length != 2 || destination.length != 2) {
+            throw new IllegalArgumentException("Replication rule must look like 'account/container -> "
+                    + "account/container': " + spec);
+        }
+        return new ReplicationRule(source[0], source[1], destination[0], destination[1], spec.trim());
+    }
+
+    boolean appliesTo(String account, String container) {
+        return this.sourceAccount.equals(account) && this.sourceContainer.equals(container);
+    }
+
+    /**
+     * Key of the rule's status on a source blob, as it appears after the "x-ms-or-" header prefix
+     */
+    String statusKey() {
+        return this.policyId + "_" + this.ruleId;
+    }
+}
@@ -0,0 +1,113 @@
+package localBlobService;
+
+import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One version of a block blob. Instances are never changed once stored; every write stores a new one, so readers can
+ * stream content without holding a lock
+ */
+final class StoredBlob {
+    static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    final byte[] content;
+    final String contentType;
+    final String contentEncoding;
+    final String contentLanguage;
+    final String contentDisposition;
+    final String cacheControl;
+    final byte[] contentMd5;
+    final Map<String, String> metadata;
+    final String tier;
+    final boolean tierInferred;
+    final OffsetDateTime created;
+    final OffsetDateTime lastModified;
+    final String etag;
+    final String encryptionKeySha256;
+    final String encryptionScope;
+    // IDs and sizes of the committed blocks, in order, so a later block list can refer to them
+    final String[] blockIds;
+    final int[] blockSizes;
+    // Object replication status by "policyId_ruleId", set on blobs in a replicated source container
+    final Map<String, String> replicationStatus;
+
+    private StoredBlob(Builder builder) {
+        this.content = builder.content;
+        this.contentType = builder.contentType;
+        this.contentEncoding = builder.contentEncoding;
+        this.contentLanguage = builder.contentLanguage;
+        this.contentDisposition = builder.contentDisposition;
+        this.cacheControl = builder.cacheControl;
+        this.contentMd5 = builder.contentMd5;
+        this.metadata = Collections.unmodifiableMap(builder.metadata);
+        this.tier = builder.tier;
+        this.tierInferred = builder.tierInferred;
+        this.created = builder.created;
+        this.lastModified = builder.lastModified;
+        this.etag = builder.etag;
+        this.encryptionKeySha256 = builder.encryptionKeySha256;
+        this.encryptionScope = builder.encryptionScope;
+        this.blockIds = builder.blockIds;
+        this.blockSizes = builder.blockSizes;
+        this.replicationStatus = Collections.unmodifiableMap(builder.replicationStatus);
+    }
+
+    boolean isArchived() {
+        return "Archive".equals(this.tier);
+    }
+
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    static final class Builder {
+        byte[] content = new byte[0];
+        String contentType = DEFAULT_CONTENT_TYPE;
+        String contentEncoding;
+        String contentLanguage;
+        String contentDisposition;
+        String cacheControl;
+        byte[] contentMd5;
+        Map<String, String> metadata = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String tier = "Hot";
+        boolean tierInferred = true;
+        OffsetDateTime created;
+        OffsetDateTime lastModified;
+        String etag;
+        String encryptionKeySha256;
+        String encryptionScope;
+        String[] blockIds = new String[0];
+        int[] blockSizes = new int[0];
+        Map<String, String> replicationStatus = new TreeMap<>();
+
+        Builder() {
+        }
+
+        private Builder(StoredBlob blob) {
+            this.content = blob.content;
+            this.contentType = blob.contentType;
+            this.contentEncoding = blob.contentEncoding;
+            this.contentLanguage = blob.contentLanguage;
+            this.contentDisposition = blob.contentDisposition;
+            this.cacheControl = blob.cacheControl;
+            this.contentMd5 = blob.contentMd5;
+            this.metadata.putAll(blob.metadata);
+            this.tier = blob.tier;
+            this.tierInferred = blob.tierInferred;
+            this.created = blob.created;
+            this.lastModified = blob.lastModified;
+            this.etag = blob.etag;
+            this.encryptionKeySha256 = blob.encryptionKeySha256;
+            this.encryptionScope = blob.encryptionScope;
+            this.blockIds = blob.blockIds;
+            this.blockSizes = blob.blockSizes;
+            this.replicationStatus.putAll(blob.replicationStatus);
+        }
+
+        StoredBlob build() {
+            return new StoredBlob(this);
+        }
+    }
+}
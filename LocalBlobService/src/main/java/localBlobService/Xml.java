@@ -0,0 +1,80 @@
+package localBlobService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The little XML the service reads and writes. Listings are written with a StringBuilder, and the only body that is
+ * read is a block list, which has a flat structure
+ */
+final class Xml {
+    private static final Pattern BLOCK = Pattern.compile("<(Latest|Committed|Uncommitted)>([^<]*)</\\1>");
+
+    private Xml() {
+    }
+
+    static String escape(String text) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                default:
+                    replacement = null;
+            }
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(text.length() + 16).append(text, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped == null ? text : escaped.toString();
+    }
+
+    static String unescape(String text) {
+        if (text.indexOf('&') < 0) {
+            return text;
+        }
+        return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'")
+                .replace("&amp;", "&");
+    }
+
+    static StringBuilder element(StringBuilder xml, String name, Object value) {
+        xml.append('<').append(name).append('>');
+        if (value != null) {
+            xml.append(escape(value.toString()));
+        }
+        return xml.append("</").append(name).append('>');
+    }
+
+    /**
+     * Entries of a Put Block List body, in order, each as the list it names and the block ID
+     */
+    static List<String[]> blockList(String body) {
+        List<String[]> blocks = new ArrayList<>();
+        Matcher matcher = BLOCK.matcher(body);
+        while (matcher.find()) {
+            blocks.add(new String[] {matcher.group(1), unescape(matcher.group(2).trim())});
+        }
+        return blocks;
+    }
+}